@@ -44,10 +44,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.Callable;
 
 import javax.vecmath.Point3f;
 import javax.vecmath.Tuple3f;
@@ -56,10 +54,10 @@ import javax.vecmath.Vector3f;
 import org.apache.log4j.Logger;
 
 import processing.core.PGraphics;
-import org.knowrob.utils.ThreadPool;
 import org.knowrob.vis.model.util.BSphere;
 import org.knowrob.vis.model.util.DrawSettings;
 import org.knowrob.vis.model.util.Group;
+import org.knowrob.vis.model.util.HalfEdgeMesh;
 import org.knowrob.vis.model.util.Line;
 import org.knowrob.vis.model.util.Region;
 import org.knowrob.vis.model.util.Triangle;
@@ -557,59 +555,55 @@ public class Model {
 	 * Searches for triangles which have exactly the same coordinate points and removes one of them
 	 * to avoid two triangles drawn on exactly the same position. Used for mesh reasoning.
 	 * 
+	 * The triangles are hashed by the set of their exact vertex coordinates, so all duplicates are
+	 * found in one pass over the triangles. As before, a triangle is removed if all the vertices of
+	 * an earlier (not removed) triangle are among its vertices, and the first one is kept.
+	 * 
 	 * @return Number of removed triangles
 	 */
 	public int removeDoubleSidedTriangles() {
 		final Set<Triangle> toRemove = new HashSet<Triangle>();
 
-		final int interval = 1000;
-		List<Callable<Void>> threads = new LinkedList<Callable<Void>>();
-		for (int start = 0; start < triangles.size(); start += interval) {
-			final int st = start;
-			threads.add(new Callable<Void>() {
-
-				@Override
-				public Void call() throws Exception {
-					int end = Math.min(st + interval, triangles.size());
-					for (int i = st; i < end; i++) {
-						Triangle t1 = triangles.get(i);
-						if (toRemove.contains(t1))
-							continue;
-						for (int j = i + 1; j < triangles.size(); j++) {
-							Triangle t2 = triangles.get(j);
-
-							if (toRemove.contains(t2))
-								continue;
-							int eqCnt = 0;
-							for (int k = 0; k < 3; k++) {
-								Point3f p1 = t1.getPosition()[k];
-								for (Point3f p2 : t2.getPosition()) {
-									if (p1.x == p2.x && p1.y == p2.y && p1.z == p2.z) {
-										eqCnt++;
-										break;
-									}
-								}
-								if (eqCnt != k + 1) {
-									// break if not enough vertices are equal
-									break;
-								}
-							}
-							if (eqCnt == 3) {
-								// triangles are the same, so remove j
+		// vertex coordinate sets of the kept triangles
+		final Set<CoordinatesKey> kept = new HashSet<CoordinatesKey>(triangles.size() * 2);
+		// degenerated triangles (less than 3 distinct vertices) also match the triangles containing
+		// their vertices, the subsets only have to be checked once one of them was kept
+		boolean keptDegenerated = false;
 
-								synchronized (toRemove) {
-									toRemove.add(t2);
-								}
-							}
-						}
-					}
-					return null;
+		final int[] points = new int[9];
+		for (Triangle t : triangles) {
+			// distinct coordinates of the vertices, sorted
+			int nrPoints = 0;
+			boolean hasNaN = false;
+			for (Point3f p : t.getPosition()) {
+				if (Float.isNaN(p.x) || Float.isNaN(p.y) || Float.isNaN(p.z)) {
+					// not equal to any other point
+					hasNaN = true;
+					continue;
 				}
+				// adding 0 turns -0 into 0 (equal using ==)
+				nrPoints = insertPoint(points, nrPoints, Float.floatToIntBits(p.x + 0f),
+						Float.floatToIntBits(p.y + 0f), Float.floatToIntBits(p.z + 0f));
+			}
+
+			boolean duplicate = false;
+			if (keptDegenerated) {
+				for (int mask = 1; mask < (1 << nrPoints) && !duplicate; mask++) {
+					duplicate = kept.contains(new CoordinatesKey(points, nrPoints, mask));
+				}
+			} else if (nrPoints == 3) {
+				duplicate = kept.contains(new CoordinatesKey(points, nrPoints, 7));
+			}
 
-			});
-		};
+			if (duplicate) {
+				toRemove.add(t);
+			} else if (!hasNaN) {
+				// a set with a NaN point is not contained in any other triangle
+				kept.add(new CoordinatesKey(points, nrPoints, (1 << nrPoints) - 1));
+				keptDegenerated |= nrPoints < 3;
+			}
+		}
 
-		ThreadPool.executeInPool(threads);
 		if (toRemove.size() > 0) {
 			this.group.removeTriangle(toRemove);
 			reloadVertexList();
@@ -617,6 +611,71 @@ public class Model {
 		return toRemove.size();
 	}
 
+	/**
+	 * Inserts the point coordinates (x y z, 3 values per point) into the sorted points array,
+	 * if they are not already in it
+	 *
+	 * @param points
+	 *            sorted coordinates of the points
+	 * @param nrPoints
+	 *            number of points in the array
+	 * @return the new number of points
+	 */
+	private static int insertPoint(int[] points, int nrPoints, int x, int y, int z) {
+		int pos = nrPoints;
+		for (int i = 0; i < nrPoints; i++) {
+			int cmp = (x != points[i * 3]) ? Integer.compare(x, points[i * 3])
+					: (y != points[i * 3 + 1]) ? Integer.compare(y, points[i * 3 + 1])
+					: Integer.compare(z, points[i * 3 + 2]);
+			if (cmp == 0)
+				return nrPoints;
+			if (cmp < 0) {
+				pos = i;
+				break;
+			}
+		}
+		System.arraycopy(points, pos * 3, points, pos * 3 + 3, (nrPoints - pos) * 3);
+		points[pos * 3] = x;
+		points[pos * 3 + 1] = y;
+		points[pos * 3 + 2] = z;
+		return nrPoints + 1;
+	}
+
+	/**
+	 * Hash key of a sorted set of exact point coordinates, used by
+	 * {@link #removeDoubleSidedTriangles()}
+	 */
+	private static final class CoordinatesKey {
+		private final int[]	coordinates;
+		private final int	hash;
+
+		/**
+		 * Creates the key of the points selected by the bit mask
+		 */
+		CoordinatesKey(int[] points, int nrPoints, int mask) {
+			coordinates = new int[Integer.bitCount(mask) * 3];
+			int n = 0;
+			for (int i = 0; i < nrPoints; i++) {
+				if ((mask & (1 << i)) != 0) {
+					System.arraycopy(points, i * 3, coordinates, n, 3);
+					n += 3;
+				}
+			}
+			hash = Arrays.hashCode(coordinates);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof CoordinatesKey)
+					&& Arrays.equals(coordinates, ((CoordinatesKey) obj).coordinates);
+		}
+	}
+
 	/**
 	 * Rebuilds the main triangles and vertices list by iterating over all child groups and
 	 * collecting all triangles and vertices found.
@@ -656,6 +715,25 @@ public class Model {
 		reloadVertexList();
 	}
 
+	/**
+	 * Links the direct neighbors (triangles sharing exactly one edge) of all the triangles of the
+	 * model using a half-edge structure of the triangles. The edges are hashed by their welded
+	 * vertices, so this takes linear time and needs no locking, unlike testing all the triangle
+	 * pairs with {@link Triangle#addNeighbor(Triangle, java.util.concurrent.locks.Lock)}. Partial
+	 * edge overlays (T-junctions) are not linked.
+	 * 
+	 * @return the half-edge structure, which can be reused by
+	 *         {@link Region#buildUpRegion(HalfEdgeMesh)}
+	 */
+	public HalfEdgeMesh updateTriangleNeighbors() {
+		HalfEdgeMesh mesh;
+		synchronized (triangles) {
+			mesh = new HalfEdgeMesh(triangles);
+		}
+		mesh.linkNeighbors();
+		return mesh;
+	}
+
 	/**
 	 * Checks for the given two triangles if their vertices should be shared or not. The decision is
 	 * made according to the dihedral angle between the two triangles.
@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2014 Andrei Stoica
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Contributors: Stefan Profanter - initial API and implementation, Year: 2013
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Technische Universiteit Eindhoven nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.knowrob.vis.model.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Half-edge structure of a triangle mesh, used for building the neighboring relations among the
+ * triangles in linear time instead of testing all triangle pairs with
+ * {@link Triangle#isDirectNeighbor(Triangle, boolean)}.
+ * 
+ * The vertices are first welded: vertices closer than
+ * {@link org.knowrob.vis.model.util.Thresholds#DISTANCE_TOLERANCE} get the same id. Each triangle
+ * has three half-edges with the same indexing as {@link Triangle#updateEdges()}: half-edge
+ * <tt>3 * t + j</tt> corresponds to the edge <tt>j</tt> of triangle <tt>t</tt> and is opposite to
+ * its vertex <tt>j</tt>. The half-edges are hashed by their (unordered) vertex id pairs, the
+ * half-edges with the same pair form a ring, a ring of two half-edges is a manifold edge and the
+ * two half-edges are twins.
+ * 
+ * Two triangles are neighbors if they share exactly one edge, as for the exact neighbor detection.
+ * Partial overlays of edges (T-junctions) are not detected, since they do not share the vertices.
+ */
+public class HalfEdgeMesh {
+
+	/**
+	 * The triangles of the mesh, triangle <tt>t</tt> has the half-edges <tt>3 * t</tt> to
+	 * <tt>3 * t + 2</tt>
+	 */
+	private final List<Triangle>			triangles;
+
+	/**
+	 * Index of the triangles in the triangles list
+	 */
+	private final Map<Triangle, Integer>	triangleIndex;
+
+	/**
+	 * Representative vertex of each welded vertex id
+	 */
+	private final List<Vertex>				vertices		= new ArrayList<Vertex>();
+
+	/**
+	 * Welded vertex id of the origin of each half-edge
+	 */
+	private final int[]						origin;
+
+	/**
+	 * Next half-edge with the same vertex id pair (circular, a half-edge alone points to itself)
+	 */
+	private final int[]						ring;
+
+	/**
+	 * Creates the half-edge structure of the triangles
+	 * 
+	 * @param triangles
+	 *            triangles of the mesh
+	 */
+	public HalfEdgeMesh(final List<Triangle> triangles) {
+		this.triangles = new ArrayList<Triangle>(triangles);
+		this.triangleIndex = new IdentityHashMap<Triangle, Integer>(triangles.size() * 2);
+		this.origin = new int[this.triangles.size() * 3];
+		this.ring = new int[this.triangles.size() * 3];
+
+		weldVertices();
+
+		// hash the half-edges by their vertex id pairs and link the rings
+		final Map<Long, Integer> edgeMap = new HashMap<Long, Integer>(origin.length * 2);
+		for (int h = 0; h < origin.length; ++h) {
+			ring[h] = h;
+			final int a = origin[h];
+			final int b = getTarget(h);
+			if (a == b) {
+				// zero-length edge, no neighbors
+				continue;
+			}
+			final Long key = (Math.min(a, b) & 0xFFFFFFFFL) << 32 | (Math.max(a, b) & 0xFFFFFFFFL);
+			final Integer first = edgeMap.get(key);
+			if (first == null) {
+				edgeMap.put(key, h);
+			} else {
+				ring[h] = ring[first];
+				ring[first] = h;
+			}
+		}
+	}
+
+	/**
+	 * Assigns the welded vertex ids to the corners of the triangles. The vertices are hashed in a
+	 * grid with cells of the size of the distance tolerance, so only the vertices in the
+	 * neighboring cells are compared.
+	 */
+	private void weldVertices() {
+		final float cellSize = Thresholds.DISTANCE_TOLERANCE;
+		final Map<Vertex, Integer> ids = new IdentityHashMap<Vertex, Integer>();
+		final Map<Long, List<Integer>> grid = new HashMap<Long, List<Integer>>();
+		for (int t = 0; t < triangles.size(); ++t) {
+			final Triangle tr = triangles.get(t);
+			triangleIndex.put(tr, t);
+			final Vertex[] position = tr.getPosition();
+			for (int j = 0; j < 3; ++j) {
+				final Vertex v = position[(j + 2) % 3];
+				Integer id = ids.get(v);
+				if (id == null) {
+					final long cx = (long) Math.floor(v.x / cellSize);
+					final long cy = (long) Math.floor(v.y / cellSize);
+					final long cz = (long) Math.floor(v.z / cellSize);
+					// search the vertices of the neighboring cells
+					for (long dx = -1; dx <= 1 && id == null; ++dx) {
+						for (long dy = -1; dy <= 1 && id == null; ++dy) {
+							for (long dz = -1; dz <= 1 && id == null; ++dz) {
+								final List<Integer> cell = grid.get(cellKey(cx + dx, cy + dy, cz + dz));
+								if (cell == null) {
+									continue;
+								}
+								for (Integer candidate : cell) {
+									if (vertices.get(candidate).sameCoordinates(v)) {
+										id = candidate;
+										break;
+									}
+								}
+							}
+						}
+					}
+					if (id == null) {
+						// new welded vertex
+						id = vertices.size();
+						vertices.add(v);
+						final Long key = cellKey(cx, cy, cz);
+						List<Integer> cell = grid.get(key);
+						if (cell == null) {
+							cell = new ArrayList<Integer>(1);
+							grid.put(key, cell);
+						}
+						cell.add(id);
+					}
+					ids.put(v, id);
+				}
+				origin[3 * t + j] = id;
+			}
+		}
+	}
+
+	/**
+	 * Hash key of a grid cell, different cells may share a key since the candidates are compared
+	 * anyway
+	 */
+	private static Long cellKey(long cx, long cy, long cz) {
+		return (cx * 73856093L) ^ (cy * 19349663L) ^ (cz * 83492791L);
+	}
+
+	/**
+	 * Links all the triangles of the mesh with their neighbors (triangles sharing exactly one edge)
+	 * in the neighbors lists of the triangles.
+	 * 
+	 * @return number of linked triangle pairs
+	 */
+	public int linkNeighbors() {
+		int links = 0;
+		for (int h = 0; h < origin.length; ++h) {
+			final Triangle tr = getTriangle(h);
+			for (int n = ring[h]; n != h; n = ring[n]) {
+				// link each pair once, from the half-edge with the lower index
+				if (n > h && isNeighbor(h / 3, n / 3)) {
+					final Triangle neighbor = getTriangle(n);
+					tr.neighbors.add(neighbor);
+					neighbor.neighbors.add(tr);
+					links++;
+				}
+			}
+		}
+		return links;
+	}
+
+	/**
+	 * Checks if the two triangles share exactly one edge
+	 */
+	private boolean isNeighbor(final int t1, final int t2) {
+		if (t1 == t2) {
+			return false;
+		}
+		int shared = 0;
+		for (int j = 0; j < 3; ++j) {
+			final int h = 3 * t1 + j;
+			for (int n = ring[h]; n != h; n = ring[n]) {
+				if (n / 3 == t2) {
+					shared++;
+					break;
+				}
+			}
+		}
+		return shared == 1;
+	}
+
+	/**
+	 * Gets the half-edges of the neighboring triangles sharing the given half-edge
+	 * 
+	 * @param h
+	 *            half-edge
+	 * @return half-edges of the neighbors on the same edge, empty if the edge is on the boundary
+	 */
+	public List<Integer> getEdgeNeighbors(final int h) {
+		final List<Integer> neighbors = new ArrayList<Integer>(1);
+		for (int n = ring[h]; n != h; n = ring[n]) {
+			if (isNeighbor(h / 3, n / 3)) {
+				neighbors.add(n);
+			}
+		}
+		return neighbors;
+	}
+
+	/**
+	 * Gets the neighboring triangles sharing the edge <tt>j</tt> of the triangle
+	 * 
+	 * @param tr
+	 *            triangle of the mesh
+	 * @param j
+	 *            edge index, as in {@link Triangle#getEdges()}
+	 * @return neighbors on the edge
+	 */
+	public List<Triangle> getNeighborsOfEdge(final Triangle tr, final int j) {
+		final List<Triangle> neighbors = new ArrayList<Triangle>(1);
+		for (Integer n : getEdgeNeighbors(getHalfEdge(tr, j))) {
+			neighbors.add(getTriangle(n));
+		}
+		return neighbors;
+	}
+
+	/**
+	 * Gets the half-edge of the edge <tt>j</tt> of the triangle
+	 * 
+	 * @param tr
+	 *            triangle of the mesh
+	 * @param j
+	 *            edge index, as in {@link Triangle#getEdges()}
+	 * @return half-edge index or -1 if the triangle is not in the mesh
+	 */
+	public int getHalfEdge(final Triangle tr, final int j) {
+		final Integer t = triangleIndex.get(tr);
+		return (t == null) ? -1 : 3 * t + j;
+	}
+
+	/**
+	 * Gets the triangle of the half-edge
+	 */
+	public Triangle getTriangle(final int h) {
+		return triangles.get(h / 3);
+	}
+
+	/**
+	 * Gets the edge of the triangle corresponding to the half-edge, as in
+	 * {@link Triangle#getEdges()}
+	 */
+	public Edge getEdge(final int h) {
+		return getTriangle(h).getEdges()[h % 3];
+	}
+
+	/**
+	 * Gets the welded vertex id of the origin of the half-edge
+	 */
+	public int getOrigin(final int h) {
+		return origin[h];
+	}
+
+	/**
+	 * Gets the welded vertex id of the target of the half-edge
+	 */
+	public int getTarget(final int h) {
+		return origin[getNext(h)];
+	}
+
+	/**
+	 * Gets the next half-edge in the same triangle
+	 */
+	public int getNext(final int h) {
+		return 3 * (h / 3) + (h % 3 + 2) % 3;
+	}
+
+	/**
+	 * Gets the twin half-edge (the same edge in the other triangle, in opposite direction if the
+	 * triangles are consistently oriented), or -1 if the edge is on the boundary or is shared by
+	 * more than two triangles
+	 */
+	public int getTwin(final int h) {
+		final int n = ring[h];
+		return (n != h && ring[n] == h) ? n : -1;
+	}
+
+	/**
+	 * Gets the vertex of the triangle opposite to the half-edge
+	 */
+	public Vertex getOppositeVertex(final int h) {
+		return getTriangle(h).getPosition()[h % 3];
+	}
+
+	/**
+	 * Gets the representative vertex of the welded vertex id
+	 */
+	public Vertex getVertex(final int id) {
+		return vertices.get(id);
+	}
+
+	/**
+	 * Gets the number of welded vertices
+	 */
+	public int getNumberOfVertices() {
+		return vertices.size();
+	}
+
+	/**
+	 * Gets the number of half-edges (3 per triangle)
+	 */
+	public int getNumberOfHalfEdges() {
+		return origin.length;
+	}
+}
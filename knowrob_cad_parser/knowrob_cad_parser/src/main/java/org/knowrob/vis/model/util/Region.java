@@ -593,6 +593,52 @@ public class Region {
 		}
 	}
 
+	/**
+	 * Builds the region like {@link #buildUpRegion()}, but the neighbors of the triangle edges are
+	 * looked up in the half-edge structure of the mesh instead of comparing the edges of the
+	 * neighboring triangles geometrically. As in {@link #buildUpRegion()}, a neighbor is not added
+	 * if the current edge is sharp, or if its own matching edge is sharp (sharpness is set per
+	 * triangle and can differ between the two sides, see
+	 * {@link Triangle#getOppositeVertexFromEdge(Edge)}). Unlike {@link #buildUpRegion()},
+	 * neighbors which only partially overlay the edge (T-junctions) are not visited, since they
+	 * do not share the vertices of the edge.
+	 * 
+	 * @param mesh
+	 *            half-edge structure of the triangles of the model, see
+	 *            {@link org.knowrob.vis.model.Model#updateTriangleNeighbors()}
+	 */
+	public void buildUpRegion(final HalfEdgeMesh mesh) {
+		for (int i = 0; i < triangles.size(); ++i) {
+			Triangle tr = triangles.get(i);
+			Edge[] edges = tr.getEdges();
+			for (int j = 0; j < edges.length; ++j) {
+				final int h = mesh.getHalfEdge(tr, j);
+				if (edges[j].isSharpEdge() || h < 0) {
+					continue;
+				}
+				for (Integer n : mesh.getEdgeNeighbors(h)) {
+					Triangle neighbor = mesh.getTriangle(n);
+					if (neighbor.getRegionLabel() != -1) {
+						// if already classified, then skip it
+						continue;
+					}
+					if (mesh.getEdge(n).isSharpEdge()) {
+						// bounded by a sharp edge of the neighbor, getOppositeVertexFromEdge()
+						// returns null for it in buildUpRegion()
+						continue;
+					}
+					Vertex oppositeVertex = mesh.getOppositeVertex(n);
+					if ((oppositeVertex.isSharpVertex())
+							|| ((oppositeVertex.getClusterCurvatureVal()[0] == curvatureMinMax[0])
+									&& (oppositeVertex.getClusterCurvatureVal()[1] == curvatureMinMax[1]) && (oppositeVertex
+									.getClusterCurvatureVal()[2] == curvatureMinMax[2]))) {
+						this.addTriangleToRegion(neighbor);
+					}
+				}
+			}
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see java.lang.Object#toString()
@@ -129,6 +129,9 @@ public class EpisodicMemoryToADT
 	protected String output_path;
 	protected String experiment_name;
 
+	// sim games query object, shared by all action chunks
+	protected MongoSimGames mongosimgames;
+
 	public EpisodicMemoryToADT(String owl_path, String log_path, String dictionary_path, String output_path, String adt_prefix, String adt_example_prefix, String experiment_name)
 	{
 		xStream = new XStream();
@@ -848,9 +851,13 @@ public class EpisodicMemoryToADT
 	{
 		if(start < end)
 		{
-			MongoSimGames mongosimgames = new MongoSimGames();
-			mongosimgames.SetDatabase(experiment_name);
-			mongosimgames.SetCollection(experiment_name + "_raw");
+			// create the query object only once (the DB client is pooled)
+			if(mongosimgames == null)
+			{
+				mongosimgames = new MongoSimGames();
+				mongosimgames.SetDatabase(experiment_name);
+				mongosimgames.SetCollection(experiment_name + "_raw");
+			}
 
 			ArrayList<Vector3d> trajPoints =  mongosimgames.ViewModelTrajectory((double) start, (double) end, model, null);
 
@@ -0,0 +1,351 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+
+package org.knowrob.knowrob_robcog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interval tree over the events (start / end time, types, participants) of an episode,
+ * built once and queried from Prolog through JPL. The events are sorted on their
+ * start time and kept as an implicit balanced tree (the middle of every range is
+ * the node) augmented with the max end time of each subtree, so stabbing and
+ * overlap queries cost O(log n + k). The type and participant filters are
+ * optional (null or empty string = any), an event matches the type filter if
+ * any of its types is the given one.
+ */
+public class EventTimeline {
+
+	// Allen relations of an event to a reference interval
+	public static final String[] ALLEN_RELATIONS = {
+		"before", "after", "meets", "met_by", "overlaps", "overlapped_by",
+		"starts", "started_by", "during", "contains", "finishes", "finished_by", "equals"};
+
+	// the added events
+	private final List<String> ids = new ArrayList<String>();
+	private final List<String[]> types = new ArrayList<String[]>();
+	private final List<String[]> participants = new ArrayList<String[]>();
+	private double[] starts = new double[16];
+	private double[] ends = new double[16];
+	private int nrEvents = 0;
+
+	// event indexes sorted on the start time (tree order) and on the end time
+	private int[] byStart;
+	private int[] byEnd;
+
+	// start of the events in tree order and max end of every subtree
+	private double[] treeStart;
+	private double[] maxEnd;
+
+	// position of the events in the add order, by id
+	private final Map<String, Integer> idIndex = new HashMap<String, Integer>();
+
+	// true if the tree has to be rebuilt before the next query
+	private boolean dirty = true;
+
+	/**
+	 * Add an event of a single type, the tree is rebuilt on the next query
+	 */
+	public synchronized void add(String id, String type, double start, double end, String[] eventParticipants) {
+		this.add(id, new String[] {type}, start, end, eventParticipants);
+	}
+
+	/**
+	 * Add an event with all its types, the tree is rebuilt on the next query
+	 */
+	public synchronized void add(String id, String[] eventTypes, double start, double end, String[] eventParticipants) {
+		if(this.nrEvents == this.starts.length) {
+			this.starts = Arrays.copyOf(this.starts, this.nrEvents * 2);
+			this.ends = Arrays.copyOf(this.ends, this.nrEvents * 2);
+		}
+		this.ids.add(id);
+		this.types.add((eventTypes != null) ? eventTypes : new String[0]);
+		this.participants.add((eventParticipants != null) ? eventParticipants : new String[0]);
+		this.starts[this.nrEvents] = Math.min(start, end);
+		this.ends[this.nrEvents] = Math.max(start, end);
+		this.idIndex.put(id, this.nrEvents);
+		this.nrEvents++;
+		this.dirty = true;
+	}
+
+	/**
+	 * Remove all the events
+	 */
+	public synchronized void clear() {
+		this.ids.clear();
+		this.types.clear();
+		this.participants.clear();
+		this.idIndex.clear();
+		this.nrEvents = 0;
+		this.dirty = true;
+	}
+
+	/**
+	 * Nr of events
+	 */
+	public synchronized int size() {
+		return this.nrEvents;
+	}
+
+	/**
+	 * Start time of the event, NaN if unknown
+	 */
+	public synchronized double getStart(String id) {
+		Integer idx = this.idIndex.get(id);
+		return (idx != null) ? this.starts[idx] : Double.NaN;
+	}
+
+	/**
+	 * End time of the event, NaN if unknown
+	 */
+	public synchronized double getEnd(String id) {
+		Integer idx = this.idIndex.get(id);
+		return (idx != null) ? this.ends[idx] : Double.NaN;
+	}
+
+	/**
+	 * Sort the events and compute the max end of the subtrees
+	 */
+	private void build() {
+		if(!this.dirty) {
+			return;
+		}
+		this.byStart = this.sortedIndexes(this.starts);
+		this.byEnd = this.sortedIndexes(this.ends);
+		this.treeStart = new double[this.nrEvents];
+		this.maxEnd = new double[this.nrEvents];
+		for (int i = 0; i < this.nrEvents; ++i) {
+			this.treeStart[i] = this.starts[this.byStart[i]];
+		}
+		this.buildMaxEnd(0, this.nrEvents - 1);
+		this.dirty = false;
+	}
+
+	/**
+	 * Indexes of the events sorted on the given times
+	 */
+	private int[] sortedIndexes(final double[] times) {
+		Integer[] order = new Integer[this.nrEvents];
+		for (int i = 0; i < this.nrEvents; ++i) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(times[a], times[b]);
+			}
+		});
+		int[] sorted = new int[this.nrEvents];
+		for (int i = 0; i < this.nrEvents; ++i) {
+			sorted[i] = order[i];
+		}
+		return sorted;
+	}
+
+	/**
+	 * Compute the max end of the subtree with the node in the middle of [lo, hi]
+	 */
+	private double buildMaxEnd(int lo, int hi) {
+		if(lo > hi) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		final int mid = (lo + hi) >>> 1;
+		final double max_end = Math.max(this.ends[this.byStart[mid]],
+				Math.max(this.buildMaxEnd(lo, mid - 1), this.buildMaxEnd(mid + 1, hi)));
+		this.maxEnd[mid] = max_end;
+		return max_end;
+	}
+
+	/**
+	 * Collect the events of the subtree overlapping [qs, qe] (closed intervals)
+	 */
+	private void overlapping(int lo, int hi, double qs, double qe, List<Integer> out) {
+		if(lo > hi) {
+			return;
+		}
+		final int mid = (lo + hi) >>> 1;
+		// nothing in the subtree ends after the query start
+		if(this.maxEnd[mid] < qs) {
+			return;
+		}
+		this.overlapping(lo, mid - 1, qs, qe, out);
+		// the node and the right subtree start after the query end
+		if(this.treeStart[mid] > qe) {
+			return;
+		}
+		if(this.ends[this.byStart[mid]] >= qs) {
+			out.add(this.byStart[mid]);
+		}
+		this.overlapping(mid + 1, hi, qs, qe, out);
+	}
+
+	/**
+	 * Check the type and participant filters
+	 */
+	private boolean accept(int idx, String type, String participant) {
+		if(type != null && !type.isEmpty() && !Arrays.asList(this.types.get(idx)).contains(type)) {
+			return false;
+		}
+		if(participant != null && !participant.isEmpty()) {
+			for (String p : this.participants.get(idx)) {
+				if(participant.equals(p)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Filter the events and return their ids sorted on the start time
+	 */
+	private String[] result(List<Integer> candidates, String type, String participant) {
+		List<Integer> accepted = new ArrayList<Integer>(candidates.size());
+		for (Integer idx : candidates) {
+			if(this.accept(idx, type, participant)) {
+				accepted.add(idx);
+			}
+		}
+		final double[] starts = this.starts;
+		accepted.sort(new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(starts[a], starts[b]);
+			}
+		});
+		String[] result_ids = new String[accepted.size()];
+		for (int i = 0; i < result_ids.length; ++i) {
+			result_ids[i] = this.ids.get(accepted.get(i));
+		}
+		return result_ids;
+	}
+
+	/**
+	 * Get the events happening at the timestamp (stabbing query)
+	 */
+	public synchronized String[] at(double timestamp, String type, String participant) {
+		return this.overlapping(timestamp, timestamp, type, participant);
+	}
+
+	/**
+	 * Get the events overlapping the interval (touching ends included)
+	 */
+	public synchronized String[] overlapping(double start, double end, String type, String participant) {
+		this.build();
+		List<Integer> candidates = new ArrayList<Integer>();
+		this.overlapping(0, this.nrEvents - 1, Math.min(start, end), Math.max(start, end), candidates);
+		return this.result(candidates, type, participant);
+	}
+
+	/**
+	 * Get the events in the given Allen relation to the reference interval
+	 * (e.g. "during": the event is during [start, end])
+	 */
+	public synchronized String[] allen(String relation, double start, double end, String type, String participant) {
+		this.build();
+		final double s = Math.min(start, end);
+		final double e = Math.max(start, end);
+		List<Integer> candidates = new ArrayList<Integer>();
+
+		if(relation.equals("before")) {
+			// events ending before s, prefix of the end sorted events
+			for (int i = 0; i < this.nrEvents && this.ends[this.byEnd[i]] < s; ++i) {
+				candidates.add(this.byEnd[i]);
+			}
+			return this.result(candidates, type, participant);
+		}
+		if(relation.equals("after")) {
+			// events starting after e, suffix of the start sorted events
+			for (int i = this.nrEvents - 1; i >= 0 && this.treeStart[i] > e; --i) {
+				candidates.add(this.byStart[i]);
+			}
+			return this.result(candidates, type, participant);
+		}
+
+		// all the other relations touch or overlap the reference interval
+		List<Integer> overlapping = new ArrayList<Integer>();
+		this.overlapping(0, this.nrEvents - 1, s, e, overlapping);
+		for (Integer idx : overlapping) {
+			final double es = this.starts[idx];
+			final double ee = this.ends[idx];
+			if(this.holds(relation, es, ee, s, e)) {
+				candidates.add(idx);
+			}
+		}
+		return this.result(candidates, type, participant);
+	}
+
+	/**
+	 * Check the Allen relation between the event [es, ee] and the reference [s, e]
+	 */
+	private boolean holds(String relation, double es, double ee, double s, double e) {
+		if(relation.equals("meets")) {
+			return ee == s;
+		}
+		if(relation.equals("met_by")) {
+			return es == e;
+		}
+		if(relation.equals("overlaps")) {
+			return es < s && ee > s && ee < e;
+		}
+		if(relation.equals("overlapped_by")) {
+			return es > s && es < e && ee > e;
+		}
+		if(relation.equals("starts")) {
+			return es == s && ee < e;
+		}
+		if(relation.equals("started_by")) {
+			return es == s && ee > e;
+		}
+		if(relation.equals("during")) {
+			return es > s && ee < e;
+		}
+		if(relation.equals("contains")) {
+			return es < s && ee > e;
+		}
+		if(relation.equals("finishes")) {
+			return ee == e && es > s;
+		}
+		if(relation.equals("finished_by")) {
+			return ee == e && es < s;
+		}
+		if(relation.equals("equals")) {
+			return es == s && ee == e;
+		}
+		System.out.println("Java - EventTimeline - Unknown Allen relation: " + relation);
+		return false;
+	}
+}
@@ -29,55 +29,32 @@
 
 package org.knowrob.knowrob_robcog;
 
-import java.util.Map;
 import java.util.Set;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
-import com.mongodb.MongoClient;
-import java.net.UnknownHostException;
+
+import org.knowrob.knowrob_sim_games.MongoConnectionManager;
 
 public class MongoRobcogConn{
 	
-	// mongo connection to the db 
-	private MongoClient mongoClient;
 	// mongo db
 	private DB db;	
-	// host name
-	private String dbHost;	
 	// selected collection
 	public DBCollection coll;	
 
 	/**
-	 * MongoRobcogConn constructor
+	 * MongoRobcogConn constructor, the (pooled) DB client
+	 * is shared through the MongoConnectionManager
 	 */
 	public MongoRobcogConn() {		
-		// check if MONGO_PORT_27017_TCP_ADDR and MONGO_PORT_27017_TCP_PORT 
-		// environment variables are set		
-        Map<String, String> env = System.getenv();
-        
-        // default port
-        int port = 27017;
-        
-        // Get host address
-        if(env.containsKey("MONGO_PORT_27017_TCP_ADDR")) {
-        	this.dbHost = env.get("MONGO_PORT_27017_TCP_ADDR");
-        }
-        else{
-        	this.dbHost = "localhost";        	
-        }
-        
-        // Get host port
-        if(env.containsKey("MONGO_PORT_27017_TCP_PORT")) {
-        	port = Integer.valueOf(env.get("MONGO_PORT_27017_TCP_PORT"));
-        }
-	
-		try {
-			// create a new DB client
-			this.mongoClient = new MongoClient(this.dbHost , port);
+	}
 
-		} catch (UnknownHostException e) {
-			e.printStackTrace();
-		}
+	/**
+	 * MongoRobcogConn constructor pinned to the db and collection of the given connection
+	 */
+	public MongoRobcogConn(MongoRobcogConn other) {
+		this.db = other.db;
+		this.coll = other.coll;
 	}
 
 	/**
@@ -85,7 +62,7 @@ public class MongoRobcogConn{
 	 */
 	public void SetDatabase(String db_name){
 		// set db
-		this.db = mongoClient.getDB(db_name);
+		this.db = MongoConnectionManager.get().getDB(db_name);
 
 		// Print out all its available collections
 		System.out.println("Java - Db: " + this.db.getName() + ", available collections: ");		
@@ -35,20 +35,19 @@ import java.util.Arrays;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 import java.security.SecureRandom;
 import java.lang.StringBuilder;
 import javax.vecmath.Vector3d;
 
-import java.io.IOException;
 import java.io.Writer;
-import java.io.FileWriter;
 import java.io.FileOutputStream;
-import java.io.BufferedWriter;
 import java.io.OutputStreamWriter;
 import java.io.File;
-import java.io.PrintWriter;
-import java.io.RandomAccessFile;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.Files;
@@ -59,6 +58,11 @@ import com.mongodb.BasicDBList;
 import com.mongodb.Cursor;
 import com.mongodb.AggregationOptions;
 
+import org.knowrob.knowrob_sim_games.MongoQueryExecutor;
+import org.knowrob.knowrob_sim_games.PoseInterpolator;
+import org.knowrob.knowrob_sim_games.PoseTrack;
+import org.knowrob.knowrob_sim_games.TrajectoryLOD;
+import org.knowrob.knowrob_sim_games.TrajectoryStreamer;
 import org.knowrob.vis.MarkerObject;
 import org.knowrob.vis.MarkerPublisher;
 
@@ -72,6 +76,33 @@ public class MongoRobcogQueries {
 	
 	// unreal connection to mongodb
 	private MongoRobcogConn MongoRobcogConn;
+	
+	// level of detail of the list markers (0 = off)
+	private double markerLODTolerance = 0;
+	private int markerLODMaxPoints = 0;
+	
+	// header of the packed results (nr frames, nr bones, stride)
+	public static final int PACKED_HEADER = 3;
+	public static final int PACKED_STRIDE = 7;
+	
+	// interpolation between the keyframes of the *PoseInterpolated queries
+	private PoseInterpolator poseInterpolator = new PoseInterpolator();
+	
+	// batched bone mesh markers by marker id
+	private Map<String, SkeletonMarkerArray> skeletonArrays = new HashMap<String, SkeletonMarkerArray>();
+	
+	// topic of the batched bone mesh markers
+	private String skeletonMarkerTopic = SkeletonMarkerArray.DEFAULT_TOPIC;
+	
+	// read-ahead cache of the bones poses (null = off, see EnableSkeletonCache),
+	// read once into a local by the queries, it can be disabled concurrently
+	private volatile SkeletonPoseCache skeletonCache = null;
+	
+	// nr of points per chunk marker of the streamed trajectories
+	private int streamChunkSize = 500;
+	
+	// running (or finished) trajectory streams by marker id
+	private Map<String, TrajectoryStreamer> streamers = new HashMap<String, TrajectoryStreamer>();
 
 	
 	////////////////////////////////////////////////////////////////
@@ -98,6 +129,16 @@ public class MongoRobcogQueries {
 		this.markerIDs = new ArrayDeque<String>();
 	}
 	
+	/**
+	 * MongoRobcogQueries constructor pinned to the current collection of the
+	 * given object, shares its caches (used by the asynchronous queries)
+	 */
+	private MongoRobcogQueries(MongoRobcogQueries other) {
+		this(new MongoRobcogConn(other.MongoRobcogConn));
+		this.poseInterpolator = other.poseInterpolator;
+		this.skeletonCache = other.skeletonCache;
+	}
+	
 	
 	////////////////////////////////////////////////////////////////
 	///// HELPER FUNCTIONS	
@@ -224,17 +265,19 @@ public class MongoRobcogQueries {
 	 * Create the rviz markers
 	 */
 	public void CreateMarkers(ArrayList<Vector3d> pointsArr, String markerID, String markerType, String color, float scale){
-		// List of marker points
-		List<Point> marker_points = new ArrayList<Point>();
-		
-		// iterate the 3d vector to create the marker points
-		for (Vector3d p_iter : pointsArr){
-			marker_points.add(this.msgPoint(p_iter));
-		}
-
 		// check if marker already exists
 		MarkerObject m = MarkerPublisher.get().getMarker(markerID);
 		if(m==null) {			
+			// reduce the level of detail (if set)
+			List<Vector3d> lod_points = TrajectoryLOD.simplify(
+					pointsArr, this.markerLODTolerance, this.markerLODMaxPoints);
+			
+			// List of marker points, iterate the 3d vector to create the marker points
+			List<Point> marker_points = new ArrayList<Point>(lod_points.size());
+			for (Vector3d p_iter : lod_points){
+				marker_points.add(msgPoint(p_iter));
+			}
+			
 			// create marker
 			m = MarkerPublisher.get().createMarker(markerID);
 			// set the type of the marker
@@ -318,9 +361,28 @@ public class MongoRobcogQueries {
 	 * Remove the rviz marker with the given ID
 	 */
 	public void RemoveMarker(String markerID){
+		// stop the stream and erase its chunk markers
+		TrajectoryStreamer streamer = this.streamers.remove(markerID);
+		if(streamer != null){
+			streamer.remove();
+		}
+		// erase the batched bone meshes
+		SkeletonMarkerArray skeleton_array = this.skeletonArrays.remove(markerID);
+		if(skeleton_array != null){
+			skeleton_array.erase();
+		}
 		MarkerPublisher.get().eraseMarker(markerID);		
 	}
 	
+	/**
+	 * Set the level of detail of the list markers, points within the tolerance (m)
+	 * of the simplified trajectory are dropped, at most maxPoints are kept (0 = off)
+	 */
+	public void SetMarkerLOD(double tolerance, int maxPoints){
+		this.markerLODTolerance = tolerance;
+		this.markerLODMaxPoints = maxPoints;
+	}
+	
 	/**
 	 * Remove all rviz markers created form sg
 	 */
@@ -447,6 +509,9 @@ public class MongoRobcogQueries {
 		// run aggregation
 		List<DBObject> pipeline = Arrays.asList(match_time, unwind_actors, match_actor, project);
 
+		// one sample per deltaT time bucket, picked on the server
+		pipeline = this.sampleByTime(pipeline, deltaT, "pos", "rot");
+
 		AggregationOptions aggregationOptions = AggregationOptions.builder()
 				.batchSize(100)
 				.outputMode(AggregationOptions.OutputMode.CURSOR)
@@ -482,8 +547,8 @@ public class MongoRobcogQueries {
 			// get the curr timestamp
 			double curr_ts = curr_doc.getDouble("timestamp");
 			
-			// if time diff > then deltaT add position to trajectory
-			if(curr_ts - prev_ts > deltaT)
+			// if time diff > then deltaT add position to trajectory (already sampled if deltaT > 0)
+			if(deltaT > 0 || curr_ts - prev_ts > deltaT)
 			{			
 				// get the current pose
 				traj_list.add(new double[] {
@@ -628,6 +693,9 @@ public class MongoRobcogQueries {
 		// run aggregation
 		List<DBObject> pipeline = Arrays.asList(match_time, unwind_actors, match_actor, project);
 
+		// one sample per deltaT time bucket, picked on the server
+		pipeline = this.sampleByTime(pipeline, deltaT, "pos", "rot");
+
 		AggregationOptions aggregationOptions = AggregationOptions.builder()
 				.batchSize(100)
 				.outputMode(AggregationOptions.OutputMode.CURSOR)
@@ -663,8 +731,8 @@ public class MongoRobcogQueries {
 			// get the curr timestamp
 			double curr_ts = curr_doc.getDouble("timestamp");
 			
-			// if time diff > then deltaT add position to trajectory
-			if(curr_ts - prev_ts > deltaT)
+			// if time diff > then deltaT add position to trajectory (already sampled if deltaT > 0)
+			if(deltaT > 0 || curr_ts - prev_ts > deltaT)
 			{
 				// get the current pose
 				traj_list.add(new double[] {
@@ -742,6 +810,22 @@ public class MongoRobcogQueries {
 		}
 	}
 	
+	/**
+	 * Get the names of the actor bones, queried once per actor if the skeleton cache is on
+	 */
+	private String[] bonesNames(String actorName){
+		final SkeletonPoseCache cache = this.skeletonCache;
+		String[] names = (cache != null) ?
+				cache.getBonesNames(this.MongoRobcogConn.coll, actorName) : null;
+		if(names == null){
+			names = this.GetBonesNames(actorName);
+			if(cache != null && names.length > 0){
+				cache.putBonesNames(this.MongoRobcogConn.coll, actorName, names);
+			}
+		}
+		return names;
+	}
+	
 	/**
 	 * Query the Poses of the actor bones at the given timepoint (or the most recent one)
 	 */
@@ -749,6 +833,16 @@ public class MongoRobcogQueries {
 		// transform the knowrob time to double with 3 decimal precision
 		final double timestamp = (double) Math.round(parseTime_d(timestampStr) * 1000) / 1000;
 		
+		// serve nearby lookups from the read-ahead cache
+		final SkeletonPoseCache cache = this.skeletonCache;
+		if(cache != null){
+			final double[][] cached_poses = cache.get(
+					this.MongoRobcogConn.coll, actorName, timestamp);
+			if(cached_poses != null){
+				return cached_poses;
+			}
+		}
+		
 		// $and list for querying the $match in the aggregation
 		BasicDBList time_and_name = new BasicDBList();
 
@@ -864,6 +958,9 @@ public class MongoRobcogQueries {
 		List<DBObject> pipeline = Arrays.asList(
 				match_time, unwind_actors, match_actor, project);				
 
+		// one sample per deltaT time bucket, picked on the server
+		pipeline = this.sampleByTime(pipeline, deltaT, "bones_pos", "bones_rot");
+
 		AggregationOptions aggregationOptions = AggregationOptions.builder()
 				.batchSize(100)
 				.outputMode(AggregationOptions.OutputMode.CURSOR)
@@ -905,8 +1002,8 @@ public class MongoRobcogQueries {
 			// get the curr timestamp
 			double curr_ts = curr_doc.getDouble("timestamp");
 			
-			// if time diff > then deltaT add position to trajectory
-			if(curr_ts - prev_ts > deltaT)
+			// if time diff > then deltaT add position to trajectory (already sampled if deltaT > 0)
+			if(deltaT > 0 || curr_ts - prev_ts > deltaT)
 			{
 				// get the list of bones pos and rot
 				BasicDBList pos_list = (BasicDBList) curr_doc.get("bones_pos");
@@ -943,6 +1040,589 @@ public class MongoRobcogQueries {
 	}
 
 	
+	/**
+	 * Sample the trajectory pipeline on the server, one document (the earliest) is kept
+	 * per deltaT time bucket; the pipeline has to start with the $match on the time
+	 * and output the timestamp and the given fields, deltaT <= 0 returns it unchanged
+	 */
+	private List<DBObject> sampleByTime(List<DBObject> pipeline, double deltaT, String... fields){
+		if(deltaT <= 0){
+			return pipeline;
+		}
+		
+		// sort after the $match on the time (index backed), so $first returns the earliest sample
+		List<DBObject> sampled_pipeline = new ArrayList<DBObject>();
+		sampled_pipeline.add(pipeline.get(0));
+		sampled_pipeline.add(new BasicDBObject("$sort", new BasicDBObject("timestamp", 1)));
+		sampled_pipeline.addAll(pipeline.subList(1, pipeline.size()));
+		
+		// bucket key: timestamp - (timestamp % deltaT)
+		BasicDBList mod_args = new BasicDBList();
+		mod_args.add("$timestamp");
+		mod_args.add(deltaT);
+		BasicDBList sub_args = new BasicDBList();
+		sub_args.add("$timestamp");
+		sub_args.add(new BasicDBObject("$mod", mod_args));
+		
+		// $group the samples of every bucket and keep the first one
+		DBObject group_fields = new BasicDBObject("_id", new BasicDBObject("$subtract", sub_args));
+		group_fields.put("timestamp", new BasicDBObject("$first", "$timestamp"));
+		for (String field : fields){
+			group_fields.put(field, new BasicDBObject("$first", "$" + field));
+		}
+		sampled_pipeline.add(new BasicDBObject("$group", group_fields));
+		
+		// $group does not keep the order, sort the buckets on the time
+		sampled_pipeline.add(new BasicDBObject("$sort", new BasicDBObject("timestamp", 1)));
+		
+		return sampled_pipeline;
+	}
+	
+	/**
+	 * Build the $project operation keeping only the given bones of the (unwinded) actor,
+	 * in the order of the names, every bone is picked on the server with $filter / $arrayElemAt
+	 */
+	private DBObject bonesSubsetProjection(String[] boneNames){
+		BasicDBList bones = new BasicDBList();
+		for (String bone_name : boneNames){
+			// the bones with the given name
+			DBObject filter = new BasicDBObject("$filter",
+					new BasicDBObject("input", "$actors.bones")
+						.append("as", "bone")
+						.append("cond", new BasicDBObject("$eq", Arrays.asList("$$bone.name", bone_name))));
+			// keep the first one
+			bones.add(new BasicDBObject("$arrayElemAt", Arrays.asList(filter, 0)));
+		}
+		DBObject proj_fields = new BasicDBObject("_id", 0);
+		proj_fields.put("timestamp", 1);
+		proj_fields.put("bones", bones);
+		return new BasicDBObject("$project", proj_fields);
+	}
+	
+	/**
+	 * Read the poses of the projected bones subset, missing bones are NaN
+	 */
+	private double[][] readBonesSubset(BasicDBObject doc, int nr_bones){
+		BasicDBList bones = (BasicDBList) doc.get("bones");
+		double[][] poses = new double[nr_bones][7];
+		for (int i = 0; i < nr_bones; ++i){
+			BasicDBObject bone = (bones != null && i < bones.size()) ? (BasicDBObject) bones.get(i) : null;
+			if(bone == null){
+				Arrays.fill(poses[i], Double.NaN);
+				continue;
+			}
+			BasicDBObject pos = (BasicDBObject) bone.get("pos");
+			BasicDBObject rot = (BasicDBObject) bone.get("rot");
+			poses[i][0] = pos.getDouble("x");
+			poses[i][1] = pos.getDouble("y");
+			poses[i][2] = pos.getDouble("z");
+			poses[i][3] = rot.getDouble("w");
+			poses[i][4] = rot.getDouble("x");
+			poses[i][5] = rot.getDouble("y");
+			poses[i][6] = rot.getDouble("z");
+		}
+		return poses;
+	}
+	
+	/**
+	 * Query the Poses of the given actor bones at the given timepoint (or the most recent one),
+	 * only the requested bones are sent by the server
+	 */
+	public double[][] GetBonesSubsetPosesAt(String actorName, String[] boneNames, String timestampStr){
+		// transform the knowrob time to double with 3 decimal precision
+		final double timestamp = (double) Math.round(parseTime_d(timestampStr) * 1000) / 1000;
+		
+		// $and list for querying the $match in the aggregation
+		BasicDBList time_and_name = new BasicDBList();
+
+		// add the timestamp and the actor name
+		time_and_name.add(new BasicDBObject("timestamp", new BasicDBObject("$lte", timestamp)));
+		time_and_name.add(new BasicDBObject("actors.name", actorName));
+
+		// create the pipeline operations, first the $match
+		DBObject match_time_and_name = new BasicDBObject(
+				"$match", new BasicDBObject( "$and", time_and_name)); 
+
+		// sort the results in descending order on the timestamp (keep most recent result first)
+		DBObject sort_desc = new BasicDBObject(
+				"$sort", new BasicDBObject("timestamp", -1));
+
+		// $limit the result to 1, we only need one pose
+		DBObject limit_result = new BasicDBObject("$limit", 1);
+
+		// $unwind actors in order to output only the queried actor
+		DBObject unwind_actors = new BasicDBObject("$unwind", "$actors");
+
+		// $match for the given actor name from the unwinded actors
+		DBObject match_actor = new BasicDBObject(
+				"$match", new BasicDBObject("actors.name", actorName));
+
+		// run aggregation
+		List<DBObject> pipeline = Arrays.asList(match_time_and_name, sort_desc, limit_result,
+				unwind_actors, match_actor, this.bonesSubsetProjection(boneNames));
+
+		AggregationOptions aggregationOptions = AggregationOptions.builder()
+				.batchSize(100)
+				.outputMode(AggregationOptions.OutputMode.CURSOR)
+				.allowDiskUse(true)
+				.build();
+
+		// get results
+		Cursor cursor = this.MongoRobcogConn.coll.aggregate(pipeline, aggregationOptions);
+		
+		// if query has a response, return the poses
+		if(cursor.hasNext())
+		{
+			BasicDBObject first_doc = (BasicDBObject) cursor.next();
+			cursor.close();
+			return this.readBonesSubset(first_doc, boneNames.length);
+		}
+		else
+		{
+			cursor.close();
+			System.out.println("Java - GetBonesSubsetPosesAt - No results found, returning empty list..");
+			return new double[0][0];
+		}
+	}
+	
+	/**
+	 * Query the Trajectories of the given actor bones between the timepoints,
+	 * only the requested bones are sent by the server
+	 */
+	public double[][][] GetBonesSubsetTrajs(String actorName,
+			String[] boneNames,
+			String start,
+			String end,
+			double deltaT){	
+		// transform the knowrob time to double with 3 decimal precision
+		final double start_ts = (double) Math.round(parseTime_d(start) * 1000) / 1000;
+		final double end_ts = (double) Math.round(parseTime_d(end) * 1000) / 1000;
+		// create the pipeline operations, first with the $match check the times
+		DBObject match_time = new BasicDBObject("$match", new BasicDBObject("timestamp", 
+				new BasicDBObject("$gte", start_ts).append("$lte", end_ts)));
+
+		// $unwind actors in order to output only the queried actor
+		DBObject unwind_actors = new BasicDBObject("$unwind", "$actors");
+
+		// $match for the given actor name from the unwinded actors
+		DBObject match_actor = new BasicDBObject(
+				"$match", new BasicDBObject("actors.name", actorName));
+
+		// run aggregation
+		List<DBObject> pipeline = Arrays.asList(
+				match_time, unwind_actors, match_actor, this.bonesSubsetProjection(boneNames));
+
+		// one sample per deltaT time bucket, picked on the server
+		pipeline = this.sampleByTime(pipeline, deltaT, "bones");
+
+		AggregationOptions aggregationOptions = AggregationOptions.builder()
+				.batchSize(100)
+				.outputMode(AggregationOptions.OutputMode.CURSOR)
+				.allowDiskUse(true)
+				.build();
+
+		// get results
+		Cursor cursor = this.MongoRobcogConn.coll.aggregate(pipeline, aggregationOptions);
+
+		// Trajectories as dynamic array (dynamic on the time part)
+		ArrayList<double[][]> bone_trajs = new ArrayList<double[][]>();
+		
+		// if the query returned nothing, get the most recent pose
+		if(!cursor.hasNext())
+		{
+			cursor.close();
+			System.out.println("Java - GetBonesSubsetTrajs - No results found, returning most recent poses..");
+			bone_trajs.add(this.GetBonesSubsetPosesAt(actorName, boneNames, start));
+			return bone_trajs.toArray(new double[bone_trajs.size()][][]);
+		}
+		
+		// timestamp used for deltaT
+		double prev_ts = 0;
+		
+		while(cursor.hasNext())
+		{
+			BasicDBObject curr_doc = (BasicDBObject) cursor.next();
+
+			// get the curr timestamp
+			double curr_ts = curr_doc.getDouble("timestamp");
+			
+			// if time diff > then deltaT add the poses to the trajectories (already sampled if deltaT > 0)
+			if(deltaT > 0 || curr_ts - prev_ts > deltaT)
+			{
+				bone_trajs.add(this.readBonesSubset(curr_doc, boneNames.length));
+				prev_ts = curr_ts;
+			}
+		}
+		// close cursor
+		cursor.close();	
+		
+		return bone_trajs.toArray(new double[bone_trajs.size()][][]);
+	}
+	
+	/**
+	 * Pack the poses (frames x bones x 7) in a single array, prefixed with
+	 * the header (nr frames, nr bones, stride), missing poses are NaN
+	 */
+	public static double[] pack(double[][][] frames){
+		final int nr_frames = frames.length;
+		final int nr_bones = (nr_frames > 0) ? frames[0].length : 0;
+		double[] packed = new double[PACKED_HEADER + nr_frames * nr_bones * PACKED_STRIDE];
+		packed[0] = nr_frames;
+		packed[1] = nr_bones;
+		packed[2] = PACKED_STRIDE;
+		int off = PACKED_HEADER;
+		for (double[][] frame : frames){
+			for (int i = 0; i < nr_bones; ++i, off += PACKED_STRIDE){
+				if(i < frame.length && frame[i].length >= PACKED_STRIDE){
+					System.arraycopy(frame[i], 0, packed, off, PACKED_STRIDE);
+				}
+				else{
+					Arrays.fill(packed, off, off + PACKED_STRIDE, Double.NaN);
+				}
+			}
+		}
+		return packed;
+	}
+	
+	/**
+	 * Pack the poses of a single actor / bone (frames x 7), nr bones is 1
+	 */
+	public static double[] pack(double[][] poses){
+		double[] packed = new double[PACKED_HEADER + poses.length * PACKED_STRIDE];
+		packed[0] = poses.length;
+		packed[1] = 1;
+		packed[2] = PACKED_STRIDE;
+		int off = PACKED_HEADER;
+		for (double[] pose : poses){
+			if(pose.length >= PACKED_STRIDE){
+				System.arraycopy(pose, 0, packed, off, PACKED_STRIDE);
+			}
+			else{
+				Arrays.fill(packed, off, off + PACKED_STRIDE, Double.NaN);
+			}
+			off += PACKED_STRIDE;
+		}
+		return packed;
+	}
+	
+	/**
+	 * Query the Traj of the actor, packed as (nr frames, 1, 7, poses..)
+	 */
+	public double[] GetActorTrajPacked(String actorName,
+			String start,
+			String end,
+			double deltaT){
+		return pack(this.GetActorTraj(actorName, start, end, deltaT));
+	}
+	
+	/**
+	 * Query the Traj of the actors bone, packed as (nr frames, 1, 7, poses..)
+	 */
+	public double[] GetBoneTrajPacked(String actorName,
+			String boneName,
+			String start,
+			String end,
+			double deltaT){
+		return pack(this.GetBoneTraj(actorName, boneName, start, end, deltaT));
+	}
+	
+	/**
+	 * Query the Trajectories of the actor bones, packed as (nr frames, nr bones, 7, poses..)
+	 */
+	public double[] GetBonesTrajsPacked(String actorName,
+			String start,
+			String end,
+			double deltaT){
+		return pack(this.GetBonesTrajs(actorName, start, end, deltaT));
+	}
+	
+	/**
+	 * Query the Trajectories of the given actor bones, packed as (nr frames, nr bones, 7, poses..)
+	 */
+	public double[] GetBonesSubsetTrajsPacked(String actorName,
+			String[] boneNames,
+			String start,
+			String end,
+			double deltaT){
+		return pack(this.GetBonesSubsetTrajs(actorName, boneNames, start, end, deltaT));
+	}
+	
+	/**
+	 * Build the pipeline returning the actor (boneName null) or bone poses
+	 * (timestamp, pos, rot) of the documents matched by the given time condition
+	 */
+	private List<DBObject> posePipeline(String actorName, String boneName, DBObject time_cond, int sort_dir, int limit){
+		// $and list for querying the $match in the aggregation
+		BasicDBList time_and_name = new BasicDBList();
+		time_and_name.add(new BasicDBObject("timestamp", time_cond));
+		time_and_name.add(new BasicDBObject("actors.name", actorName));
+
+		// $match, $sort on the time (and $limit)
+		List<DBObject> pipeline = new ArrayList<DBObject>();
+		pipeline.add(new BasicDBObject("$match", new BasicDBObject("$and", time_and_name)));
+		pipeline.add(new BasicDBObject("$sort", new BasicDBObject("timestamp", sort_dir)));
+		if(limit > 0){
+			pipeline.add(new BasicDBObject("$limit", limit));
+		}
+
+		// $unwind actors in order to output only the queried actor
+		pipeline.add(new BasicDBObject("$unwind", "$actors"));
+		pipeline.add(new BasicDBObject("$match", new BasicDBObject("actors.name", actorName)));
+
+		// build the $projection operation
+		DBObject proj_fields = new BasicDBObject("_id", 0);
+		proj_fields.put("timestamp", 1);
+		if(boneName == null){
+			proj_fields.put("pos", "$actors.pos");
+			proj_fields.put("rot", "$actors.rot");
+		}
+		else{
+			// $unwind the bones and $match the given bone
+			pipeline.add(new BasicDBObject("$unwind", "$actors.bones"));
+			pipeline.add(new BasicDBObject("$match", new BasicDBObject("actors.bones.name", boneName)));
+			proj_fields.put("pos", "$actors.bones.pos");
+			proj_fields.put("rot", "$actors.bones.rot");
+		}
+		pipeline.add(new BasicDBObject("$project", proj_fields));
+		return pipeline;
+	}
+	
+	/**
+	 * Get the keyframe (t x y z qw qx qy qz) of the actor (boneName null) or bone
+	 * at or before the timestamp (before = true) or the first one after it, null if none
+	 */
+	private double[] keyframe(String actorName, String boneName, double timestamp, boolean before){
+		List<DBObject> pipeline = this.posePipeline(actorName, boneName,
+				new BasicDBObject(before ? "$lte" : "$gt", timestamp), before ? -1 : 1, 1);
+
+		AggregationOptions aggregationOptions = AggregationOptions.builder()
+				.batchSize(100)
+				.outputMode(AggregationOptions.OutputMode.CURSOR)
+				.allowDiskUse(true)
+				.build();
+
+		Cursor cursor = this.MongoRobcogConn.coll.aggregate(pipeline, aggregationOptions);
+		if(!cursor.hasNext()){
+			cursor.close();
+			return null;
+		}
+		BasicDBObject first_doc = (BasicDBObject) cursor.next();
+		cursor.close();
+		return new double[] {
+				first_doc.getDouble("timestamp"),
+				((BasicDBObject) first_doc.get("pos")).getDouble("x"),
+				((BasicDBObject) first_doc.get("pos")).getDouble("y"),
+				((BasicDBObject) first_doc.get("pos")).getDouble("z"),
+				((BasicDBObject) first_doc.get("rot")).getDouble("w"),
+				((BasicDBObject) first_doc.get("rot")).getDouble("x"),
+				((BasicDBObject) first_doc.get("rot")).getDouble("y"),
+				((BasicDBObject) first_doc.get("rot")).getDouble("z")};
+	}
+	
+	/**
+	 * Get the interpolated pose of the actor (boneName null) or bone
+	 */
+	private double[] poseInterpolated(final String actorName, final String boneName, double timestamp){
+		final String key = this.MongoRobcogConn.coll.getFullName() + "/" + actorName
+				+ ((boneName != null) ? "/" + boneName : "");
+		return this.poseInterpolator.poseAt(key, timestamp, new PoseInterpolator.KeyframeSource(){
+			@Override
+			public double[] keyframe(double ts, boolean before){
+				return MongoRobcogQueries.this.keyframe(actorName, boneName, ts, before);
+			}
+		});
+	}
+	
+	/**
+	 * Query the Pose of the actor at the given timepoint,
+	 * interpolated between the bracketing keyframes
+	 */
+	public double[] GetActorPoseInterpolated(String actorName, String timestampStr){
+		// transform the knowrob time to double with 3 decimal precision
+		final double timestamp = (double) Math.round(parseTime_d(timestampStr) * 1000) / 1000;
+		
+		return this.poseInterpolated(actorName, null, timestamp);
+	}
+	
+	/**
+	 * Query the Pose of the actor at the given timestamp,
+	 * interpolated between the bracketing keyframes
+	 */
+	public double[] GetActorPoseInterpolated(String actorName, double timestamp){
+		return this.poseInterpolated(actorName, null, timestamp);
+	}
+	
+	/**
+	 * Query the Pose of the actors bone at the given timepoint,
+	 * interpolated between the bracketing keyframes
+	 */
+	public double[] GetBonePoseInterpolated(String actorName, String boneName, String timestampStr){
+		// transform the knowrob time to double with 3 decimal precision
+		final double timestamp = (double) Math.round(parseTime_d(timestampStr) * 1000) / 1000;
+		
+		return this.poseInterpolated(actorName, boneName, timestamp);
+	}
+	
+	/**
+	 * Resample the Traj of the actor (boneName null) or bone on the uniform clock
+	 * start, start + step, .. <= end, packed as (t x y z qw qx qy qz)
+	 */
+	private double[] resampleTraj(String actorName, String boneName, String start, String end, double step){
+		// transform the knowrob time to double with 3 decimal precision
+		final double start_ts = (double) Math.round(parseTime_d(start) * 1000) / 1000;
+		final double end_ts = (double) Math.round(parseTime_d(end) * 1000) / 1000;
+		
+		// query the range including the keyframes bracketing it
+		final double[] first = this.keyframe(actorName, boneName, start_ts, true);
+		final double[] last = this.keyframe(actorName, boneName, end_ts, false);
+		List<DBObject> pipeline = this.posePipeline(actorName, boneName,
+				new BasicDBObject("$gte", (first != null) ? first[0] : start_ts)
+					.append("$lte", (last != null) ? last[0] : end_ts), 1, 0);
+
+		AggregationOptions aggregationOptions = AggregationOptions.builder()
+				.batchSize(100)
+				.outputMode(AggregationOptions.OutputMode.CURSOR)
+				.allowDiskUse(true)
+				.build();
+
+		Cursor cursor = this.MongoRobcogConn.coll.aggregate(pipeline, aggregationOptions);
+		
+		// keyframes as primitive columns
+		PoseTrack track = new PoseTrack(1024);
+		while(cursor.hasNext()){
+			BasicDBObject curr_doc = (BasicDBObject) cursor.next();
+			BasicDBObject pos = (BasicDBObject) curr_doc.get("pos");
+			BasicDBObject rot = (BasicDBObject) curr_doc.get("rot");
+			track.add(curr_doc.getDouble("timestamp"),
+					pos.getDouble("x"), pos.getDouble("y"), pos.getDouble("z"),
+					rot.getDouble("w"), rot.getDouble("x"), rot.getDouble("y"), rot.getDouble("z"));
+		}
+		cursor.close();
+		return PoseInterpolator.resample(track, start_ts, end_ts, step);
+	}
+	
+	/**
+	 * Resample the Traj of the actor on a uniform clock, packed as (t x y z qw qx qy qz)
+	 */
+	public double[] ResampleActorTraj(String actorName, String start, String end, double step){
+		return this.resampleTraj(actorName, null, start, end, step);
+	}
+	
+	/**
+	 * Resample the Traj of the actors bone on a uniform clock, packed as (t x y z qw qx qy qz)
+	 */
+	public double[] ResampleBoneTraj(String actorName, String boneName, String start, String end, double step){
+		return this.resampleTraj(actorName, boneName, start, end, step);
+	}
+	
+	////////////////////////////////////////////////////////////////
+	///// ASYNC QUERY FUNCTIONS
+	/**
+	 * Asynchronous GetActorPoseAt, runs on a copy of the queries pinned to the
+	 * current collection (every prolog query sets the collection of the shared connection)
+	 */
+	public CompletableFuture<double[]> GetActorPoseAtAsync(final String actorName, final String timestampStr){
+		final MongoRobcogQueries pinned = new MongoRobcogQueries(this);
+		return MongoQueryExecutor.get().supplyAsync(new Callable<double[]>(){
+			@Override
+			public double[] call(){
+				return pinned.GetActorPoseAt(actorName, timestampStr);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous GetBonePoseAt
+	 */
+	public CompletableFuture<double[]> GetBonePoseAtAsync(final String actorName, final String boneName, final String timestampStr){
+		final MongoRobcogQueries pinned = new MongoRobcogQueries(this);
+		return MongoQueryExecutor.get().supplyAsync(new Callable<double[]>(){
+			@Override
+			public double[] call(){
+				return pinned.GetBonePoseAt(actorName, boneName, timestampStr);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous GetActorPoseInterpolated
+	 */
+	public CompletableFuture<double[]> GetActorPoseInterpolatedAsync(final String actorName, final String timestampStr){
+		final MongoRobcogQueries pinned = new MongoRobcogQueries(this);
+		return MongoQueryExecutor.get().supplyAsync(new Callable<double[]>(){
+			@Override
+			public double[] call(){
+				return pinned.GetActorPoseInterpolated(actorName, timestampStr);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous GetBonePoseInterpolated
+	 */
+	public CompletableFuture<double[]> GetBonePoseInterpolatedAsync(final String actorName, final String boneName, final String timestampStr){
+		final MongoRobcogQueries pinned = new MongoRobcogQueries(this);
+		return MongoQueryExecutor.get().supplyAsync(new Callable<double[]>(){
+			@Override
+			public double[] call(){
+				return pinned.GetBonePoseInterpolated(actorName, boneName, timestampStr);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous GetBonesPosesAt
+	 */
+	public CompletableFuture<double[][]> GetBonesPosesAtAsync(final String actorName, final String timestampStr){
+		final MongoRobcogQueries pinned = new MongoRobcogQueries(this);
+		return MongoQueryExecutor.get().supplyAsync(new Callable<double[][]>(){
+			@Override
+			public double[][] call(){
+				return pinned.GetBonesPosesAt(actorName, timestampStr);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous GetActorTraj
+	 */
+	public CompletableFuture<double[][]> GetActorTrajAsync(final String actorName, final String start, final String end, final double deltaT){
+		final MongoRobcogQueries pinned = new MongoRobcogQueries(this);
+		return MongoQueryExecutor.get().supplyAsync(new Callable<double[][]>(){
+			@Override
+			public double[][] call(){
+				return pinned.GetActorTraj(actorName, start, end, deltaT);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous GetBoneTraj
+	 */
+	public CompletableFuture<double[][]> GetBoneTrajAsync(final String actorName, final String boneName, final String start, final String end, final double deltaT){
+		final MongoRobcogQueries pinned = new MongoRobcogQueries(this);
+		return MongoQueryExecutor.get().supplyAsync(new Callable<double[][]>(){
+			@Override
+			public double[][] call(){
+				return pinned.GetBoneTraj(actorName, boneName, start, end, deltaT);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous GetBonesTrajs
+	 */
+	public CompletableFuture<double[][][]> GetBonesTrajsAsync(final String actorName, final String start, final String end, final double deltaT){
+		final MongoRobcogQueries pinned = new MongoRobcogQueries(this);
+		return MongoQueryExecutor.get().supplyAsync(new Callable<double[][][]>(){
+			@Override
+			public double[][][] call(){
+				return pinned.GetBonesTrajs(actorName, start, end, deltaT);
+			}
+		});
+	}
+	
+
 	////////////////////////////////////////////////////////////////
 	///// VIS QUERY FUNCTIONS	
 	/**
@@ -1018,7 +1698,7 @@ public class MongoRobcogQueries {
 			String markerID,
 			String meshFolderPath){		
 		// get the names of the bones
-		final String[] names = this.GetBonesNames(actorName); 
+		final String[] names = this.bonesNames(actorName);
 	
 		// pos xyz rot wxyz for every bone
 		final double[][] bone_poses = this.GetBonesPosesAt(actorName, timestampStr);
@@ -1026,6 +1706,37 @@ public class MongoRobcogQueries {
 		// create the bones mesh markers
 		this.CreateBonesMeshMarkers(bone_poses, names, markerID, meshFolderPath);
 	}
+	
+	/**
+	 * View the actor bones meshes at the given timepoint as a single marker array,
+	 * with the same marker id the bone markers are reused and only the moved bones are sent
+	 */
+	public void ViewBonesMeshesArrayAt(String actorName,
+			String timestampStr,
+			String markerID,
+			String meshFolderPath){
+		// get the names of the bones
+		final String[] names = this.bonesNames(actorName);
+		
+		// pos xyz rot wxyz for every bone
+		final double[][] bone_poses = this.GetBonesPosesAt(actorName, timestampStr);
+		
+		// publish the changed bones in one array
+		SkeletonMarkerArray skeleton_array = this.skeletonArrays.get(markerID);
+		if(skeleton_array == null){
+			skeleton_array = new SkeletonMarkerArray(markerID, meshFolderPath, this.skeletonMarkerTopic);
+			this.skeletonArrays.put(markerID, skeleton_array);
+			this.markerIDs.add(markerID);
+		}
+		skeleton_array.update(bone_poses, names);
+	}
+	
+	/**
+	 * Set the topic of the batched bone mesh markers
+	 */
+	public void SetSkeletonMarkerTopic(String topic){
+		this.skeletonMarkerTopic = topic;
+	}
 
 	/**
 	 * View and return the Pose of the actors bone at the given timepoint (or the most recent one)
@@ -1215,6 +1926,114 @@ public class MongoRobcogQueries {
 		this.CreateMarkers(pos, markerID, markerType, color, scale);
 	}
 
+	////////////////////////////////////////////////////////////////
+	///// SKELETON CACHE FUNCTIONS
+	/**
+	 * Enable the read-ahead cache of the bones poses with the given
+	 * min (initial) and max window lengths in seconds
+	 */
+	public synchronized void EnableSkeletonCache(double minWindow, double maxWindow){
+		final SkeletonPoseCache cache = this.skeletonCache;
+		if(cache == null){
+			this.skeletonCache = new SkeletonPoseCache(minWindow, maxWindow);
+		}
+		else{
+			cache.setWindow(minWindow, maxWindow);
+		}
+	}
+	
+	/**
+	 * Disable (and empty) the read-ahead cache of the bones poses
+	 */
+	public synchronized void DisableSkeletonCache(){
+		this.skeletonCache = null;
+	}
+	
+	/**
+	 * Print the hit / miss stats of the bones poses cache
+	 */
+	public void PrintSkeletonCacheStats(){
+		final SkeletonPoseCache cache = this.skeletonCache;
+		if(cache != null){
+			cache.printStats();
+		}
+	}
+	
+	////////////////////////////////////////////////////////////////
+	///// STREAMING FUNCTIONS	
+	/**
+	 * Set the nr of points per chunk marker of the streamed trajectories
+	 */
+	public void SetStreamChunkSize(int chunkSize){
+		this.streamChunkSize = chunkSize;
+	}
+	
+	/**
+	 * Stream the Traj of the actor between the given timepoints
+	 * as rviz chunk markers while the results arrive
+	 */
+	public TrajectoryStreamer StreamActorTraj(String actorName,
+			String start,
+			String end,
+			String markerID,
+			String markerType,
+			String color,
+			float scale,
+			double deltaT){
+		// transform the knowrob time to double with 3 decimal precision
+		final double start_ts = (double) Math.round(parseTime_d(start) * 1000) / 1000;
+		final double end_ts = (double) Math.round(parseTime_d(end) * 1000) / 1000;
+		
+		// create the pipeline operations, first with the $match check the times
+		DBObject match_time = new BasicDBObject("$match", new BasicDBObject("timestamp", 
+				new BasicDBObject("$gte", start_ts).append("$lte", end_ts)));
+
+		// $unwind the actors
+		DBObject unwind_actors = new BasicDBObject("$unwind", "$actors");
+
+		// $match for the given actor name from the unwinded actors
+		DBObject match_actor = new BasicDBObject(
+				"$match", new BasicDBObject("actors.name", actorName));
+
+		// build the $projection operation
+		DBObject proj_fields = new BasicDBObject("_id", 0);
+		proj_fields.put("timestamp", 1);
+		proj_fields.put("pos", "$actors.pos");
+		DBObject project = new BasicDBObject("$project", proj_fields);
+
+		// run aggregation
+		List<DBObject> pipeline = Arrays.asList(match_time, unwind_actors, match_actor, project);
+
+		AggregationOptions aggregationOptions = AggregationOptions.builder()
+				.batchSize(100)
+				.outputMode(AggregationOptions.OutputMode.CURSOR)
+				.allowDiskUse(true)
+				.build();
+
+		// stop a previous stream with the same id
+		this.RemoveMarker(markerID);
+		
+		// stream the results on a new thread
+		Cursor cursor = this.MongoRobcogConn.coll.aggregate(pipeline, aggregationOptions);
+		TrajectoryStreamer streamer = new TrajectoryStreamer(cursor, markerID,
+				this.markerFromString(markerType), this.colorFromString(color), scale,
+				this.streamChunkSize, deltaT,
+				this.markerLODTolerance, this.markerLODMaxPoints);
+		this.streamers.put(markerID, streamer);
+		this.markerIDs.add(markerID);
+		return streamer.start();
+	}
+	
+	/**
+	 * Stop the stream with the given marker id, the published chunks are kept
+	 */
+	public void CancelStream(String markerID){
+		TrajectoryStreamer streamer = this.streamers.get(markerID);
+		if(streamer != null){
+			streamer.cancel();
+		}
+	}
+	
 	////////////////////////////////////////////////////////////////
 	///// ADD RATING
 	public void AddRating(String RatingInst,
@@ -1233,28 +2052,22 @@ public class MongoRobcogQueries {
 				"\t\t<knowrob_u:ratingOf rdf:resource=\"&log;" + rating_inst +"\"/>\n" +
 				"\t</owl:NamedIndividual>";
 
-		// append rating to file
-		try {
-			// remove last line of the file
-			RandomAccessFile randomAccessFile = new RandomAccessFile(FilePath, "rw");
-			byte b;
-			long length = randomAccessFile.length() ;
-			if (length != 0) {
-				do {
-					length -= 1;
-					randomAccessFile.seek(length);
-					b = randomAccessFile.readByte();
-				} while (b != 10 && length > 0);
-				randomAccessFile.setLength(length);
-				randomAccessFile.close();
-			}		
-			// append rating string to file
-			PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(FilePath, true)));
-			out.println(rating_str);
-			out.print("\n</rdf:RDF>");
-			out.close();
-		} catch (IOException e) {
-		}
+		// queue the rating, it is written to the file by the rating journal
+		RatingJournal.get().append(FilePath, rating_str);
+	}
+	
+	/**
+	 * Write all the queued ratings into their files
+	 */
+	public void FlushRatings(){
+		RatingJournal.get().compactAll();
+	}
+	
+	/**
+	 * Set the group commit and the compaction intervals of the ratings (ms)
+	 */
+	public void SetRatingIntervals(int commitIntervalMs, int compactIntervalMs){
+		RatingJournal.get().setIntervals(commitIntervalMs, compactIntervalMs);
 	}
 }
 
@@ -0,0 +1,268 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+
+package org.knowrob.knowrob_robcog;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Buffered, thread safe writer of the ratings into the episode OWL files.
+ * The ratings are queued in memory and appended in groups (group commit)
+ * to a journal next to the OWL file (FilePath.journal). The journal is
+ * periodically (or explicitly) compacted into the OWL file by moving its
+ * closing rdf tag, the OWL file is never rewritten. Journals left over
+ * from a previous run are compacted on their first use.
+ */
+public class RatingJournal implements Runnable {
+
+	// closing tag of the OWL files
+	private static final String RDF_END = "</rdf:RDF>";
+
+	// suffix of the journal files
+	private static final String JOURNAL_SUFFIX = ".journal";
+
+	// the single instance
+	private static RatingJournal instance;
+
+	// not yet committed ratings by file
+	private final Map<String, List<String>> pending = new LinkedHashMap<String, List<String>>();
+
+	// files already checked for left over journals
+	private final Set<String> known = new LinkedHashSet<String>();
+
+	// files with committed but not compacted ratings
+	private final Set<String> journaled = new LinkedHashSet<String>();
+
+	// serializes the file writes, the pending lock is only taken inside it
+	private final Object ioLock = new Object();
+
+	// group commit and compaction intervals (ms)
+	private volatile long commitIntervalMs = 200;
+	private volatile long compactIntervalMs = 5000;
+
+	/**
+	 * Get the rating journal, starts the writer thread on first use
+	 */
+	public static synchronized RatingJournal get() {
+		if(instance == null) {
+			instance = new RatingJournal();
+			Thread thread = new Thread(instance, "RatingJournal");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return instance;
+	}
+
+	/**
+	 * RatingJournal constructor
+	 */
+	private RatingJournal() {
+		// write everything into the OWL files when the jvm goes down
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				RatingJournal.this.compactAll();
+			}
+		});
+	}
+
+	/**
+	 * Set the group commit and the compaction intervals
+	 */
+	public void setIntervals(long commitIntervalMs, long compactIntervalMs) {
+		this.commitIntervalMs = Math.max(1, commitIntervalMs);
+		this.compactIntervalMs = Math.max(this.commitIntervalMs, compactIntervalMs);
+	}
+
+	/**
+	 * Queue the rating (OWL individual) to be added to the file
+	 */
+	public void append(String filePath, String rating) {
+		boolean first_use;
+		synchronized(this.pending) {
+			first_use = this.known.add(filePath);
+			List<String> ratings = this.pending.get(filePath);
+			if(ratings == null) {
+				ratings = new ArrayList<String>();
+				this.pending.put(filePath, ratings);
+			}
+			ratings.add(rating);
+		}
+		// outside of the pending lock, it is never held while taking the io lock
+		if(first_use) {
+			this.recover(filePath);
+		}
+	}
+
+	@Override
+	public void run() {
+		long last_compact = System.currentTimeMillis();
+		while(true) {
+			try {
+				Thread.sleep(this.commitIntervalMs);
+			} catch (InterruptedException e) {
+				return;
+			}
+			this.commit();
+			if(System.currentTimeMillis() - last_compact >= this.compactIntervalMs) {
+				this.compactAll();
+				last_compact = System.currentTimeMillis();
+			}
+		}
+	}
+
+	/**
+	 * Append all the queued ratings to their journals, one write per file,
+	 * the queue is drained under the io lock, so a concurrent compaction
+	 * (e.g. the shutdown hook) waits until the drained ratings are journaled
+	 */
+	public void commit() {
+		synchronized(this.ioLock) {
+			Map<String, List<String>> batch;
+			synchronized(this.pending) {
+				if(this.pending.isEmpty()) {
+					return;
+				}
+				batch = new LinkedHashMap<String, List<String>>(this.pending);
+				this.pending.clear();
+			}
+			for (Map.Entry<String, List<String>> entry : batch.entrySet()) {
+				StringBuilder sb = new StringBuilder();
+				for (String rating : entry.getValue()) {
+					sb.append(rating).append('\n');
+				}
+				try {
+					FileOutputStream out = new FileOutputStream(entry.getKey() + JOURNAL_SUFFIX, true);
+					try {
+						out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+						out.getFD().sync();
+					} finally {
+						out.close();
+					}
+					this.journaled.add(entry.getKey());
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Commit the queued ratings and move all the journals into their OWL files
+	 */
+	public void compactAll() {
+		synchronized(this.ioLock) {
+			this.commit();
+			for (String file_path : new ArrayList<String>(this.journaled)) {
+				this.compactJournal(file_path);
+			}
+		}
+	}
+
+	/**
+	 * Commit the queued ratings and move the journal into the OWL file
+	 */
+	public void compact(String filePath) {
+		synchronized(this.ioLock) {
+			this.commit();
+			this.compactJournal(filePath);
+		}
+	}
+
+	/**
+	 * Move the journal into the OWL file, called with the io lock held
+	 */
+	private void compactJournal(String filePath) {
+		try {
+			final File journal = new File(filePath + JOURNAL_SUFFIX);
+			if(!journal.exists() || journal.length() == 0) {
+				this.journaled.remove(filePath);
+				return;
+			}
+			final byte[] ratings = Files.readAllBytes(journal.toPath());
+
+			// cut the closing tag, append the ratings and close the file again
+			RandomAccessFile owl = new RandomAccessFile(filePath, "rw");
+			try {
+				owl.setLength(this.findEnd(owl));
+				owl.seek(owl.length());
+				owl.write(ratings);
+				owl.write((RDF_END + "\n").getBytes(StandardCharsets.UTF_8));
+				owl.getFD().sync();
+			} finally {
+				owl.close();
+			}
+
+			// the ratings are in the OWL file, empty the journal
+			new FileOutputStream(journal).close();
+			this.journaled.remove(filePath);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Offset of the closing rdf tag line, searched in the tail of the file,
+	 * the file length if it is missing
+	 */
+	private long findEnd(RandomAccessFile owl) throws IOException {
+		final long length = owl.length();
+		final int tail_len = (int) Math.min(length, 4096);
+		byte[] tail = new byte[tail_len];
+		owl.seek(length - tail_len);
+		owl.readFully(tail);
+		final int idx = new String(tail, StandardCharsets.ISO_8859_1).lastIndexOf(RDF_END);
+		return (idx == -1) ? length : length - tail_len + idx;
+	}
+
+	/**
+	 * Register the journal left over from a previous run (if any) for compaction
+	 */
+	private void recover(String filePath) {
+		if(Files.exists(Paths.get(filePath + JOURNAL_SUFFIX))) {
+			synchronized(this.ioLock) {
+				this.journaled.add(filePath);
+			}
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+
+package org.knowrob.knowrob_robcog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.knowrob.vis.MarkerPublisher;
+import org.ros.message.MessageFactory;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import visualization_msgs.Marker;
+import visualization_msgs.MarkerArray;
+
+/**
+ * Publishes the bone meshes of a skeleton as a single MarkerArray per frame.
+ * Every bone has a stable marker identity (namespace = marker id, id = bone nr),
+ * only the bones whose pose changed are sent. All the bones are sent on the first
+ * update, when new subscribers connected and periodically, so late (or reconnected)
+ * subscribers get the whole skeleton. The array is published on its own
+ * publisher of the marker array topic, next to the markers of the MarkerPublisher.
+ * The messages are serialized later on the publisher thread, so every frame gets
+ * its own array and markers, published messages are never modified.
+ */
+public class SkeletonMarkerArray {
+
+	// default topic (the one of the knowrob marker visualization)
+	public static final String DEFAULT_TOPIC = "visualization_marker_array";
+
+	// frame of the poses
+	private static final String FRAME_ID = "map";
+
+	// poses closer than this (m, quaternion components) are not re-sent
+	private static final double POSE_EPSILON = 1e-5;
+
+	// all the bones are re-sent at least this often (ns)
+	private static final long FULL_UPDATE_PERIOD_NS = 1000000000L;
+
+	// the shared publishers by topic
+	private static final Map<String, Publisher<MarkerArray>> publishers =
+			new HashMap<String, Publisher<MarkerArray>>();
+
+	// publisher of this skeleton
+	private final Publisher<MarkerArray> publisher;
+
+	// namespace of the markers
+	private final String markerID;
+
+	// mesh folder of the bones
+	private final String meshFolderPath;
+
+	// marker id of the sent bones, by bone name
+	private final Map<String, Integer> boneIDs = new HashMap<String, Integer>();
+
+	// last sent pose (x y z qw qx qy qz) of every bone
+	private final Map<String, double[]> sentPoses = new HashMap<String, double[]>();
+
+	// wall time of the last update sending all the bones (0 = never)
+	private long lastFullUpdateNs = 0;
+
+	// nr of subscribers at the last update
+	private int nrSubscribers = 0;
+
+	// nr of published arrays and of sent bone markers
+	private long nrPublished = 0;
+	private long nrSent = 0;
+
+	/**
+	 * Get the shared publisher of the topic, created on first use
+	 */
+	private static synchronized Publisher<MarkerArray> publisher(String topic) {
+		Publisher<MarkerArray> pub = publishers.get(topic);
+		if(pub == null) {
+			pub = MarkerPublisher.get().getNode().newPublisher(topic, MarkerArray._TYPE);
+			publishers.put(topic, pub);
+		}
+		return pub;
+	}
+
+	/**
+	 * SkeletonMarkerArray constructor
+	 */
+	public SkeletonMarkerArray(String markerID, String meshFolderPath, String topic) {
+		this.markerID = markerID;
+		this.meshFolderPath = meshFolderPath;
+		this.publisher = publisher((topic != null && !topic.isEmpty()) ? topic : DEFAULT_TOPIC);
+	}
+
+	/**
+	 * Create a new marker message of the bone with the given action
+	 */
+	private Marker newMarker(String name, int id, int action) {
+		MessageFactory factory = MarkerPublisher.get().getNode().getTopicMessageFactory();
+		Marker m = factory.newFromType(Marker._TYPE);
+		m.getHeader().setFrameId(FRAME_ID);
+		m.setNs(this.markerID);
+		m.setId(id);
+		m.setType(Marker.MESH_RESOURCE);
+		m.setAction(action);
+		m.setMeshResource(this.meshFolderPath + name + ".dae");
+		m.setMeshUseEmbeddedMaterials(true);
+		m.getScale().setX(1.0);
+		m.getScale().setY(1.0);
+		m.getScale().setZ(1.0);
+		return m;
+	}
+
+	/**
+	 * Update the bones (poses x y z qw qx qy qz, in the order of the names)
+	 * and publish the changed ones as a single array, returns the nr of sent bones
+	 */
+	public synchronized int update(double[][] poses, String[] names) {
+		// send all the bones on the first update, to new subscribers and periodically
+		final long now_ns = System.nanoTime();
+		final int nr_subscribers = this.publisher.getNumberOfSubscribers();
+		final boolean full = this.lastFullUpdateNs == 0
+				|| nr_subscribers > this.nrSubscribers
+				|| now_ns - this.lastFullUpdateNs > FULL_UPDATE_PERIOD_NS;
+		if(full) {
+			this.lastFullUpdateNs = now_ns;
+		}
+		this.nrSubscribers = nr_subscribers;
+
+		List<Marker> changed = new ArrayList<Marker>();
+		for (int i = 0; i < names.length && i < poses.length; ++i) {
+			final double[] pose = poses[i];
+			final double[] sent = this.sentPoses.get(names[i]);
+			if(!full && sent != null && samePose(sent, pose)) {
+				continue;
+			}
+			Integer id = this.boneIDs.get(names[i]);
+			if(id == null) {
+				// next free id, the bones of later frames can come in any order
+				id = this.boneIDs.size();
+				this.boneIDs.put(names[i], id);
+			}
+			Marker m = this.newMarker(names[i], id, Marker.ADD);
+			m.getPose().getPosition().setX(pose[0]);
+			m.getPose().getPosition().setY(pose[1]);
+			m.getPose().getPosition().setZ(pose[2]);
+			m.getPose().getOrientation().setW(pose[3]);
+			m.getPose().getOrientation().setX(pose[4]);
+			m.getPose().getOrientation().setY(pose[5]);
+			m.getPose().getOrientation().setZ(pose[6]);
+			this.sentPoses.put(names[i], pose.clone());
+			changed.add(m);
+		}
+		this.publish(changed);
+		return changed.size();
+	}
+
+	/**
+	 * Publish the (new) markers in a new array
+	 */
+	private void publish(List<Marker> changed) {
+		if(changed.isEmpty()) {
+			return;
+		}
+		ConnectedNode node = MarkerPublisher.get().getNode();
+		for (Marker m : changed) {
+			m.getHeader().setStamp(node.getCurrentTime());
+		}
+		MarkerArray array = this.publisher.newMessage();
+		array.setMarkers(changed);
+		this.publisher.publish(array);
+		this.nrPublished++;
+		this.nrSent += changed.size();
+	}
+
+	/**
+	 * Check if the two poses are the same (within the epsilon)
+	 */
+	private static boolean samePose(double[] a, double[] b) {
+		for (int i = 0; i < 7; ++i) {
+			if(Math.abs(a[i] - b[i]) > POSE_EPSILON) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Delete all the bone markers (one array)
+	 */
+	public synchronized void erase() {
+		List<Marker> deleted = new ArrayList<Marker>();
+		for (Map.Entry<String, Integer> bone : this.boneIDs.entrySet()) {
+			deleted.add(this.newMarker(bone.getKey(), bone.getValue(), Marker.DELETE));
+		}
+		this.publish(deleted);
+		this.boneIDs.clear();
+		this.sentPoses.clear();
+		this.lastFullUpdateNs = 0;
+	}
+
+	/**
+	 * Nr of published arrays
+	 */
+	public synchronized long getNrPublished() {
+		return this.nrPublished;
+	}
+
+	/**
+	 * Nr of sent bone markers
+	 */
+	public synchronized long getNrSent() {
+		return this.nrSent;
+	}
+}
@@ -0,0 +1,352 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+
+package org.knowrob.knowrob_robcog;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Arrays;
+
+import com.mongodb.DBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BasicDBList;
+import com.mongodb.Cursor;
+import com.mongodb.AggregationOptions;
+
+/**
+ * Per actor read-ahead cache of the skeleton (bones) poses used when scrubbing
+ * the timeline. On a miss a window of frames around the queried time is loaded
+ * with a single aggregation and stored in primitive arrays, nearby lookups are
+ * then served from memory. The window grows (up to a max) in the direction
+ * the timeline is scrubbed and shrinks back when the direction changes.
+ * The windows are loaded outside of the lock and swapped in when complete,
+ * lookups which the cache cannot answer like the uncached query (e.g. across
+ * a change of the skeleton) return null.
+ */
+public class SkeletonPoseCache {
+
+	// pos xyz rot wxyz per bone
+	public static final int STRIDE = 7;
+
+	// index of a lookup which has to be answered by the uncached query
+	private static final int UNCACHED = -2;
+
+	// min and max length of the loaded windows (s)
+	private double minWindow;
+	private double maxWindow;
+
+	// the windows by coll / actor
+	private final Map<String, Window> windows = new HashMap<String, Window>();
+
+	// stats
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Loaded frames of a single actor between from and to, not modified once loaded
+	 */
+	private static class Frames {
+		// queried interval
+		final double from;
+		final double to;
+
+		// frames timestamps and bones poses (nrFrames x nrBones x STRIDE)
+		final double[] ts;
+		final double[] poses;
+		final int nrFrames;
+		final int nrBones;
+
+		// timestamps of the frames with a different skeleton (not loaded)
+		final double[] otherTs;
+
+		Frames(double from, double to, double[] ts, double[] poses,
+				int nrFrames, int nrBones, double[] otherTs) {
+			this.from = from;
+			this.to = to;
+			this.ts = ts;
+			this.poses = poses;
+			this.nrFrames = nrFrames;
+			this.nrBones = nrBones;
+			this.otherTs = otherTs;
+		}
+
+		/**
+		 * Index of the last frame at or before t in the window, -1 if none,
+		 * UNCACHED if a frame with a different skeleton is more recent
+		 */
+		int indexAt(double t) {
+			if(t < this.from || t > this.to) {
+				return -1;
+			}
+			final int idx = lastAtOrBefore(this.ts, this.nrFrames, t);
+			final int other = lastAtOrBefore(this.otherTs, this.otherTs.length, t);
+			if(other != -1 && (idx == -1 || this.otherTs[other] >= this.ts[idx])) {
+				return UNCACHED;
+			}
+			return idx;
+		}
+
+		/**
+		 * Index of the last value at or before t in the sorted values, -1 if none
+		 */
+		private static int lastAtOrBefore(double[] values, int size, double t) {
+			int lo = 0;
+			int hi = size - 1;
+			int idx = -1;
+			while(lo <= hi) {
+				final int mid = (lo + hi) >>> 1;
+				if(values[mid] <= t) {
+					idx = mid;
+					lo = mid + 1;
+				}
+				else {
+					hi = mid - 1;
+				}
+			}
+			return idx;
+		}
+	}
+
+	/**
+	 * Frames and scrub state of a single actor
+	 */
+	private static class Window {
+		// the current frames, null until the first load
+		Frames frames;
+
+		// names of the bones
+		String[] names;
+
+		// last looked up time and the read-ahead / read-behind lengths
+		double lastTs = Double.NaN;
+		double ahead;
+		double behind;
+	}
+
+	/**
+	 * SkeletonPoseCache constructor, window lengths in seconds
+	 */
+	public SkeletonPoseCache(double minWindow, double maxWindow) {
+		this.setWindow(minWindow, maxWindow);
+	}
+
+	/**
+	 * Set the min (initial) and max length of the loaded windows
+	 */
+	public synchronized void setWindow(double minWindow, double maxWindow) {
+		this.minWindow = Math.max(minWindow, 0.01);
+		this.maxWindow = Math.max(maxWindow, this.minWindow);
+	}
+
+	/**
+	 * Get the window of the actor in the collection
+	 */
+	private Window window(String key) {
+		Window w = this.windows.get(key);
+		if(w == null) {
+			w = new Window();
+			w.ahead = this.minWindow / 2;
+			w.behind = this.minWindow / 2;
+			this.windows.put(key, w);
+		}
+		return w;
+	}
+
+	/**
+	 * Get the poses (nr bones x 7) of the actor bones at or before the timestamp,
+	 * loads a new window on a miss (without holding the lock), null if the
+	 * lookup has to be answered by the uncached query
+	 */
+	public double[][] get(DBCollection coll, String actorName, double timestamp) {
+		final String key = coll.getFullName() + "/" + actorName;
+		double from_ts;
+		double to_ts;
+		synchronized(this) {
+			Window w = this.window(key);
+			final int idx = (w.frames != null) ? w.frames.indexAt(timestamp) : -1;
+			if(idx != -1) {
+				this.hits++;
+				w.lastTs = timestamp;
+				return (idx == UNCACHED) ? null : copyFrame(w.frames, idx);
+			}
+			this.misses++;
+			// grow the window in the scrub direction, reset it when it changes
+			final double dir = Double.isNaN(w.lastTs) ? 0 : Math.signum(timestamp - w.lastTs);
+			if(dir > 0) {
+				w.ahead = Math.min(w.ahead * 2, this.maxWindow - this.minWindow / 2);
+				w.behind = this.minWindow / 2;
+			}
+			else if(dir < 0) {
+				w.behind = Math.min(w.behind * 2, this.maxWindow - this.minWindow / 2);
+				w.ahead = this.minWindow / 2;
+			}
+			w.lastTs = timestamp;
+			from_ts = timestamp - w.behind;
+			to_ts = timestamp + w.ahead;
+		}
+
+		// run the aggregation without holding the lock, then swap the frames in
+		final Frames frames = load(coll, actorName, from_ts, to_ts);
+		synchronized(this) {
+			Window w = this.window(key);
+			w.frames = frames;
+		}
+		final int idx = frames.indexAt(timestamp);
+		return (idx < 0) ? null : copyFrame(frames, idx);
+	}
+
+	/**
+	 * Copy the bone poses of the frame
+	 */
+	private static double[][] copyFrame(Frames frames, int idx) {
+		double[][] bone_poses = new double[frames.nrBones][STRIDE];
+		final int off = idx * frames.nrBones * STRIDE;
+		for (int i = 0; i < frames.nrBones; ++i) {
+			System.arraycopy(frames.poses, off + i * STRIDE, bone_poses[i], 0, STRIDE);
+		}
+		return bone_poses;
+	}
+
+	/**
+	 * Load the frames of the actor between the timestamps
+	 */
+	private static Frames load(DBCollection coll, String actorName, double from_ts, double to_ts) {
+		// $and list for querying the $match in the aggregation
+		BasicDBList time_and_name = new BasicDBList();
+		time_and_name.add(new BasicDBObject("timestamp",
+				new BasicDBObject("$gte", from_ts).append("$lte", to_ts)));
+		time_and_name.add(new BasicDBObject("actors.name", actorName));
+
+		// $match, $sort on the time, $unwind the actors and $match the given one
+		DBObject match_time_and_name = new BasicDBObject(
+				"$match", new BasicDBObject("$and", time_and_name));
+		DBObject sort_asc = new BasicDBObject("$sort", new BasicDBObject("timestamp", 1));
+		DBObject unwind_actors = new BasicDBObject("$unwind", "$actors");
+		DBObject match_actor = new BasicDBObject(
+				"$match", new BasicDBObject("actors.name", actorName));
+
+		// build the $projection operation
+		DBObject proj_fields = new BasicDBObject("_id", 0);
+		proj_fields.put("timestamp", 1);
+		proj_fields.put("bones_pos", "$actors.bones.pos");
+		proj_fields.put("bones_rot", "$actors.bones.rot");
+		DBObject project = new BasicDBObject("$project", proj_fields);
+
+		List<DBObject> pipeline = Arrays.asList(
+				match_time_and_name, sort_asc, unwind_actors, match_actor, project);
+
+		AggregationOptions aggregationOptions = AggregationOptions.builder()
+				.batchSize(100)
+				.outputMode(AggregationOptions.OutputMode.CURSOR)
+				.allowDiskUse(true)
+				.build();
+
+		Cursor cursor = coll.aggregate(pipeline, aggregationOptions);
+
+		double[] ts = new double[64];
+		double[] poses = new double[0];
+		int nr_frames = 0;
+		int nr_bones = 0;
+		double[] other_ts = new double[0];
+		int nr_other = 0;
+		while(cursor.hasNext()) {
+			BasicDBObject curr_doc = (BasicDBObject) cursor.next();
+			BasicDBList pos_list = (BasicDBList) curr_doc.get("bones_pos");
+			BasicDBList rot_list = (BasicDBList) curr_doc.get("bones_rot");
+			final double curr_ts = curr_doc.getDouble("timestamp");
+			if(nr_frames == 0 && nr_other == 0) {
+				nr_bones = pos_list.size();
+				poses = new double[ts.length * nr_bones * STRIDE];
+			}
+			if(pos_list.size() != nr_bones) {
+				// frames with a different skeleton are answered by the uncached query
+				if(nr_other == other_ts.length) {
+					other_ts = Arrays.copyOf(other_ts, Math.max(8, other_ts.length * 2));
+				}
+				other_ts[nr_other++] = curr_ts;
+				continue;
+			}
+			if(nr_frames == ts.length) {
+				ts = Arrays.copyOf(ts, ts.length * 2);
+				poses = Arrays.copyOf(poses, ts.length * nr_bones * STRIDE);
+			}
+			ts[nr_frames] = curr_ts;
+			int off = nr_frames * nr_bones * STRIDE;
+			for (int i = 0; i < nr_bones; ++i, off += STRIDE) {
+				BasicDBObject pos = (BasicDBObject) pos_list.get(i);
+				BasicDBObject rot = (BasicDBObject) rot_list.get(i);
+				poses[off] = pos.getDouble("x");
+				poses[off+1] = pos.getDouble("y");
+				poses[off+2] = pos.getDouble("z");
+				poses[off+3] = rot.getDouble("w");
+				poses[off+4] = rot.getDouble("x");
+				poses[off+5] = rot.getDouble("y");
+				poses[off+6] = rot.getDouble("z");
+			}
+			nr_frames++;
+		}
+		cursor.close();
+		return new Frames(from_ts, to_ts, ts, poses, nr_frames, nr_bones,
+				Arrays.copyOf(other_ts, nr_other));
+	}
+
+	/**
+	 * Get the cached bone names of the actor, null if not set
+	 */
+	public synchronized String[] getBonesNames(DBCollection coll, String actorName) {
+		return this.window(coll.getFullName() + "/" + actorName).names;
+	}
+
+	/**
+	 * Set the bone names of the actor
+	 */
+	public synchronized void putBonesNames(DBCollection coll, String actorName, String[] names) {
+		this.window(coll.getFullName() + "/" + actorName).names = names;
+	}
+
+	/**
+	 * Remove all the windows
+	 */
+	public synchronized void clear() {
+		this.windows.clear();
+	}
+
+	/**
+	 * Print the hit / miss stats
+	 */
+	public synchronized void printStats() {
+		final long total = this.hits + this.misses;
+		System.out.println("Java - SkeletonPoseCache - actors: " + this.windows.size()
+				+ ", hits: " + this.hits + ", misses: " + this.misses
+				+ ", hit rate: " + ((total > 0) ? (100 * this.hits / total) : 0) + "%");
+	}
+}
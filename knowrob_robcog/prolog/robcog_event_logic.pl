@@ -41,9 +41,18 @@
         r_grasp/1,
         r_grasp/2,
         r_holds/2,
-        r_holds/3
+        r_holds/3,
+        r_timeline_build/0,
+        r_timeline_build/1,
+        r_events_at/4,
+        r_events_overlapping/5,
+        r_events_allen/6,
+        r_contact_at/3,
+        r_grasp_at/2
     ]).
 
+:- use_module(library('robcog_mongo_interface')).
+
 
 % returns the namspace when outputting values
 :- rdf_db:rdf_register_ns(owl,    'http://www.w3.org/2002/07/owl#', [keep(true)]).
@@ -68,7 +77,14 @@
     grasp(r, ?),
 
     holds(:, +),
-    holds(:, ?, ?).
+    holds(:, ?, ?),
+
+    r_timeline_build(r),
+    r_events_at(+, r, r, -),
+    r_events_overlapping(+, +, r, r, -),
+    r_events_allen(+, +, +, r, r, -),
+    r_contact_at(r, r, +),
+    r_grasp_at(r, +).
 
 %% r_set_ep() is nondet.
 %
@@ -164,12 +180,23 @@ r_contact(EvInst) :-
 
 %% r_contact(?ObjInst1, ?ObjInst2, ?StartEndList) is nondet.
 %
-% Checks for contacts between the two instances
+% Checks for contacts between the two instances, answered from the
+% timeline index if it is built for the current episode and ST or ET is given
 %
 % @param ObjInst1 Identifier of the first object instance
 % @param ObjInst2 Identifier of the second object instance
 % @param StartEndList List of the start and end timepoint [ST, ET]
 %
+r_contact(ObjInst1, ObjInst2, [ST, ET]) :-
+    r_timeline_interval(ST, ET), !,
+    rdf_global_id(knowrob_u:'TouchingSituation', Type),
+    r_timeline_interval_events(ST, ET, Type, ObjInst1, Events),
+    member(EvInst, Events),
+    rdf_has(EvInst, knowrob_u:'inContact', ObjInst1),
+    rdf_has(EvInst, knowrob_u:'inContact', ObjInst2),
+    ObjInst1 \== ObjInst2,
+    r_timeline_unify_interval(EvInst, ST, ET).
+
 r_contact(ObjInst1, ObjInst2, [ST, ET]) :-
     contact(EvInst),
     rdf_has(EvInst, knowrob_u:'inContact', ObjInst1),
@@ -184,7 +211,8 @@ r_contact(ObjInst1, ObjInst2, [ST, ET]) :-
 
 %% r_contact(?ObjInst1, ?ObjInst2, +T) is nondet.
 %
-% Checks for contacts between the two instances
+% Checks for contacts between the two instances, answered from the
+% timeline index if it is built for the current episode
 %
 % @param ObjInst1 Identifier of the first object instance
 % @param ObjInst2 Identifier of the second object instance
@@ -192,7 +220,10 @@ r_contact(ObjInst1, ObjInst2, [ST, ET]) :-
 %
 r_contact(ObjInst1, ObjInst2, T) :-
     number(T),
-    contact(ObjInst1, ObjInst2, [T, T]).
+    (   r_timeline_current
+    ->  r_contact_at(ObjInst1, ObjInst2, T)
+    ;   contact(ObjInst1, ObjInst2, [T, T])
+    ).
 
 
 %% r_grasp(?EvInst) is nondet.
@@ -209,11 +240,20 @@ r_grasp(EvInst) :-
 
 %% r_grasp(?ObjInst, ?StartEndList) is nondet.
 %
-% Checks for grasp event with start and end time
+% Checks for grasp event with start and end time, answered from the
+% timeline index if it is built for the current episode and ST or ET is given
 %
 % @param ObjInst Identifier of the object instance
 % @param StartEndList List of the start and end timepoint [ST, ET]
 %
+r_grasp(ObjInst, [ST, ET]) :-
+    r_timeline_interval(ST, ET), !,
+    rdf_global_id(knowrob:'GraspingSomething', Type),
+    r_timeline_interval_events(ST, ET, Type, ObjInst, Events),
+    member(EvInst, Events),
+    rdf_has(EvInst, knowrob:'objectActedOn', ObjInst),
+    r_timeline_unify_interval(EvInst, ST, ET).
+
 r_grasp(ObjInst, [ST, ET]) :-
     grasp(EvInst),
     rdf_has(EvInst, knowrob:'objectActedOn', ObjInst),
@@ -226,26 +266,227 @@ r_grasp(ObjInst, [ST, ET]) :-
 
 %% r_grasp(?ObjInst1, ?ObjInst2, +T) is nondet.
 %
-% Checks for grasp event at timepoint
+% Checks for grasp event at timepoint, answered from the
+% timeline index if it is built for the current episode
 %
 % @param ObjInst Identifier of the object instance
 % @param T Numeric value of the timepoint
 %
 r_grasp(ObjInst, T) :-
     number(T),
-    grasp(ObjInst, [T, T]).
+    (   r_timeline_current
+    ->  r_grasp_at(ObjInst, T)
+    ;   grasp(ObjInst, [T, T])
+    ).
+
+
+
+
+
+
+
+
+
+
+
+
+
+
+%% r_timeline_build is det.
+%
+% Builds the event timeline index of the current episode
+%
+r_timeline_build :-
+    r_get_ep(EpInst),
+    r_timeline_build(EpInst).
+
+
+%% r_timeline_build(+EpInst) is det.
+%
+% Builds the event timeline index (interval tree) of the episode,
+% every sub action with a start and end time is added once with all
+% its types, the r_events_* queries are then answered without
+% enumerating the events
+%
+% @param EpInst Identifier of the episode instance
+%
+r_timeline_build(EpInst) :-
+    robcog_event_timeline(Timeline),
+    % the index is not valid until it is fully built
+    nb_delete(r_timeline_ep),
+    jpl_call(Timeline, 'clear', [], @void),
+    forall((
+        rdf_has(EpInst, knowrob:'subAction', EvInst),
+        rdf_has(EvInst, knowrob:'startTime', StartInst),
+        rdf_has(EvInst, knowrob:'endTime', EndInst),
+        time_point_value(StartInst, StartValue),
+        time_point_value(EndInst, EndValue)
+    ),(
+        % the event matches the type filter of any of its types
+        findall(Type, r_class(EvInst, Type), Types0),
+        sort(Types0, Types),
+        jpl_new(array(class([java,lang],['String'])), Types, TypesArr),
+        findall(Obj, (
+            rdf_has(EvInst, knowrob_u:'inContact', Obj) ;
+            rdf_has(EvInst, knowrob:'objectActedOn', Obj)
+        ), Objs),
+        % typed array, the list of participants can be empty
+        jpl_new(array(class([java,lang],['String'])), Objs, ObjsArr),
+        jpl_call(Timeline, 'add', [EvInst, TypesArr, StartValue, EndValue, ObjsArr], @void)
+    )),
+    nb_setval(r_timeline_ep, EpInst).
+
+
+%% r_timeline_current is semidet.
+%
+% Checks that the timeline index is built, and built for the
+% current working episode (if one is set)
+%
+r_timeline_current :-
+    nb_current(r_timeline_ep, EpInst),
+    (   nb_current(ep_inst, CurrEpInst)
+    ->  CurrEpInst == EpInst
+    ;   true
+    ).
+
+
+%% r_timeline_interval(?ST, ?ET) is semidet.
+%
+% Checks that an [ST, ET] query can be answered from the timeline
+% index, i.e. the index is current and at least one bound is given
+%
+r_timeline_interval(ST, ET) :-
+    \+ (var(ST), var(ET)),
+    r_timeline_current.
+
+
+%% r_timeline_interval_events(?ST, ?ET, ?Type, ?Participant, -Events) is det.
+%
+% Gets the candidate events of an [ST, ET] query from the timeline index,
+% the events overlapping the interval if both bounds are given, else the
+% ones happening at the given bound
+%
+r_timeline_interval_events(ST, ET, Type, Participant, Events) :-
+    (   nonvar(ST), nonvar(ET)
+    ->  r_events_overlapping(ST, ET, Type, Participant, Events)
+    ;   nonvar(ST)
+    ->  r_events_at(ST, Type, Participant, Events)
+    ;   r_events_at(ET, Type, Participant, Events)
+    ).
 
 
+%% r_timeline_unify_interval(+EvInst, ?ST, ?ET) is semidet.
+%
+% Unifies ST and ET with the interval of the indexed event
+% (same rules as r_unify_time_interval)
+%
+r_timeline_unify_interval(EvInst, ST, ET) :-
+    robcog_event_timeline(Timeline),
+    jpl_call(Timeline, 'getStart', [EvInst], StartValue),
+    jpl_call(Timeline, 'getEnd', [EvInst], EndValue),
+    r_unify_time_interval(StartValue, EndValue, ST, ET).
 
 
+%% r_timeline_filter(?Arg, -Filter) is det.
+%
+% Unbound type / participant arguments match any event
+%
+r_timeline_filter(Arg, '') :- var(Arg), !.
+r_timeline_filter(Arg, Arg).
+
+
+%% r_events_at(+T, ?Type, ?Participant, -Events) is det.
+%
+% Gets the events happening at the timepoint from the timeline index,
+% fails if the index is not built for the current episode
+%
+% @param T Numeric value of the timepoint
+% @param Type Event class to filter for (unbound = any)
+% @param Participant Object instance taking part in the event (unbound = any)
+% @param Events List of the event instances sorted on their start time
+%
+r_events_at(T, Type, Participant, Events) :-
+    r_timeline_current,
+    robcog_event_timeline(Timeline),
+    r_timeline_filter(Type, TypeF),
+    r_timeline_filter(Participant, ParticipantF),
+    jpl_call(Timeline, 'at', [T, TypeF, ParticipantF], EventsArr),
+    jpl_array_to_list(EventsArr, Events).
 
 
+%% r_events_overlapping(+ST, +ET, ?Type, ?Participant, -Events) is det.
+%
+% Gets the events overlapping the interval from the timeline index,
+% fails if the index is not built for the current episode
+%
+% @param ST Numeric value of the interval start
+% @param ET Numeric value of the interval end
+% @param Type Event class to filter for (unbound = any)
+% @param Participant Object instance taking part in the event (unbound = any)
+% @param Events List of the event instances sorted on their start time
+%
+r_events_overlapping(ST, ET, Type, Participant, Events) :-
+    r_timeline_current,
+    robcog_event_timeline(Timeline),
+    r_timeline_filter(Type, TypeF),
+    r_timeline_filter(Participant, ParticipantF),
+    jpl_call(Timeline, 'overlapping', [ST, ET, TypeF, ParticipantF], EventsArr),
+    jpl_array_to_list(EventsArr, Events).
 
 
+%% r_events_allen(+Relation, +ST, +ET, ?Type, ?Participant, -Events) is det.
+%
+% Gets the events in the Allen relation to the interval from the timeline index,
+% fails if the index is not built for the current episode
+%
+% @param Relation before, after, meets, met_by, overlaps, overlapped_by, starts,
+%                 started_by, during, contains, finishes, finished_by, equals
+% @param ST Numeric value of the interval start
+% @param ET Numeric value of the interval end
+% @param Type Event class to filter for (unbound = any)
+% @param Participant Object instance taking part in the event (unbound = any)
+% @param Events List of the event instances sorted on their start time
+%
+r_events_allen(Relation, ST, ET, Type, Participant, Events) :-
+    r_timeline_current,
+    robcog_event_timeline(Timeline),
+    r_timeline_filter(Type, TypeF),
+    r_timeline_filter(Participant, ParticipantF),
+    jpl_call(Timeline, 'allen', [Relation, ST, ET, TypeF, ParticipantF], EventsArr),
+    jpl_array_to_list(EventsArr, Events).
 
 
+%% r_contact_at(?ObjInst1, ?ObjInst2, +T) is nondet.
+%
+% Checks for contacts between the two instances at the timepoint
+% using the timeline index
+%
+% @param ObjInst1 Identifier of the first object instance
+% @param ObjInst2 Identifier of the second object instance
+% @param T Numeric value of the timepoint
+%
+r_contact_at(ObjInst1, ObjInst2, T) :-
+    rdf_global_id(knowrob_u:'TouchingSituation', Type),
+    r_events_at(T, Type, ObjInst1, Events),
+    member(EvInst, Events),
+    rdf_has(EvInst, knowrob_u:'inContact', ObjInst1),
+    rdf_has(EvInst, knowrob_u:'inContact', ObjInst2),
+    ObjInst1 \== ObjInst2.
 
 
+%% r_grasp_at(?ObjInst, +T) is nondet.
+%
+% Checks for grasp events of the object at the timepoint
+% using the timeline index
+%
+% @param ObjInst Identifier of the object instance
+% @param T Numeric value of the timepoint
+%
+r_grasp_at(ObjInst, T) :-
+    rdf_global_id(knowrob:'GraspingSomething', Type),
+    r_events_at(T, Type, ObjInst, Events),
+    member(EvInst, Events),
+    rdf_has(EvInst, knowrob:'objectActedOn', ObjInst).
 
 
 %=====================================================================
@@ -256,11 +497,24 @@ r_grasp(ObjInst, T) :-
 % Usage: holds(contact(ObjClass1, ObjClass2), +T).
 % e.g.   holds(contact(knowrob:'KitchenIsland', knowrob:'Bowl'), 3.4).
 %
-% Check the two object classes are in contact at the given timepoint
+% Check the two object classes are in contact at the given timepoint,
+% answered from the timeline index if it is built for the current episode
 %
 % @param ObjClass1 Identifier of the first object class
 % @param ObjClass2 Identifier of the second object class
 %
+r_holds(contact(ObjClass1, ObjClass2), TStartValue, TEndValue) :-
+    r_timeline_interval(TStartValue, TEndValue), !,
+    rdf_global_id(knowrob_u:'TouchingSituation', Type),
+    r_timeline_interval_events(TStartValue, TEndValue, Type, _, Events),
+    member(EvInst, Events),
+    rdf_has(EvInst, knowrob_u:'inContact', ObjInst1),
+    rdf_has(EvInst, knowrob_u:'inContact', ObjInst2),
+    ObjInst1 \== ObjInst2,
+    r_class(ObjInst1, ObjClass1),
+    r_class(ObjInst2, ObjClass2),
+    r_timeline_unify_interval(EvInst, TStartValue, TEndValue).
+
 r_holds(contact(ObjClass1, ObjClass2), TStartValue, TEndValue) :-
     contact(ObjClass1, ObjClass2, TStartValue, TEndValue).
 
@@ -386,10 +640,20 @@ r_holds(contact(ObjClass1, ObjClass2), TStartValue, TEndValue) :-
 % Usage: holds(grasp(ObjClass1, ObjClass2), +T).
 % e.g.   holds(grasp(knowrob:'Bowl'), 3.4).
 %
-% Check the two object classes are in contact at the given timepoint
+% Check the two object classes are in contact at the given timepoint,
+% answered from the timeline index if it is built for the current episode
 %
 % @param ObjClass Identifier of the grasped object
 %
+r_holds(grasp(ObjClass), T) :-
+    number(T),
+    r_timeline_current, !,
+    rdf_global_id(knowrob:'GraspingSomething', Type),
+    r_events_at(T, Type, _, Events),
+    member(EvInst, Events),
+    rdf_has(EvInst, knowrob:'objectActedOn', ObjInst),
+    r_class(ObjInst, ObjClass).
+
 r_holds(grasp(ObjClass), T) :-
     grasp(ObjClass, StartValue, EndValue),
     T >= StartValue, T =< EndValue.
\ No newline at end of file
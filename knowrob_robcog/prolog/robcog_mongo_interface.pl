@@ -32,7 +32,8 @@
 :- module(robcog_mongo_interface,
   [
 		mongo_robcog_conn/1,
-        mongo_robcog_query/1
+        mongo_robcog_query/1,
+        robcog_event_timeline/1
   ]).
 
 % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %
@@ -78,4 +79,23 @@ mongo_robcog_query(MongoQuery) :-
 
 % if set, return object
 mongo_robcog_query(MongoQuery) :-
-    query_flag(MongoQuery).
\ No newline at end of file
+    query_flag(MongoQuery).
+
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %
+% Create the event timeline (interval tree) object
+% (makes sure the object is only created once)
+
+% set flag
+:- assert(timeline_flag(fail)).
+
+% check flag, then init the timeline
+robcog_event_timeline(Timeline) :-
+    timeline_flag(fail),
+    jpl_new('org.knowrob.knowrob_robcog.EventTimeline', [], Timeline),
+    retract(timeline_flag(fail)),
+    assert(timeline_flag(Timeline)),!.
+
+% if set, return object
+robcog_event_timeline(Timeline) :-
+    timeline_flag(Timeline).
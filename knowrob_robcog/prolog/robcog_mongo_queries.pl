@@ -36,6 +36,9 @@
 
         actor_pose/3,
         actor_pose/4,
+        actor_pose_interp/4,
+        bone_pose_interp/5,
+        actor_traj_resampled/6,
         view_actor_pose/6,
         view_actor_pose/7,
 
@@ -43,10 +46,13 @@
         view_mesh/5,
         view_bones_meshes/4,
         view_bones_meshes/5,
+        view_bones_meshes_array/5,
 
         actor_traj/6,
         view_actor_traj/8,
         view_actor_traj/9,
+        stream_actor_traj/9,
+        u_stream_cancel/1,
 
         bone_pose/5,
         view_bone_pose/7,
@@ -58,17 +64,39 @@
 
         bones_names/3,
         bones_poses/4,
+        bones_subset_poses/5,
         view_bones_poses/6,
         view_bones_poses/7,
 
         bones_trajs/6,
+        bones_subset_trajs/7,
+        actor_traj_packed/6,
+        bone_traj_packed/7,
+        bones_trajs_packed/6,
+        bones_subset_trajs_packed/7,
+        unpack_poses/2,
         view_bones_trajs/8,
         view_bones_trajs/9,
 
+        actor_pose_async/4,
+        bone_pose_async/5,
+        bones_poses_async/4,
+        actor_traj_async/6,
+        bone_traj_async/7,
+        bones_trajs_async/6,
+        u_query_done/1,
+        u_query_join/2,
+        u_query_join_all/2,
+        u_query_cancel/1,
+
         u_marker_remove/1,
         u_marker_remove_all/0,
+        u_marker_lod/2,
+        u_skeleton_cache/2,
+        u_skeleton_cache_off/0,
 
-        add_rating/4
+        add_rating/4,
+        flush_ratings/0
     ]).
 
 :-  rdf_meta
@@ -111,6 +139,40 @@ actor_pose(EpInst, Actor, Ts, Pose) :-
     jpl_call(MongoQuery, 'GetActorPoseAt', [Actor, Ts], JavaArr),
     jpl_array_to_list(JavaArr, Pose).
 
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Get the pose of the actor at the given timestamp, interpolated
+% between the keyframes before and after it
+% Actor = 'LeftHand'
+actor_pose_interp(EpInst, Actor, Ts, Pose) :-
+    mongo_robcog_query(MongoQuery),
+    get_mongo_coll_name(EpInst, CollName),
+    set_mongo_coll(CollName),
+    jpl_call(MongoQuery, 'GetActorPoseInterpolated', [Actor, Ts], JavaArr),
+    jpl_array_to_list(JavaArr, Pose).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Get the pose of the actor's bone at the given timestamp, interpolated
+% between the keyframes before and after it
+% Actor = 'LeftHand'
+% Bone = 'index_01_l'
+bone_pose_interp(EpInst, Actor, Bone, Ts, Pose) :-
+    mongo_robcog_query(MongoQuery),
+    get_mongo_coll_name(EpInst, CollName),
+    set_mongo_coll(CollName),
+    jpl_call(MongoQuery, 'GetBonePoseInterpolated', [Actor, Bone, Ts], JavaArr),
+    jpl_array_to_list(JavaArr, Pose).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Get the traj of the actor resampled every Step seconds,
+% as a flat list of (T X Y Z QW QX QY QZ)
+% Step = 0.01
+actor_traj_resampled(EpInst, Actor, Start, End, Step, Traj) :-
+    mongo_robcog_query(MongoQuery),
+    get_mongo_coll_name(EpInst, CollName),
+    set_mongo_coll(CollName),
+    jpl_call(MongoQuery, 'ResampleActorTraj', [Actor, Start, End, Step], JavaArr),
+    jpl_array_to_list(JavaArr, Traj).
+
 % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
 % View the pose of the actor at the given timestamp
 % Actor = 'LeftHand'
@@ -170,6 +232,18 @@ view_bones_meshes(EpInst, Actor, Ts, MarkerID, MeshFolderPath) :-
     jpl_call(MongoQuery, 'ViewBonesMeshesAt',
         [Actor, Ts, MarkerID, MeshFolderPath], @void).
 
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% View the mesh of the actor's bones at the given timestamp as a single
+% marker array, calls with the same MarkerID only send the moved bones
+% Actor = 'LeftHand'
+% MeshFolderPath = 'path to the meshes folder'
+view_bones_meshes_array(EpInst, Actor, Ts, MarkerID, MeshFolderPath) :-
+    mongo_robcog_query(MongoQuery),
+    get_mongo_coll_name(EpInst, CollName),
+    set_mongo_coll(CollName),
+    jpl_call(MongoQuery, 'ViewBonesMeshesArrayAt',
+        [Actor, Ts, MarkerID, MeshFolderPath], @void).
+
 % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
 % Get the trajectory of actor at between the given timestamps
 % Actor = 'LeftHand'
@@ -204,6 +278,21 @@ view_actor_traj(EpInst, Actor, Start, End, MarkerID, MarkerType, Color, Scale, D
     jpl_call(MongoQuery, 'ViewActorTraj',
         [Actor, Start, End, MarkerID, MarkerType, Color, Scale, DT], @void).
 
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Stream the traj of the actor as chunk markers while the query results arrive
+stream_actor_traj(EpInst, Actor, Start, End, MarkerID, MarkerType, Color, Scale, DT) :-
+    mongo_robcog_query(MongoQuery),
+    get_mongo_coll_name(EpInst, CollName),
+    set_mongo_coll(CollName),
+    jpl_call(MongoQuery, 'StreamActorTraj',
+        [Actor, Start, End, MarkerID, MarkerType, Color, Scale, DT], _).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Stop streaming the traj with the given marker id
+u_stream_cancel(MarkerID) :-
+    mongo_robcog_query(MongoQuery),
+    jpl_call(MongoQuery, 'CancelStream', [MarkerID], @void).
+
 
 % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
 % Get the pose of the bone at the given timestamp
@@ -297,6 +386,19 @@ bones_poses(EpInst, Actor, Ts, Poses) :-
     jpl_array_to_list(JavaMultiArr, JavaObjList),
     maplist(jpl_array_to_list, JavaObjList, Poses).
 
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Get the poses of the given actor bones at the given timestamp
+% Actor = 'LeftHand'
+% Bones = ['index_03_l', 'thumb_03_l']
+bones_subset_poses(EpInst, Actor, Bones, Ts, Poses) :-
+    mongo_robcog_query(MongoQuery),
+    get_mongo_coll_name(EpInst, CollName),
+    set_mongo_coll(CollName),
+    jpl_list_to_array(Bones, BonesArr),
+    jpl_call(MongoQuery, 'GetBonesSubsetPosesAt', [Actor, BonesArr, Ts], JavaMultiArr),
+    jpl_array_to_list(JavaMultiArr, JavaObjList),
+    maplist(jpl_array_to_list, JavaObjList, Poses).
+
 % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
 % View the poses of the actor bones at the given timestamp 
 % Actor = 'LeftHand'
@@ -331,6 +433,94 @@ bones_trajs(EpInst, Actor, Start, End, DT, Trajs) :-
     maplist(jpl_array_to_list, JavaObjList, JavaPoseObjs),
     maplist(maplist_arr_to_list, JavaPoseObjs, Trajs).
 
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Get the trajectories of the given actor bones between the given timestamps
+% Actor = 'LeftHand'
+% Bones = ['index_03_l', 'thumb_03_l']
+% DT = 0.01 (seconds)
+bones_subset_trajs(EpInst, Actor, Bones, Start, End, DT, Trajs) :-
+    mongo_robcog_query(MongoQuery),
+    get_mongo_coll_name(EpInst, CollName),
+    set_mongo_coll(CollName),
+    jpl_list_to_array(Bones, BonesArr),
+    jpl_call(MongoQuery, 'GetBonesSubsetTrajs', [Actor, BonesArr, Start, End, DT], JavaMultiArr),
+    jpl_array_to_list(JavaMultiArr, JavaObjList),
+    maplist(jpl_array_to_list, JavaObjList, JavaPoseObjs),
+    maplist(maplist_arr_to_list, JavaPoseObjs, Trajs).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Unpack a packed result [NrFrames, NrBones, Stride | Values]
+% into a list of frames, every frame a list of NrBones poses
+unpack_poses([NF, NB, S | Values], Frames) :-
+    NrFrames is integer(NF),
+    NrBones is integer(NB),
+    Stride is integer(S),
+    length(Frames, NrFrames),
+    foldl(unpack_frame(NrBones, Stride), Frames, Values, []).
+
+unpack_frame(NrBones, Stride, Frame, Values, Rest) :-
+    length(Frame, NrBones),
+    foldl(unpack_pose(Stride), Frame, Values, Rest).
+
+unpack_pose(Stride, Pose, Values, Rest) :-
+    length(Pose, Stride),
+    append(Pose, Rest, Values).
+
+unpack_single([Pose], Pose).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Get the trajectory of the actor as a single packed array (same result as actor_traj/6)
+% Actor = 'LeftHand'
+% DT = 0.01 (seconds)
+actor_traj_packed(EpInst, Actor, Start, End, DT, Traj) :-
+    mongo_robcog_query(MongoQuery),
+    get_mongo_coll_name(EpInst, CollName),
+    set_mongo_coll(CollName),
+    jpl_call(MongoQuery, 'GetActorTrajPacked', [Actor, Start, End, DT], JavaArr),
+    jpl_array_to_list(JavaArr, Packed),
+    unpack_poses(Packed, Frames),
+    maplist(unpack_single, Frames, Traj).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Get the trajectory of the actor's bone as a single packed array (same result as bone_traj/7)
+% Actor = 'LeftHand'
+% Bone = 'index_03_l'
+% DT = 0.01 (seconds)
+bone_traj_packed(EpInst, Actor, Bone, Start, End, DT, Traj) :-
+    mongo_robcog_query(MongoQuery),
+    get_mongo_coll_name(EpInst, CollName),
+    set_mongo_coll(CollName),
+    jpl_call(MongoQuery, 'GetBoneTrajPacked', [Actor, Bone, Start, End, DT], JavaArr),
+    jpl_array_to_list(JavaArr, Packed),
+    unpack_poses(Packed, Frames),
+    maplist(unpack_single, Frames, Traj).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Get the trajectories of the actor bones as a single packed array (same result as bones_trajs/6)
+% Actor = 'LeftHand'
+% DT = 0.01 (seconds)
+bones_trajs_packed(EpInst, Actor, Start, End, DT, Trajs) :-
+    mongo_robcog_query(MongoQuery),
+    get_mongo_coll_name(EpInst, CollName),
+    set_mongo_coll(CollName),
+    jpl_call(MongoQuery, 'GetBonesTrajsPacked', [Actor, Start, End, DT], JavaArr),
+    jpl_array_to_list(JavaArr, Packed),
+    unpack_poses(Packed, Trajs).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Get the trajectories of the given actor bones as a single packed array
+% Actor = 'LeftHand'
+% Bones = ['index_03_l', 'thumb_03_l']
+% DT = 0.01 (seconds)
+bones_subset_trajs_packed(EpInst, Actor, Bones, Start, End, DT, Trajs) :-
+    mongo_robcog_query(MongoQuery),
+    get_mongo_coll_name(EpInst, CollName),
+    set_mongo_coll(CollName),
+    jpl_list_to_array(Bones, BonesArr),
+    jpl_call(MongoQuery, 'GetBonesSubsetTrajsPacked', [Actor, BonesArr, Start, End, DT], JavaArr),
+    jpl_array_to_list(JavaArr, Packed),
+    unpack_poses(Packed, Trajs).
+
 % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
 % Get the poses of the actor bones between the given timestamps 
 % Actor = 'LeftHand'
@@ -354,12 +544,150 @@ view_bones_trajs(EpInst, Actor, Start, End, MarkerID, MarkerType, Color, Scale,
         [Actor, Start, End, MarkerID, MarkerType, Color, Scale, DT], @void).
 
 
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Get the table of the running async queries (shared with knowrob_sim_games)
+u_async_handles(Handles) :-
+    jpl_call('org.knowrob.knowrob_sim_games.AsyncQueryHandles', get, [], Handles).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Keep the future of the async query, unify Handle with its int handle
+u_async_handle(Future, Handle) :-
+    u_async_handles(Handles),
+    jpl_call(Handles, 'Register', [Future], Handle).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Start the actor_pose/4 query without waiting for it, the query keeps the
+% collection of the episode, several episodes and actors can be queried at once
+% Actor = 'LeftHand'
+actor_pose_async(EpInst, Actor, Ts, Handle) :-
+    mongo_robcog_query(MongoQuery),
+    get_mongo_coll_name(EpInst, CollName),
+    set_mongo_coll(CollName),
+    jpl_call(MongoQuery, 'GetActorPoseAtAsync', [Actor, Ts], Future),
+    u_async_handle(Future, Handle).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Start the bone_pose/5 query without waiting for it
+% Actor = 'LeftHand'
+% Bone = 'index_3_l'
+bone_pose_async(EpInst, Actor, Bone, Ts, Handle) :-
+    mongo_robcog_query(MongoQuery),
+    get_mongo_coll_name(EpInst, CollName),
+    set_mongo_coll(CollName),
+    jpl_call(MongoQuery, 'GetBonePoseAtAsync', [Actor, Bone, Ts], Future),
+    u_async_handle(Future, Handle).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Start the query of the poses of the actor bones without waiting for it
+% Actor = 'LeftHand'
+bones_poses_async(EpInst, Actor, Ts, Handle) :-
+    mongo_robcog_query(MongoQuery),
+    get_mongo_coll_name(EpInst, CollName),
+    set_mongo_coll(CollName),
+    jpl_call(MongoQuery, 'GetBonesPosesAtAsync', [Actor, Ts], Future),
+    u_async_handle(Future, Handle).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Start the actor_traj/6 query without waiting for it
+% Actor = 'LeftHand'
+% DT = 0.01 (seconds)
+actor_traj_async(EpInst, Actor, Start, End, DT, Handle) :-
+    mongo_robcog_query(MongoQuery),
+    get_mongo_coll_name(EpInst, CollName),
+    set_mongo_coll(CollName),
+    jpl_call(MongoQuery, 'GetActorTrajAsync', [Actor, Start, End, DT], Future),
+    u_async_handle(Future, Handle).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Start the bone_traj/7 query without waiting for it
+% Actor = 'LeftHand'
+% Bone = 'index_03_l'
+% DT = 0.01 (seconds)
+bone_traj_async(EpInst, Actor, Bone, Start, End, DT, Handle) :-
+    mongo_robcog_query(MongoQuery),
+    get_mongo_coll_name(EpInst, CollName),
+    set_mongo_coll(CollName),
+    jpl_call(MongoQuery, 'GetBoneTrajAsync', [Actor, Bone, Start, End, DT], Future),
+    u_async_handle(Future, Handle).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Start the bones_trajs/6 query without waiting for it
+% Actor = 'LeftHand'
+% DT = 0.01 (seconds)
+bones_trajs_async(EpInst, Actor, Start, End, DT, Handle) :-
+    mongo_robcog_query(MongoQuery),
+    get_mongo_coll_name(EpInst, CollName),
+    set_mongo_coll(CollName),
+    jpl_call(MongoQuery, 'GetBonesTrajsAsync', [Actor, Start, End, DT], Future),
+    u_async_handle(Future, Handle).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Check (without blocking) if the async query finished
+u_query_done(Handle) :-
+    u_async_handles(Handles),
+    jpl_call(Handles, 'IsDone', [Handle], @(true)).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Wait for the async query and get its result as (nested) list, same as
+% the blocking query, fails if the query failed or was cancelled
+u_query_join(Handle, Result) :-
+    u_async_handles(Handles),
+    jpl_call(Handles, 'Join', [Handle], ResultArr),
+    ResultArr \= @(null),
+    u_array_to_list(ResultArr, Result).
+
+u_array_to_list(Arr, List) :-
+    jpl_array_to_list(Arr, Elems),
+    maplist(u_elem_to_list, Elems, List).
+
+u_elem_to_list(Elem, List) :-
+    jpl_is_object(Elem), !,
+    u_array_to_list(Elem, List).
+u_elem_to_list(Elem, Elem).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Wait for all the async queries, the results are in the order of the handles,
+% all the handles are released, fails afterwards if any of the queries failed
+u_query_join_all(HandleList, Results) :-
+    u_async_handles(Handles),
+    jpl_new(array(int), HandleList, HandleArr),
+    jpl_call(Handles, 'JoinAll', [HandleArr], ResultsArr),
+    jpl_array_to_list(ResultsArr, ResultArrs),
+    \+ memberchk(@(null), ResultArrs),
+    maplist(u_array_to_list, ResultArrs, Results).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Cancel the async query (if it did not start yet) and release its handle
+u_query_cancel(Handle) :-
+    u_async_handles(Handles),
+    jpl_call(Handles, 'Cancel', [Handle], @void).
+
+
 % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
 % Remove all markers created with the knowrob_robcog package
 u_marker_remove(all) :-
     mongo_robcog_query(MongoQuery),
     jpl_call(MongoQuery, 'RemoveAllMarkers', [], @void).
 
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Simplify the trajectory markers (tolerance in m, max nr of points, 0 = off)
+u_marker_lod(Tolerance, MaxPoints) :-
+    mongo_robcog_query(MongoQuery),
+    jpl_call(MongoQuery, 'SetMarkerLOD', [Tolerance, MaxPoints], @void).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Enable the read-ahead cache of the bones poses (off by default)
+% with the given windows (seconds), e.g. MinWindow = 1.0, MaxWindow = 16.0
+u_skeleton_cache(MinWindow, MaxWindow) :-
+    mongo_robcog_query(MongoQuery),
+    jpl_call(MongoQuery, 'EnableSkeletonCache', [MinWindow, MaxWindow], @void).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Disable the read-ahead cache of the bones poses
+u_skeleton_cache_off :-
+    mongo_robcog_query(MongoQuery),
+    jpl_call(MongoQuery, 'DisableSkeletonCache', [], @void).
+
 % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
 % Remove the marker witht he given ID
 % MarkerID = 'coll_traj_id'
@@ -387,3 +715,10 @@ add_rating(EpInst, RatingType, Score, EpisodesPath) :-
     mongo_robcog_query(MongoQuery),
     jpl_call(MongoQuery, 'AddRating',
         [RatingInst, RatingType, Score, FilePath], @void).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Write the queued ratings into their files now
+% (otherwise done periodically in the background)
+flush_ratings :-
+    mongo_robcog_query(MongoQuery),
+    jpl_call(MongoQuery, 'FlushRatings', [], @void).
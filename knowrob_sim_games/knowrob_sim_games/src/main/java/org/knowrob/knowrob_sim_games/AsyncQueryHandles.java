@@ -0,0 +1,144 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+package org.knowrob.knowrob_sim_games;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Process wide table of the running asynchronous queries, maps the futures
+ * to int handles which can be kept in prolog (submit, poll with IsDone,
+ * then Join). A handle is released by Join or Cancel.
+ */
+public class AsyncQueryHandles {
+
+	// the single instance
+	private static AsyncQueryHandles instance;
+
+	// the running (or finished, not yet joined) queries by handle
+	private Map<Integer, CompletableFuture<?>> futures;
+
+	// next free handle
+	private int nextHandle;
+
+	/**
+	 * Get the query handles table
+	 */
+	public static synchronized AsyncQueryHandles get() {
+		if(instance == null) {
+			instance = new AsyncQueryHandles();
+		}
+		return instance;
+	}
+
+	/**
+	 * AsyncQueryHandles constructor
+	 */
+	private AsyncQueryHandles() {
+		this.futures = new HashMap<Integer, CompletableFuture<?>>();
+		this.nextHandle = 1;
+	}
+
+	/**
+	 * Keep the future of the query, returns its handle
+	 */
+	public synchronized int Register(CompletableFuture<?> future) {
+		final int handle = this.nextHandle++;
+		this.futures.put(handle, future);
+		return handle;
+	}
+
+	/**
+	 * Check if the query finished (also true for unknown handles, nothing to wait for)
+	 */
+	public synchronized boolean IsDone(int handle) {
+		final CompletableFuture<?> future = this.futures.get(handle);
+		return future == null || future.isDone();
+	}
+
+	/**
+	 * Wait for the query and release its handle, returns the result
+	 * or null if the query failed, was cancelled or the handle is unknown
+	 */
+	public Object Join(int handle) {
+		CompletableFuture<?> future;
+		synchronized(this) {
+			future = this.futures.remove(handle);
+		}
+		if(future == null) {
+			System.out.println("Java - Unknown async query handle: " + handle);
+			return null;
+		}
+		// wait outside the lock, other rules can submit and poll meanwhile
+		try {
+			return future.join();
+		}
+		catch (CompletionException e) {
+			e.getCause().printStackTrace();
+		}
+		catch (CancellationException e) {
+			System.out.println("Java - Async query " + handle + " was cancelled");
+		}
+		return null;
+	}
+
+	/**
+	 * Wait for all the queries and release all their handles (also if some
+	 * of them failed), returns the results in the order of the handles,
+	 * null for the failed ones
+	 */
+	public Object[] JoinAll(int[] handles) {
+		Object[] results = new Object[handles.length];
+		for (int i = 0; i < handles.length; i++) {
+			results[i] = this.Join(handles[i]);
+		}
+		return results;
+	}
+
+	/**
+	 * Cancel the query (if it did not start yet) and release its handle
+	 */
+	public synchronized void Cancel(int handle) {
+		final CompletableFuture<?> future = this.futures.remove(handle);
+		if(future != null) {
+			future.cancel(false);
+		}
+	}
+
+	/**
+	 * Nr of registered (not yet joined) queries
+	 */
+	public synchronized int getNrPending() {
+		return this.futures.size();
+	}
+}
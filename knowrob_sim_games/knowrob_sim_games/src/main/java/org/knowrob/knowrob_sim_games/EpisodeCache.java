@@ -0,0 +1,142 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+package org.knowrob.knowrob_sim_games;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory bounded LRU cache of whole episode pose tracks,
+ * keyed by db.collection, model and (optional) link name
+ */
+public class EpisodeCache {
+
+	// cached tracks in access order (least recently used first)
+	private final LinkedHashMap<String, PoseTrack> tracks;
+
+	// memory budget and current usage in bytes
+	private long maxBytes;
+	private long usedBytes;
+
+	// lookup stats
+	private long hits;
+	private long misses;
+
+	/**
+	 * EpisodeCache constructor with the memory budget in bytes
+	 */
+	public EpisodeCache(long maxBytes) {
+		this.tracks = new LinkedHashMap<String, PoseTrack>(16, 0.75f, true);
+		this.maxBytes = maxBytes;
+		this.usedBytes = 0;
+	}
+
+	/**
+	 * Build the cache key of a model (link_name null) or link track
+	 */
+	public static String key(String coll_name, String model_name, String link_name) {
+		return coll_name + "/" + model_name + ((link_name != null) ? "/" + link_name : "");
+	}
+
+	/**
+	 * Get the cached track, null if not cached
+	 */
+	public synchronized PoseTrack get(String key) {
+		PoseTrack track = this.tracks.get(key);
+		if(track != null) {
+			this.hits++;
+		}
+		else {
+			this.misses++;
+		}
+		return track;
+	}
+
+	/**
+	 * Add the track and evict the least recently used ones until
+	 * the budget is respected (tracks larger than the budget are not kept)
+	 */
+	public synchronized void put(String key, PoseTrack track) {
+		final long bytes = track.memoryBytes();
+		if(bytes > this.maxBytes) {
+			return;
+		}
+		PoseTrack prev = this.tracks.put(key, track);
+		if(prev != null) {
+			this.usedBytes -= prev.memoryBytes();
+		}
+		this.usedBytes += bytes;
+		this.evict();
+	}
+
+	/**
+	 * Remove the least recently used tracks until the budget is respected
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, PoseTrack>> it = this.tracks.entrySet().iterator();
+		while(this.usedBytes > this.maxBytes && it.hasNext()) {
+			this.usedBytes -= it.next().getValue().memoryBytes();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Change the memory budget (evicts if needed)
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		this.evict();
+	}
+
+	/**
+	 * Remove all the cached tracks
+	 */
+	public synchronized void clear() {
+		this.tracks.clear();
+		this.usedBytes = 0;
+	}
+
+	/**
+	 * Memory used by the cached tracks in bytes
+	 */
+	public synchronized long getUsedBytes() {
+		return this.usedBytes;
+	}
+
+	/**
+	 * Print the cache stats
+	 */
+	public synchronized void printStats() {
+		System.out.println("Java - EpisodeCache - tracks: " + this.tracks.size()
+				+ ", used: " + (this.usedBytes / 1024) + " / " + (this.maxBytes / 1024) + " KB"
+				+ ", hits: " + this.hits + ", misses: " + this.misses);
+	}
+}
@@ -0,0 +1,427 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+package org.knowrob.knowrob_sim_games;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.Cursor;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+import org.knowrob.vis.MarkerObject;
+import org.knowrob.vis.MarkerPublisher;
+import visualization_msgs.Marker;
+
+/**
+ * Replays the links meshes of a model (markerID + link name) from a single
+ * timestamp sorted cursor, at real time or N x speed. Only the current world
+ * state is kept in memory, the link markers are created once and then moved.
+ * World states closer to the previous frame than the max frame rate allows
+ * are dropped, late world states are dropped as well but the newest one is
+ * still shown at least once per frame period (so a lagging cursor does not
+ * freeze the replay). The replay runs on its own thread
+ * and can be paused, resumed, sped up and seeked at any time, at the end of
+ * the interval it waits for a seek (or a stop).
+ */
+public class EpisodeReplayer implements Runnable {
+
+	// episode collection and replayed model
+	private final DBCollection coll;
+	private final String modelName;
+
+	// mesh markers settings
+	private final String meshFolderPath;
+	private final String markerID;
+
+	// used for the rotation conversions
+	private final MongoSimGames simGames;
+
+	// replayed interval
+	private final double startTs;
+	private final double endTs;
+
+	// min wall time between two published frames (ns)
+	private final long framePeriodNs;
+
+	// world states later than this are dropped (ns)
+	private final long maxLagNs;
+
+	// the link mesh markers (created on the first frame), the lock is also
+	// held while publishing so remove() cannot miss a marker being created
+	private final Map<String, MarkerObject> markers = new HashMap<String, MarkerObject>();
+
+	// playback state, guarded by this
+	private double speed;
+	private boolean paused = false;
+	private volatile boolean stopped = false;
+	private double seekTs = Double.NaN;
+	private double pausedTs;
+
+	// episode time at the wall time playStartNs
+	private double playStartTs;
+	private long playStartNs;
+
+	// nr of published and dropped frames
+	private volatile long nrFrames = 0;
+	private volatile long nrDropped = 0;
+
+	// the replay reached the end of the interval and waits for a seek
+	private volatile boolean atEnd = false;
+
+	// done flag (the thread exited)
+	private volatile boolean done = false;
+
+	/**
+	 * EpisodeReplayer constructor
+	 */
+	public EpisodeReplayer(DBCollection coll,
+			String modelName,
+			double startTs,
+			double endTs,
+			String meshFolderPath,
+			String markerID,
+			double speed,
+			double maxFrameRate,
+			MongoSimGames simGames) {
+		this.coll = coll;
+		this.modelName = modelName;
+		this.startTs = startTs;
+		this.endTs = endTs;
+		this.meshFolderPath = meshFolderPath;
+		this.markerID = markerID;
+		this.speed = (speed > 0) ? speed : 1.0;
+		this.framePeriodNs = (maxFrameRate > 0) ? (long) (1e9 / maxFrameRate) : 0;
+		this.maxLagNs = Math.max(this.framePeriodNs, 50000000L);
+		this.simGames = simGames;
+		this.resetClock(startTs);
+	}
+
+	/**
+	 * Start the replay on a new (daemon) thread
+	 */
+	public EpisodeReplayer start() {
+		Thread thread = new Thread(this, "EpisodeReplayer-" + this.markerID);
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	/**
+	 * Open the timestamp sorted cursor of the world states from the given time,
+	 * the $match and $sort are backed by the timestamp index
+	 */
+	private Cursor open(double from_ts) {
+		DBObject match_time = new BasicDBObject("$match", new BasicDBObject("timestamp",
+				new BasicDBObject("$gte", from_ts).append("$lte", this.endTs)));
+		DBObject sort_asc = new BasicDBObject("$sort", new BasicDBObject("timestamp", 1));
+		DBObject unwind_models = new BasicDBObject("$unwind", "$models");
+		DBObject match_model = new BasicDBObject(
+				"$match", new BasicDBObject("models.name", this.modelName));
+
+		// build the $projection operation
+		DBObject proj_fields = new BasicDBObject("_id", 0);
+		proj_fields.put("timestamp", 1);
+		proj_fields.put("links_pos", "$models.links.pos");
+		proj_fields.put("links_rot", "$models.links.rot");
+		proj_fields.put("links_name", "$models.links.name");
+		DBObject project = new BasicDBObject("$project", proj_fields);
+
+		List<DBObject> pipeline = Arrays.asList(match_time, sort_asc, unwind_models, match_model, project);
+
+		AggregationOptions aggregationOptions = AggregationOptions.builder()
+				.batchSize(100)
+				.outputMode(AggregationOptions.OutputMode.CURSOR)
+				.allowDiskUse(true)
+				.build();
+
+		return this.coll.aggregate(pipeline, aggregationOptions);
+	}
+
+	@Override
+	public void run() {
+		Cursor cursor = this.open(this.startTs);
+		try {
+			// the world state waiting to be published (kept over pauses)
+			BasicDBObject pending = null;
+			// the last dropped world state, published if the cursor ends on it
+			BasicDBObject dropped = null;
+			long last_frame_ns = 0;
+			while(true) {
+				synchronized(this) {
+					while(this.paused && !this.stopped) {
+						this.wait();
+					}
+					if(this.stopped) {
+						break;
+					}
+					if(!Double.isNaN(this.seekTs)) {
+						// restart the cursor from the new time
+						if(cursor != null) {
+							cursor.close();
+						}
+						cursor = this.open(this.seekTs);
+						this.resetClock(this.seekTs);
+						this.seekTs = Double.NaN;
+						pending = null;
+						dropped = null;
+					}
+				}
+
+				if(pending == null) {
+					if(!cursor.hasNext()) {
+						// show the final state
+						if(dropped != null) {
+							this.publish(dropped);
+							dropped = null;
+						}
+						cursor.close();
+						cursor = null;
+						// keep the markers and wait for a seek (or stop)
+						synchronized(this) {
+							this.atEnd = true;
+							while(!this.stopped && Double.isNaN(this.seekTs)) {
+								this.wait();
+							}
+							this.atEnd = false;
+						}
+						continue;
+					}
+					pending = (BasicDBObject) cursor.next();
+				}
+				final double curr_ts = pending.getDouble("timestamp");
+
+				// wait until the world state is due
+				synchronized(this) {
+					long wait_ns;
+					while(!this.stopped && !this.paused && Double.isNaN(this.seekTs)
+							&& (wait_ns = this.dueNs(curr_ts) - System.nanoTime()) > 0) {
+						this.wait(wait_ns / 1000000, (int) (wait_ns % 1000000));
+					}
+					if(this.stopped || this.paused || !Double.isNaN(this.seekTs)) {
+						continue;
+					}
+				}
+
+				// drop the frame if the previous one is too recent, or if we are late
+				// and a frame has been shown within the last frame period
+				final long now_ns = System.nanoTime();
+				final long since_frame_ns = now_ns - last_frame_ns;
+				final long show_period_ns = (this.framePeriodNs > 0) ? this.framePeriodNs : this.maxLagNs;
+				if(since_frame_ns < this.framePeriodNs
+						|| (now_ns - this.dueNs(curr_ts) > this.maxLagNs && since_frame_ns < show_period_ns)) {
+					dropped = pending;
+					pending = null;
+					this.nrDropped++;
+					continue;
+				}
+
+				this.publish(pending);
+				last_frame_ns = now_ns;
+				pending = null;
+				dropped = null;
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} finally {
+			if(cursor != null) {
+				cursor.close();
+			}
+			this.done = true;
+		}
+	}
+
+	/**
+	 * Move (or create) the link mesh markers to the poses of the world state
+	 */
+	private void publish(BasicDBObject doc) {
+		BasicDBList pos_list = (BasicDBList) doc.get("links_pos");
+		BasicDBList rot_list = (BasicDBList) doc.get("links_rot");
+		BasicDBList names_list = (BasicDBList) doc.get("links_name");
+
+		synchronized(this.markers) {
+			// stopped (or removed) while the frame was due
+			if(this.stopped) {
+				return;
+			}
+			// pos_list and rot_list and names_list length should be always the same
+			for (int i = 0; i < names_list.size(); ++i) {
+				final String curr_name = (String) names_list.get(i);
+				final String curr_id = this.markerID + curr_name;
+				final BasicDBObject pos = (BasicDBObject) pos_list.get(i);
+				final BasicDBObject rot = (BasicDBObject) rot_list.get(i);
+
+				MarkerObject m = this.markers.get(curr_id);
+				if(m == null) {
+					m = MarkerPublisher.get().createMarker(curr_id);
+					m.setType(Marker.MESH_RESOURCE);
+					m.setMeshResource(this.meshFolderPath + curr_name + ".dae");
+					m.setScale(new float[] {1.0f,1.0f,1.0f});
+					this.markers.put(curr_id, m);
+				}
+				m.setTranslation(new double[] {pos.getDouble("x"), pos.getDouble("y"), pos.getDouble("z")});
+				m.setOrientation(this.simGames.quatFromEulerRad(
+						rot.getDouble("x"), rot.getDouble("y"), rot.getDouble("z")));
+			}
+		}
+		this.nrFrames++;
+	}
+
+	/**
+	 * Wall time (ns) at which the given episode time is due
+	 */
+	private long dueNs(double ts) {
+		return this.playStartNs + (long) ((ts - this.playStartTs) / this.speed * 1e9);
+	}
+
+	/**
+	 * Anchor the given episode time to the current wall time
+	 */
+	private void resetClock(double ts) {
+		this.playStartTs = ts;
+		this.playStartNs = System.nanoTime();
+	}
+
+	/**
+	 * Current episode time of the replay
+	 */
+	public synchronized double getEpisodeTime() {
+		if(this.paused) {
+			return this.pausedTs;
+		}
+		return Math.min(this.endTs,
+				this.playStartTs + (System.nanoTime() - this.playStartNs) / 1e9 * this.speed);
+	}
+
+	/**
+	 * Pause the replay, the markers keep the current poses
+	 */
+	public synchronized void pause() {
+		if(!this.paused) {
+			this.pausedTs = this.getEpisodeTime();
+			this.paused = true;
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * Resume the replay from where it was paused
+	 */
+	public synchronized void resume() {
+		if(this.paused) {
+			this.paused = false;
+			this.resetClock(this.pausedTs);
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * Continue the replay from the given episode time
+	 */
+	public synchronized void seek(double ts) {
+		this.seekTs = Math.max(this.startTs, Math.min(ts, this.endTs));
+		if(this.paused) {
+			this.pausedTs = this.seekTs;
+		}
+		this.notifyAll();
+	}
+
+	/**
+	 * Set the playback speed (1.0 = real time)
+	 */
+	public synchronized void setSpeed(double speed) {
+		if(speed > 0) {
+			final double curr_ts = this.getEpisodeTime();
+			this.speed = speed;
+			if(!this.paused) {
+				this.resetClock(curr_ts);
+			}
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * Stop the replay, the markers are kept
+	 */
+	public synchronized void stop() {
+		this.stopped = true;
+		this.notifyAll();
+	}
+
+	/**
+	 * Stop the replay and erase the markers
+	 */
+	public void remove() {
+		this.stop();
+		// a publish() in progress finishes first, the next one sees stopped
+		synchronized(this.markers) {
+			for (String curr_id : this.markers.keySet()) {
+				MarkerPublisher.get().eraseMarker(curr_id);
+			}
+			this.markers.clear();
+		}
+	}
+
+	/**
+	 * Ids of the link mesh markers
+	 */
+	public List<String> getMarkerIDs() {
+		synchronized(this.markers) {
+			return new ArrayList<String>(this.markers.keySet());
+		}
+	}
+
+	/**
+	 * True if the replay reached the end (it can still be seeked) or has been stopped
+	 */
+	public boolean isDone() {
+		return this.atEnd || this.done;
+	}
+
+	/**
+	 * Nr of published frames
+	 */
+	public long getNrFrames() {
+		return this.nrFrames;
+	}
+
+	/**
+	 * Nr of dropped frames
+	 */
+	public long getNrDropped() {
+		return this.nrDropped;
+	}
+}
@@ -0,0 +1,310 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+package org.knowrob.knowrob_sim_games;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.vecmath.Point3d;
+
+/**
+ * Memory maps an episode snapshot (see EpisodeSnapshotWriter) and serves
+ * the pose queries of MongoSimGames without a mongo server, the poses are
+ * read directly from the mapped file (no deserialization). Served are the
+ * pose at, interpolated pose, trajectory, resampled trajectory and links
+ * positions queries; the snapshot only keeps the poses, so the collision,
+ * marker and mesh queries (which need the full documents) stay with mongo.
+ */
+public class EpisodeSnapshotReader {
+
+	// record stride in float64 values
+	private static final int STRIDE = EpisodeSnapshotWriter.STRIDE;
+
+	// the snapshot file
+	private final RandomAccessFile file;
+
+	// mapped pose records of every track, in file order
+	private final Map<String, DoubleBuffer> tracks;
+
+	/**
+	 * EpisodeSnapshotReader constructor, maps the snapshot at the given path
+	 */
+	public EpisodeSnapshotReader(String path) throws IOException {
+		this.file = new RandomAccessFile(path, "r");
+		this.tracks = new LinkedHashMap<String, DoubleBuffer>();
+		try {
+			FileChannel channel = this.file.getChannel();
+
+			// header
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					EpisodeSnapshotWriter.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			if(header.getInt() != EpisodeSnapshotWriter.MAGIC) {
+				throw new IOException("Not an episode snapshot: " + path);
+			}
+			final int version = header.getInt();
+			if(version != EpisodeSnapshotWriter.VERSION) {
+				throw new IOException("Unsupported episode snapshot version " + version + ": " + path);
+			}
+			final long index_offset = header.getLong();
+
+			// index, every track block is mapped on its own (blocks can be larger than the 2GB map limit together)
+			ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, index_offset,
+					channel.size() - index_offset).order(ByteOrder.LITTLE_ENDIAN);
+			final int nr_tracks = index.getInt();
+			for (int t = 0; t < nr_tracks; ++t) {
+				byte[] name = new byte[index.getShort() & 0xffff];
+				index.get(name);
+				final int nr_poses = index.getInt();
+				final long offset = index.getLong();
+				DoubleBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+						(long) nr_poses * STRIDE * 8).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+				this.tracks.put(new String(name, EpisodeSnapshotWriter.UTF8), data);
+			}
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Names of the tracks (models and "model/link")
+	 */
+	public List<String> getTrackNames() {
+		return new ArrayList<String>(this.tracks.keySet());
+	}
+
+	/**
+	 * Get the mapped records of the model (link_name null) or link, null if missing
+	 */
+	private DoubleBuffer getTrack(String model_name, String link_name) {
+		return this.tracks.get((link_name != null) ? model_name + "/" + link_name : model_name);
+	}
+
+	/**
+	 * Index of the most recent record at or before t, -1 if none
+	 */
+	private static int indexAt(DoubleBuffer data, double t) {
+		int lo = 0;
+		int hi = data.limit() / STRIDE - 1;
+		int res = -1;
+		while(lo <= hi) {
+			final int mid = (lo + hi) >>> 1;
+			if(data.get(mid * STRIDE) <= t) {
+				res = mid;
+				lo = mid + 1;
+			}
+			else {
+				hi = mid - 1;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Index of the first record at or after t
+	 */
+	private static int indexFrom(DoubleBuffer data, double t) {
+		int lo = 0;
+		int hi = data.limit() / STRIDE;
+		while(lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if(data.get(mid * STRIDE) < t) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Pose (x y z qw qx qy qz) of the track at t (or the most recent one), empty if none
+	 */
+	private static double[] poseAt(DoubleBuffer data, double t) {
+		final int i = (data != null) ? indexAt(data, t) : -1;
+		if(i < 0) {
+			return new double[0];
+		}
+		double[] pose = new double[PoseTrack.POSE_STRIDE];
+		for (int j = 0; j < pose.length; ++j) {
+			pose[j] = data.get(i * STRIDE + 1 + j);
+		}
+		return pose;
+	}
+
+	/**
+	 * Records of the track in [start, end] packed as (t x y z qw qx qy qz)
+	 */
+	private static double[] trajectory(DoubleBuffer data, double start, double end) {
+		if(data == null) {
+			return new double[0];
+		}
+		final int from = indexFrom(data, start);
+		final int to = indexAt(data, end) + 1;
+		double[] traj = new double[Math.max(0, to - from) * STRIDE];
+		DoubleBuffer view = data.duplicate();
+		view.position(from * STRIDE);
+		view.get(traj);
+		return traj;
+	}
+
+	/**
+	 * Copy the records from..to-1 into a pose track (for the interpolation)
+	 */
+	private static PoseTrack poseTrack(DoubleBuffer data, int from, int to) {
+		PoseTrack track = new PoseTrack(to - from);
+		for (int i = from; i < to; ++i) {
+			final int off = i * STRIDE;
+			track.add(data.get(off), data.get(off + 1), data.get(off + 2), data.get(off + 3),
+					data.get(off + 4), data.get(off + 5), data.get(off + 6), data.get(off + 7));
+		}
+		return track;
+	}
+
+	/**
+	 * Pose of the track at t, interpolated between the bracketing records
+	 */
+	private static double[] poseInterpolated(DoubleBuffer data, double t) {
+		if(data == null) {
+			return new double[0];
+		}
+		final int i = indexAt(data, t);
+		return PoseInterpolator.poseAt(poseTrack(data, Math.max(0, i), Math.min(i + 2, data.limit() / STRIDE)), t);
+	}
+
+	/**
+	 * Track resampled on the uniform clock start, start + step, .. <= end
+	 */
+	private static double[] resample(DoubleBuffer data, double start, double end, double step) {
+		if(data == null) {
+			return new double[0];
+		}
+		// the records of the range and the ones bracketing it
+		final int from = Math.max(0, indexAt(data, start));
+		final int to = Math.min(indexFrom(data, end) + 1, data.limit() / STRIDE);
+		return PoseInterpolator.resample(poseTrack(data, from, to), start, end, step);
+	}
+
+	/**
+	 * Get the pose (x y z qw qx qy qz) of the model at the given timepoint (or the most recent one)
+	 */
+	public double[] GetModelPoseAt(double timestamp, String model_name) {
+		return poseAt(this.getTrack(model_name, null), timestamp);
+	}
+
+	/**
+	 * Get the pose (x y z qw qx qy qz) of the link at the given timepoint (or the most recent one)
+	 */
+	public double[] GetLinkPoseAt(double timestamp, String model_name, String link_name) {
+		return poseAt(this.getTrack(model_name, link_name), timestamp);
+	}
+
+	/**
+	 * Get the trajectory of the model between the timepoints packed as (t x y z qw qx qy qz)
+	 */
+	public double[] GetModelTrajectory(double start_ts, double end_ts, String model_name) {
+		return trajectory(this.getTrack(model_name, null), start_ts, end_ts);
+	}
+
+	/**
+	 * Get the trajectory of the link between the timepoints packed as (t x y z qw qx qy qz)
+	 */
+	public double[] GetLinkTrajectory(double start_ts, double end_ts, String model_name, String link_name) {
+		return trajectory(this.getTrack(model_name, link_name), start_ts, end_ts);
+	}
+
+	/**
+	 * Get the pose (x y z qw qx qy qz) of the model at the given timepoint,
+	 * interpolated between the bracketing records
+	 */
+	public double[] GetModelPoseInterpolated(double timestamp, String model_name) {
+		return poseInterpolated(this.getTrack(model_name, null), timestamp);
+	}
+
+	/**
+	 * Get the pose (x y z qw qx qy qz) of the link at the given timepoint,
+	 * interpolated between the bracketing records
+	 */
+	public double[] GetLinkPoseInterpolated(double timestamp, String model_name, String link_name) {
+		return poseInterpolated(this.getTrack(model_name, link_name), timestamp);
+	}
+
+	/**
+	 * Resample the trajectory of the model on the uniform clock start, start + step, .. <= end,
+	 * packed as (t x y z qw qx qy qz)
+	 */
+	public double[] ResampleModelTrajectory(double start_ts, double end_ts, double step, String model_name) {
+		return resample(this.getTrack(model_name, null), start_ts, end_ts, step);
+	}
+
+	/**
+	 * Resample the trajectory of the link on the uniform clock start, start + step, .. <= end,
+	 * packed as (t x y z qw qx qy qz)
+	 */
+	public double[] ResampleLinkTrajectory(double start_ts, double end_ts, double step, String model_name, String link_name) {
+		return resample(this.getTrack(model_name, link_name), start_ts, end_ts, step);
+	}
+
+	/**
+	 * Get the positions of the model links at the given timestamp
+	 */
+	public List<Point3d> GetLinksPositions(double timestamp, String model_name) {
+		List<Point3d> links_positions = new ArrayList<Point3d>();
+		final String prefix = model_name + "/";
+		for (Map.Entry<String, DoubleBuffer> entry : this.tracks.entrySet()) {
+			if(entry.getKey().startsWith(prefix)) {
+				double[] pose = poseAt(entry.getValue(), timestamp);
+				if(pose.length > 0) {
+					links_positions.add(new Point3d(pose[0], pose[1], pose[2]));
+				}
+			}
+		}
+		return links_positions;
+	}
+
+	/**
+	 * Close the snapshot file
+	 */
+	public void close() {
+		try {
+			this.file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+package org.knowrob.knowrob_sim_games;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes episode pose tracks into the binary snapshot format read by EpisodeSnapshotReader.
+ *
+ * Layout (little endian):
+ *  header: int magic, int version, long index offset
+ *  data:   per track nr_poses records of STRIDE float64 (t x y z qw qx qy qz)
+ *  index:  int nr_tracks, per track: short name length, name (utf-8), int nr_poses, long data offset
+ *
+ * Model tracks are named after the model, link tracks "model/link".
+ *
+ * The nr of poses of every track has to be known upfront, the data block of
+ * every track gets its place in the file and the poses can then be added in
+ * any track order (e.g. while scanning the episode in timestamp order). Every
+ * track fills a direct buffer which is written as one block when full, so only
+ * one block per track is kept in memory.
+ */
+public class EpisodeSnapshotWriter {
+
+	// format identifier ("SGEP") and version
+	public static final int MAGIC = 0x53474550;
+	public static final int VERSION = 1;
+
+	// size of the header in bytes
+	public static final int HEADER_BYTES = 16;
+
+	// nr of float64 values per pose record
+	public static final int STRIDE = PoseTrack.STAMPED_STRIDE;
+
+	// encoding of the track names
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// nr of records written per block (16 KB)
+	private static final int BLOCK_RECORDS = 256;
+
+	/**
+	 * Data block of a track, the records are buffered and written at the
+	 * next free position of the block
+	 */
+	private static class TrackBlock {
+		final int nrPoses;
+		final long offset;
+		int nrAdded = 0;
+		long writePos;
+		ByteBuffer buf;
+
+		TrackBlock(int nrPoses, long offset) {
+			this.nrPoses = nrPoses;
+			this.offset = offset;
+			this.writePos = offset;
+		}
+	}
+
+	// the snapshot file
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+
+	// the track blocks, in file order
+	private final Map<String, TrackBlock> blocks = new LinkedHashMap<String, TrackBlock>();
+
+	// first byte after the data blocks
+	private final long indexOffset;
+
+	/**
+	 * EpisodeSnapshotWriter constructor, creates (or truncates) the file
+	 * and lays out the blocks of the tracks with the given nr of poses
+	 */
+	public EpisodeSnapshotWriter(String path, Map<String, Integer> nrPoses) throws IOException {
+		long offset = HEADER_BYTES;
+		for (Map.Entry<String, Integer> entry : nrPoses.entrySet()) {
+			this.blocks.put(entry.getKey(), new TrackBlock(entry.getValue(), offset));
+			offset += (long) entry.getValue() * STRIDE * 8;
+		}
+		this.indexOffset = offset;
+		this.file = new RandomAccessFile(path, "rw");
+		this.channel = this.file.getChannel();
+		this.channel.truncate(0);
+	}
+
+	/**
+	 * Add the pose (x y z qw qx qy qz) at t to the track, the poses of
+	 * a track have to be added in timestamp order
+	 */
+	public void add(String name, double t, double x, double y, double z,
+			double qw, double qx, double qy, double qz) throws IOException {
+		TrackBlock block = this.blocks.get(name);
+		if(block == null) {
+			throw new IOException("Unknown snapshot track: " + name);
+		}
+		if(block.nrAdded == block.nrPoses) {
+			throw new IOException("More poses than laid out for the snapshot track: " + name);
+		}
+		if(block.buf == null) {
+			block.buf = ByteBuffer.allocateDirect(
+					Math.min(BLOCK_RECORDS, block.nrPoses) * STRIDE * 8).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		block.buf.putDouble(t);
+		block.buf.putDouble(x);
+		block.buf.putDouble(y);
+		block.buf.putDouble(z);
+		block.buf.putDouble(qw);
+		block.buf.putDouble(qx);
+		block.buf.putDouble(qy);
+		block.buf.putDouble(qz);
+		block.nrAdded++;
+		if(!block.buf.hasRemaining() || block.nrAdded == block.nrPoses) {
+			this.flush(block);
+		}
+	}
+
+	/**
+	 * Write the buffered records of the track at its next free position
+	 */
+	private void flush(TrackBlock block) throws IOException {
+		block.buf.flip();
+		while(block.buf.hasRemaining()) {
+			block.writePos += this.channel.write(block.buf, block.writePos);
+		}
+		block.buf.clear();
+		if(block.nrAdded == block.nrPoses) {
+			// the track is complete
+			block.buf = null;
+		}
+	}
+
+	/**
+	 * Write the remaining records, the index and the header and close the file,
+	 * fails if a track got less poses than laid out
+	 */
+	public void close() throws IOException {
+		try {
+			for (Map.Entry<String, TrackBlock> entry : this.blocks.entrySet()) {
+				TrackBlock block = entry.getValue();
+				if(block.buf != null) {
+					this.flush(block);
+				}
+				if(block.nrAdded != block.nrPoses) {
+					throw new IOException("Less poses than laid out for the snapshot track: " + entry.getKey());
+				}
+			}
+
+			// name / offset index
+			int index_bytes = 4;
+			for (String name : this.blocks.keySet()) {
+				index_bytes += 2 + name.getBytes(UTF8).length + 4 + 8;
+			}
+			ByteBuffer index_buf = ByteBuffer.allocate(index_bytes).order(ByteOrder.LITTLE_ENDIAN);
+			index_buf.putInt(this.blocks.size());
+			for (Map.Entry<String, TrackBlock> entry : this.blocks.entrySet()) {
+				byte[] name = entry.getKey().getBytes(UTF8);
+				index_buf.putShort((short) name.length);
+				index_buf.put(name);
+				index_buf.putInt(entry.getValue().nrPoses);
+				index_buf.putLong(entry.getValue().offset);
+			}
+			index_buf.flip();
+			long pos = this.indexOffset;
+			while(index_buf.hasRemaining()) {
+				pos += this.channel.write(index_buf, pos);
+			}
+
+			// header
+			ByteBuffer header_buf = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			header_buf.putInt(MAGIC);
+			header_buf.putInt(VERSION);
+			header_buf.putLong(this.indexOffset);
+			header_buf.flip();
+			pos = 0;
+			while(header_buf.hasRemaining()) {
+				pos += this.channel.write(header_buf, pos);
+			}
+		} finally {
+			this.file.close();
+		}
+	}
+
+	/**
+	 * Write the tracks (in map order) to the given file
+	 */
+	public static void write(String path, Map<String, PoseTrack> tracks) throws IOException {
+		Map<String, Integer> nr_poses = new LinkedHashMap<String, Integer>();
+		for (Map.Entry<String, PoseTrack> entry : tracks.entrySet()) {
+			nr_poses.put(entry.getKey(), entry.getValue().size());
+		}
+		EpisodeSnapshotWriter writer = new EpisodeSnapshotWriter(path, nr_poses);
+		double[] pose = new double[PoseTrack.POSE_STRIDE];
+		try {
+			for (Map.Entry<String, PoseTrack> entry : tracks.entrySet()) {
+				PoseTrack track = entry.getValue();
+				for (int i = 0; i < track.size(); ++i) {
+					track.pose(i, pose, 0);
+					writer.add(entry.getKey(), track.timestamp(i),
+							pose[0], pose[1], pose[2], pose[3], pose[4], pose[5], pose[6]);
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+package org.knowrob.knowrob_sim_games;
+
+import java.util.Iterator;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.WriteConcern;
+
+/**
+ * Buffers documents and writes them to a collection
+ * as unordered bulk inserts of a given batch size
+ */
+public class MongoBulkWriter {
+
+	// target collection
+	private final DBCollection coll;
+
+	// nr of documents per bulk insert
+	private final int batchSize;
+
+	// write concern used for the bulk inserts
+	private final WriteConcern writeConcern;
+
+	// current (not yet executed) bulk operation
+	private BulkWriteOperation bulk;
+
+	// nr of documents in the current bulk operation
+	private int pending;
+
+	// total nr of written documents
+	private long nrDocs;
+
+	// start time of the export (ns)
+	private final long startNs;
+
+	/**
+	 * MongoBulkWriter constructor, if relaxedWriteConcern is set the inserts
+	 * are unacknowledged (only use it for scratch collections)
+	 */
+	public MongoBulkWriter(DBCollection coll, int batchSize, boolean relaxedWriteConcern) {
+		this.coll = coll;
+		this.batchSize = Math.max(1, batchSize);
+		this.writeConcern = relaxedWriteConcern ?
+				WriteConcern.UNACKNOWLEDGED : WriteConcern.ACKNOWLEDGED;
+		this.pending = 0;
+		this.nrDocs = 0;
+		this.startNs = System.nanoTime();
+	}
+
+	/**
+	 * Add a document, the batch is written once it is full
+	 */
+	public void insert(DBObject doc) {
+		if(this.bulk == null) {
+			this.bulk = this.coll.initializeUnorderedBulkOperation();
+		}
+		this.bulk.insert(doc);
+		this.pending++;
+		if(this.pending >= this.batchSize) {
+			this.flush();
+		}
+	}
+
+	/**
+	 * Add all the documents of the cursor
+	 */
+	public void insertAll(Iterator<DBObject> cursor) {
+		while(cursor.hasNext()) {
+			this.insert(cursor.next());
+		}
+	}
+
+	/**
+	 * Write the pending documents
+	 */
+	public void flush() {
+		if(this.pending > 0) {
+			this.bulk.execute(this.writeConcern);
+			this.nrDocs += this.pending;
+			this.pending = 0;
+			this.bulk = null;
+		}
+	}
+
+	/**
+	 * Total nr of written documents
+	 */
+	public long getNrDocs() {
+		return this.nrDocs;
+	}
+
+	/**
+	 * Write rate since the creation of the writer
+	 */
+	public double getDocsPerSec() {
+		final double secs = (System.nanoTime() - this.startNs) / 1e9;
+		return (secs > 0) ? this.nrDocs / secs : 0;
+	}
+
+	/**
+	 * Write the pending documents and print the export stats
+	 */
+	public void close() {
+		this.flush();
+		System.out.println("Java - Bulk wrote " + this.nrDocs + " docs to \'"
+				+ this.coll.getName() + "\' (" + Math.round(this.getDocsPerSec()) + " docs/sec)");
+	}
+}
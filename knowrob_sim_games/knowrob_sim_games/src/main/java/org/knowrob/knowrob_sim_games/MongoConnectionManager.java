@@ -0,0 +1,240 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+package org.knowrob.knowrob_sim_games;
+
+import java.util.Map;
+
+import java.net.UnknownHostException;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.ReadPreference;
+import com.mongodb.ServerAddress;
+import com.mongodb.DB;
+
+/**
+ * Process wide mongo connection shared by all the query objects
+ * (MongoSimGames, MongoRobcogConn, ..). The driver keeps a pool of
+ * sockets behind the single client, the pool is sized and configured here.
+ *
+ * Configuration is read from the environment on first use:
+ *  MONGO_PORT_27017_TCP_ADDR, MONGO_PORT_27017_TCP_PORT (host / port),
+ *  MONGO_POOL_SIZE, MONGO_POOL_MAX_WAIT_MS, MONGO_CONNECT_TIMEOUT_MS,
+ *  MONGO_SOCKET_TIMEOUT_MS, MONGO_READ_PREFERENCE,
+ *  MONGO_POOL_STATS_MS (pool statistics sample period, 0 = off)
+ * and can be changed with SetPoolOptions(..) before the first connection.
+ */
+public class MongoConnectionManager {
+
+	// the single instance
+	private static MongoConnectionManager instance;
+
+	// shared (pooled) mongo client, created on first checkout
+	private MongoClient mongoClient;
+
+	// host name and port
+	private String dbHost;
+	private int dbPort;
+
+	// pool settings
+	private int connectionsPerHost;
+	private int maxWaitTime;
+	private int connectTimeout;
+	private int socketTimeout;
+	private String readPreference;
+
+	// pool statistics sample period (ms, 0 = off) and the monitor
+	private int statsPeriod;
+	private MongoPoolMonitor poolMonitor;
+
+	/**
+	 * Get the connection manager
+	 */
+	public static synchronized MongoConnectionManager get() {
+		if(instance == null) {
+			instance = new MongoConnectionManager();
+		}
+		return instance;
+	}
+
+	/**
+	 * MongoConnectionManager constructor, reads the settings from the environment
+	 */
+	private MongoConnectionManager() {
+		// check if MONGO_PORT_27017_TCP_ADDR and MONGO_PORT_27017_TCP_PORT
+		// environment variables are set
+		Map<String, String> env = System.getenv();
+
+		this.dbHost = env.containsKey("MONGO_PORT_27017_TCP_ADDR") ?
+				env.get("MONGO_PORT_27017_TCP_ADDR") : "localhost";
+		this.dbPort = envInt(env, "MONGO_PORT_27017_TCP_PORT", 27017);
+
+		// pool settings (defaults of the driver, except for a larger pool)
+		this.connectionsPerHost = envInt(env, "MONGO_POOL_SIZE", 20);
+		this.maxWaitTime = envInt(env, "MONGO_POOL_MAX_WAIT_MS", 120000);
+		this.connectTimeout = envInt(env, "MONGO_CONNECT_TIMEOUT_MS", 10000);
+		this.socketTimeout = envInt(env, "MONGO_SOCKET_TIMEOUT_MS", 0);
+		this.readPreference = env.containsKey("MONGO_READ_PREFERENCE") ?
+				env.get("MONGO_READ_PREFERENCE") : "primary";
+		this.statsPeriod = envInt(env, "MONGO_POOL_STATS_MS", 10);
+
+		// close the sockets when the jvm goes down
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				MongoConnectionManager.this.Shutdown();
+			}
+		});
+	}
+
+	/**
+	 * Helper function to read an int from the environment
+	 */
+	private static int envInt(Map<String, String> env, String key, int default_val) {
+		if(env.containsKey(key)) {
+			return Integer.valueOf(env.get(key));
+		}
+		return default_val;
+	}
+
+	/**
+	 * Get the shared client, creates it on the first call,
+	 * throws an IllegalStateException if it cannot be created
+	 */
+	public synchronized MongoClient getClient() {
+		if(this.mongoClient == null) {
+			this.mongoClient = this.createClient();
+			// count the checkouts and the wait time of the new pool
+			if(this.statsPeriod > 0 && this.poolMonitor == null) {
+				this.poolMonitor = new MongoPoolMonitor(this.statsPeriod).start();
+			}
+		}
+		return this.mongoClient;
+	}
+
+	/**
+	 * Get the database with the given name from the shared client
+	 */
+	public DB getDB(String dbName) {
+		return this.getClient().getDB(dbName);
+	}
+
+	/**
+	 * Create the pooled client with the current settings
+	 */
+	private MongoClient createClient() {
+		MongoClientOptions options = MongoClientOptions.builder()
+				.connectionsPerHost(this.connectionsPerHost)
+				.maxWaitTime(this.maxWaitTime)
+				.connectTimeout(this.connectTimeout)
+				.socketTimeout(this.socketTimeout)
+				.readPreference(ReadPreference.valueOf(this.readPreference))
+				.build();
+		try {
+			System.out.println("Java - MongoConnectionManager - connecting to "
+					+ this.dbHost + ":" + this.dbPort + " (pool size " + this.connectionsPerHost + ")");
+			return new MongoClient(new ServerAddress(this.dbHost, this.dbPort), options);
+		} catch (UnknownHostException e) {
+			throw new IllegalStateException("Java - MongoConnectionManager - unknown host: " + this.dbHost, e);
+		}
+	}
+
+	/**
+	 * Set the pool options, only possible before the client is created
+	 * (the query objects keep the DB handles of the client), returns false
+	 * (and keeps the current options) if the client already exists
+	 */
+	public synchronized boolean SetPoolOptions(int connectionsPerHost,
+			int maxWaitTime,
+			int connectTimeout,
+			int socketTimeout,
+			String readPreference) {
+		if(this.mongoClient != null) {
+			System.out.println("Java - MongoConnectionManager - the pool options "
+					+ "can only be set before the first connection");
+			return false;
+		}
+		this.connectionsPerHost = connectionsPerHost;
+		this.maxWaitTime = maxWaitTime;
+		this.connectTimeout = connectTimeout;
+		this.socketTimeout = socketTimeout;
+		this.readPreference = readPreference;
+		return true;
+	}
+
+	/**
+	 * Close the shared client and all its pooled sockets (at exit),
+	 * the DB handles of the query objects are not usable afterwards
+	 */
+	public synchronized void Shutdown() {
+		if(this.mongoClient != null) {
+			this.mongoClient.close();
+			this.mongoClient = null;
+		}
+		if(this.poolMonitor != null) {
+			this.poolMonitor.stop();
+			this.poolMonitor = null;
+		}
+	}
+
+	/**
+	 * Nr of pool checkouts since start (or last reset), sampled, see MongoPoolMonitor
+	 */
+	public synchronized long GetCheckouts() {
+		return (this.poolMonitor != null) ? this.poolMonitor.getCheckouts() : 0;
+	}
+
+	/**
+	 * Total time the threads waited for a pooled connection, in ms
+	 */
+	public synchronized double GetWaitTimeMs() {
+		return (this.poolMonitor != null) ? this.poolMonitor.getWaitTimeMs() : 0;
+	}
+
+	/**
+	 * Reset the checkout and wait time counters
+	 */
+	public synchronized void ResetStats() {
+		if(this.poolMonitor != null) {
+			this.poolMonitor.reset();
+		}
+	}
+
+	/**
+	 * Print the checkout and wait time counters
+	 */
+	public synchronized void PrintStats() {
+		if(this.poolMonitor != null) {
+			this.poolMonitor.printStats();
+		}
+		else {
+			System.out.println("Java - MongoConnectionManager - no pool statistics (not connected or MONGO_POOL_STATS_MS = 0)");
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+package org.knowrob.knowrob_sim_games;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Arrays;
+
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BasicDBList;
+import com.mongodb.AggregationOptions;
+
+/**
+ * Creates the indexes needed by the sim games queries and checks
+ * (using explain) that the standard pipelines are index backed
+ */
+public class MongoIndexManager {
+
+	// collection types
+	public static final String RAW_COLL = "raw";
+	public static final String TRAJ_COLL = "trajectory";
+	public static final String UNKNOWN_COLL = "unknown";
+
+	// the database to index
+	private DB db;
+
+	/**
+	 * MongoIndexManager constructor
+	 */
+	public MongoIndexManager(DB db) {
+		this.db = db;
+	}
+
+	/**
+	 * Get the type of the collection from its first document,
+	 * raw world states have a models array, exported trajectories a pos
+	 */
+	public String getCollectionType(DBCollection coll) {
+		DBCursor cursor = coll.find().limit(1);
+		try {
+			if(cursor.hasNext()) {
+				DBObject doc = cursor.next();
+				if(doc.get("models") instanceof BasicDBList) {
+					return RAW_COLL;
+				}
+				if(doc.get("pos") != null || doc.get("links_pos") != null) {
+					return TRAJ_COLL;
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		return UNKNOWN_COLL;
+	}
+
+	/**
+	 * Get the index keys needed by the given collection type
+	 */
+	public List<DBObject> getRequiredIndexes(String collType) {
+		List<DBObject> keys = new ArrayList<DBObject>();
+		// every query matches (and sorts) on the timestamp
+		keys.add(new BasicDBObject("timestamp", 1));
+		if(collType.equals(RAW_COLL)) {
+			// multikey compound indexes for the model / link name $match,
+			// equality first, then the time range and sort
+			keys.add(new BasicDBObject("models.name", 1).append("timestamp", 1));
+			keys.add(new BasicDBObject("models.links.name", 1).append("timestamp", 1));
+		}
+		return keys;
+	}
+
+	/**
+	 * Check if the collection has an index with the given keys
+	 */
+	public boolean hasIndex(DBCollection coll, DBObject keys) {
+		for (DBObject index_info : coll.getIndexInfo()) {
+			if(sameKeys(keys, (DBObject) index_info.get("key"))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Compare two index key documents (same fields, same order, same directions)
+	 */
+	private static boolean sameKeys(DBObject keys, DBObject other) {
+		if(other == null) {
+			return false;
+		}
+		final List<String> fields = new ArrayList<String>(keys.keySet());
+		if(!fields.equals(new ArrayList<String>(other.keySet()))) {
+			return false;
+		}
+		for (String field : fields) {
+			if(!sameKeyValue(keys.get(field), other.get(field))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compare two index key values, the directions can be stored as int or double,
+	 * other values (e.g. "text", "2dsphere") are compared as they are
+	 */
+	private static boolean sameKeyValue(Object value, Object other) {
+		if(value instanceof Number && other instanceof Number) {
+			return ((Number) value).doubleValue() == ((Number) other).doubleValue();
+		}
+		return (value == null) ? other == null : value.equals(other);
+	}
+
+	/**
+	 * Create the missing indexes of the collection, returns the nr of created indexes
+	 */
+	public int ensureIndexes(DBCollection coll) {
+		final String coll_type = this.getCollectionType(coll);
+		int nr_created = 0;
+		for (DBObject keys : this.getRequiredIndexes(coll_type)) {
+			if(!this.hasIndex(coll, keys)) {
+				System.out.println("\tCreating index " + keys + " in " + coll_type + " coll: " + coll.getName());
+				coll.createIndex(keys);
+				nr_created++;
+			}
+		}
+		return nr_created;
+	}
+
+	/**
+	 * Run explain on the aggregation and check if the initial $match uses an index
+	 */
+	public boolean usesIndex(DBCollection coll, List<DBObject> pipeline) {
+		AggregationOptions aggregationOptions = AggregationOptions.builder()
+				.outputMode(AggregationOptions.OutputMode.CURSOR)
+				.allowDiskUse(true)
+				.build();
+		final String plan = coll.explainAggregate(pipeline, aggregationOptions).toString();
+		// 3.x servers report the plan stages, 2.6 servers the cursor type
+		if(plan.contains("COLLSCAN") || plan.contains("BasicCursor")) {
+			return false;
+		}
+		return plan.contains("IXSCAN") || plan.contains("BtreeCursor");
+	}
+
+	/**
+	 * Explain the standard pose-at and trajectory pipelines of a raw collection,
+	 * returns true if all of them are index backed
+	 */
+	public boolean checkQueryPlans(DBCollection coll) {
+		// get a model and link name and a timestamp from the first document
+		DBCursor cursor = coll.find().limit(1);
+		if(!cursor.hasNext()) {
+			cursor.close();
+			return true;
+		}
+		BasicDBObject first_doc = (BasicDBObject) cursor.next();
+		cursor.close();
+		final double timestamp = first_doc.getDouble("timestamp");
+		final BasicDBObject model = (BasicDBObject) ((BasicDBList) first_doc.get("models")).get(0);
+		final String model_name = model.getString("name");
+
+		boolean all_indexed = true;
+
+		// most recent pose of the model (*PoseAt)
+		BasicDBList time_and_name = new BasicDBList();
+		time_and_name.add(new BasicDBObject("timestamp", new BasicDBObject("$lte", timestamp)));
+		time_and_name.add(new BasicDBObject("models.name", model_name));
+		List<DBObject> pose_pipeline = Arrays.asList(
+				(DBObject) new BasicDBObject("$match", new BasicDBObject("$and", time_and_name)),
+				new BasicDBObject("$sort", new BasicDBObject("timestamp", -1)),
+				new BasicDBObject("$limit", 1));
+		all_indexed &= this.report(coll, "pose at", pose_pipeline);
+
+		// trajectory of the model (*Trajectory)
+		List<DBObject> traj_pipeline = Arrays.asList(
+				(DBObject) new BasicDBObject("$match", new BasicDBObject("timestamp",
+						new BasicDBObject("$gte", timestamp).append("$lte", timestamp + 1.0))));
+		all_indexed &= this.report(coll, "trajectory", traj_pipeline);
+
+		// most recent pose of a link
+		final BasicDBList links = (BasicDBList) model.get("links");
+		if(links != null && !links.isEmpty()) {
+			BasicDBList time_and_link = new BasicDBList();
+			time_and_link.add(new BasicDBObject("timestamp", new BasicDBObject("$lte", timestamp)));
+			time_and_link.add(new BasicDBObject("models.links.name",
+					((BasicDBObject) links.get(0)).getString("name")));
+			List<DBObject> link_pipeline = Arrays.asList(
+					(DBObject) new BasicDBObject("$match", new BasicDBObject("$and", time_and_link)),
+					new BasicDBObject("$sort", new BasicDBObject("timestamp", -1)),
+					new BasicDBObject("$limit", 1));
+			all_indexed &= this.report(coll, "link pose at", link_pipeline);
+		}
+		return all_indexed;
+	}
+
+	/**
+	 * Explain the pipeline and print the result
+	 */
+	private boolean report(DBCollection coll, String queryName, List<DBObject> pipeline) {
+		final boolean indexed = this.usesIndex(coll, pipeline);
+		System.out.println("\t" + coll.getName() + " - " + queryName + ": "
+				+ (indexed ? "index scan" : "COLLECTION SCAN"));
+		return indexed;
+	}
+
+	/**
+	 * Create the missing indexes of all the collections of the db and
+	 * check the query plans of the raw collections, returns true if
+	 * all the standard queries are index backed
+	 */
+	public boolean prepare() {
+		System.out.println("Java - Preparing indexes of db: " + this.db.getName());
+		boolean all_indexed = true;
+		for (String coll_name : this.db.getCollectionNames()) {
+			if(coll_name.startsWith("system.")) {
+				continue;
+			}
+			DBCollection coll = this.db.getCollection(coll_name);
+			this.ensureIndexes(coll);
+			if(this.getCollectionType(coll).equals(RAW_COLL)) {
+				all_indexed &= this.checkQueryPlans(coll);
+			}
+		}
+		return all_indexed;
+	}
+}
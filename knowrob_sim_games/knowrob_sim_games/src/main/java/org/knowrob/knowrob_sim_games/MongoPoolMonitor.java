@@ -0,0 +1,200 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+package org.knowrob.knowrob_sim_games;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Samples the connection pool statistics which the mongo driver publishes
+ * over JMX (org.mongodb.driver:type=ConnectionPool,*) and accumulates them
+ * into counters. The attributes are read by name, no driver version
+ * specific API is needed. Counted are the pool checkouts (the increases of
+ * the checked out connections between two samples, a lower bound of the
+ * real nr) and the wait time (the threads in the pool wait queue integrated
+ * over time). The monitor runs on its own daemon thread.
+ */
+public class MongoPoolMonitor implements Runnable {
+
+	// the pool statistics of the driver
+	private static final String POOL_MBEANS = "org.mongodb.driver:type=ConnectionPool,*";
+
+	// time between two samples (ms)
+	private final long samplePeriodMs;
+
+	// stop flag
+	private volatile boolean stopped = false;
+
+	// counters, guarded by this
+	private long nrSamples = 0;
+	private long checkouts = 0;
+	private double waitTimeNs = 0;
+	private int maxCheckedOut = 0;
+	private int maxWaitQueue = 0;
+	private int poolSize = 0;
+	private boolean published = false;
+
+	// last sample
+	private int lastCheckedOut = 0;
+	private long lastSampleNs = 0;
+
+	/**
+	 * MongoPoolMonitor constructor
+	 */
+	public MongoPoolMonitor(long samplePeriodMs) {
+		this.samplePeriodMs = Math.max(1, samplePeriodMs);
+	}
+
+	/**
+	 * Start sampling on a new (daemon) thread
+	 */
+	public MongoPoolMonitor start() {
+		Thread thread = new Thread(this, "MongoPoolMonitor");
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	/**
+	 * Stop sampling
+	 */
+	public void stop() {
+		this.stopped = true;
+	}
+
+	@Override
+	public void run() {
+		while(!this.stopped) {
+			this.sample();
+			try {
+				Thread.sleep(this.samplePeriodMs);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Read the statistics of all the pools of the driver and update the counters
+	 */
+	public void sample() {
+		int checked_out = 0;
+		int wait_queue = 0;
+		int size = 0;
+		boolean found = false;
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			Set<ObjectName> pools = server.queryNames(new ObjectName(POOL_MBEANS), null);
+			for (ObjectName pool : pools) {
+				checked_out += ((Number) server.getAttribute(pool, "CheckedOutCount")).intValue();
+				wait_queue += ((Number) server.getAttribute(pool, "WaitQueueSize")).intValue();
+				size += ((Number) server.getAttribute(pool, "Size")).intValue();
+				found = true;
+			}
+		} catch (Exception e) {
+			// the pool was closed while reading, count it with the next sample
+			return;
+		}
+		final long now_ns = System.nanoTime();
+		synchronized(this) {
+			if(this.lastSampleNs != 0) {
+				this.waitTimeNs += (double) wait_queue * (now_ns - this.lastSampleNs);
+			}
+			if(checked_out > this.lastCheckedOut) {
+				this.checkouts += checked_out - this.lastCheckedOut;
+			}
+			this.lastCheckedOut = checked_out;
+			this.lastSampleNs = now_ns;
+			this.maxCheckedOut = Math.max(this.maxCheckedOut, checked_out);
+			this.maxWaitQueue = Math.max(this.maxWaitQueue, wait_queue);
+			this.poolSize = size;
+			this.published |= found;
+			this.nrSamples++;
+		}
+	}
+
+	/**
+	 * Nr of counted pool checkouts since start (or last reset)
+	 */
+	public synchronized long getCheckouts() {
+		return this.checkouts;
+	}
+
+	/**
+	 * Total time the threads spent in the pool wait queue, in ms
+	 */
+	public synchronized double getWaitTimeMs() {
+		return this.waitTimeNs / 1e6;
+	}
+
+	/**
+	 * Max nr of checked out connections seen
+	 */
+	public synchronized int getMaxCheckedOut() {
+		return this.maxCheckedOut;
+	}
+
+	/**
+	 * Max nr of threads seen in the pool wait queue
+	 */
+	public synchronized int getMaxWaitQueue() {
+		return this.maxWaitQueue;
+	}
+
+	/**
+	 * Reset the counters
+	 */
+	public synchronized void reset() {
+		this.nrSamples = 0;
+		this.checkouts = 0;
+		this.waitTimeNs = 0;
+		this.maxCheckedOut = this.lastCheckedOut;
+		this.maxWaitQueue = 0;
+	}
+
+	/**
+	 * Print the counters
+	 */
+	public synchronized void printStats() {
+		if(!this.published) {
+			System.out.println("Java - MongoPoolMonitor - the driver publishes no pool statistics (JMX)");
+			return;
+		}
+		System.out.println("Java - MongoPoolMonitor - pool size: " + this.poolSize
+				+ ", checkouts: " + this.checkouts
+				+ ", total wait: " + (this.waitTimeNs / 1e6) + " ms"
+				+ ", max checked out: " + this.maxCheckedOut
+				+ ", max waiting: " + this.maxWaitQueue
+				+ " (" + this.nrSamples + " samples)");
+	}
+}
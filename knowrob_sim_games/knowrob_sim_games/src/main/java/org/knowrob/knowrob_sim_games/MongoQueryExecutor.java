@@ -0,0 +1,182 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+package org.knowrob.knowrob_sim_games;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process wide bounded thread pool for the parallel and asynchronous
+ * mongo queries, the threads share the pooled client of the
+ * MongoConnectionManager (keep the nr of threads below the pool size).
+ * The nr of threads is read from MONGO_QUERY_THREADS (default nr of cores).
+ */
+public class MongoQueryExecutor {
+
+	// the single instance
+	private static MongoQueryExecutor instance;
+
+	// the worker threads
+	private ExecutorService executor;
+
+	// nr of worker threads
+	private int nrThreads;
+
+	// set on the worker threads
+	private static final ThreadLocal<Boolean> isWorker = new ThreadLocal<Boolean>();
+
+	/**
+	 * Get the query executor
+	 */
+	public static synchronized MongoQueryExecutor get() {
+		if(instance == null) {
+			instance = new MongoQueryExecutor();
+		}
+		return instance;
+	}
+
+	/**
+	 * MongoQueryExecutor constructor, reads the nr of threads from the environment
+	 */
+	private MongoQueryExecutor() {
+		final String env_threads = System.getenv("MONGO_QUERY_THREADS");
+		this.nrThreads = (env_threads != null) ?
+				Integer.valueOf(env_threads) : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Get the thread pool, creates it on the first call
+	 */
+	private synchronized ExecutorService getExecutor() {
+		if(this.executor == null) {
+			final AtomicInteger thread_nr = new AtomicInteger();
+			this.executor = Executors.newFixedThreadPool(Math.max(1, this.nrThreads), new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					// daemon threads, do not keep the jvm (prolog) alive
+					Thread t = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							isWorker.set(Boolean.TRUE);
+							r.run();
+						}
+					}, "MongoQueryExecutor-" + thread_nr.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return this.executor;
+	}
+
+	/**
+	 * Run the query task on the pool, called from a worker thread (e.g. by an
+	 * async query) the task runs inline, waiting for it on the same (bounded)
+	 * pool could otherwise starve the pool
+	 */
+	public <T> Future<T> submit(Callable<T> task) {
+		if(isWorkerThread()) {
+			FutureTask<T> inline_task = new FutureTask<T>(task);
+			inline_task.run();
+			return inline_task;
+		}
+		return this.getExecutor().submit(task);
+	}
+
+	/**
+	 * True if the current thread is a worker thread of the pool
+	 */
+	public static boolean isWorkerThread() {
+		return Boolean.TRUE.equals(isWorker.get());
+	}
+
+	/**
+	 * Run the query task on the pool, the future completes with the result
+	 * (or exceptionally with the thrown exception), tasks cancelled before
+	 * they start are not run
+	 */
+	public <T> CompletableFuture<T> supplyAsync(final Callable<T> task) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		try {
+			this.getExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					if(future.isDone()) {
+						return;
+					}
+					try {
+						future.complete(task.call());
+					}
+					catch (Throwable t) {
+						// never leave the waiting rule blocked
+						future.completeExceptionally(t);
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			// the pool was shut down (SetNrThreads) while submitting
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Nr of worker threads
+	 */
+	public synchronized int getNrThreads() {
+		return this.nrThreads;
+	}
+
+	/**
+	 * Set the nr of worker threads, the running tasks finish on the old pool
+	 */
+	public synchronized void SetNrThreads(int nrThreads) {
+		this.nrThreads = nrThreads;
+		this.Shutdown();
+	}
+
+	/**
+	 * Stop the worker threads (after the submitted tasks)
+	 */
+	public synchronized void Shutdown() {
+		if(this.executor != null) {
+			this.executor.shutdown();
+			this.executor = null;
+		}
+	}
+}
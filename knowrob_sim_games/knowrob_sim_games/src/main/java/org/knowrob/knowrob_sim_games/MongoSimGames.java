@@ -34,18 +34,27 @@ import java.util.List;
 import java.util.Arrays;
 import java.util.Deque;
 import java.util.ArrayDeque;
-import java.util.Map;
 import java.util.Set;
 import java.util.Iterator;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.io.IOException;
 import javax.vecmath.Vector3d;
 import javax.vecmath.Point3d;
 import javax.vecmath.Quat4d;
 import javax.vecmath.Tuple3d;
 
-import java.net.UnknownHostException;
-import com.mongodb.MongoClient;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 import com.mongodb.BasicDBObject;
 import com.mongodb.BasicDBList;
@@ -71,12 +80,51 @@ public class MongoSimGames {
 
 	private static final int TIME_OFFSET = 0;
 
-	private MongoClient mongoClient;
 	private DB db;
 	private DBCollection coll;	
-	private String dbHost;
 	private Deque<String> markerIDs;
 	
+	// nr of docs per bulk insert when exporting trajectories
+	private int exportBatchSize = 1000;
+	
+	// use unacknowledged writes when exporting (scratch collections)
+	private boolean exportRelaxedWriteConcern = false;
+	
+	// server side downsampling of the trajectory queries (0 = off)
+	private double samplingTimeStep = 0;
+	private int samplingNrSamples = 0;
+	
+	// return the mean position of a time bucket instead of its first sample
+	private boolean samplingAverage = false;
+	
+	// level of detail of the list markers (0 = off)
+	private double markerLODTolerance = 0;
+	private int markerLODMaxPoints = 0;
+	
+	// nr of parallel time slice queries of the links trajectories (1 = serial)
+	private int queryParallelism = 1;
+	
+	// nr of points per chunk marker of the streamed trajectories
+	private int streamChunkSize = 500;
+	
+	// running (or finished) trajectory streams by marker id
+	private Map<String, TrajectoryStreamer> streamers = new HashMap<String, TrajectoryStreamer>();
+	
+	// running (or finished) episode replays by marker id
+	private Map<String, EpisodeReplayer> replayers = new HashMap<String, EpisodeReplayer>();
+	
+	// max nr of frames per second published by the replays
+	private double replayMaxFrameRate = 30;
+	
+	// LRU cache of the view query results (size in points)
+	private QueryResultCache resultCache = new QueryResultCache(1000000);
+	
+	// interpolation between the keyframes of the *PoseInterpolated queries
+	private PoseInterpolator poseInterpolator = new PoseInterpolator();
+	
+	// in memory cache of whole episode pose tracks (null = off)
+	private EpisodeCache episodeCache = null;
+	
 	/**
 	 * MongoSimGames constructor
 	 */
@@ -85,29 +133,19 @@ public class MongoSimGames {
 		// init marker array ids
 		this.markerIDs = new ArrayDeque<String>();
 		
-		// set the host name (default)
-		this.dbHost = "localhost";
-		int port = 27017;
-		
-		// check if MONGO_PORT_27017_TCP_ADDR and MONGO_PORT_27017_TCP_PORT 
-		// environment variables are set
-		
-        Map<String, String> env = System.getenv();
-        if(env.containsKey("MONGO_PORT_27017_TCP_ADDR")) {
-        	this.dbHost = env.get("MONGO_PORT_27017_TCP_ADDR");
-        }
-        
-        if(env.containsKey("MONGO_PORT_27017_TCP_PORT")) {
-        	port = Integer.valueOf(env.get("MONGO_PORT_27017_TCP_PORT"));
-        }
+		// the (pooled) DB client is shared through the MongoConnectionManager
+	}
 	
-		try {
-			// create a new DB client
-			this.mongoClient = new MongoClient(this.dbHost , port);
-
-		} catch (UnknownHostException e) {
-			e.printStackTrace();
-		}
+	/**
+	 * MongoSimGames constructor pinned to the current collection of the given
+	 * object, shares its caches (used by the asynchronous queries)
+	 */
+	private MongoSimGames(MongoSimGames other) {
+		this();
+		this.db = other.db;
+		this.coll = other.coll;
+		this.episodeCache = other.episodeCache;
+		this.poseInterpolator = other.poseInterpolator;
 	}
 
 	
@@ -253,7 +291,10 @@ public class MongoSimGames {
 	 */
 	public void SetDatabase(String dbName){
 
-		this.db = mongoClient.getDB(dbName);
+		this.db = MongoConnectionManager.get().getDB(dbName);
+		
+		// the cached results belong to the previous db
+		this.resultCache.clear();
 
 		System.out.println("Java - Db: " + this.db.getName());
 		
@@ -269,6 +310,12 @@ public class MongoSimGames {
 	 * Set the collection to be queried
 	 */
 	public void SetCollection(String collName){
+		// switching episodes invalidates the cached results
+		if(this.coll == null || !this.coll.getName().equals(collName)){
+			this.resultCache.clear();
+			this.poseInterpolator.clear();
+		}
+		
 		// get the collection
 		this.coll = this.db.getCollection(collName);
 
@@ -280,7 +327,7 @@ public class MongoSimGames {
 	 */
 	public void IndexOnTimestamp(String dbName){
 
-		this.db = mongoClient.getDB(dbName);
+		this.db = MongoConnectionManager.get().getDB(dbName);
 
 		System.out.println("Java - SetTimestampIndex Db: " + this.db.getName());
 		
@@ -297,248 +344,951 @@ public class MongoSimGames {
 		}
 	}
 	
-	////////////////////////////////////////////////////////////////
-	///// MARKER FUNCTIONS	
 	/**
-	 * Create the rviz markers
+	 * Create the compound indexes needed by the queries in all the collections
+	 * of the database and check (explain) that the standard pipelines use them
 	 */
-	public void CreateMarkers(ArrayList<Vector3d> pointsArr, String markerID){
-		// create marker with default color and scale
-		this.CreateMarkers(pointsArr, markerID, "point", "red", 0.01f);
+	public boolean PrepareDatabase(String dbName){
+		MongoIndexManager index_manager = new MongoIndexManager(
+				MongoConnectionManager.get().getDB(dbName));
+		return index_manager.prepare();
+	}
+
+	/**
+	 * Set the batch size and write concern used when exporting trajectories,
+	 * relaxedWriteConcern (unacknowledged writes) should only be used for scratch collections
+	 */
+	public void SetExportOptions(int batchSize, boolean relaxedWriteConcern){
+		this.exportBatchSize = batchSize;
+		this.exportRelaxedWriteConcern = relaxedWriteConcern;
+	}
+
+	/**
+	 * Write the rest of the cursor to the collection using unordered bulk inserts
+	 */
+	private void bulkInsert(DBCollection traj_coll, Cursor cursor){
+		MongoBulkWriter writer = new MongoBulkWriter(
+				traj_coll, this.exportBatchSize, this.exportRelaxedWriteConcern);
+		writer.insertAll(cursor);
+		writer.close();
 	}
 	
 	/**
-	 * Create the rviz markers
+	 * Set the server side downsampling of the trajectory view queries,
+	 * with timeStep > 0 one sample is returned per time bucket of that length,
+	 * otherwise with nrSamples > 0 the queried interval is split in nrSamples buckets;
+	 * if average is set the mean position of the bucket is returned instead of its first sample
 	 */
-	public void CreateMarkers(ArrayList<Vector3d> pointsArr, String markerID, String markerType, String color, float scale){
-		// List of marker points
-		List<Point> marker_points = new ArrayList<Point>();
+	public void SetTrajectorySampling(double timeStep, int nrSamples, boolean average){
+		this.samplingTimeStep = timeStep;
+		this.samplingNrSamples = nrSamples;
+		this.samplingAverage = average;
+	}
+	
+	/**
+	 * Disable the server side downsampling of the trajectory queries
+	 */
+	public void ClearTrajectorySampling(){
+		this.SetTrajectorySampling(0, 0, false);
+	}
+	
+	/**
+	 * Append the time bucket $group stage to the trajectory pipeline,
+	 * the pipeline has to output timestamp, pos and rot, and start with the $match on the time
+	 */
+	private List<DBObject> downsample(List<DBObject> pipeline, double start_ts, double end_ts){
+		// get the length of the time buckets
+		double step = this.samplingTimeStep;
+		if(step <= 0 && this.samplingNrSamples > 0){
+			step = (end_ts - start_ts) / this.samplingNrSamples;
+		}
 		
-		// iterate the 3d vector to create the marker points
-		for (Vector3d p_iter : pointsArr){
-			marker_points.add(msgPoint(p_iter));
+		// no sampling set, return the pipeline unchanged
+		if(step <= 0){
+			return pipeline;
 		}
-
-		// check if marker already exists
-		MarkerObject m = MarkerPublisher.get().getMarker(markerID);
-		if(m==null) {			
-			// create marker
-			m = MarkerPublisher.get().createMarker(markerID);
-			// set the type of the marker
-			m.setType(markerFromString(markerType));
-			// set the positions of the list markers
-			m.getMessage().setPoints(marker_points);
-			// transform string color to float[] array
-			m.setColor(this.colorFromString(color));
-			// set the scale of the marker
-			m.setScale(new float[] {scale, scale, scale});
+		
+		// sort after the $match on the time (index backed), so $first returns the earliest sample
+		List<DBObject> sampled_pipeline = new ArrayList<DBObject>();
+		sampled_pipeline.add(pipeline.get(0));
+		sampled_pipeline.add(new BasicDBObject("$sort", new BasicDBObject("timestamp", 1)));
+		sampled_pipeline.addAll(pipeline.subList(1, pipeline.size()));
+		
+		// bucket key: timestamp - (timestamp % step)
+		BasicDBList mod_args = new BasicDBList();
+		mod_args.add("$timestamp");
+		mod_args.add(step);
+		BasicDBList sub_args = new BasicDBList();
+		sub_args.add("$timestamp");
+		sub_args.add(new BasicDBObject("$mod", mod_args));
+		
+		// $group the samples of every bucket
+		DBObject group_fields = new BasicDBObject("_id", new BasicDBObject("$subtract", sub_args));
+		group_fields.put("timestamp", new BasicDBObject("$first", "$timestamp"));
+		group_fields.put("rot", new BasicDBObject("$first", "$rot"));
+		if(this.samplingAverage){
+			group_fields.put("pos_x", new BasicDBObject("$avg", "$pos.x"));
+			group_fields.put("pos_y", new BasicDBObject("$avg", "$pos.y"));
+			group_fields.put("pos_z", new BasicDBObject("$avg", "$pos.z"));
 		}
-		// add ID to the marker container
-		this.markerIDs.add(markerID);
+		else{
+			group_fields.put("pos", new BasicDBObject("$first", "$pos"));
+		}
+		sampled_pipeline.add(new BasicDBObject("$group", group_fields));
+		
+		// put the averaged position back into the pos document
+		if(this.samplingAverage){
+			DBObject proj_fields = new BasicDBObject("_id", 0);
+			proj_fields.put("timestamp", 1);
+			proj_fields.put("rot", 1);
+			proj_fields.put("pos", new BasicDBObject("x", "$pos_x")
+				.append("y", "$pos_y")
+				.append("z", "$pos_z"));
+			sampled_pipeline.add(new BasicDBObject("$project", proj_fields));
+		}
+		
+		// $group does not keep the order, sort the buckets on the time
+		sampled_pipeline.add(new BasicDBObject("$sort", new BasicDBObject("timestamp", 1)));
+		
+		return sampled_pipeline;
 	}
 	
 	/**
-	 * Create the rviz mesh marker
+	 * Set the max nr of points kept by the query result cache (0 = off)
 	 */
-	public void CreateMeshMarker(double translation[], double orientation[], String meshPath, String markerID){		
-		// check if marker already exists
-		MarkerObject m = MarkerPublisher.get().getMarker(markerID);
-		if(m==null) {
-			// create marker
-			m = MarkerPublisher.get().createMarker(markerID);
-			// set the type of the marker
-			m.setType(Marker.MESH_RESOURCE);
-			// set the path to the mesh
-			m.setMeshResource(meshPath);
-			// set pos and rotation
-			m.setTranslation(translation);
-			m.setOrientation(orientation);
-			// set scale
-			m.setScale(new float[] {1.0f,1.0f,1.0f});
+	public void SetResultCacheSize(int maxPoints){
+		this.resultCache.setMaxPoints(maxPoints);
+	}
+	
+	/**
+	 * Remove all the cached query results
+	 */
+	public void ClearResultCache(){
+		this.resultCache.clear();
+	}
+	
+	/**
+	 * Print the hits / misses of the query result cache
+	 */
+	public void PrintResultCacheStats(){
+		this.resultCache.printStats();
+	}
+	
+	/**
+	 * Build the result cache key of the query, includes the db, collection and trajectory sampling
+	 */
+	private String resultKey(String query, String entity, double start_ts, double end_ts, double deltaT){
+		return this.coll.getFullName() + "|" + query + "|" + entity + "|" + start_ts + "|" + end_ts
+				+ "|" + deltaT + "|" + this.samplingTimeStep + "|" + this.samplingNrSamples + "|" + this.samplingAverage;
+	}
+	
+	/**
+	 * Enable the in memory episode cache with the given budget in MB,
+	 * the *PoseAt queries then load the whole track of the model/link once
+	 * and answer from the cached columns
+	 */
+	public void EnableEpisodeCache(int maxMB){
+		final long max_bytes = maxMB * 1024L * 1024L;
+		if(this.episodeCache == null){
+			this.episodeCache = new EpisodeCache(max_bytes);
+		}
+		else{
+			this.episodeCache.setMaxBytes(max_bytes);
 		}
-		// add ID to the marker container
-		this.markerIDs.add(markerID);
 	}
-
+	
 	/**
-	 * Create the nested rviz mesh marker
+	 * Disable the episode cache and release the cached tracks
 	 */
-	public void CreateNestedMeshMarkers(
-			List<double[]> translations,
-			List<double[]> orientations,
-			List<String> names,
-			String meshFolderPath,
-			String markerID){
-		// create marker for every link mesh
-		for (int i = 0; i < names.size(); ++i)
-		{
-			final String curr_name = names.get(i);
-			final String curr_id = markerID + curr_name;
-			// check if marker already exists (ID + link names)
-			MarkerObject m = MarkerPublisher.get().getMarker(curr_id);
-			if(m==null) {
-				// create marker
-				m = MarkerPublisher.get().createMarker(curr_id);
-				// set the type of the marker
-				m.setType(Marker.MESH_RESOURCE);
-				// set the path to the mesh
-				m.setMeshResource(meshFolderPath + curr_name + ".dae");
-				// set pos and rotation
-				m.setTranslation(translations.get(i));
-				m.setOrientation(orientations.get(i));
-				// set scale
-				m.setScale(new float[] {1.0f,1.0f,1.0f});
-			}
-			// add ID to the marker container
-			this.markerIDs.add(curr_id);		
+	public void DisableEpisodeCache(){
+		if(this.episodeCache != null){
+			this.episodeCache.clear();
+			this.episodeCache = null;
 		}
 	}
 	
 	/**
-	 * Remove the rviz marker with the given ID
+	 * Print the episode cache stats
 	 */
-	public void RemoveMarker(String markerID){
-		MarkerPublisher.get().eraseMarker(markerID);		
+	public void PrintEpisodeCacheStats(){
+		if(this.episodeCache != null){
+			this.episodeCache.printStats();
+		}
 	}
 	
 	/**
-	 * Remove all rviz markers created form sg
+	 * Get the whole pose track of the model (link_name null) or link, from the
+	 * episode cache if enabled, otherwise it is loaded for the call only
 	 */
-	public void RemoveAllMarkers(){
-		// Iterate and remove all markers
-        Iterator m_itr = this.markerIDs.iterator();
-        while (m_itr.hasNext()) {
-                this.RemoveMarker((String)m_itr.next());
-        }
+	private PoseTrack getPoseTrack(String model_name, String link_name){
+		if(this.episodeCache == null){
+			return this.loadPoseTrack(model_name, link_name);
+		}
+		final String key = EpisodeCache.key(this.coll.getFullName(), model_name, link_name);
+		PoseTrack track = this.episodeCache.get(key);
+		if(track == null){
+			track = this.loadPoseTrack(model_name, link_name);
+			this.episodeCache.put(key, track);
+		}
+		return track;
 	}
-
 	
-	////////////////////////////////////////////////////////////////
-	///// POSE QUERY FUNCTIONS	
-	//////////////////// MODEL
 	/**
-	 * Query the Pose of the given model at the given timepoint (or the most recent one)
-	 * save result to MongoDB
+	 * Load the whole track of the model (link_name null) or link with one sorted aggregation
 	 */
-	public void WriteModelPoseAt(double timestamp, 
-			String model_name, 
-			String pose_traj_db_name, 
-			String pose_traj_coll_name){
-
-		// $and list for querying the $match in the aggregation
-		BasicDBList time_and_name = new BasicDBList();
-
-		// add the timestamp and the model name
-		time_and_name.add(new BasicDBObject("timestamp", new BasicDBObject("$lte", timestamp)));
-		time_and_name.add(new BasicDBObject("models.name", model_name));
-
-		// create the pipeline operations, first the $match
-		DBObject match_time_and_name = new BasicDBObject(
-				"$match", new BasicDBObject( "$and", time_and_name)); 
-
-		// sort the results in descending order on the timestamp (keep most recent result first)
-		DBObject sort_desc = new BasicDBObject(
-				"$sort", new BasicDBObject("timestamp", -1));
-
-		// $limit the result to 1, we only need one pose
-		DBObject limit_result = new BasicDBObject("$limit", 1);
-
+	private PoseTrack loadPoseTrack(String model_name, String link_name){
+		return this.loadPoseTrack(model_name, link_name, Double.NaN, Double.NaN);
+	}
+	
+	/**
+	 * Load the track of the model (link_name null) or link between the
+	 * timestamps (NaN for the whole episode) with one sorted aggregation
+	 */
+	private PoseTrack loadPoseTrack(String model_name, String link_name, double start_ts, double end_ts){
+		// $match the documents with the model (in the time range), sort on the time (index backed)
+		List<DBObject> pipeline = new ArrayList<DBObject>();
+		if(Double.isNaN(start_ts)){
+			pipeline.add(new BasicDBObject("$match", new BasicDBObject("models.name", model_name)));
+		}
+		else{
+			BasicDBList time_and_name = new BasicDBList();
+			time_and_name.add(new BasicDBObject("timestamp", 
+					new BasicDBObject("$gte", start_ts).append("$lte", end_ts)));
+			time_and_name.add(new BasicDBObject("models.name", model_name));
+			pipeline.add(new BasicDBObject("$match", new BasicDBObject("$and", time_and_name)));
+		}
+		pipeline.add(new BasicDBObject("$sort", new BasicDBObject("timestamp", 1)));
+		
 		// $unwind models in order to output only the queried model
-		DBObject unwind_models = new BasicDBObject("$unwind", "$models");
-
-		// $match for the given model name from the unwinded models
-		DBObject match_model = new BasicDBObject(
-				"$match", new BasicDBObject("models.name", model_name));
-
+		pipeline.add(new BasicDBObject("$unwind", "$models"));
+		pipeline.add(new BasicDBObject("$match", new BasicDBObject("models.name", model_name)));
+		
 		// build the $projection operation
 		DBObject proj_fields = new BasicDBObject("_id", 0);
 		proj_fields.put("timestamp", 1);
-		proj_fields.put("pos", "$models.pos");
-		proj_fields.put("rot", "$models.rot");
-		DBObject project = new BasicDBObject("$project", proj_fields);
-
-		// run aggregation
-		List<DBObject> pipeline = Arrays.asList(
-				match_time_and_name, sort_desc, limit_result, unwind_models, match_model, project);
-
+		if(link_name == null){
+			proj_fields.put("pos", "$models.pos");
+			proj_fields.put("rot", "$models.rot");
+		}
+		else{
+			// $unwind the links and $match the given link
+			pipeline.add(new BasicDBObject("$unwind", "$models.links"));
+			pipeline.add(new BasicDBObject("$match", new BasicDBObject("models.links.name", link_name)));
+			proj_fields.put("pos", "$models.links.pos");
+			proj_fields.put("rot", "$models.links.rot");
+		}
+		pipeline.add(new BasicDBObject("$project", proj_fields));
+		
 		AggregationOptions aggregationOptions = AggregationOptions.builder()
 				.batchSize(100)
 				.outputMode(AggregationOptions.OutputMode.CURSOR)
 				.allowDiskUse(true)
 				.build();
-
+		
 		Cursor cursor = this.coll.aggregate(pipeline, aggregationOptions);
-
-		// writing results to a mongo collection
-		try {
-
-			// connect to client
-			MongoClient mongoClient = new MongoClient( this.dbHost , 27017 );
-
-			// get the db
-			DB pose_traj_db = mongoClient.getDB(pose_traj_db_name);
-
-			// check if the collection already exists
-			if (pose_traj_db.collectionExists(pose_traj_coll_name))
-			{
-				System.out.println("!!! Collection: \'" + pose_traj_coll_name + "\' already exists!" );				
-			}
-			// create the collection
-			else
-			{
-				// create collection
-				DBCollection pose_traj_coll = pose_traj_db.getCollection(pose_traj_coll_name);
-
-				System.out.println("Writing most recent pose to \'" + pose_traj_coll_name + "\'" );
-
-				// if query has a response, append metadata to it
-				if(cursor.hasNext())
-				{
-					// create metadata doc
-					BasicDBObject meta_data = new BasicDBObject("name", pose_traj_coll_name)
-					.append("type", "trajectory")
-					.append("timestamp", timestamp)
-					.append("description", "Model pose query..");
-
-					// get the first document as the next cursor and append the metadata to it
-					BasicDBObject first_doc = (BasicDBObject) cursor.next();
-
-					first_doc.append("metadata", meta_data);
-
-					// insert document with metadata
-					pose_traj_coll.insert(first_doc);
-				}
-			}
-		}catch (UnknownHostException e) {
-			e.printStackTrace();
-		}	
+		
+		// fill the columns, the rotation is stored as quaternion
+		PoseTrack track = new PoseTrack(1024);
+		while(cursor.hasNext()){
+			BasicDBObject curr_doc = (BasicDBObject) cursor.next();
+			BasicDBObject pos = (BasicDBObject) curr_doc.get("pos");
+			BasicDBObject rot = (BasicDBObject) curr_doc.get("rot");
+			double[] quat = this.quatFromEulerRad(
+					rot.getDouble("x"), rot.getDouble("y"), rot.getDouble("z"));
+			track.add(curr_doc.getDouble("timestamp"),
+					pos.getDouble("x"), pos.getDouble("y"), pos.getDouble("z"),
+					quat[0], quat[1], quat[2], quat[3]);
+		}
+		cursor.close();
+		track.trim();
+		return track;
 	}
-
+	
 	/**
-	 * Query the Pose of the given model at the given timepoint (or the most recent one)
-	 * view results as rviz markers 
+	 * Get the pose (x y z qw qx qy qz) of the model (link_name null) or link at the
+	 * given timepoint (or the most recent one), from the episode cache if enabled,
+	 * otherwise only the most recent document is queried
 	 */
-	public void ViewModelPoseAt(double timestamp, 
-			String model_name, 
-			String markerID){
-		// view pose with default color and scale
-		this.ViewModelPoseAt(timestamp, model_name, markerID, "point", "red", 0.01f);
+	private double[] poseAt(double timestamp, String model_name, String link_name){
+		if(this.episodeCache != null){
+			return this.getPoseTrack(model_name, link_name).poseAt(timestamp);
+		}
+		final double[] keyframe = this.keyframe(timestamp, model_name, link_name, true);
+		if(keyframe == null){
+			return new double[0];
+		}
+		return Arrays.copyOfRange(keyframe, 1, keyframe.length);
 	}
 	
 	/**
-	 * Query the Pose of the given model at the given timepoint (or the most recent one)
-	 * view results as rviz markers 
+	 * Get the trajectory of the model (link_name null) or link between the timepoints,
+	 * from the episode cache if enabled, otherwise only the time range is queried
 	 */
-	public void ViewModelPoseAt(double timestamp, 
-			String model_name, 
-			String markerID,
-			String markerType,
-			String color,
-			float scale){
-		// $and list for querying the $match in the aggregation
-		BasicDBList time_and_name = new BasicDBList();
-
-		// add the timestamp and the model name
+	private double[] trajectory(double start_ts, double end_ts, String model_name, String link_name){
+		if(this.episodeCache != null){
+			return this.getPoseTrack(model_name, link_name).trajectory(start_ts, end_ts);
+		}
+		return this.loadPoseTrack(model_name, link_name, start_ts, end_ts).trajectory(start_ts, end_ts);
+	}
+	
+	/**
+	 * Get the pose of the model with a string timestamp, Knowrob specific
+	 */
+	public double[] GetModelPoseAt(String ts_str, String model_name){
+		// transform the knowrob time to double with 3 decimal precision
+		double timestamp = (double) Math.round((parseTime_d(ts_str) - TIME_OFFSET) * 1000) / 1000;
+		
+		return this.GetModelPoseAt(timestamp, model_name);
+	}
+	
+	/**
+	 * Get the pose (x y z qw qx qy qz) of the model at the given timepoint (or the most recent one)
+	 */
+	public double[] GetModelPoseAt(double timestamp, String model_name){
+		return this.poseAt(timestamp, model_name, null);
+	}
+	
+	/**
+	 * Get the pose of the link with a string timestamp, Knowrob specific
+	 */
+	public double[] GetLinkPoseAt(String ts_str, String model_name, String link_name){
+		// transform the knowrob time to double with 3 decimal precision
+		double timestamp = (double) Math.round((parseTime_d(ts_str) - TIME_OFFSET) * 1000) / 1000;
+		
+		return this.GetLinkPoseAt(timestamp, model_name, link_name);
+	}
+	
+	/**
+	 * Get the pose (x y z qw qx qy qz) of the link at the given timepoint (or the most recent one)
+	 */
+	public double[] GetLinkPoseAt(double timestamp, String model_name, String link_name){
+		return this.poseAt(timestamp, model_name, link_name);
+	}
+	
+	/**
+	 * Get the trajectory of the model with string timestamps, Knowrob specific
+	 */
+	public double[] GetModelTrajectory(String start, String end, String model_name){
+		// transform the knowrob time to double with 3 decimal precision
+		double start_ts = (double) Math.round((parseTime_d(start) - TIME_OFFSET) * 1000) / 1000;
+		double end_ts = (double) Math.round((parseTime_d(end) - TIME_OFFSET) * 1000) / 1000;
+		
+		return this.GetModelTrajectory(start_ts, end_ts, model_name);
+	}
+	
+	/**
+	 * Get the trajectory of the model between the timepoints packed as (t x y z qw qx qy qz)
+	 */
+	public double[] GetModelTrajectory(double start_ts, double end_ts, String model_name){
+		return this.trajectory(start_ts, end_ts, model_name, null);
+	}
+	
+	/**
+	 * Get the trajectory of the link with string timestamps, Knowrob specific
+	 */
+	public double[] GetLinkTrajectory(String start, String end, String model_name, String link_name){
+		// transform the knowrob time to double with 3 decimal precision
+		double start_ts = (double) Math.round((parseTime_d(start) - TIME_OFFSET) * 1000) / 1000;
+		double end_ts = (double) Math.round((parseTime_d(end) - TIME_OFFSET) * 1000) / 1000;
+		
+		return this.GetLinkTrajectory(start_ts, end_ts, model_name, link_name);
+	}
+	
+	/**
+	 * Get the trajectory of the link between the timepoints packed as (t x y z qw qx qy qz)
+	 */
+	public double[] GetLinkTrajectory(double start_ts, double end_ts, String model_name, String link_name){
+		return this.trajectory(start_ts, end_ts, model_name, link_name);
+	}
+	
+	/**
+	 * Get the keyframe (t x y z qw qx qy qz) of the model (link_name null) or link
+	 * at or before the timestamp (before = true) or the first one after it, null if none
+	 */
+	private double[] keyframe(double timestamp, String model_name, String link_name, boolean before){
+		// $and list for querying the $match in the aggregation
+		BasicDBList time_and_name = new BasicDBList();
+		time_and_name.add(new BasicDBObject("timestamp", 
+				new BasicDBObject(before ? "$lte" : "$gt", timestamp)));
+		time_and_name.add(new BasicDBObject("models.name", model_name));
+
+		// $match, $sort towards the timestamp and $limit to the closest document
+		List<DBObject> pipeline = new ArrayList<DBObject>();
+		pipeline.add(new BasicDBObject("$match", new BasicDBObject("$and", time_and_name)));
+		pipeline.add(new BasicDBObject("$sort", new BasicDBObject("timestamp", before ? -1 : 1)));
+		pipeline.add(new BasicDBObject("$limit", 1));
+		
+		// $unwind models in order to output only the queried model
+		pipeline.add(new BasicDBObject("$unwind", "$models"));
+		pipeline.add(new BasicDBObject("$match", new BasicDBObject("models.name", model_name)));
+		
+		// build the $projection operation
+		DBObject proj_fields = new BasicDBObject("_id", 0);
+		proj_fields.put("timestamp", 1);
+		if(link_name == null){
+			proj_fields.put("pos", "$models.pos");
+			proj_fields.put("rot", "$models.rot");
+		}
+		else{
+			// $unwind the links and $match the given link
+			pipeline.add(new BasicDBObject("$unwind", "$models.links"));
+			pipeline.add(new BasicDBObject("$match", new BasicDBObject("models.links.name", link_name)));
+			proj_fields.put("pos", "$models.links.pos");
+			proj_fields.put("rot", "$models.links.rot");
+		}
+		pipeline.add(new BasicDBObject("$project", proj_fields));
+		
+		AggregationOptions aggregationOptions = AggregationOptions.builder()
+				.batchSize(100)
+				.outputMode(AggregationOptions.OutputMode.CURSOR)
+				.allowDiskUse(true)
+				.build();
+		
+		Cursor cursor = this.coll.aggregate(pipeline, aggregationOptions);
+		if(!cursor.hasNext()){
+			cursor.close();
+			return null;
+		}
+		BasicDBObject first_doc = (BasicDBObject) cursor.next();
+		cursor.close();
+		
+		BasicDBObject pos = (BasicDBObject) first_doc.get("pos");
+		BasicDBObject rot = (BasicDBObject) first_doc.get("rot");
+		double[] quat = this.quatFromEulerRad(
+				rot.getDouble("x"), rot.getDouble("y"), rot.getDouble("z"));
+		return new double[] {first_doc.getDouble("timestamp"),
+				pos.getDouble("x"), pos.getDouble("y"), pos.getDouble("z"),
+				quat[0], quat[1], quat[2], quat[3]};
+	}
+	
+	/**
+	 * Get the interpolated pose (x y z qw qx qy qz) of the model (link_name null) or link
+	 */
+	private double[] poseInterpolated(final double timestamp, final String model_name, final String link_name){
+		// interpolate on the cached track if the episode cache is enabled
+		if(this.episodeCache != null){
+			return PoseInterpolator.poseAt(this.getPoseTrack(model_name, link_name), timestamp);
+		}
+		final String key = EpisodeCache.key(this.coll.getFullName(), model_name, link_name);
+		return this.poseInterpolator.poseAt(key, timestamp, new PoseInterpolator.KeyframeSource(){
+			@Override
+			public double[] keyframe(double ts, boolean before){
+				return MongoSimGames.this.keyframe(ts, model_name, link_name, before);
+			}
+		});
+	}
+	
+	/**
+	 * Get the interpolated pose of the model with a string timestamp, Knowrob specific
+	 */
+	public double[] GetModelPoseInterpolated(String ts_str, String model_name){
+		// transform the knowrob time to double with 3 decimal precision
+		double timestamp = (double) Math.round((parseTime_d(ts_str) - TIME_OFFSET) * 1000) / 1000;
+		
+		return this.GetModelPoseInterpolated(timestamp, model_name);
+	}
+	
+	/**
+	 * Get the pose (x y z qw qx qy qz) of the model at the given timepoint,
+	 * interpolated between the bracketing keyframes
+	 */
+	public double[] GetModelPoseInterpolated(double timestamp, String model_name){
+		return this.poseInterpolated(timestamp, model_name, null);
+	}
+	
+	/**
+	 * Get the interpolated pose of the link with a string timestamp, Knowrob specific
+	 */
+	public double[] GetLinkPoseInterpolated(String ts_str, String model_name, String link_name){
+		// transform the knowrob time to double with 3 decimal precision
+		double timestamp = (double) Math.round((parseTime_d(ts_str) - TIME_OFFSET) * 1000) / 1000;
+		
+		return this.GetLinkPoseInterpolated(timestamp, model_name, link_name);
+	}
+	
+	/**
+	 * Get the pose (x y z qw qx qy qz) of the link at the given timepoint,
+	 * interpolated between the bracketing keyframes
+	 */
+	public double[] GetLinkPoseInterpolated(double timestamp, String model_name, String link_name){
+		return this.poseInterpolated(timestamp, model_name, link_name);
+	}
+	
+	/**
+	 * Resample the trajectory of the model (link_name null) or link on a uniform clock
+	 */
+	private double[] resampleTrajectory(double start_ts, double end_ts, double step, String model_name, String link_name){
+		PoseTrack track;
+		if(this.episodeCache != null){
+			track = this.getPoseTrack(model_name, link_name);
+		}
+		else{
+			// load the range including the keyframes bracketing it
+			double[] first = this.keyframe(start_ts, model_name, link_name, true);
+			double[] last = this.keyframe(end_ts, model_name, link_name, false);
+			track = this.loadPoseTrack(model_name, link_name,
+					(first != null) ? first[0] : start_ts,
+					(last != null) ? last[0] : end_ts);
+		}
+		return PoseInterpolator.resample(track, start_ts, end_ts, step);
+	}
+	
+	/**
+	 * Resample the trajectory of the model with string timestamps, Knowrob specific
+	 */
+	public double[] ResampleModelTrajectory(String start, String end, double step, String model_name){
+		// transform the knowrob time to double with 3 decimal precision
+		double start_ts = (double) Math.round((parseTime_d(start) - TIME_OFFSET) * 1000) / 1000;
+		double end_ts = (double) Math.round((parseTime_d(end) - TIME_OFFSET) * 1000) / 1000;
+		
+		return this.ResampleModelTrajectory(start_ts, end_ts, step, model_name);
+	}
+	
+	/**
+	 * Resample the trajectory of the model on the uniform clock start, start + step, .. <= end,
+	 * packed as (t x y z qw qx qy qz)
+	 */
+	public double[] ResampleModelTrajectory(double start_ts, double end_ts, double step, String model_name){
+		return this.resampleTrajectory(start_ts, end_ts, step, model_name, null);
+	}
+	
+	/**
+	 * Resample the trajectory of the link with string timestamps, Knowrob specific
+	 */
+	public double[] ResampleLinkTrajectory(String start, String end, double step, String model_name, String link_name){
+		// transform the knowrob time to double with 3 decimal precision
+		double start_ts = (double) Math.round((parseTime_d(start) - TIME_OFFSET) * 1000) / 1000;
+		double end_ts = (double) Math.round((parseTime_d(end) - TIME_OFFSET) * 1000) / 1000;
+		
+		return this.ResampleLinkTrajectory(start_ts, end_ts, step, model_name, link_name);
+	}
+	
+	/**
+	 * Resample the trajectory of the link on the uniform clock start, start + step, .. <= end,
+	 * packed as (t x y z qw qx qy qz)
+	 */
+	public double[] ResampleLinkTrajectory(double start_ts, double end_ts, double step, String model_name, String link_name){
+		return this.resampleTrajectory(start_ts, end_ts, step, model_name, link_name);
+	}
+	
+	/**
+	 * View the cached pose as rviz marker, returns false if the cache is disabled
+	 */
+	private boolean viewCachedPoseAt(double timestamp, String model_name, String link_name,
+			String markerID, String markerType, String color, float scale){
+		if(this.episodeCache == null){
+			return false;
+		}
+		double[] pose = this.getPoseTrack(model_name, link_name).poseAt(timestamp);
+		if(pose.length > 0){
+			ArrayList<Vector3d> pos = new ArrayList<Vector3d>();
+			pos.add(new Vector3d(pose[0], pose[1], pose[2]));
+			this.CreateMarkers(pos, markerID, markerType, color, scale);
+		}
+		return true;
+	}
+	
+	/**
+	 * Export the current (raw) collection into a memory mapped binary
+	 * snapshot, which can be queried with EpisodeSnapshotReader without mongo,
+	 * the poses are streamed from the cursor into the file, the episode is
+	 * never kept in memory
+	 */
+	public void ExportSnapshot(String path){
+		// lay out the model and "model/link" tracks with their nr of poses
+		Map<String, Integer> nr_poses = this.countSnapshotPoses();
+		
+		DBCursor cursor = null;
+		EpisodeSnapshotWriter writer = null;
+		try{
+			writer = new EpisodeSnapshotWriter(path, nr_poses);
+			
+			// scan the whole collection once, in timestamp order
+			cursor = this.coll.find().sort(new BasicDBObject("timestamp", 1));
+			while(cursor.hasNext()){
+				BasicDBObject curr_doc = (BasicDBObject) cursor.next();
+				final double timestamp = curr_doc.getDouble("timestamp");
+				BasicDBList models = (BasicDBList) curr_doc.get("models");
+				if(models == null){
+					continue;
+				}
+				for (Object model_obj : models){
+					BasicDBObject model = (BasicDBObject) model_obj;
+					final String model_name = model.getString("name");
+					this.addSnapshotPose(writer, model_name, timestamp, model);
+					BasicDBList links = (BasicDBList) model.get("links");
+					if(links == null){
+						continue;
+					}
+					for (Object link_obj : links){
+						BasicDBObject link = (BasicDBObject) link_obj;
+						this.addSnapshotPose(writer, model_name + "/" + link.getString("name"), timestamp, link);
+					}
+				}
+			}
+			writer.close();
+			writer = null;
+			System.out.println("Java - ExportSnapshot - wrote " + nr_poses.size() + " tracks to " + path);
+		}
+		catch (IOException e){
+			e.printStackTrace();
+		}
+		finally{
+			if(cursor != null){
+				cursor.close();
+			}
+			if(writer != null){
+				// failed export, release the file
+				try{
+					writer.close();
+				}
+				catch (IOException e){
+					// already reported
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Count the poses of every model and "model/link" track of the
+	 * collection on the server (only the documents with a pose count)
+	 */
+	private Map<String, Integer> countSnapshotPoses(){
+		Map<String, Integer> nr_poses = new LinkedHashMap<String, Integer>();
+		
+		AggregationOptions aggregationOptions = AggregationOptions.builder()
+				.batchSize(1000)
+				.outputMode(AggregationOptions.OutputMode.CURSOR)
+				.allowDiskUse(true)
+				.build();
+		
+		// models
+		DBObject unwind_models = new BasicDBObject("$unwind", "$models");
+		DBObject match_model_pose = new BasicDBObject("$match",
+				new BasicDBObject("models.pos", new BasicDBObject("$exists", true))
+				.append("models.rot", new BasicDBObject("$exists", true)));
+		DBObject group_models = new BasicDBObject("$group",
+				new BasicDBObject("_id", "$models.name").append("count", new BasicDBObject("$sum", 1)));
+		Cursor cursor = this.coll.aggregate(
+				Arrays.asList(unwind_models, match_model_pose, group_models), aggregationOptions);
+		try{
+			while(cursor.hasNext()){
+				BasicDBObject curr_doc = (BasicDBObject) cursor.next();
+				nr_poses.put(curr_doc.getString("_id"), curr_doc.getInt("count"));
+			}
+		}
+		finally{
+			cursor.close();
+		}
+		
+		// links
+		DBObject unwind_links = new BasicDBObject("$unwind", "$models.links");
+		DBObject match_link_pose = new BasicDBObject("$match",
+				new BasicDBObject("models.links.pos", new BasicDBObject("$exists", true))
+				.append("models.links.rot", new BasicDBObject("$exists", true)));
+		DBObject group_links = new BasicDBObject("$group",
+				new BasicDBObject("_id", new BasicDBObject("model", "$models.name")
+						.append("link", "$models.links.name"))
+				.append("count", new BasicDBObject("$sum", 1)));
+		cursor = this.coll.aggregate(
+				Arrays.asList(unwind_models, unwind_links, match_link_pose, group_links), aggregationOptions);
+		try{
+			while(cursor.hasNext()){
+				BasicDBObject curr_doc = (BasicDBObject) cursor.next();
+				BasicDBObject id = (BasicDBObject) curr_doc.get("_id");
+				nr_poses.put(id.getString("model") + "/" + id.getString("link"), curr_doc.getInt("count"));
+			}
+		}
+		finally{
+			cursor.close();
+		}
+		return nr_poses;
+	}
+	
+	/**
+	 * Add the pose of the model/link document to its snapshot track
+	 */
+	private void addSnapshotPose(EpisodeSnapshotWriter writer, String name, double timestamp, BasicDBObject doc) throws IOException{
+		BasicDBObject pos = (BasicDBObject) doc.get("pos");
+		BasicDBObject rot = (BasicDBObject) doc.get("rot");
+		if(pos == null || rot == null){
+			return;
+		}
+		double[] quat = this.quatFromEulerRad(
+				rot.getDouble("x"), rot.getDouble("y"), rot.getDouble("z"));
+		writer.add(name, timestamp,
+				pos.getDouble("x"), pos.getDouble("y"), pos.getDouble("z"),
+				quat[0], quat[1], quat[2], quat[3]);
+	}
+	
+	////////////////////////////////////////////////////////////////
+	///// MARKER FUNCTIONS	
+	/**
+	 * Create the rviz markers
+	 */
+	public void CreateMarkers(ArrayList<Vector3d> pointsArr, String markerID){
+		// create marker with default color and scale
+		this.CreateMarkers(pointsArr, markerID, "point", "red", 0.01f);
+	}
+	
+	/**
+	 * Create the rviz markers
+	 */
+	public void CreateMarkers(ArrayList<Vector3d> pointsArr, String markerID, String markerType, String color, float scale){
+		// check if marker already exists
+		MarkerObject m = MarkerPublisher.get().getMarker(markerID);
+		if(m==null) {			
+			// reduce the level of detail (if set)
+			List<Vector3d> lod_points = TrajectoryLOD.simplify(
+					pointsArr, this.markerLODTolerance, this.markerLODMaxPoints);
+			
+			// List of marker points, iterate the 3d vector to create the marker points
+			List<Point> marker_points = new ArrayList<Point>(lod_points.size());
+			for (Vector3d p_iter : lod_points){
+				marker_points.add(msgPoint(p_iter));
+			}
+			
+			// create marker
+			m = MarkerPublisher.get().createMarker(markerID);
+			// set the type of the marker
+			m.setType(markerFromString(markerType));
+			// set the positions of the list markers
+			m.getMessage().setPoints(marker_points);
+			// transform string color to float[] array
+			m.setColor(this.colorFromString(color));
+			// set the scale of the marker
+			m.setScale(new float[] {scale, scale, scale});
+		}
+		// add ID to the marker container
+		this.markerIDs.add(markerID);
+	}
+	
+	/**
+	 * Create the rviz mesh marker
+	 */
+	public void CreateMeshMarker(double translation[], double orientation[], String meshPath, String markerID){		
+		// check if marker already exists
+		MarkerObject m = MarkerPublisher.get().getMarker(markerID);
+		if(m==null) {
+			// create marker
+			m = MarkerPublisher.get().createMarker(markerID);
+			// set the type of the marker
+			m.setType(Marker.MESH_RESOURCE);
+			// set the path to the mesh
+			m.setMeshResource(meshPath);
+			// set pos and rotation
+			m.setTranslation(translation);
+			m.setOrientation(orientation);
+			// set scale
+			m.setScale(new float[] {1.0f,1.0f,1.0f});
+		}
+		// add ID to the marker container
+		this.markerIDs.add(markerID);
+	}
+
+	/**
+	 * Create the nested rviz mesh marker
+	 */
+	public void CreateNestedMeshMarkers(
+			List<double[]> translations,
+			List<double[]> orientations,
+			List<String> names,
+			String meshFolderPath,
+			String markerID){
+		// create marker for every link mesh
+		for (int i = 0; i < names.size(); ++i)
+		{
+			final String curr_name = names.get(i);
+			final String curr_id = markerID + curr_name;
+			// check if marker already exists (ID + link names)
+			MarkerObject m = MarkerPublisher.get().getMarker(curr_id);
+			if(m==null) {
+				// create marker
+				m = MarkerPublisher.get().createMarker(curr_id);
+				// set the type of the marker
+				m.setType(Marker.MESH_RESOURCE);
+				// set the path to the mesh
+				m.setMeshResource(meshFolderPath + curr_name + ".dae");
+				// set pos and rotation
+				m.setTranslation(translations.get(i));
+				m.setOrientation(orientations.get(i));
+				// set scale
+				m.setScale(new float[] {1.0f,1.0f,1.0f});
+			}
+			// add ID to the marker container
+			this.markerIDs.add(curr_id);		
+		}
+	}
+	
+	/**
+	 * Remove the rviz marker with the given ID
+	 */
+	public void RemoveMarker(String markerID){
+		// stop the stream and erase its chunk markers
+		TrajectoryStreamer streamer = this.streamers.remove(markerID);
+		if(streamer != null){
+			streamer.remove();
+		}
+		// stop the replay and erase its mesh markers
+		EpisodeReplayer replayer = this.replayers.remove(markerID);
+		if(replayer != null){
+			replayer.remove();
+		}
+		MarkerPublisher.get().eraseMarker(markerID);		
+	}
+	
+	/**
+	 * Set the level of detail of the list markers, points within the tolerance (m)
+	 * of the simplified trajectory are dropped, at most maxPoints are kept (0 = off)
+	 */
+	public void SetMarkerLOD(double tolerance, int maxPoints){
+		this.markerLODTolerance = tolerance;
+		this.markerLODMaxPoints = maxPoints;
+	}
+	
+	/**
+	 * Remove all rviz markers created form sg
+	 */
+	public void RemoveAllMarkers(){
+		// Iterate and remove all markers
+        Iterator m_itr = this.markerIDs.iterator();
+        while (m_itr.hasNext()) {
+                this.RemoveMarker((String)m_itr.next());
+        }
+	}
+
+	
+	////////////////////////////////////////////////////////////////
+	///// POSE QUERY FUNCTIONS	
+	//////////////////// MODEL
+	/**
+	 * Query the Pose of the given model at the given timepoint (or the most recent one)
+	 * save result to MongoDB
+	 */
+	public void WriteModelPoseAt(double timestamp, 
+			String model_name, 
+			String pose_traj_db_name, 
+			String pose_traj_coll_name){
+
+		// $and list for querying the $match in the aggregation
+		BasicDBList time_and_name = new BasicDBList();
+
+		// add the timestamp and the model name
+		time_and_name.add(new BasicDBObject("timestamp", new BasicDBObject("$lte", timestamp)));
+		time_and_name.add(new BasicDBObject("models.name", model_name));
+
+		// create the pipeline operations, first the $match
+		DBObject match_time_and_name = new BasicDBObject(
+				"$match", new BasicDBObject( "$and", time_and_name)); 
+
+		// sort the results in descending order on the timestamp (keep most recent result first)
+		DBObject sort_desc = new BasicDBObject(
+				"$sort", new BasicDBObject("timestamp", -1));
+
+		// $limit the result to 1, we only need one pose
+		DBObject limit_result = new BasicDBObject("$limit", 1);
+
+		// $unwind models in order to output only the queried model
+		DBObject unwind_models = new BasicDBObject("$unwind", "$models");
+
+		// $match for the given model name from the unwinded models
+		DBObject match_model = new BasicDBObject(
+				"$match", new BasicDBObject("models.name", model_name));
+
+		// build the $projection operation
+		DBObject proj_fields = new BasicDBObject("_id", 0);
+		proj_fields.put("timestamp", 1);
+		proj_fields.put("pos", "$models.pos");
+		proj_fields.put("rot", "$models.rot");
+		DBObject project = new BasicDBObject("$project", proj_fields);
+
+		// run aggregation
+		List<DBObject> pipeline = Arrays.asList(
+				match_time_and_name, sort_desc, limit_result, unwind_models, match_model, project);
+
+		AggregationOptions aggregationOptions = AggregationOptions.builder()
+				.batchSize(100)
+				.outputMode(AggregationOptions.OutputMode.CURSOR)
+				.allowDiskUse(true)
+				.build();
+
+		Cursor cursor = this.coll.aggregate(pipeline, aggregationOptions);
+
+		// writing results to a mongo collection
+		// get the db
+		DB pose_traj_db = MongoConnectionManager.get().getDB(pose_traj_db_name);
+
+		// check if the collection already exists
+		if (pose_traj_db.collectionExists(pose_traj_coll_name))
+		{
+			System.out.println("!!! Collection: \'" + pose_traj_coll_name + "\' already exists!" );				
+		}
+		// create the collection
+		else
+		{
+			// create collection
+			DBCollection pose_traj_coll = pose_traj_db.getCollection(pose_traj_coll_name);
+
+			System.out.println("Writing most recent pose to \'" + pose_traj_coll_name + "\'" );
+
+			// if query has a response, append metadata to it
+			if(cursor.hasNext())
+			{
+				// create metadata doc
+				BasicDBObject meta_data = new BasicDBObject("name", pose_traj_coll_name)
+				.append("type", "trajectory")
+				.append("timestamp", timestamp)
+				.append("description", "Model pose query..");
+
+				// get the first document as the next cursor and append the metadata to it
+				BasicDBObject first_doc = (BasicDBObject) cursor.next();
+
+				first_doc.append("metadata", meta_data);
+
+				// insert document with metadata
+				pose_traj_coll.insert(first_doc);
+			}
+		}
+	}
+
+	/**
+	 * Query the Pose of the given model at the given timepoint (or the most recent one)
+	 * view results as rviz markers 
+	 */
+	public void ViewModelPoseAt(double timestamp, 
+			String model_name, 
+			String markerID){
+		// view pose with default color and scale
+		this.ViewModelPoseAt(timestamp, model_name, markerID, "point", "red", 0.01f);
+	}
+	
+	/**
+	 * Query the Pose of the given model at the given timepoint (or the most recent one)
+	 * view results as rviz markers 
+	 */
+	public void ViewModelPoseAt(double timestamp, 
+			String model_name, 
+			String markerID,
+			String markerType,
+			String color,
+			float scale){
+		// answer from the episode cache if enabled
+		if(this.viewCachedPoseAt(timestamp, model_name, null, markerID, markerType, color, scale)){
+			return;
+		}
+		
+		// answer from the result cache
+		final String cache_key = this.resultKey("model_pose", model_name, timestamp, timestamp, 0);
+		ArrayList<Vector3d> cached = this.resultCache.get(cache_key);
+		if(cached != null){
+			this.CreateMarkers(cached, markerID, markerType, color, scale);
+			return;
+		}
+		
+		// $and list for querying the $match in the aggregation
+		BasicDBList time_and_name = new BasicDBList();
+
+		// add the timestamp and the model name
 		time_and_name.add(new BasicDBObject("timestamp", new BasicDBObject("$lte", timestamp)));
 		time_and_name.add(new BasicDBObject("models.name", model_name));
 
@@ -593,6 +1343,7 @@ public class MongoSimGames {
 					((BasicDBObject) first_doc.get("pos")).getDouble("y"),
 					((BasicDBObject) first_doc.get("pos")).getDouble("z")));
 			
+			this.resultCache.put(cache_key, pos);
 			this.CreateMarkers(pos, markerID, markerType, color, scale);	
 		}	
 	}
@@ -861,48 +1612,40 @@ public class MongoSimGames {
 		Cursor cursor = this.coll.aggregate(pipeline, aggregationOptions);
 
 		// writing results to a mongo collection
-		try {
+		// get the db
+		DB pose_traj_db = MongoConnectionManager.get().getDB(pose_traj_db_name);
 
-			// connect to client
-			MongoClient mongoClient = new MongoClient( this.dbHost , 27017 );
+		// check if the collection already exists
+		if (pose_traj_db.collectionExists(pose_traj_coll_name))
+		{
+			System.out.println("!!! Collection: \'" + pose_traj_coll_name + "\' already exists!" );				
+		}
+		// create the collection
+		else
+		{
+			// create collection
+			DBCollection pose_traj_coll = pose_traj_db.getCollection(pose_traj_coll_name);
 
-			// get the db
-			DB pose_traj_db = mongoClient.getDB(pose_traj_db_name);
+			System.out.println("Writing most recent pose to \'" + pose_traj_coll_name + "\'" );
 
-			// check if the collection already exists
-			if (pose_traj_db.collectionExists(pose_traj_coll_name))
+			// if query has a response, append metadata to it
+			if(cursor.hasNext())
 			{
-				System.out.println("!!! Collection: \'" + pose_traj_coll_name + "\' already exists!" );				
-			}
-			// create the collection
-			else
-			{
-				// create collection
-				DBCollection pose_traj_coll = pose_traj_db.getCollection(pose_traj_coll_name);
-
-				System.out.println("Writing most recent pose to \'" + pose_traj_coll_name + "\'" );
-
-				// if query has a response, append metadata to it
-				if(cursor.hasNext())
-				{
-					// create metadata doc
-					BasicDBObject meta_data = new BasicDBObject("name", pose_traj_coll_name)
-					.append("type", "trajectory")
-					.append("timestamp", timestamp)
-					.append("description", "Link pose query..");
+				// create metadata doc
+				BasicDBObject meta_data = new BasicDBObject("name", pose_traj_coll_name)
+				.append("type", "trajectory")
+				.append("timestamp", timestamp)
+				.append("description", "Link pose query..");
 
-					// get the first document as the next cursor and append the metadata to it
-					BasicDBObject first_doc = (BasicDBObject) cursor.next();
+				// get the first document as the next cursor and append the metadata to it
+				BasicDBObject first_doc = (BasicDBObject) cursor.next();
 
-					first_doc.append("metadata", meta_data);
+				first_doc.append("metadata", meta_data);
 
-					// insert document with metadata
-					pose_traj_coll.insert(first_doc);
-				}
+				// insert document with metadata
+				pose_traj_coll.insert(first_doc);
 			}
-		}catch (UnknownHostException e) {
-			e.printStackTrace();
-		}	
+		}
 	}
 	
 	/**
@@ -928,6 +1671,18 @@ public class MongoSimGames {
 			String markerType,
 			String color,
 			float scale){
+		// answer from the episode cache if enabled
+		if(this.viewCachedPoseAt(timestamp, model_name, link_name, markerID, markerType, color, scale)){
+			return;
+		}
+		
+		// answer from the result cache
+		final String cache_key = this.resultKey("link_pose", model_name + "/" + link_name, timestamp, timestamp, 0);
+		ArrayList<Vector3d> cached = this.resultCache.get(cache_key);
+		if(cached != null){
+			this.CreateMarkers(cached, markerID, markerType, color, scale);
+			return;
+		}
 
 		// $and list for querying the $match in the aggregation
 		BasicDBList time_and_name = new BasicDBList();
@@ -997,6 +1752,7 @@ public class MongoSimGames {
 					((BasicDBObject) first_doc.get("pos")).getDouble("y"),
 					((BasicDBObject) first_doc.get("pos")).getDouble("z")));
 			
+			this.resultCache.put(cache_key, pose);
 			this.CreateMarkers(pose, markerID, markerType, color, scale);	
 		}
 	}
@@ -1084,48 +1840,40 @@ public class MongoSimGames {
 		Cursor cursor = this.coll.aggregate(pipeline, aggregationOptions);
 
 		// writing results to a mongo collection
-		try {
+		// get the db
+		DB pose_traj_db = MongoConnectionManager.get().getDB(pose_traj_db_name);
 
-			// connect to client
-			MongoClient mongoClient = new MongoClient( this.dbHost , 27017 );
+		// check if the collection already exists
+		if (pose_traj_db.collectionExists(pose_traj_coll_name))
+		{
+			System.out.println("!!! Collection: \'" + pose_traj_coll_name + "\' already exists!" );				
+		}
+		// create the collection
+		else
+		{
+			// create collection
+			DBCollection pose_traj_coll = pose_traj_db.getCollection(pose_traj_coll_name);
 
-			// get the db
-			DB pose_traj_db = mongoClient.getDB(pose_traj_db_name);
+			System.out.println("Writing most recent pose to \'" + pose_traj_coll_name + "\'" );
 
-			// check if the collection already exists
-			if (pose_traj_db.collectionExists(pose_traj_coll_name))
+			// if query has a response, append metadata to it
+			if(cursor.hasNext())
 			{
-				System.out.println("!!! Collection: \'" + pose_traj_coll_name + "\' already exists!" );				
-			}
-			// create the collection
-			else
-			{
-				// create collection
-				DBCollection pose_traj_coll = pose_traj_db.getCollection(pose_traj_coll_name);
-
-				System.out.println("Writing most recent pose to \'" + pose_traj_coll_name + "\'" );
+				// create metadata doc
+				BasicDBObject meta_data = new BasicDBObject("name", pose_traj_coll_name)
+				.append("type", "trajectory")
+				.append("timestamp", timestamp)
+				.append("description", "Collision pose query..");
 
-				// if query has a response, append metadata to it
-				if(cursor.hasNext())
-				{
-					// create metadata doc
-					BasicDBObject meta_data = new BasicDBObject("name", pose_traj_coll_name)
-					.append("type", "trajectory")
-					.append("timestamp", timestamp)
-					.append("description", "Collision pose query..");
+				// get the first document as the next cursor and append the metadata to it
+				BasicDBObject first_doc = (BasicDBObject) cursor.next();
 
-					// get the first document as the next cursor and append the metadata to it
-					BasicDBObject first_doc = (BasicDBObject) cursor.next();
+				first_doc.append("metadata", meta_data);
 
-					first_doc.append("metadata", meta_data);
-
-					// insert document with metadata
-					pose_traj_coll.insert(first_doc);
-				}
+				// insert document with metadata
+				pose_traj_coll.insert(first_doc);
 			}
-		}catch (UnknownHostException e) {
-			e.printStackTrace();
-		}	
+		}
 	}
 
 	/**
@@ -1319,60 +2067,50 @@ public class MongoSimGames {
 		Cursor cursor = this.coll.aggregate(pipeline, aggregationOptions);
 
 		// writing results to a mongo collection
-		try {
+		// get the db
+		DB traj_db = MongoConnectionManager.get().getDB(traj_db_name);
 
-			// connect to client
-			MongoClient mongoClient = new MongoClient( this.dbHost , 27017 );
 
-			// get the db
-			DB traj_db = mongoClient.getDB(traj_db_name);
+		// check if the collection already exists
+		if (traj_db.collectionExists(traj_coll_name))
+		{
+			System.out.println("!!! Collection: \'" + traj_coll_name + "\' already exists!" );				
+		}
+		// create the collection
+		else
+		{
+			// create collection
+			DBCollection traj_coll = traj_db.getCollection(traj_coll_name);
 
+			System.out.println("Java - Writing to \'" + traj_db_name+ "." + traj_coll_name + "\'" );
 
-			// check if the collection already exists
-			if (traj_db.collectionExists(traj_coll_name))
+			// if cursor not empty, append matadata to the first doc
+			if(cursor.hasNext())
 			{
-				System.out.println("!!! Collection: \'" + traj_coll_name + "\' already exists!" );				
-			}
-			// create the collection
-			else
-			{
-				// create collection
-				DBCollection traj_coll = traj_db.getCollection(traj_coll_name);
-
-				System.out.println("Java - Writing to \'" + traj_db_name+ "." + traj_coll_name + "\'" );
-
-				// if cursor not empty, append matadata to the first doc
-				if(cursor.hasNext())
-				{
-					// create metadata doc
-					BasicDBObject meta_data = new BasicDBObject("name", traj_coll_name)
-					.append("type", "trajectory")
-					.append("start", start_ts)
-					.append("end", end_ts)
-					.append("description", "Model trajectory..");
+				// create metadata doc
+				BasicDBObject meta_data = new BasicDBObject("name", traj_coll_name)
+				.append("type", "trajectory")
+				.append("start", start_ts)
+				.append("end", end_ts)
+				.append("description", "Model trajectory..");
 
-					// get the first document as the next cursor and append the metadata to it
-					BasicDBObject first_doc = (BasicDBObject) cursor.next();
+				// get the first document as the next cursor and append the metadata to it
+				BasicDBObject first_doc = (BasicDBObject) cursor.next();
 
-					first_doc.append("metadata", meta_data);
+				first_doc.append("metadata", meta_data);
 
-					// insert document with metadata
-					traj_coll.insert(first_doc);
-				}
-				// if query returned no values for these timestamps, get the pose at the nearest timestamp
-				else
-				{
-					// write the pose to the given db and coll
-					this.WriteModelPoseAt(start_ts, model_name, traj_db_name, traj_coll_name);
-				}
-
-				// insert rest of trajectory
-				while (cursor.hasNext()) {
-					traj_coll.insert(cursor.next());
-				}
+				// insert document with metadata
+				traj_coll.insert(first_doc);
 			}
-		}catch (UnknownHostException e) {
-			e.printStackTrace();
+			// if query returned no values for these timestamps, get the pose at the nearest timestamp
+			else
+			{
+				// write the pose to the given db and coll
+				this.WriteModelPoseAt(start_ts, model_name, traj_db_name, traj_coll_name);
+			}
+
+			// insert rest of trajectory as unordered bulk inserts
+			this.bulkInsert(traj_coll, cursor);
 		}
 	}
 	
@@ -1418,8 +2156,9 @@ public class MongoSimGames {
 		proj_fields.put("rot", "$models.rot");
 		DBObject project = new BasicDBObject("$project", proj_fields);
 
-		// run aggregation
-		List<DBObject> pipeline = Arrays.asList(match_time, unwind_models, match_model, project);
+		// run aggregation (downsampled on the server if the sampling is set)
+		List<DBObject> pipeline = this.downsample(
+				Arrays.asList(match_time, unwind_models, match_model, project), start_ts, end_ts);
 
 		AggregationOptions aggregationOptions = AggregationOptions.builder()
 				.batchSize(100)
@@ -1515,6 +2254,13 @@ public class MongoSimGames {
 			String color,
 			float scale,
 			double deltaT){
+		// answer from the result cache
+		final String cache_key = this.resultKey("model_traj", model_name, start_ts, end_ts, deltaT);
+		ArrayList<Vector3d> cached = this.resultCache.get(cache_key);
+		if(cached != null){
+			this.CreateMarkers(cached, markerID, markerType, color, scale);
+			return;
+		}
 
 		// create the pipeline operations, first with the $match check the times
 		DBObject match_time = new BasicDBObject("$match", new BasicDBObject("timestamp", 
@@ -1534,8 +2280,9 @@ public class MongoSimGames {
 		proj_fields.put("rot", "$models.rot");
 		DBObject project = new BasicDBObject("$project", proj_fields);
 
-		// run aggregation
-		List<DBObject> pipeline = Arrays.asList(match_time, unwind_models, match_model, project);
+		// run aggregation (downsampled on the server if the sampling is set)
+		List<DBObject> pipeline = this.downsample(
+				Arrays.asList(match_time, unwind_models, match_model, project), start_ts, end_ts);
 
 		AggregationOptions aggregationOptions = AggregationOptions.builder()
 				.batchSize(100)
@@ -1588,6 +2335,11 @@ public class MongoSimGames {
 			}
 		}
 		
+		// cache the result (the empty results are answered by the pose at fallback)
+		if(!traj.isEmpty()){
+			this.resultCache.put(cache_key, traj);
+		}
+		
 		// create the markers
 		this.CreateMarkers(traj, markerID, markerType, color, scale);
 	}
@@ -1806,58 +2558,49 @@ public class MongoSimGames {
 
 		Cursor cursor = this.coll.aggregate(pipeline, aggregationOptions);
 
-		try {
+		DB traj_db = MongoConnectionManager.get().getDB(traj_db_name);
 
-			MongoClient mongoClient = new MongoClient( this.dbHost , 27017 );
+		// check if the collection already exists
+		if (traj_db.collectionExists(traj_coll_name))
+		{
+			System.out.println("!!! Collection: \'" + traj_db_name + "." + traj_coll_name + "\' already exists!" );
+		}
+		// create the collection
+		else
+		{
+			// create collection
+			DBCollection traj_coll = traj_db.getCollection(traj_coll_name);
 
-			DB traj_db = mongoClient.getDB(traj_db_name);
+			System.out.println("Java - Writing to \'" + traj_db_name + "." + traj_coll_name + "\'" );
 
-			// check if the collection already exists
-			if (traj_db.collectionExists(traj_coll_name))
-			{
-				System.out.println("!!! Collection: \'" + traj_db_name + "." + traj_coll_name + "\' already exists!" );
-			}
-			// create the collection
-			else
+			// if cursor not empty, append matadata to the first doc
+			if(cursor.hasNext())
 			{
-				// create collection
-				DBCollection traj_coll = traj_db.getCollection(traj_coll_name);
-
-				System.out.println("Java - Writing to \'" + traj_db_name + "." + traj_coll_name + "\'" );
+				// create metadata doc
+				BasicDBObject meta_data = new BasicDBObject("name", traj_coll_name)
+				.append("type", "trajectory")
+				.append("start", start_ts)
+				.append("end", end_ts)
+				.append("description", "Link trajectory..");
 
-				// if cursor not empty, append matadata to the first doc
-				if(cursor.hasNext())
-				{
-					// create metadata doc
-					BasicDBObject meta_data = new BasicDBObject("name", traj_coll_name)
-					.append("type", "trajectory")
-					.append("start", start_ts)
-					.append("end", end_ts)
-					.append("description", "Link trajectory..");
+				// get the first document as the next cursor and append the metadata to it
+				BasicDBObject first_doc = (BasicDBObject) cursor.next();
 
-					// get the first document as the next cursor and append the metadata to it
-					BasicDBObject first_doc = (BasicDBObject) cursor.next();
+				first_doc.append("metadata", meta_data);
 
-					first_doc.append("metadata", meta_data);
-
-					// insert document with metadata
-					traj_coll.insert(first_doc);
-				}
-				// if query returned no values for these timestamps, get the pose at the nearest timestamp
-				else
-				{
-					// write the pose to the given db and coll
-					this.WriteLinkPoseAt(start_ts, model_name, link_name, traj_db_name, traj_coll_name);
-				}
-
-				// insert rest of trajectory
-				while (cursor.hasNext()) {
-					traj_coll.insert(cursor.next());
-				}
+				// insert document with metadata
+				traj_coll.insert(first_doc);
 			}
-		}catch (UnknownHostException e) {
-			e.printStackTrace();
-		}  
+			// if query returned no values for these timestamps, get the pose at the nearest timestamp
+			else
+			{
+				// write the pose to the given db and coll
+				this.WriteLinkPoseAt(start_ts, model_name, link_name, traj_db_name, traj_coll_name);
+			}
+
+			// insert rest of trajectory as unordered bulk inserts
+			this.bulkInsert(traj_coll, cursor);
+		}
 	}
 
 	/**
@@ -1919,9 +2662,9 @@ public class MongoSimGames {
 		DBObject project = new BasicDBObject("$project", proj_fields);
 
 
-		// run aggregation
-		List<DBObject> pipeline = Arrays.asList(
-				match_time, unwind_models, match_model, project_links, unwind_links, match_link, project);
+		// run aggregation (downsampled on the server if the sampling is set)
+		List<DBObject> pipeline = this.downsample(Arrays.asList(
+				match_time, unwind_models, match_model, project_links, unwind_links, match_link, project), start_ts, end_ts);
 
 		AggregationOptions aggregationOptions = AggregationOptions.builder()
 				.batchSize(100)
@@ -2001,6 +2744,13 @@ public class MongoSimGames {
 			String color,
 			float scale,
 			double deltaT){
+		// answer from the result cache
+		final String cache_key = this.resultKey("link_traj", model_name + "/" + link_name, start_ts, end_ts, deltaT);
+		ArrayList<Vector3d> cached = this.resultCache.get(cache_key);
+		if(cached != null){
+			this.CreateMarkers(cached, markerID, markerType, color, scale);
+			return;
+		}
 
 		// create the pipeline operations, first with the $match check the times
 		DBObject match_time = new BasicDBObject("$match", new BasicDBObject("timestamp", 
@@ -2033,9 +2783,9 @@ public class MongoSimGames {
 		DBObject project = new BasicDBObject("$project", proj_fields);
 
 
-		// run aggregation
-		List<DBObject> pipeline = Arrays.asList(
-				match_time, unwind_models, match_model, project_links, unwind_links, match_link, project);
+		// run aggregation (downsampled on the server if the sampling is set)
+		List<DBObject> pipeline = this.downsample(Arrays.asList(
+				match_time, unwind_models, match_model, project_links, unwind_links, match_link, project), start_ts, end_ts);
 
 		AggregationOptions aggregationOptions = AggregationOptions.builder()
 				.batchSize(100)
@@ -2088,6 +2838,11 @@ public class MongoSimGames {
 			}
 		}
 		
+		// cache the result (the empty results are answered by the pose at fallback)
+		if(!traj.isEmpty()){
+			this.resultCache.put(cache_key, traj);
+		}
+		
 		// create the markers
 		this.CreateMarkers(traj, markerID, markerType, color, scale);
 	}
@@ -2208,59 +2963,50 @@ public class MongoSimGames {
 
 		Cursor cursor = this.coll.aggregate(pipeline, aggregationOptions);
 
-		try {
+		DB traj_db = MongoConnectionManager.get().getDB(traj_db_name);
 
-			MongoClient mongoClient = new MongoClient(this.dbHost , 27017);
+		// check if the collection already exists
+		if (traj_db.collectionExists(traj_coll_name))
+		{
+			System.out.println("!!! Collection: \'" + traj_db_name + "." + traj_coll_name + "\' already exists!" );
+		}
+		// create the collection
+		else
+		{
+			// create collection
+			DBCollection traj_coll = traj_db.getCollection(traj_coll_name);
 
-			DB traj_db = mongoClient.getDB(traj_db_name);
+			System.out.println("Java  - Writing to \'" + traj_db_name + "." + traj_coll_name + "\'" );
 
-			// check if the collection already exists
-			if (traj_db.collectionExists(traj_coll_name))
-			{
-				System.out.println("!!! Collection: \'" + traj_db_name + "." + traj_coll_name + "\' already exists!" );
-			}
-			// create the collection
-			else
+			// if cursor not empty, append matadata to the first doc
+			if(cursor.hasNext())
 			{
-				// create collection
-				DBCollection traj_coll = traj_db.getCollection(traj_coll_name);
-
-				System.out.println("Java  - Writing to \'" + traj_db_name + "." + traj_coll_name + "\'" );
-
-				// if cursor not empty, append matadata to the first doc
-				if(cursor.hasNext())
-				{
-					// create metadata doc
-					BasicDBObject meta_data = new BasicDBObject("name", traj_coll_name)
-					.append("type", "trajectory")
-					.append("start", start_ts)
-					.append("end", end_ts)
-					.append("description", "Collision trajectory..");
+				// create metadata doc
+				BasicDBObject meta_data = new BasicDBObject("name", traj_coll_name)
+				.append("type", "trajectory")
+				.append("start", start_ts)
+				.append("end", end_ts)
+				.append("description", "Collision trajectory..");
 
-					// get the first document as the next cursor and append the metadata to it
-					BasicDBObject first_doc = (BasicDBObject) cursor.next();
+				// get the first document as the next cursor and append the metadata to it
+				BasicDBObject first_doc = (BasicDBObject) cursor.next();
 
-					first_doc.append("metadata", meta_data);
+				first_doc.append("metadata", meta_data);
 
-					// insert document with metadata
-					traj_coll.insert(first_doc);
-				}
-				// if query returned no values for these timestamps, get the pose at the nearest timestamp
-				else
-				{
-					// write the pose to the given db and coll
-					this.WriteCollisionPoseAt(
-							start_ts, model_name, link_name, collision_name, traj_db_name, traj_coll_name);
-				}
-
-				// insert rest of trajectory
-				while (cursor.hasNext()) {
-					traj_coll.insert(cursor.next());
-				}
+				// insert document with metadata
+				traj_coll.insert(first_doc);
+			}
+			// if query returned no values for these timestamps, get the pose at the nearest timestamp
+			else
+			{
+				// write the pose to the given db and coll
+				this.WriteCollisionPoseAt(
+						start_ts, model_name, link_name, collision_name, traj_db_name, traj_coll_name);
 			}
-		}catch (UnknownHostException e) {
-			e.printStackTrace();
-		}  
+
+			// insert rest of trajectory as unordered bulk inserts
+			this.bulkInsert(traj_coll, cursor);
+		}
 
 	}
 	
@@ -2340,12 +3086,12 @@ public class MongoSimGames {
 		DBObject project = new BasicDBObject("$project", proj_fields);
 
 
-		// run aggregation
-		List<DBObject> pipeline = Arrays.asList(
+		// run aggregation (downsampled on the server if the sampling is set)
+		List<DBObject> pipeline = this.downsample(Arrays.asList(
 				match_time, unwind_models, match_model, 
 				project_links, unwind_links, match_link, 
 				project_collisions, unwind_collisions, match_collision,
-				project);
+				project), start_ts, end_ts);
 
 		AggregationOptions aggregationOptions = AggregationOptions.builder()
 				.batchSize(100)
@@ -2432,55 +3178,283 @@ public class MongoSimGames {
 			float scale,
 			double deltaT){
 
-		// create the pipeline operations, first with the $match check the times
-		DBObject match_time = new BasicDBObject("$match", new BasicDBObject("timestamp", 
-				new BasicDBObject("$gte", start_ts).append("$lte", end_ts)));
+		// create the pipeline operations, first with the $match check the times
+		DBObject match_time = new BasicDBObject("$match", new BasicDBObject("timestamp", 
+				new BasicDBObject("$gte", start_ts).append("$lte", end_ts)));
+
+		// $unwind the models
+		DBObject unwind_models = new BasicDBObject("$unwind", "$models");
+
+		// $match for the given model name from the unwinded models
+		DBObject match_model = new BasicDBObject(
+				"$match", new BasicDBObject("models.name", model_name));		
+
+		// build the $projection operation
+		DBObject proj_links_fields = new BasicDBObject("_id", 0);
+		proj_links_fields.put("timestamp", 1);
+		proj_links_fields.put("models.links", 1);
+		DBObject project_links = new BasicDBObject("$project", proj_links_fields);
+
+		// $unwind the links
+		DBObject unwind_links = new BasicDBObject("$unwind", "$models.links");
+
+		// $match for the given link name from the unwinded links
+		DBObject match_link = new BasicDBObject(
+				"$match", new BasicDBObject("models.links.name", link_name));
+
+		// build the final $projection operation
+		DBObject proj_collision_fields = new BasicDBObject("timestamp", 1);
+		proj_collision_fields.put("models.links.collisions", 1);
+		DBObject project_collisions = new BasicDBObject("$project", proj_collision_fields);
+
+		// $unwind the collisions
+		DBObject unwind_collisions = new BasicDBObject("$unwind", "$models.links.collisions");
+
+		// $match for the given collision name from the unwinded collisions
+		DBObject match_collision = new BasicDBObject(
+				"$match", new BasicDBObject("models.links.collisions.name", collision_name));	
+
+		// build the final $projection operation
+		DBObject proj_fields = new BasicDBObject("timestamp", 1);
+		proj_fields.put("pos", "$models.links.collisions.pos");
+		proj_fields.put("rot", "$models.links.collisions.rot");
+		DBObject project = new BasicDBObject("$project", proj_fields);
+
+
+		// run aggregation (downsampled on the server if the sampling is set)
+		List<DBObject> pipeline = this.downsample(Arrays.asList(
+				match_time, unwind_models, match_model, 
+				project_links, unwind_links, match_link, 
+				project_collisions, unwind_collisions, match_collision,
+				project), start_ts, end_ts);
+
+		AggregationOptions aggregationOptions = AggregationOptions.builder()
+				.batchSize(100)
+				.outputMode(AggregationOptions.OutputMode.CURSOR)
+				.allowDiskUse(true)
+				.build();
+
+		Cursor cursor = this.coll.aggregate(pipeline, aggregationOptions);
+
+		// Traj as dynamic array
+		ArrayList<Vector3d> traj = new ArrayList<Vector3d>();
+		
+		// timestamp used for deltaT
+		double prev_ts = 0;
+		
+		// if cursor not empty, append matadata to the first doc
+		if(cursor.hasNext())
+		{
+			// get the first document as the next cursor
+			BasicDBObject first_doc = (BasicDBObject) cursor.next();
+			
+			traj.add(new Vector3d(
+					((BasicDBObject) first_doc.get("pos")).getDouble("x"),
+					((BasicDBObject) first_doc.get("pos")).getDouble("y"),
+					((BasicDBObject) first_doc.get("pos")).getDouble("z")));
+			// set the timestamp
+			prev_ts = first_doc.getDouble("timestamp");
+		}
+		// if query returned no values for these timestamps, get the pose at the nearest timestamp
+		else
+		{
+			// write the pose to the given db and coll
+			this.ViewCollisionPoseAt(start_ts, model_name, link_name, collision_name, markerID, markerType, color, scale);
+		}
+		// insert rest of trajectory
+		while (cursor.hasNext()) {			
+			// get the current document
+			BasicDBObject curr_doc = (BasicDBObject) cursor.next();
+			
+			double curr_ts = curr_doc.getDouble("timestamp");
+			
+			// if time diff > then deltaT add position to trajectory
+			if(curr_ts - prev_ts > deltaT)
+			{
+				traj.add(new Vector3d(
+						((BasicDBObject) curr_doc.get("pos")).getDouble("x"),
+						((BasicDBObject) curr_doc.get("pos")).getDouble("y"),
+						((BasicDBObject) curr_doc.get("pos")).getDouble("z")));
+				prev_ts = curr_ts;
+			}
+		}
+		
+		// create the markers
+		this.CreateMarkers(traj, markerID, markerType, color, scale);
+	}
+	
+	////////////////////LINKS
+	/**
+	 * Get the positions of the model links at the given timestamp
+	 * save result in MongoDB
+	 */
+	public void WriteLinksPositionsAt(
+			String ts_str,
+			String model_name,
+			String traj_db_name){		
+					
+		// transform the knowrob time to double with 3 decimal precision
+		double timestamp = (double) Math.round((parseTime_d(ts_str) - TIME_OFFSET) * 1000) / 1000;
+		
+		// set default coll name
+		String traj_coll_name = this.coll.getName();// + "_" + model_name + "_links_at_"+ timestamp;	
+							
+		// remove the knowrob namespace (http://knowrob.org/kb/knowrob.owl#) form the model 
+		// String model_name = kr_model_name.split("#")[1];
+		
+		//System.out.println("Java - timestamp: " + timestamp + " model name: " + model_name);
+		
+		// $and list for querying the $match in the aggregation
+		BasicDBList time_and_name = new BasicDBList();
+
+		// add the timestamp and the model name
+		time_and_name.add(new BasicDBObject("timestamp", new BasicDBObject("$lte", timestamp)));
+		time_and_name.add(new BasicDBObject("models.name", model_name));
+
+		// create the pipeline operations, first the $match
+		DBObject match_time_and_name = new BasicDBObject(
+				"$match", new BasicDBObject( "$and", time_and_name)); 
+
+		// sort the results in descending order on the timestamp (keep most recent result first)
+		DBObject sort_desc = new BasicDBObject(
+				"$sort", new BasicDBObject("timestamp", -1));
+
+		// $limit the result to 1, we only need one pose
+		DBObject limit_result = new BasicDBObject("$limit", 1);
+
+		// $unwind models in order to output only the queried model
+		DBObject unwind_models = new BasicDBObject("$unwind", "$models");
+
+		// $match for the given model name from the unwinded models
+		DBObject match_model = new BasicDBObject(
+				"$match", new BasicDBObject("models.name", model_name));
+
+		// build the $projection operation
+		DBObject proj_fields = new BasicDBObject("_id", 0);
+		proj_fields.put("timestamp", 1);
+		proj_fields.put("links_pos", "$models.links.pos");
+		DBObject project = new BasicDBObject("$project", proj_fields);
+
+		// run aggregation
+		List<DBObject> pipeline = Arrays.asList(
+				match_time_and_name, sort_desc, limit_result, unwind_models, match_model, project);
+
+		AggregationOptions aggregationOptions = AggregationOptions.builder()
+				.batchSize(100)
+				.outputMode(AggregationOptions.OutputMode.CURSOR)
+				.allowDiskUse(true)
+				.build();
+
+		Cursor cursor = this.coll.aggregate(pipeline, aggregationOptions);
+		
+		DB traj_db = MongoConnectionManager.get().getDB(traj_db_name);
+
+		// check if the collection already exists
+		if (traj_db.collectionExists(traj_coll_name))
+		{
+			System.out.println("!!! Collection: \'" + traj_db_name + "." + traj_coll_name + "\' already exists!" );
+		}
+		// create the collection
+		else
+		{
+			// create collection
+			DBCollection traj_coll = traj_db.getCollection(traj_coll_name);
+
+			System.out.println("Java  - Writing to \'" + traj_db_name + "." + traj_coll_name + "\'" );
+
+			// if cursor not empty, append matadata to the first doc
+			if(cursor.hasNext())
+			{
+				// get pancake roundess again in order to append it to the metadata
+				double roundess = this.GetPancakeRoundness(ts_str, model_name);
+				
+				// create metadata doc
+				BasicDBObject meta_data = new BasicDBObject("name", traj_coll_name)
+				.append("type", "links_pos")
+				.append("timestamp", timestamp)
+				.append("roundness", roundess)
+				.append("description", "Pancake links positions..");
+
+				// get the first document as the next cursor and append the metadata to it
+				BasicDBObject first_doc = (BasicDBObject) cursor.next();
+
+				first_doc.append("metadata", meta_data);
+
+				// insert document with metadata
+				traj_coll.insert(first_doc);
+			}
+			// if query returned no values for these timestamps, get the pose at the nearest timestamp
+			else
+			{
+				System.out.println("Java  - WriteLinksPositionsAt Query returned no results!'" );
+			}
+
+			// insert rest of trajectory as unordered bulk inserts
+			this.bulkInsert(traj_coll, cursor);
+		}
+	}
+
+	/**
+	 * Get the positions of the model links at the given timestamp
+	 * view results as rviz markers
+	 */
+	public void ViewLinksPositionsAt(
+			String ts_str,
+			String model_name,
+			String markerID){
+		// view poses with default color and scale
+		this.ViewLinksPositionsAt(ts_str, model_name, markerID, "point", "red", 0.01f);
+	}
+	
+	/**
+	 * Get the positions of the model links at the given timestamp
+	 * view results as rviz markers
+	 */
+	public void ViewLinksPositionsAt(
+			String ts_str,
+			String model_name,
+			String markerID,
+			String markerType,
+			String color,
+			float scale){		
+					
+		// transform the knowrob time to double with 3 decimal precision
+		double timestamp = (double) Math.round((parseTime_d(ts_str) - TIME_OFFSET) * 1000) / 1000;
+		
+		// $and list for querying the $match in the aggregation
+		BasicDBList time_and_name = new BasicDBList();
+
+		// add the timestamp and the model name
+		time_and_name.add(new BasicDBObject("timestamp", new BasicDBObject("$lte", timestamp)));
+		time_and_name.add(new BasicDBObject("models.name", model_name));
+
+		// create the pipeline operations, first the $match
+		DBObject match_time_and_name = new BasicDBObject(
+				"$match", new BasicDBObject( "$and", time_and_name)); 
 
-		// $unwind the models
+		// sort the results in descending order on the timestamp (keep most recent result first)
+		DBObject sort_desc = new BasicDBObject(
+				"$sort", new BasicDBObject("timestamp", -1));
+
+		// $limit the result to 1, we only need one pose
+		DBObject limit_result = new BasicDBObject("$limit", 1);
+
+		// $unwind models in order to output only the queried model
 		DBObject unwind_models = new BasicDBObject("$unwind", "$models");
 
 		// $match for the given model name from the unwinded models
 		DBObject match_model = new BasicDBObject(
-				"$match", new BasicDBObject("models.name", model_name));		
+				"$match", new BasicDBObject("models.name", model_name));
 
 		// build the $projection operation
-		DBObject proj_links_fields = new BasicDBObject("_id", 0);
-		proj_links_fields.put("timestamp", 1);
-		proj_links_fields.put("models.links", 1);
-		DBObject project_links = new BasicDBObject("$project", proj_links_fields);
-
-		// $unwind the links
-		DBObject unwind_links = new BasicDBObject("$unwind", "$models.links");
-
-		// $match for the given link name from the unwinded links
-		DBObject match_link = new BasicDBObject(
-				"$match", new BasicDBObject("models.links.name", link_name));
-
-		// build the final $projection operation
-		DBObject proj_collision_fields = new BasicDBObject("timestamp", 1);
-		proj_collision_fields.put("models.links.collisions", 1);
-		DBObject project_collisions = new BasicDBObject("$project", proj_collision_fields);
-
-		// $unwind the collisions
-		DBObject unwind_collisions = new BasicDBObject("$unwind", "$models.links.collisions");
-
-		// $match for the given collision name from the unwinded collisions
-		DBObject match_collision = new BasicDBObject(
-				"$match", new BasicDBObject("models.links.collisions.name", collision_name));	
-
-		// build the final $projection operation
-		DBObject proj_fields = new BasicDBObject("timestamp", 1);
-		proj_fields.put("pos", "$models.links.collisions.pos");
-		proj_fields.put("rot", "$models.links.collisions.rot");
+		DBObject proj_fields = new BasicDBObject("_id", 0);
+		proj_fields.put("timestamp", 1);
+		proj_fields.put("links_pos", "$models.links.pos");
 		DBObject project = new BasicDBObject("$project", proj_fields);
 
-
 		// run aggregation
 		List<DBObject> pipeline = Arrays.asList(
-				match_time, unwind_models, match_model, 
-				project_links, unwind_links, match_link, 
-				project_collisions, unwind_collisions, match_collision,
-				project);
+				match_time_and_name, sort_desc, limit_result, unwind_models, match_model, project);
 
 		AggregationOptions aggregationOptions = AggregationOptions.builder()
 				.batchSize(100)
@@ -2489,12 +3463,9 @@ public class MongoSimGames {
 				.build();
 
 		Cursor cursor = this.coll.aggregate(pipeline, aggregationOptions);
-
-		// Traj as dynamic array
-		ArrayList<Vector3d> traj = new ArrayList<Vector3d>();
 		
-		// timestamp used for deltaT
-		double prev_ts = 0;
+		// Traj as dynamic array
+		ArrayList<Vector3d> positions = new ArrayList<Vector3d>();	
 		
 		// if cursor not empty, append matadata to the first doc
 		if(cursor.hasNext())
@@ -2502,79 +3473,58 @@ public class MongoSimGames {
 			// get the first document as the next cursor
 			BasicDBObject first_doc = (BasicDBObject) cursor.next();
 			
-			traj.add(new Vector3d(
-					((BasicDBObject) first_doc.get("pos")).getDouble("x"),
-					((BasicDBObject) first_doc.get("pos")).getDouble("y"),
-					((BasicDBObject) first_doc.get("pos")).getDouble("z")));
-			// set the timestamp
-			prev_ts = first_doc.getDouble("timestamp");
+			// get the list of links pos
+			BasicDBList pos_list = (BasicDBList) first_doc.get("links_pos");
+			
+			// pos_list and rot_list length should be always the same
+			for (int i = 0; i < pos_list.size(); ++i)
+			{				
+				positions.add(new Vector3d(
+						((BasicDBObject) pos_list.get(i)).getDouble("x"),
+						((BasicDBObject) pos_list.get(i)).getDouble("y"),
+						((BasicDBObject) pos_list.get(i)).getDouble("z")));
+			}
 		}
 		// if query returned no values for these timestamps, get the pose at the nearest timestamp
 		else
 		{
-			// write the pose to the given db and coll
-			this.ViewCollisionPoseAt(start_ts, model_name, link_name, collision_name, markerID, markerType, color, scale);
-		}
-		// insert rest of trajectory
-		while (cursor.hasNext()) {			
-			// get the current document
-			BasicDBObject curr_doc = (BasicDBObject) cursor.next();
-			
-			double curr_ts = curr_doc.getDouble("timestamp");
-			
-			// if time diff > then deltaT add position to trajectory
-			if(curr_ts - prev_ts > deltaT)
-			{
-				traj.add(new Vector3d(
-						((BasicDBObject) curr_doc.get("pos")).getDouble("x"),
-						((BasicDBObject) curr_doc.get("pos")).getDouble("y"),
-						((BasicDBObject) curr_doc.get("pos")).getDouble("z")));
-				prev_ts = curr_ts;
-			}
+			System.out.println("Java  - ViewLinksPositionsAt Query returned no results!'" );
 		}
 		
 		// create the markers
-		this.CreateMarkers(traj, markerID, markerType, color, scale);
+		this.CreateMarkers(positions, markerID, markerType, color, scale);
 	}
-	
-	////////////////////LINKS
+
 	/**
 	 * Get the positions of the model links at the given timestamp
 	 * save result in MongoDB
 	 */
-	public void WriteLinksPositionsAt(
-			String ts_str,
+	public void WriteLinksTrajs(
+			String start_str,
+			String end_str,
 			String model_name,
 			String traj_db_name){		
-					
+		
 		// transform the knowrob time to double with 3 decimal precision
-		double timestamp = (double) Math.round((parseTime_d(ts_str) - TIME_OFFSET) * 1000) / 1000;
+		double start_ts = (double) Math.round((parseTime_d(start_str) - TIME_OFFSET) * 1000) / 1000;
+		double end_ts = (double) Math.round((parseTime_d(end_str) - TIME_OFFSET) * 1000) / 1000;
 		
 		// set default coll name
-		String traj_coll_name = this.coll.getName();// + "_" + model_name + "_links_at_"+ timestamp;	
-							
+		String traj_coll_name = this.coll.getName();/* + "_" 
+				+ model_name + "_links_trajs_" + start_ts + "_" + end_ts;*/	
+		
+		// fan out over time slices if the parallelism is set
+		if(this.queryParallelism > 1){
+			this.writeLinksTrajsParallel(start_ts, end_ts, model_name, traj_db_name, traj_coll_name);
+			return;
+		}
+								
 		// remove the knowrob namespace (http://knowrob.org/kb/knowrob.owl#) form the model 
 		// String model_name = kr_model_name.split("#")[1];
 		
-		//System.out.println("Java - timestamp: " + timestamp + " model name: " + model_name);
-		
-		// $and list for querying the $match in the aggregation
-		BasicDBList time_and_name = new BasicDBList();
-
-		// add the timestamp and the model name
-		time_and_name.add(new BasicDBObject("timestamp", new BasicDBObject("$lte", timestamp)));
-		time_and_name.add(new BasicDBObject("models.name", model_name));
-
-		// create the pipeline operations, first the $match
-		DBObject match_time_and_name = new BasicDBObject(
-				"$match", new BasicDBObject( "$and", time_and_name)); 
-
-		// sort the results in descending order on the timestamp (keep most recent result first)
-		DBObject sort_desc = new BasicDBObject(
-				"$sort", new BasicDBObject("timestamp", -1));
-
-		// $limit the result to 1, we only need one pose
-		DBObject limit_result = new BasicDBObject("$limit", 1);
+		// create the pipeline operations, first with the $match check the times
+		DBObject match_time = new BasicDBObject("$match", new BasicDBObject("timestamp", 
+		new BasicDBObject("$gte", start_ts).append("$lte", end_ts)));
 
 		// $unwind models in order to output only the queried model
 		DBObject unwind_models = new BasicDBObject("$unwind", "$models");
@@ -2591,7 +3541,7 @@ public class MongoSimGames {
 
 		// run aggregation
 		List<DBObject> pipeline = Arrays.asList(
-				match_time_and_name, sort_desc, limit_result, unwind_models, match_model, project);
+				match_time, unwind_models, match_model, project);
 
 		AggregationOptions aggregationOptions = AggregationOptions.builder()
 				.batchSize(100)
@@ -2601,106 +3551,186 @@ public class MongoSimGames {
 
 		Cursor cursor = this.coll.aggregate(pipeline, aggregationOptions);
 		
-		try {
+		DB traj_db = MongoConnectionManager.get().getDB(traj_db_name);
 
-			MongoClient mongoClient = new MongoClient(this.dbHost , 27017);
+		// check if the collection already exists
+		if (traj_db.collectionExists(traj_coll_name))
+		{
+			System.out.println("!!! Collection: \'" + traj_db_name + "." + traj_coll_name + "\' already exists!" );
+		}
+		// create the collection
+		else
+		{
+			// create collection
+			DBCollection traj_coll = traj_db.getCollection(traj_coll_name);
 
-			DB traj_db = mongoClient.getDB(traj_db_name);
+			System.out.println("Java  - Writing to \'" + traj_db_name + "." + traj_coll_name + "\'" );
 
-			// check if the collection already exists
-			if (traj_db.collectionExists(traj_coll_name))
+			// if cursor not empty, append matadata to the first doc
+			if(cursor.hasNext())
 			{
-				System.out.println("!!! Collection: \'" + traj_db_name + "." + traj_coll_name + "\' already exists!" );
+				// create metadata doc
+				BasicDBObject meta_data = new BasicDBObject("name", traj_coll_name)
+				.append("type", "links_trajs")
+				.append("start", start_ts)
+				.append("end", end_ts)
+				.append("description", "Pancake links trajectories..");
+
+				// get the first document as the next cursor and append the metadata to it
+				BasicDBObject first_doc = (BasicDBObject) cursor.next();
+
+				first_doc.append("metadata", meta_data);
+
+				// insert document with metadata
+				traj_coll.insert(first_doc);
 			}
-			// create the collection
+			// if query returned no values for these timestamps, get the pose at the nearest timestamp
 			else
 			{
-				// create collection
-				DBCollection traj_coll = traj_db.getCollection(traj_coll_name);
+				System.out.println("Java  - WriteLinksPositionsAt Query returned no results!'" );
+			}
 
-				System.out.println("Java  - Writing to \'" + traj_db_name + "." + traj_coll_name + "\'" );
+			// insert rest of trajectory as unordered bulk inserts
+			this.bulkInsert(traj_coll, cursor);
+		}
+	}
+	
+	/**
+	 * Get the positions of the model links at the given timestamp
+	 * view as rviz markers
+	 */
+	public void ViewLinksTrajs(
+			String start_str,
+			String end_str,
+			String model_name,
+			String markerID){		
+		
+		// transform the knowrob time to double with 3 decimal precision
+		double start_ts = (double) Math.round((parseTime_d(start_str) - TIME_OFFSET) * 1000) / 1000;
+		double end_ts = (double) Math.round((parseTime_d(end_str) - TIME_OFFSET) * 1000) / 1000;
+		
+		// fan out over time slices if the parallelism is set
+		if(this.queryParallelism > 1){
+			List<double[]> rows = this.getLinksTrajsParallel(start_ts, end_ts, model_name);
+			if(rows.isEmpty()){
+				this.ViewLinksPositionsAt(start_str, model_name, markerID);
+			}
+			else{
+				this.CreateMarkers(this.linksRowsToPoints(rows, Double.NEGATIVE_INFINITY), markerID);
+			}
+			return;
+		}
+		
+		// create the pipeline operations, first with the $match check the times
+		DBObject match_time = new BasicDBObject("$match", new BasicDBObject("timestamp", 
+		new BasicDBObject("$gte", start_ts).append("$lte", end_ts)));
 
-				// if cursor not empty, append matadata to the first doc
-				if(cursor.hasNext())
-				{
-					// get pancake roundess again in order to append it to the metadata
-					double roundess = this.GetPancakeRoundness(ts_str, model_name);
-					
-					// create metadata doc
-					BasicDBObject meta_data = new BasicDBObject("name", traj_coll_name)
-					.append("type", "links_pos")
-					.append("timestamp", timestamp)
-					.append("roundness", roundess)
-					.append("description", "Pancake links positions..");
+		// $unwind models in order to output only the queried model
+		DBObject unwind_models = new BasicDBObject("$unwind", "$models");
 
-					// get the first document as the next cursor and append the metadata to it
-					BasicDBObject first_doc = (BasicDBObject) cursor.next();
+		// $match for the given model name from the unwinded models
+		DBObject match_model = new BasicDBObject(
+				"$match", new BasicDBObject("models.name", model_name));
 
-					first_doc.append("metadata", meta_data);
+		// build the $projection operation
+		DBObject proj_fields = new BasicDBObject("_id", 0);
+		proj_fields.put("timestamp", 1);
+		proj_fields.put("links_pos", "$models.links.pos");
+		DBObject project = new BasicDBObject("$project", proj_fields);
 
-					// insert document with metadata
-					traj_coll.insert(first_doc);
-				}
-				// if query returned no values for these timestamps, get the pose at the nearest timestamp
-				else
-				{
-					System.out.println("Java  - WriteLinksPositionsAt Query returned no results!'" );
-				}
+		// run aggregation
+		List<DBObject> pipeline = Arrays.asList(
+				match_time, unwind_models, match_model, project);
 
-				// insert rest of trajectory
-				while (cursor.hasNext()) {
-					traj_coll.insert(cursor.next());
-				}
-			}
-		}catch (UnknownHostException e) {
-			e.printStackTrace();
-		}		
-	}
+		AggregationOptions aggregationOptions = AggregationOptions.builder()
+				.batchSize(100)
+				.outputMode(AggregationOptions.OutputMode.CURSOR)
+				.allowDiskUse(true)
+				.build();
 
-	/**
-	 * Get the positions of the model links at the given timestamp
-	 * view results as rviz markers
-	 */
-	public void ViewLinksPositionsAt(
-			String ts_str,
-			String model_name,
-			String markerID){
-		// view poses with default color and scale
-		this.ViewLinksPositionsAt(ts_str, model_name, markerID, "point", "red", 0.01f);
+		Cursor cursor = this.coll.aggregate(pipeline, aggregationOptions);
+		
+		// Traj as dynamic array
+		ArrayList<Vector3d> trajs = new ArrayList<Vector3d>();	
+		
+		// if cursor not empty, append matadata to the first doc
+		if(cursor.hasNext())
+		{
+			// get the first document as the next cursor
+			BasicDBObject first_doc = (BasicDBObject) cursor.next();
+			
+			// get the list of links pos
+			BasicDBList pos_list = (BasicDBList) first_doc.get("links_pos");
+			
+			// pos_list and rot_list length should be always the same
+			for (int i = 0; i < pos_list.size(); ++i)
+			{				
+				trajs.add(new Vector3d(
+						((BasicDBObject) pos_list.get(i)).getDouble("x"),
+						((BasicDBObject) pos_list.get(i)).getDouble("y"),
+						((BasicDBObject) pos_list.get(i)).getDouble("z")));
+			}
+		}
+		// if query returned no values for these timestamps, get the pose at the nearest timestamp
+		else
+		{
+			this.ViewLinksPositionsAt(start_str, model_name, markerID);
+		}
+		// insert rest of trajectory
+		while (cursor.hasNext()) {			
+			// get the current document
+			BasicDBObject curr_doc = (BasicDBObject) cursor.next();
+			
+			// get the list of links pos
+			BasicDBList pos_list = (BasicDBList) curr_doc.get("links_pos");
+			
+			// pos_list and rot_list length should be always the same
+			for (int i = 0; i < pos_list.size(); ++i)
+			{				
+				trajs.add(new Vector3d(
+						((BasicDBObject) pos_list.get(i)).getDouble("x"),
+						((BasicDBObject) pos_list.get(i)).getDouble("y"),
+						((BasicDBObject) pos_list.get(i)).getDouble("z")));
+			}
+		}
+		
+		// create the markers
+		this.CreateMarkers(trajs, markerID);
 	}
 	
 	/**
 	 * Get the positions of the model links at the given timestamp
-	 * view results as rviz markers
+	 * view as rviz markers
 	 */
-	public void ViewLinksPositionsAt(
-			String ts_str,
+	public void ViewLinksTrajs(
+			String start_str,
+			String end_str,
 			String model_name,
 			String markerID,
-			String markerType,
+			String markerType,			
 			String color,
-			float scale){		
-					
+			float scale,
+			double deltaT){		
+		
 		// transform the knowrob time to double with 3 decimal precision
-		double timestamp = (double) Math.round((parseTime_d(ts_str) - TIME_OFFSET) * 1000) / 1000;
+		double start_ts = (double) Math.round((parseTime_d(start_str) - TIME_OFFSET) * 1000) / 1000;
+		double end_ts = (double) Math.round((parseTime_d(end_str) - TIME_OFFSET) * 1000) / 1000;
 		
-		// $and list for querying the $match in the aggregation
-		BasicDBList time_and_name = new BasicDBList();
-
-		// add the timestamp and the model name
-		time_and_name.add(new BasicDBObject("timestamp", new BasicDBObject("$lte", timestamp)));
-		time_and_name.add(new BasicDBObject("models.name", model_name));
-
-		// create the pipeline operations, first the $match
-		DBObject match_time_and_name = new BasicDBObject(
-				"$match", new BasicDBObject( "$and", time_and_name)); 
-
-		// sort the results in descending order on the timestamp (keep most recent result first)
-		DBObject sort_desc = new BasicDBObject(
-				"$sort", new BasicDBObject("timestamp", -1));
-
-		// $limit the result to 1, we only need one pose
-		DBObject limit_result = new BasicDBObject("$limit", 1);
+		// fan out over time slices if the parallelism is set
+		if(this.queryParallelism > 1){
+			List<double[]> rows = this.getLinksTrajsParallel(start_ts, end_ts, model_name);
+			if(rows.isEmpty()){
+				this.ViewLinksPositionsAt(start_str, model_name, markerID, markerType, color, scale);
+			}
+			else{
+				this.CreateMarkers(this.linksRowsToPoints(rows, deltaT), markerID, markerType, color, scale);
+			}
+			return;
+		}
+		
+		// create the pipeline operations, first with the $match check the times
+		DBObject match_time = new BasicDBObject("$match", new BasicDBObject("timestamp", 
+		new BasicDBObject("$gte", start_ts).append("$lte", end_ts)));
 
 		// $unwind models in order to output only the queried model
 		DBObject unwind_models = new BasicDBObject("$unwind", "$models");
@@ -2717,7 +3747,7 @@ public class MongoSimGames {
 
 		// run aggregation
 		List<DBObject> pipeline = Arrays.asList(
-				match_time_and_name, sort_desc, limit_result, unwind_models, match_model, project);
+				match_time, unwind_models, match_model, project);
 
 		AggregationOptions aggregationOptions = AggregationOptions.builder()
 				.batchSize(100)
@@ -2728,7 +3758,9 @@ public class MongoSimGames {
 		Cursor cursor = this.coll.aggregate(pipeline, aggregationOptions);
 		
 		// Traj as dynamic array
-		ArrayList<Vector3d> positions = new ArrayList<Vector3d>();	
+		ArrayList<Vector3d> trajs = new ArrayList<Vector3d>();
+		
+		double prev_ts = 0;
 		
 		// if cursor not empty, append matadata to the first doc
 		if(cursor.hasNext())
@@ -2739,10 +3771,13 @@ public class MongoSimGames {
 			// get the list of links pos
 			BasicDBList pos_list = (BasicDBList) first_doc.get("links_pos");
 			
+			// get the timestamp
+			prev_ts = first_doc.getDouble("timestamp");
+			
 			// pos_list and rot_list length should be always the same
 			for (int i = 0; i < pos_list.size(); ++i)
 			{				
-				positions.add(new Vector3d(
+				trajs.add(new Vector3d(
 						((BasicDBObject) pos_list.get(i)).getDouble("x"),
 						((BasicDBObject) pos_list.get(i)).getDouble("y"),
 						((BasicDBObject) pos_list.get(i)).getDouble("z")));
@@ -2751,151 +3786,539 @@ public class MongoSimGames {
 		// if query returned no values for these timestamps, get the pose at the nearest timestamp
 		else
 		{
-			System.out.println("Java  - ViewLinksPositionsAt Query returned no results!'" );
+			this.ViewLinksPositionsAt(start_str, model_name, markerID, markerType, color, scale);
 		}
+		// insert rest of trajectory
+		while (cursor.hasNext()) {			
+			// get the current document
+			BasicDBObject curr_doc = (BasicDBObject) cursor.next();
+			
+			// get the list of links pos
+			BasicDBList pos_list = (BasicDBList) curr_doc.get("links_pos");
+			
+			double curr_ts = curr_doc.getDouble("timestamp");
+			
+			// if time diff > then deltaT add position to trajectory
+			if(curr_ts - prev_ts > deltaT)
+			{		
+				// pos_list and rot_list length should be always the same
+				for (int i = 0; i < pos_list.size(); ++i)
+				{				
+					trajs.add(new Vector3d(
+							((BasicDBObject) pos_list.get(i)).getDouble("x"),
+							((BasicDBObject) pos_list.get(i)).getDouble("y"),
+							((BasicDBObject) pos_list.get(i)).getDouble("z")));
+				}
+				prev_ts = curr_ts;
+			}
+		}	
 		
 		// create the markers
-		this.CreateMarkers(positions, markerID, markerType, color, scale);
+		this.CreateMarkers(trajs, markerID, markerType, color, scale);
+	}
+	
+	
+	/**
+	 * Set the nr of parallel time slice queries used by ViewLinksTrajs
+	 * and WriteLinksTrajs (1 = serial), the slices run on the MongoQueryExecutor
+	 */
+	public void SetQueryParallelism(int parallelism){
+		this.queryParallelism = parallelism;
 	}
+	
+	/**
+	 * Links positions pipeline of the model for the time slice [from_ts, to_ts) 
+	 * (to_ts included for the last slice)
+	 */
+	private List<DBObject> linksPosPipeline(double from_ts, double to_ts, boolean last, String model_name){
+		// $match the slice times
+		DBObject match_time = new BasicDBObject("$match", new BasicDBObject("timestamp", 
+				new BasicDBObject("$gte", from_ts).append(last ? "$lte" : "$lt", to_ts)));
+
+		// $unwind models in order to output only the queried model
+		DBObject unwind_models = new BasicDBObject("$unwind", "$models");
+
+		// $match for the given model name from the unwinded models
+		DBObject match_model = new BasicDBObject(
+				"$match", new BasicDBObject("models.name", model_name));
+
+		// build the $projection operation
+		DBObject proj_fields = new BasicDBObject("_id", 0);
+		proj_fields.put("timestamp", 1);
+		proj_fields.put("links_pos", "$models.links.pos");
+		DBObject project = new BasicDBObject("$project", proj_fields);
 
+		return Arrays.asList(match_time, unwind_models, match_model, project);
+	}
+	
 	/**
-	 * Get the positions of the model links at the given timestamp
-	 * save result in MongoDB
+	 * Bounds of the time slices of [start_ts, end_ts]
+	 */
+	private double[] sliceBounds(double start_ts, double end_ts){
+		final int nr_slices = (end_ts > start_ts) ? Math.max(1, this.queryParallelism) : 1;
+		double[] bounds = new double[nr_slices + 1];
+		for (int i = 0; i < nr_slices; i++){
+			bounds[i] = start_ts + i * (end_ts - start_ts) / nr_slices;
+		}
+		bounds[nr_slices] = end_ts;
+		return bounds;
+	}
+	
+	/**
+	 * Query the links positions of the model with one aggregation per time slice,
+	 * returns the rows (ts x0 y0 z0 x1 ..) merged in time slice order
+	 */
+	private List<double[]> getLinksTrajsParallel(double start_ts, double end_ts, final String model_name){
+		final double[] bounds = this.sliceBounds(start_ts, end_ts);
+		final DBCollection slice_coll = this.coll;
+		
+		// set when a slice fails, the other slices stop early
+		final AtomicBoolean abort = new AtomicBoolean(false);
+		
+		// submit one task per slice
+		List<Future<List<double[]>>> futures = new ArrayList<Future<List<double[]>>>();
+		for (int i = 0; i + 1 < bounds.length; i++){
+			final List<DBObject> pipeline = this.linksPosPipeline(
+					bounds[i], bounds[i + 1], i + 2 == bounds.length, model_name);
+			futures.add(MongoQueryExecutor.get().submit(new Callable<List<double[]>>(){
+				@Override
+				public List<double[]> call(){
+					AggregationOptions aggregationOptions = AggregationOptions.builder()
+							.batchSize(100)
+							.outputMode(AggregationOptions.OutputMode.CURSOR)
+							.allowDiskUse(true)
+							.build();
+					Cursor cursor = slice_coll.aggregate(pipeline, aggregationOptions);
+					
+					// decode the documents on the worker thread
+					List<double[]> rows = new ArrayList<double[]>();
+					while(!abort.get() && cursor.hasNext()){
+						BasicDBObject curr_doc = (BasicDBObject) cursor.next();
+						BasicDBList pos_list = (BasicDBList) curr_doc.get("links_pos");
+						double[] row = new double[1 + pos_list.size() * 3];
+						row[0] = curr_doc.getDouble("timestamp");
+						for (int j = 0; j < pos_list.size(); ++j){
+							BasicDBObject pos = (BasicDBObject) pos_list.get(j);
+							row[1 + j * 3] = pos.getDouble("x");
+							row[2 + j * 3] = pos.getDouble("y");
+							row[3 + j * 3] = pos.getDouble("z");
+						}
+						rows.add(row);
+					}
+					cursor.close();
+					return rows;
+				}
+			}));
+		}
+		
+		// merge the slices in order
+		List<double[]> rows = new ArrayList<double[]>();
+		for (List<double[]> slice_rows : this.awaitSlices(futures, abort)){
+			rows.addAll(slice_rows);
+		}
+		return rows;
+	}
+	
+	/**
+	 * Wait for the results of the time slices in order, if a slice fails (or the
+	 * waiting thread is interrupted) the abort flag stops the other slices early,
+	 * all of them are still waited for (the driver i/o does not stop on interrupt),
+	 * then an IllegalStateException is thrown, no partial result is returned
+	 */
+	private <T> List<T> awaitSlices(List<Future<T>> futures, AtomicBoolean abort){
+		List<T> results = new ArrayList<T>();
+		Throwable failure = null;
+		boolean interrupted = false;
+		for (Future<T> future : futures){
+			while(true){
+				try{
+					final T result = future.get();
+					if(failure == null){
+						results.add(result);
+					}
+					break;
+				}
+				catch (InterruptedException e){
+					// keep waiting, the slice is still running
+					interrupted = true;
+					if(failure == null){
+						failure = e;
+					}
+					abort.set(true);
+				}
+				catch (ExecutionException e){
+					if(failure == null){
+						failure = e.getCause();
+					}
+					abort.set(true);
+					break;
+				}
+			}
+		}
+		// keep the interrupt status for the caller
+		if(interrupted){
+			Thread.currentThread().interrupt();
+		}
+		if(failure instanceof InterruptedException){
+			throw new IllegalStateException("Java - time slice query interrupted", failure);
+		}
+		if(failure != null){
+			throw new IllegalStateException("Java - time slice query failed", failure);
+		}
+		return results;
+	}
+	
+	/**
+	 * Convert the links rows to marker points, keeping rows more than deltaT apart
+	 */
+	private ArrayList<Vector3d> linksRowsToPoints(List<double[]> rows, double deltaT){
+		ArrayList<Vector3d> trajs = new ArrayList<Vector3d>();
+		double prev_ts = 0;
+		for (int r = 0; r < rows.size(); r++){
+			final double[] row = rows.get(r);
+			// the first row is always added
+			if(r == 0 || row[0] - prev_ts > deltaT){
+				for (int i = 1; i + 2 < row.length; i += 3){
+					trajs.add(new Vector3d(row[i], row[i + 1], row[i + 2]));
+				}
+				prev_ts = row[0];
+			}
+		}
+		return trajs;
+	}
+	
+	/**
+	 * Write the links trajectories with one aggregation and bulk writer per time slice
+	 */
+	private void writeLinksTrajsParallel(final double start_ts,
+			final double end_ts,
+			String model_name,
+			String traj_db_name,
+			final String traj_coll_name){
+		DB traj_db = MongoConnectionManager.get().getDB(traj_db_name);
+
+		// check if the collection already exists
+		if (traj_db.collectionExists(traj_coll_name))
+		{
+			System.out.println("!!! Collection: \'" + traj_db_name + "." + traj_coll_name + "\' already exists!" );
+			return;
+		}
+		
+		// create collection
+		final DBCollection traj_coll = traj_db.getCollection(traj_coll_name);
+		System.out.println("Java  - Writing to \'" + traj_db_name + "." + traj_coll_name + "\' (parallel)" );
+		
+		final double[] bounds = this.sliceBounds(start_ts, end_ts);
+		final DBCollection slice_coll = this.coll;
+		final int batch_size = this.exportBatchSize;
+		final boolean relaxed = this.exportRelaxedWriteConcern;
+		
+		// set when a slice fails, the other slices stop early
+		final AtomicBoolean abort = new AtomicBoolean(false);
+		
+		// submit one task per slice
+		List<Future<Long>> futures = new ArrayList<Future<Long>>();
+		for (int i = 0; i + 1 < bounds.length; i++){
+			final boolean first_slice = (i == 0);
+			final List<DBObject> pipeline = this.linksPosPipeline(
+					bounds[i], bounds[i + 1], i + 2 == bounds.length, model_name);
+			futures.add(MongoQueryExecutor.get().submit(new Callable<Long>(){
+				@Override
+				public Long call(){
+					AggregationOptions aggregationOptions = AggregationOptions.builder()
+							.batchSize(100)
+							.outputMode(AggregationOptions.OutputMode.CURSOR)
+							.allowDiskUse(true)
+							.build();
+					Cursor cursor = slice_coll.aggregate(pipeline, aggregationOptions);
+					MongoBulkWriter writer = new MongoBulkWriter(traj_coll, batch_size, relaxed);
+					
+					// the first doc of the first slice carries the metadata
+					if(first_slice && cursor.hasNext()){
+						BasicDBObject meta_data = new BasicDBObject("name", traj_coll_name)
+						.append("type", "links_trajs")
+						.append("start", start_ts)
+						.append("end", end_ts)
+						.append("description", "Pancake links trajectories..");
+						BasicDBObject first_doc = (BasicDBObject) cursor.next();
+						first_doc.append("metadata", meta_data);
+						writer.insert(first_doc);
+					}
+					while(!abort.get() && cursor.hasNext()){
+						writer.insert(cursor.next());
+					}
+					writer.close();
+					cursor.close();
+					return writer.getNrDocs();
+				}
+			}));
+		}
+		
+		// wait for all the slices
+		long nr_docs = 0;
+		try{
+			for (Long slice_docs : this.awaitSlices(futures, abort)){
+				nr_docs += slice_docs;
+			}
+		}
+		catch (IllegalStateException e){
+			// do not leave a partial export which looks complete
+			System.out.println("!!! Dropping the partially written \'" + traj_db_name + "." + traj_coll_name + "\'" );
+			traj_coll.drop();
+			throw e;
+		}
+		if(nr_docs == 0){
+			System.out.println("Java  - WriteLinksTrajs Query returned no results!'" );
+		}
+	}
+	
+	////////////////////////////////////////////////////////////////
+	///// ASYNC QUERY FUNCTIONS	
+	/**
+	 * Asynchronous GetModelPoseAt with string timestamps, Knowrob specific
+	 */
+	public CompletableFuture<double[]> GetModelPoseAtAsync(String ts_str, String model_name){
+		// transform the knowrob time to double with 3 decimal precision
+		double timestamp = (double) Math.round((parseTime_d(ts_str) - TIME_OFFSET) * 1000) / 1000;
+		
+		return this.GetModelPoseAtAsync(timestamp, model_name);
+	}
+	
+	/**
+	 * Asynchronous GetModelPoseAt, the async queries run on the MongoQueryExecutor
+	 * with a copy pinned to the current collection (a later SetCollection does
+	 * not change them), in prolog the futures are kept as AsyncQueryHandles
+	 */
+	public CompletableFuture<double[]> GetModelPoseAtAsync(final double timestamp, final String model_name){
+		final MongoSimGames pinned = new MongoSimGames(this);
+		return MongoQueryExecutor.get().supplyAsync(new Callable<double[]>(){
+			@Override
+			public double[] call(){
+				return pinned.GetModelPoseAt(timestamp, model_name);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous GetLinkPoseAt with string timestamps, Knowrob specific
+	 */
+	public CompletableFuture<double[]> GetLinkPoseAtAsync(String ts_str, String model_name, String link_name){
+		// transform the knowrob time to double with 3 decimal precision
+		double timestamp = (double) Math.round((parseTime_d(ts_str) - TIME_OFFSET) * 1000) / 1000;
+		
+		return this.GetLinkPoseAtAsync(timestamp, model_name, link_name);
+	}
+	
+	/**
+	 * Asynchronous GetLinkPoseAt
+	 */
+	public CompletableFuture<double[]> GetLinkPoseAtAsync(final double timestamp, final String model_name, final String link_name){
+		final MongoSimGames pinned = new MongoSimGames(this);
+		return MongoQueryExecutor.get().supplyAsync(new Callable<double[]>(){
+			@Override
+			public double[] call(){
+				return pinned.GetLinkPoseAt(timestamp, model_name, link_name);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous GetModelPoseInterpolated with string timestamps, Knowrob specific
+	 */
+	public CompletableFuture<double[]> GetModelPoseInterpolatedAsync(String ts_str, String model_name){
+		// transform the knowrob time to double with 3 decimal precision
+		double timestamp = (double) Math.round((parseTime_d(ts_str) - TIME_OFFSET) * 1000) / 1000;
+		
+		return this.GetModelPoseInterpolatedAsync(timestamp, model_name);
+	}
+	
+	/**
+	 * Asynchronous GetModelPoseInterpolated
+	 */
+	public CompletableFuture<double[]> GetModelPoseInterpolatedAsync(final double timestamp, final String model_name){
+		final MongoSimGames pinned = new MongoSimGames(this);
+		return MongoQueryExecutor.get().supplyAsync(new Callable<double[]>(){
+			@Override
+			public double[] call(){
+				return pinned.GetModelPoseInterpolated(timestamp, model_name);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous GetLinkPoseInterpolated with string timestamps, Knowrob specific
+	 */
+	public CompletableFuture<double[]> GetLinkPoseInterpolatedAsync(String ts_str, String model_name, String link_name){
+		// transform the knowrob time to double with 3 decimal precision
+		double timestamp = (double) Math.round((parseTime_d(ts_str) - TIME_OFFSET) * 1000) / 1000;
+		
+		return this.GetLinkPoseInterpolatedAsync(timestamp, model_name, link_name);
+	}
+	
+	/**
+	 * Asynchronous GetLinkPoseInterpolated
+	 */
+	public CompletableFuture<double[]> GetLinkPoseInterpolatedAsync(final double timestamp, final String model_name, final String link_name){
+		final MongoSimGames pinned = new MongoSimGames(this);
+		return MongoQueryExecutor.get().supplyAsync(new Callable<double[]>(){
+			@Override
+			public double[] call(){
+				return pinned.GetLinkPoseInterpolated(timestamp, model_name, link_name);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous GetModelTrajectory with string timestamps, Knowrob specific
+	 */
+	public CompletableFuture<double[]> GetModelTrajectoryAsync(String start, String end, String model_name){
+		// transform the knowrob time to double with 3 decimal precision
+		double start_ts = (double) Math.round((parseTime_d(start) - TIME_OFFSET) * 1000) / 1000;
+		double end_ts = (double) Math.round((parseTime_d(end) - TIME_OFFSET) * 1000) / 1000;
+		
+		return this.GetModelTrajectoryAsync(start_ts, end_ts, model_name);
+	}
+	
+	/**
+	 * Asynchronous GetModelTrajectory
+	 */
+	public CompletableFuture<double[]> GetModelTrajectoryAsync(final double start_ts, final double end_ts, final String model_name){
+		final MongoSimGames pinned = new MongoSimGames(this);
+		return MongoQueryExecutor.get().supplyAsync(new Callable<double[]>(){
+			@Override
+			public double[] call(){
+				return pinned.GetModelTrajectory(start_ts, end_ts, model_name);
+			}
+		});
+	}
+	
+	/**
+	 * Asynchronous GetLinkTrajectory with string timestamps, Knowrob specific
+	 */
+	public CompletableFuture<double[]> GetLinkTrajectoryAsync(String start, String end, String model_name, String link_name){
+		// transform the knowrob time to double with 3 decimal precision
+		double start_ts = (double) Math.round((parseTime_d(start) - TIME_OFFSET) * 1000) / 1000;
+		double end_ts = (double) Math.round((parseTime_d(end) - TIME_OFFSET) * 1000) / 1000;
+		
+		return this.GetLinkTrajectoryAsync(start_ts, end_ts, model_name, link_name);
+	}
+	
+	/**
+	 * Asynchronous GetLinkTrajectory
+	 */
+	public CompletableFuture<double[]> GetLinkTrajectoryAsync(final double start_ts, final double end_ts, final String model_name, final String link_name){
+		final MongoSimGames pinned = new MongoSimGames(this);
+		return MongoQueryExecutor.get().supplyAsync(new Callable<double[]>(){
+			@Override
+			public double[] call(){
+				return pinned.GetLinkTrajectory(start_ts, end_ts, model_name, link_name);
+			}
+		});
+	}
+	
+	
+	////////////////////////////////////////////////////////////////
+	///// STREAMING FUNCTIONS	
+	/**
+	 * Set the nr of points per chunk marker of the streamed trajectories
+	 */
+	public void SetStreamChunkSize(int chunkSize){
+		this.streamChunkSize = chunkSize;
+	}
+	
+	/**
+	 * Query the trajectory of the given model with string timestamps, Knowrob specific
+	 * stream it as rviz chunk markers while the results arrive
 	 */
-	public void WriteLinksTrajs(
-			String start_str,
-			String end_str,
+	public TrajectoryStreamer StreamModelTrajectory(String start,
+			String end,
 			String model_name,
-			String traj_db_name){		
-		
+			String markerID,
+			String markerType,
+			String color,
+			float scale,
+			double deltaT){
 		// transform the knowrob time to double with 3 decimal precision
-		double start_ts = (double) Math.round((parseTime_d(start_str) - TIME_OFFSET) * 1000) / 1000;
-		double end_ts = (double) Math.round((parseTime_d(end_str) - TIME_OFFSET) * 1000) / 1000;
-		
-		// set default coll name
-		String traj_coll_name = this.coll.getName();/* + "_" 
-				+ model_name + "_links_trajs_" + start_ts + "_" + end_ts;*/	
-								
-		// remove the knowrob namespace (http://knowrob.org/kb/knowrob.owl#) form the model 
-		// String model_name = kr_model_name.split("#")[1];
-		
-		// create the pipeline operations, first with the $match check the times
-		DBObject match_time = new BasicDBObject("$match", new BasicDBObject("timestamp", 
-		new BasicDBObject("$gte", start_ts).append("$lte", end_ts)));
+		double start_ts = (double) Math.round((parseTime_d(start) - TIME_OFFSET) * 1000) / 1000;		
+		double end_ts = (double) Math.round((parseTime_d(end) - TIME_OFFSET) * 1000) / 1000;
 
-		// $unwind models in order to output only the queried model
+		// $match the times, $unwind the models and $match the given one
+		DBObject match_time = new BasicDBObject("$match", new BasicDBObject("timestamp", 
+				new BasicDBObject("$gte", start_ts).append("$lte", end_ts)));
 		DBObject unwind_models = new BasicDBObject("$unwind", "$models");
-
-		// $match for the given model name from the unwinded models
 		DBObject match_model = new BasicDBObject(
 				"$match", new BasicDBObject("models.name", model_name));
 
 		// build the $projection operation
 		DBObject proj_fields = new BasicDBObject("_id", 0);
 		proj_fields.put("timestamp", 1);
-		proj_fields.put("links_pos", "$models.links.pos");
+		proj_fields.put("pos", "$models.pos");
+		proj_fields.put("rot", "$models.rot");
 		DBObject project = new BasicDBObject("$project", proj_fields);
 
-		// run aggregation
-		List<DBObject> pipeline = Arrays.asList(
-				match_time, unwind_models, match_model, project);
-
-		AggregationOptions aggregationOptions = AggregationOptions.builder()
-				.batchSize(100)
-				.outputMode(AggregationOptions.OutputMode.CURSOR)
-				.allowDiskUse(true)
-				.build();
-
-		Cursor cursor = this.coll.aggregate(pipeline, aggregationOptions);
-		
-		try {
-
-			MongoClient mongoClient = new MongoClient(this.dbHost , 27017);
-
-			DB traj_db = mongoClient.getDB(traj_db_name);
-
-			// check if the collection already exists
-			if (traj_db.collectionExists(traj_coll_name))
-			{
-				System.out.println("!!! Collection: \'" + traj_db_name + "." + traj_coll_name + "\' already exists!" );
-			}
-			// create the collection
-			else
-			{
-				// create collection
-				DBCollection traj_coll = traj_db.getCollection(traj_coll_name);
-
-				System.out.println("Java  - Writing to \'" + traj_db_name + "." + traj_coll_name + "\'" );
-
-				// if cursor not empty, append matadata to the first doc
-				if(cursor.hasNext())
-				{
-					// create metadata doc
-					BasicDBObject meta_data = new BasicDBObject("name", traj_coll_name)
-					.append("type", "links_trajs")
-					.append("start", start_ts)
-					.append("end", end_ts)
-					.append("description", "Pancake links trajectories..");
-
-					// get the first document as the next cursor and append the metadata to it
-					BasicDBObject first_doc = (BasicDBObject) cursor.next();
-
-					first_doc.append("metadata", meta_data);
-
-					// insert document with metadata
-					traj_coll.insert(first_doc);
-				}
-				// if query returned no values for these timestamps, get the pose at the nearest timestamp
-				else
-				{
-					System.out.println("Java  - WriteLinksPositionsAt Query returned no results!'" );
-				}
-
-				// insert rest of trajectory
-				while (cursor.hasNext()) {
-					traj_coll.insert(cursor.next());
-				}
-			}
-		}catch (UnknownHostException e) {
-			e.printStackTrace();
-		}		
+		// stream the aggregation (downsampled on the server if the sampling is set)
+		List<DBObject> pipeline = this.downsample(
+				Arrays.asList(match_time, unwind_models, match_model, project), start_ts, end_ts);
+		return this.startStream(pipeline, markerID, markerType, color, scale, deltaT);
 	}
 	
 	/**
-	 * Get the positions of the model links at the given timestamp
-	 * view as rviz markers
+	 * Query the trajectory of the given link with string timestamps, Knowrob specific
+	 * stream it as rviz chunk markers while the results arrive
 	 */
-	public void ViewLinksTrajs(
-			String start_str,
-			String end_str,
+	public TrajectoryStreamer StreamLinkTrajectory(String start,
+			String end,
 			String model_name,
-			String markerID){		
-		
+			String link_name,
+			String markerID,
+			String markerType,
+			String color,
+			float scale,
+			double deltaT){
 		// transform the knowrob time to double with 3 decimal precision
-		double start_ts = (double) Math.round((parseTime_d(start_str) - TIME_OFFSET) * 1000) / 1000;
-		double end_ts = (double) Math.round((parseTime_d(end_str) - TIME_OFFSET) * 1000) / 1000;
-		
-		// create the pipeline operations, first with the $match check the times
-		DBObject match_time = new BasicDBObject("$match", new BasicDBObject("timestamp", 
-		new BasicDBObject("$gte", start_ts).append("$lte", end_ts)));
+		double start_ts = (double) Math.round((parseTime_d(start) - TIME_OFFSET) * 1000) / 1000;		
+		double end_ts = (double) Math.round((parseTime_d(end) - TIME_OFFSET) * 1000) / 1000;
 
-		// $unwind models in order to output only the queried model
+		// $match the times, $unwind the models and $match the given one
+		DBObject match_time = new BasicDBObject("$match", new BasicDBObject("timestamp", 
+				new BasicDBObject("$gte", start_ts).append("$lte", end_ts)));
 		DBObject unwind_models = new BasicDBObject("$unwind", "$models");
-
-		// $match for the given model name from the unwinded models
 		DBObject match_model = new BasicDBObject(
 				"$match", new BasicDBObject("models.name", model_name));
 
-		// build the $projection operation
-		DBObject proj_fields = new BasicDBObject("_id", 0);
-		proj_fields.put("timestamp", 1);
-		proj_fields.put("links_pos", "$models.links.pos");
-		DBObject project = new BasicDBObject("$project", proj_fields);
+		// $project the links, $unwind them and $match the given one
+		DBObject proj_links_fields = new BasicDBObject("_id", 0);
+		proj_links_fields.put("timestamp", 1);
+		proj_links_fields.put("models.links", 1);
+		DBObject project_links = new BasicDBObject("$project", proj_links_fields);
+		DBObject unwind_links = new BasicDBObject("$unwind", "$models.links");
+		DBObject match_link = new BasicDBObject(
+				"$match", new BasicDBObject("models.links.name", link_name));
 
-		// run aggregation
-		List<DBObject> pipeline = Arrays.asList(
-				match_time, unwind_models, match_model, project);
+		// build the final $projection operation
+		DBObject proj_fields = new BasicDBObject("timestamp", 1);
+		proj_fields.put("pos", "$models.links.pos");
+		proj_fields.put("rot", "$models.links.rot");
+		DBObject project = new BasicDBObject("$project", proj_fields);
 
+		// stream the aggregation (downsampled on the server if the sampling is set)
+		List<DBObject> pipeline = this.downsample(Arrays.asList(
+				match_time, unwind_models, match_model, project_links, unwind_links, match_link, project), start_ts, end_ts);
+		return this.startStream(pipeline, markerID, markerType, color, scale, deltaT);
+	}
+	
+	/**
+	 * Run the aggregation and stream its results on a new thread
+	 */
+	private TrajectoryStreamer startStream(List<DBObject> pipeline,
+			String markerID,
+			String markerType,
+			String color,
+			float scale,
+			double deltaT){
+		// stop a previous stream with the same id
+		this.RemoveMarker(markerID);
+		
 		AggregationOptions aggregationOptions = AggregationOptions.builder()
 				.batchSize(100)
 				.outputMode(AggregationOptions.OutputMode.CURSOR)
@@ -2904,92 +4327,157 @@ public class MongoSimGames {
 
 		Cursor cursor = this.coll.aggregate(pipeline, aggregationOptions);
 		
-		// Traj as dynamic array
-		ArrayList<Vector3d> trajs = new ArrayList<Vector3d>();	
-		
-		// if cursor not empty, append matadata to the first doc
-		if(cursor.hasNext())
-		{
-			// get the first document as the next cursor
-			BasicDBObject first_doc = (BasicDBObject) cursor.next();
-			
-			// get the list of links pos
-			BasicDBList pos_list = (BasicDBList) first_doc.get("links_pos");
-			
-			// pos_list and rot_list length should be always the same
-			for (int i = 0; i < pos_list.size(); ++i)
-			{				
-				trajs.add(new Vector3d(
-						((BasicDBObject) pos_list.get(i)).getDouble("x"),
-						((BasicDBObject) pos_list.get(i)).getDouble("y"),
-						((BasicDBObject) pos_list.get(i)).getDouble("z")));
-			}
-		}
-		// if query returned no values for these timestamps, get the pose at the nearest timestamp
-		else
-		{
-			this.ViewLinksPositionsAt(start_str, model_name, markerID);
-		}
-		// insert rest of trajectory
-		while (cursor.hasNext()) {			
-			// get the current document
-			BasicDBObject curr_doc = (BasicDBObject) cursor.next();
-			
-			// get the list of links pos
-			BasicDBList pos_list = (BasicDBList) curr_doc.get("links_pos");
-			
-			// pos_list and rot_list length should be always the same
-			for (int i = 0; i < pos_list.size(); ++i)
-			{				
-				trajs.add(new Vector3d(
-						((BasicDBObject) pos_list.get(i)).getDouble("x"),
-						((BasicDBObject) pos_list.get(i)).getDouble("y"),
-						((BasicDBObject) pos_list.get(i)).getDouble("z")));
-			}
+		TrajectoryStreamer streamer = new TrajectoryStreamer(cursor, markerID,
+				this.markerFromString(markerType), this.colorFromString(color), scale,
+				this.streamChunkSize, deltaT,
+				this.markerLODTolerance, this.markerLODMaxPoints);
+		this.streamers.put(markerID, streamer);
+		this.markerIDs.add(markerID);
+		return streamer.start();
+	}
+	
+	/**
+	 * Stop the stream with the given marker id, the published chunks are kept
+	 */
+	public void CancelStream(String markerID){
+		TrajectoryStreamer streamer = this.streamers.get(markerID);
+		if(streamer != null){
+			streamer.cancel();
 		}
+	}
+	
+	////////////////////////////////////////////////////////////////
+	///// REPLAY FUNCTIONS	
+	/**
+	 * Set the max nr of frames per second published by the replays
+	 */
+	public void SetReplayMaxFrameRate(double maxFrameRate){
+		this.replayMaxFrameRate = maxFrameRate;
+	}
+	
+	/**
+	 * Replay the links meshes of the model with string timestamps, Knowrob specific
+	 * speed = 1.0 is real time
+	 */
+	public EpisodeReplayer ReplayEpisode(String start,
+			String end,
+			String model_name,
+			String meshFolderPath,
+			String markerID,
+			double speed){
+		// transform the knowrob time to double with 3 decimal precision
+		double start_ts = (double) Math.round((parseTime_d(start) - TIME_OFFSET) * 1000) / 1000;		
+		double end_ts = (double) Math.round((parseTime_d(end) - TIME_OFFSET) * 1000) / 1000;
 		
-		// create the markers
-		this.CreateMarkers(trajs, markerID);
+		return this.ReplayEpisode(start_ts, end_ts, model_name, meshFolderPath, markerID, speed);
 	}
 	
 	/**
-	 * Get the positions of the model links at the given timestamp
-	 * view as rviz markers
+	 * Replay the links meshes of the model with double timestamps
+	 * speed = 1.0 is real time
 	 */
-	public void ViewLinksTrajs(
-			String start_str,
-			String end_str,
+	public EpisodeReplayer ReplayEpisode(double start_ts,
+			double end_ts,
 			String model_name,
+			String meshFolderPath,
 			String markerID,
-			String markerType,			
-			String color,
-			float scale,
-			double deltaT){		
+			double speed){
+		// stop a previous replay with the same id
+		this.RemoveMarker(markerID);
 		
+		EpisodeReplayer replayer = new EpisodeReplayer(this.coll, model_name, start_ts, end_ts,
+				meshFolderPath, markerID, speed, this.replayMaxFrameRate, this);
+		this.replayers.put(markerID, replayer);
+		this.markerIDs.add(markerID);
+		return replayer.start();
+	}
+	
+	/**
+	 * Pause the replay with the given marker id
+	 */
+	public void PauseReplay(String markerID){
+		EpisodeReplayer replayer = this.replayers.get(markerID);
+		if(replayer != null){
+			replayer.pause();
+		}
+	}
+	
+	/**
+	 * Resume the replay with the given marker id
+	 */
+	public void ResumeReplay(String markerID){
+		EpisodeReplayer replayer = this.replayers.get(markerID);
+		if(replayer != null){
+			replayer.resume();
+		}
+	}
+	
+	/**
+	 * Continue the replay with the given marker id from the knowrob timepoint
+	 */
+	public void SeekReplay(String markerID, String ts_str){
 		// transform the knowrob time to double with 3 decimal precision
-		double start_ts = (double) Math.round((parseTime_d(start_str) - TIME_OFFSET) * 1000) / 1000;
-		double end_ts = (double) Math.round((parseTime_d(end_str) - TIME_OFFSET) * 1000) / 1000;
+		double timestamp = (double) Math.round((parseTime_d(ts_str) - TIME_OFFSET) * 1000) / 1000;
 		
-		// create the pipeline operations, first with the $match check the times
-		DBObject match_time = new BasicDBObject("$match", new BasicDBObject("timestamp", 
-		new BasicDBObject("$gte", start_ts).append("$lte", end_ts)));
-
-		// $unwind models in order to output only the queried model
-		DBObject unwind_models = new BasicDBObject("$unwind", "$models");
-
-		// $match for the given model name from the unwinded models
-		DBObject match_model = new BasicDBObject(
-				"$match", new BasicDBObject("models.name", model_name));
-
-		// build the $projection operation
-		DBObject proj_fields = new BasicDBObject("_id", 0);
-		proj_fields.put("timestamp", 1);
-		proj_fields.put("links_pos", "$models.links.pos");
-		DBObject project = new BasicDBObject("$project", proj_fields);
-
-		// run aggregation
-		List<DBObject> pipeline = Arrays.asList(
-				match_time, unwind_models, match_model, project);
+		this.SeekReplay(markerID, timestamp);
+	}
+	
+	/**
+	 * Continue the replay with the given marker id from the timestamp
+	 */
+	public void SeekReplay(String markerID, double timestamp){
+		EpisodeReplayer replayer = this.replayers.get(markerID);
+		if(replayer != null){
+			replayer.seek(timestamp);
+		}
+	}
+	
+	/**
+	 * Set the playback speed of the replay with the given marker id
+	 */
+	public void SetReplaySpeed(String markerID, double speed){
+		EpisodeReplayer replayer = this.replayers.get(markerID);
+		if(replayer != null){
+			replayer.setSpeed(speed);
+		}
+	}
+	
+	/**
+	 * Stop the replay with the given marker id, the meshes are kept
+	 */
+	public void StopReplay(String markerID){
+		EpisodeReplayer replayer = this.replayers.get(markerID);
+		if(replayer != null){
+			replayer.stop();
+		}
+	}
+	
+	////////////////////////////////////////////////////////////////
+	///// PROXIMITY FUNCTIONS	
+	/**
+	 * Get the world states (models names and positions) between the timestamps
+	 * sorted on the time, or the most recent one at end_ts (last = true)
+	 */
+	private Cursor worldStatesCursor(double start_ts, double end_ts, boolean last){
+		List<DBObject> pipeline = new ArrayList<DBObject>();
+		if(last){
+			pipeline.add(new BasicDBObject("$match", new BasicDBObject("timestamp", 
+					new BasicDBObject("$lte", end_ts))));
+			pipeline.add(new BasicDBObject("$sort", new BasicDBObject("timestamp", -1)));
+			pipeline.add(new BasicDBObject("$limit", 1));
+		}
+		else{
+			pipeline.add(new BasicDBObject("$match", new BasicDBObject("timestamp", 
+					new BasicDBObject("$gte", start_ts).append("$lte", end_ts))));
+			pipeline.add(new BasicDBObject("$sort", new BasicDBObject("timestamp", 1)));
+		}
+		
+		// only the names and positions of the models are needed
+		DBObject proj_fields = new BasicDBObject("_id", 0);
+		proj_fields.put("timestamp", 1);
+		proj_fields.put("names", "$models.name");
+		proj_fields.put("pos", "$models.pos");
+		pipeline.add(new BasicDBObject("$project", proj_fields));
 
 		AggregationOptions aggregationOptions = AggregationOptions.builder()
 				.batchSize(100)
@@ -2997,68 +4485,232 @@ public class MongoSimGames {
 				.allowDiskUse(true)
 				.build();
 
-		Cursor cursor = this.coll.aggregate(pipeline, aggregationOptions);
+		return this.coll.aggregate(pipeline, aggregationOptions);
+	}
+	
+	/**
+	 * Read the models names and positions (x y z packed) of the world state,
+	 * returns the positions array (xyz, or a larger one if it is too small)
+	 */
+	private double[] readWorldState(BasicDBObject doc, List<String> names, double[] xyz){
+		BasicDBList names_list = (BasicDBList) doc.get("names");
+		BasicDBList pos_list = (BasicDBList) doc.get("pos");
+		names.clear();
+		if(xyz.length < 3 * names_list.size()){
+			xyz = new double[3 * names_list.size()];
+		}
+		for (int i = 0; i < names_list.size(); ++i){
+			BasicDBObject pos = (BasicDBObject) pos_list.get(i);
+			names.add((String) names_list.get(i));
+			xyz[3*i] = pos.getDouble("x");
+			xyz[3*i+1] = pos.getDouble("y");
+			xyz[3*i+2] = pos.getDouble("z");
+		}
+		return xyz;
+	}
+	
+	/**
+	 * Get the models within the radius of the given model at the timepoint, Knowrob specific
+	 */
+	public String[] GetModelsWithinRadius(String ts_str, String model_name, double radius){
+		// transform the knowrob time to double with 3 decimal precision
+		double timestamp = (double) Math.round((parseTime_d(ts_str) - TIME_OFFSET) * 1000) / 1000;
 		
-		// Traj as dynamic array
-		ArrayList<Vector3d> trajs = new ArrayList<Vector3d>();
+		return this.GetModelsWithinRadius(timestamp, model_name, radius);
+	}
+	
+	/**
+	 * Get the models within the radius of the given model at the timestamp
+	 */
+	public String[] GetModelsWithinRadius(double timestamp, String model_name, double radius){
+		List<String> result = new ArrayList<String>();
+		Cursor cursor = this.worldStatesCursor(timestamp, timestamp, true);
+		if(cursor.hasNext()){
+			List<String> names = new ArrayList<String>();
+			double[] xyz = this.readWorldState((BasicDBObject) cursor.next(), names, new double[0]);
+			final int model_idx = names.indexOf(model_name);
+			if(model_idx != -1){
+				ProximityGrid grid = new ProximityGrid();
+				grid.build(xyz, names.size(), radius);
+				int[] neighbours = new int[names.size()];
+				final int nr = grid.neighbours(model_idx, radius, neighbours);
+				for (int i = 0; i < nr; ++i){
+					result.add(names.get(neighbours[i]));
+				}
+			}
+		}
+		cursor.close();
+		return result.toArray(new String[result.size()]);
+	}
+	
+	/**
+	 * Get the models which came within the radius of the given model
+	 * between the timepoints (in the order of their first contact), Knowrob specific
+	 */
+	public String[] GetModelsWithinRadiusDuring(String start,
+			String end,
+			String model_name,
+			double radius){
+		// transform the knowrob time to double with 3 decimal precision
+		double start_ts = (double) Math.round((parseTime_d(start) - TIME_OFFSET) * 1000) / 1000;		
+		double end_ts = (double) Math.round((parseTime_d(end) - TIME_OFFSET) * 1000) / 1000;
 		
-		double prev_ts = 0;
+		return this.GetModelsWithinRadiusDuring(start_ts, end_ts, model_name, radius);
+	}
+	
+	/**
+	 * Get the models which came within the radius of the given model
+	 * between the timestamps (in the order of their first contact)
+	 */
+	public String[] GetModelsWithinRadiusDuring(double start_ts,
+			double end_ts,
+			String model_name,
+			double radius){
+		Set<String> result = new LinkedHashSet<String>();
+		List<String> names = new ArrayList<String>();
+		double[] xyz = new double[0];
+		int[] neighbours = new int[0];
+		// grid of this call, rebuilt for every world state
+		ProximityGrid grid = new ProximityGrid();
 		
-		// if cursor not empty, append matadata to the first doc
-		if(cursor.hasNext())
-		{
-			// get the first document as the next cursor
-			BasicDBObject first_doc = (BasicDBObject) cursor.next();
-			
-			// get the list of links pos
-			BasicDBList pos_list = (BasicDBList) first_doc.get("links_pos");
-			
-			// get the timestamp
-			prev_ts = first_doc.getDouble("timestamp");
-			
-			// pos_list and rot_list length should be always the same
-			for (int i = 0; i < pos_list.size(); ++i)
-			{				
-				trajs.add(new Vector3d(
-						((BasicDBObject) pos_list.get(i)).getDouble("x"),
-						((BasicDBObject) pos_list.get(i)).getDouble("y"),
-						((BasicDBObject) pos_list.get(i)).getDouble("z")));
+		// single pass over the world states
+		Cursor cursor = this.worldStatesCursor(start_ts, end_ts, false);
+		while(cursor.hasNext()){
+			xyz = this.readWorldState((BasicDBObject) cursor.next(), names, xyz);
+			final int model_idx = names.indexOf(model_name);
+			if(model_idx == -1){
+				continue;
+			}
+			if(neighbours.length < names.size()){
+				neighbours = new int[names.size()];
+			}
+			grid.build(xyz, names.size(), radius);
+			final int nr = grid.neighbours(model_idx, radius, neighbours);
+			for (int i = 0; i < nr; ++i){
+				result.add(names.get(neighbours[i]));
 			}
 		}
-		// if query returned no values for these timestamps, get the pose at the nearest timestamp
-		else
-		{
-			this.ViewLinksPositionsAt(start_str, model_name, markerID, markerType, color, scale);
+		cursor.close();
+		return result.toArray(new String[result.size()]);
+	}
+	
+	/**
+	 * Get the timestamps when the other models first came within the radius
+	 * of the given model between the timepoints (-1 if never), Knowrob specific
+	 */
+	public double[] GetFirstContacts(String start,
+			String end,
+			String model_name,
+			String[] others,
+			double radius){
+		// transform the knowrob time to double with 3 decimal precision
+		double start_ts = (double) Math.round((parseTime_d(start) - TIME_OFFSET) * 1000) / 1000;		
+		double end_ts = (double) Math.round((parseTime_d(end) - TIME_OFFSET) * 1000) / 1000;
+		
+		return this.GetFirstContacts(start_ts, end_ts, model_name, others, radius);
+	}
+	
+	/**
+	 * Get the timestamps when the other models first came within the radius
+	 * of the given model between the timestamps (-1 if never)
+	 */
+	public double[] GetFirstContacts(double start_ts,
+			double end_ts,
+			String model_name,
+			String[] others,
+			double radius){
+		double[] contacts = new double[others.length];
+		Arrays.fill(contacts, -1);
+		
+		// position of the other models in the result
+		Map<String, Integer> others_idx = new HashMap<String, Integer>();
+		for (int i = 0; i < others.length; ++i){
+			others_idx.put(others[i], i);
 		}
-		// insert rest of trajectory
-		while (cursor.hasNext()) {			
-			// get the current document
+		int nr_pending = others_idx.size();
+		
+		List<String> names = new ArrayList<String>();
+		double[] xyz = new double[0];
+		int[] neighbours = new int[0];
+		// grid of this call, rebuilt for every world state
+		ProximityGrid grid = new ProximityGrid();
+		
+		// single pass over the world states, stop once all contacts are found
+		Cursor cursor = this.worldStatesCursor(start_ts, end_ts, false);
+		while(nr_pending > 0 && cursor.hasNext()){
 			BasicDBObject curr_doc = (BasicDBObject) cursor.next();
-			
-			// get the list of links pos
-			BasicDBList pos_list = (BasicDBList) curr_doc.get("links_pos");
-			
-			double curr_ts = curr_doc.getDouble("timestamp");
-			
-			// if time diff > then deltaT add position to trajectory
-			if(curr_ts - prev_ts > deltaT)
-			{		
-				// pos_list and rot_list length should be always the same
-				for (int i = 0; i < pos_list.size(); ++i)
-				{				
-					trajs.add(new Vector3d(
-							((BasicDBObject) pos_list.get(i)).getDouble("x"),
-							((BasicDBObject) pos_list.get(i)).getDouble("y"),
-							((BasicDBObject) pos_list.get(i)).getDouble("z")));
+			xyz = this.readWorldState(curr_doc, names, xyz);
+			final int model_idx = names.indexOf(model_name);
+			if(model_idx == -1){
+				continue;
+			}
+			if(neighbours.length < names.size()){
+				neighbours = new int[names.size()];
+			}
+			grid.build(xyz, names.size(), radius);
+			final int nr = grid.neighbours(model_idx, radius, neighbours);
+			for (int i = 0; i < nr; ++i){
+				Integer idx = others_idx.remove(names.get(neighbours[i]));
+				if(idx != null){
+					contacts[idx] = curr_doc.getDouble("timestamp");
+					nr_pending--;
 				}
-				prev_ts = curr_ts;
 			}
-		}	
+		}
+		cursor.close();
+		return contacts;
+	}
+	
+	/**
+	 * Get the timestamp when the two models first came within the radius
+	 * between the timepoints (-1 if never), Knowrob specific
+	 */
+	public double GetFirstContact(String start,
+			String end,
+			String model_name,
+			String other_name,
+			double radius){
+		return this.GetFirstContacts(start, end, model_name, new String[] {other_name}, radius)[0];
+	}
+	
+	/**
+	 * Get all the pairs of models within the radius of each other at the timepoint,
+	 * packed as (a0 b0 a1 b1 ..), Knowrob specific
+	 */
+	public String[] GetContactPairsAt(String ts_str, double radius){
+		// transform the knowrob time to double with 3 decimal precision
+		double timestamp = (double) Math.round((parseTime_d(ts_str) - TIME_OFFSET) * 1000) / 1000;
 		
-		// create the markers
-		this.CreateMarkers(trajs, markerID, markerType, color, scale);
+		return this.GetContactPairsAt(timestamp, radius);
 	}
 	
+	/**
+	 * Get all the pairs of models within the radius of each other at the timestamp,
+	 * packed as (a0 b0 a1 b1 ..)
+	 */
+	public String[] GetContactPairsAt(double timestamp, double radius){
+		List<String> result = new ArrayList<String>();
+		Cursor cursor = this.worldStatesCursor(timestamp, timestamp, true);
+		if(cursor.hasNext()){
+			List<String> names = new ArrayList<String>();
+			double[] xyz = this.readWorldState((BasicDBObject) cursor.next(), names, new double[0]);
+			ProximityGrid grid = new ProximityGrid();
+			grid.build(xyz, names.size(), radius);
+			int[] neighbours = new int[names.size()];
+			for (int i = 0; i < names.size(); ++i){
+				final int nr = grid.neighbours(i, radius, neighbours);
+				for (int j = 0; j < nr; ++j){
+					// every pair once
+					if(neighbours[j] > i){
+						result.add(names.get(i));
+						result.add(names.get(neighbours[j]));
+					}
+				}
+			}
+		}
+		cursor.close();
+		return result.toArray(new String[result.size()]);
+	}
 	
 	////////////////////////////////////////////////////////////////
 	///// PANCAKE COMPUTABLE FUNCTIONS	
@@ -3151,7 +4803,7 @@ public class MongoSimGames {
 	}
 
 	/**
-	 * Return the PCA of the 3d points
+	 * Return the PCA of the 3d points (weka, the pancake functions use PointsPCA)
 	 */
 	public PrincipalComponents GetPCA(List<Point3d> points, boolean center_data){
 
@@ -3232,14 +4884,20 @@ public class MongoSimGames {
 		// get the links positions
 		List<Point3d> points = this.GetLinksPositions(ts_str, model_name);
 		
-		// flag for centering the pca data
-		boolean center_data = true;
+		// pack the points for the pca
+		double[] packed = new double[points.size() * 3];
+		for (int i = 0; i < points.size(); i++){
+			packed[i * 3] = points.get(i).x;
+			packed[i * 3 + 1] = points.get(i).y;
+			packed[i * 3 + 2] = points.get(i).z;
+		}
 		
-		// get the pca of the points
-		PrincipalComponents pca = this.GetPCA(points, center_data);
+		// get the (centered) pca of the points
+		PointsPCA pca = new PointsPCA();
+		pca.update(packed);
 		
 		// return the roundness of the pancake
-		return this.GetPCARoundness(pca);		
+		return pca.getRoundness();		
 	}
 	
 	/**
@@ -3253,89 +4911,19 @@ public class MongoSimGames {
 		// get the links positions
 		List<Point3d> start_points = this.GetLinksPositions(start_str, model_name);
 
-		// the indexes of the points used for the plane
-		int index1 = -1;
-		int index2 = -1;
-		int index3 = -1;
-		
-		// get three relative distant points from the 
-		// links to compute the normal of its plane
-		outerloop:
-			for (int i = 0; i < start_points.size(); i++){
-				// get the first point
-				Point3d first_point = start_points.get(i);			
-
-				for (int j = 0; j < start_points.size(); j++){
-					// get the second point and check if the distance is big enough
-					Point3d second_point = start_points.get(j);
-					if (first_point.distance(second_point) > 0.04){
-
-						for (int k = 0; k < start_points.size(); k++){
-							// get the third point and check if distances are big enough
-							Point3d third_point = start_points.get(k);							
-							if (first_point.distance(third_point) > 0.04 &&
-									second_point.distance(third_point) > 0.04){						
-															
-								// set the indexes for the plane
-								index1 = i;
-								index2 = j;
-								index3 = k;
-							
-								break outerloop;
-							}
-						}
-					}
-				}
-			}
+		// get three relative distant points from the links to compute the normal of its plane
+		int[] indexes = this.getPlaneIndexes(start_points);
 
 		// continue if three points have been found
-		if ((index1 != -1) && (index2 != -1) && (index3 != -1))
+		if (indexes != null)
 		{
-			/* START TIMESTAMP */	
-			// get the three points from the start, cast from Point3d to Tuple3d
-			Tuple3d start_p1 = (Tuple3d) start_points.get(index1);
-			Tuple3d start_p2 = (Tuple3d) start_points.get(index2);
-			Tuple3d start_p3 = (Tuple3d) start_points.get(index3);
-			
-			// subtract from points 2 and 3 point 1 to get the plane vectors (p2<--p1 , p3<--p1)
-			start_p2.sub(start_p1);
-			start_p3.sub(start_p1);
-			
-			// set the two plane vectors v1 = p2<--p1;  v2 = p3<--p1
-			Vector3d start_v1 = new Vector3d(start_p2);
-			Vector3d start_v2 = new Vector3d(start_p3);
-			
-			start_v1.normalize();
-			start_v2.normalize();
-			
-			// compute the normal vector
-			Vector3d start_normal = new Vector3d();			
-			start_normal.cross(start_v1, start_v2);
-
+			/* START TIMESTAMP */
+			Vector3d start_normal = this.getPlaneNormal(start_points, indexes);
 			
 			/* END TIMESTAMP */			
 			// get the links positions at the end
 			List<Point3d> end_points = this.GetLinksPositions(end_str, model_name);
-
-			// get the three points from the end, cast from Point3d to Tuple3d
-			Tuple3d end_p1 = (Tuple3d) end_points.get(index1);
-			Tuple3d end_p2 = (Tuple3d) end_points.get(index2);
-			Tuple3d end_p3 = (Tuple3d) end_points.get(index3);
-
-			// subtract from points 2 and 3 point 1 to get the plane vectors (p2<--p1 , p3<--p1)
-			end_p2.sub(end_p1);
-			end_p3.sub(end_p1);
-			
-			// set the two plane vectors v1 = p2<--p1;  v2 = p3<--p1
-			Vector3d end_v1 = new Vector3d(end_p2);
-			Vector3d end_v2 = new Vector3d(end_p3);
-			
-			end_v1.normalize();
-			end_v2.normalize();
-			
-			// compute the normal vector
-			Vector3d end_normal = new Vector3d();			
-			end_normal.cross(end_v1, end_v2);
+			Vector3d end_normal = this.getPlaneNormal(end_points, indexes);
 					
 			// compute the dot product between the start and end normal
 			double dot_res = start_normal.dot(end_normal);
@@ -3351,6 +4939,265 @@ public class MongoSimGames {
 		}
 		return false;
 	}
+	
+	/**
+	 * Get the indexes of three relative distant points used for the plane, null if not found
+	 */
+	private int[] getPlaneIndexes(List<Point3d> points){
+		for (int i = 0; i < points.size(); i++){
+			// get the first point
+			Point3d first_point = points.get(i);			
+
+			for (int j = 0; j < points.size(); j++){
+				// get the second point and check if the distance is big enough
+				Point3d second_point = points.get(j);
+				if (first_point.distance(second_point) > 0.04){
+
+					for (int k = 0; k < points.size(); k++){
+						// get the third point and check if distances are big enough
+						Point3d third_point = points.get(k);							
+						if (first_point.distance(third_point) > 0.04 &&
+								second_point.distance(third_point) > 0.04){
+							return new int[] {i, j, k};
+						}
+					}
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Compute the normal of the plane given by the three indexed points
+	 */
+	private Vector3d getPlaneNormal(List<Point3d> points, int[] indexes){
+		// get the three points, cast from Point3d to Tuple3d
+		Tuple3d p1 = (Tuple3d) points.get(indexes[0]);
+		Tuple3d p2 = (Tuple3d) points.get(indexes[1]);
+		Tuple3d p3 = (Tuple3d) points.get(indexes[2]);
+		
+		// subtract from points 2 and 3 point 1 to get the plane vectors (p2<--p1 , p3<--p1)
+		p2.sub(p1);
+		p3.sub(p1);
+		
+		// set the two plane vectors v1 = p2<--p1;  v2 = p3<--p1
+		Vector3d v1 = new Vector3d(p2);
+		Vector3d v2 = new Vector3d(p3);
+		
+		v1.normalize();
+		v2.normalize();
+		
+		// compute the normal vector
+		Vector3d normal = new Vector3d();			
+		normal.cross(v1, v2);
+		return normal;
+	}
+	
+	/**
+	 * Get the positions of the model links at all the given timestamps with a single
+	 * range scan, returns per timestamp the packed positions (x y z per link)
+	 */
+	public double[][] GetLinksPositionsBatch(
+			String[] ts_strs,
+			String model_name){
+		
+		// transform the knowrob times to double with 3 decimal precision
+		final int nr_ts = ts_strs.length;
+		double[] timestamps = new double[nr_ts];
+		for (int i = 0; i < nr_ts; i++){
+			timestamps[i] = (double) Math.round((parseTime_d(ts_strs[i]) - TIME_OFFSET) * 1000) / 1000;
+		}
+		
+		double[][] links_positions = new double[nr_ts][];
+		if(nr_ts == 0){
+			return links_positions;
+		}
+		
+		// visit the timestamps in ascending order
+		Integer[] order = new Integer[nr_ts];
+		for (int i = 0; i < nr_ts; i++){
+			order[i] = i;
+		}
+		final double[] ts_arr = timestamps;
+		Arrays.sort(order, new Comparator<Integer>(){
+			@Override
+			public int compare(Integer a, Integer b){
+				return Double.compare(ts_arr[a], ts_arr[b]);
+			}
+		});
+		final double min_ts = timestamps[order[0]];
+		final double max_ts = timestamps[order[nr_ts - 1]];
+		
+		// the scan starts at the most recent document before the first timestamp
+		double start_ts = min_ts;
+		BasicDBList before_min = new BasicDBList();
+		before_min.add(new BasicDBObject("timestamp", new BasicDBObject("$lte", min_ts)));
+		before_min.add(new BasicDBObject("models.name", model_name));
+		DBCursor start_cursor = this.coll.find(new BasicDBObject("$and", before_min), 
+				new BasicDBObject("timestamp", 1))
+				.sort(new BasicDBObject("timestamp", -1)).limit(1);
+		if(start_cursor.hasNext()){
+			start_ts = ((BasicDBObject) start_cursor.next()).getDouble("timestamp");
+		}
+		start_cursor.close();
+		
+		// $and list for querying the $match in the aggregation
+		BasicDBList time_and_name = new BasicDBList();
+		time_and_name.add(new BasicDBObject("timestamp", 
+				new BasicDBObject("$gte", start_ts).append("$lte", max_ts)));
+		time_and_name.add(new BasicDBObject("models.name", model_name));
 
-}
+		// $match, $sort ascending, $unwind the models and $match the given one
+		DBObject match_time_and_name = new BasicDBObject(
+				"$match", new BasicDBObject( "$and", time_and_name));
+		DBObject sort_asc = new BasicDBObject(
+				"$sort", new BasicDBObject("timestamp", 1));
+		DBObject unwind_models = new BasicDBObject("$unwind", "$models");
+		DBObject match_model = new BasicDBObject(
+				"$match", new BasicDBObject("models.name", model_name));
+
+		// build the $projection operation
+		DBObject proj_fields = new BasicDBObject("_id", 0);
+		proj_fields.put("timestamp", 1);
+		proj_fields.put("links_pos", "$models.links.pos");
+		DBObject project = new BasicDBObject("$project", proj_fields);
+
+		// run aggregation
+		List<DBObject> pipeline = Arrays.asList(
+				match_time_and_name, sort_asc, unwind_models, match_model, project);
+
+		AggregationOptions aggregationOptions = AggregationOptions.builder()
+				.batchSize(100)
+				.outputMode(AggregationOptions.OutputMode.CURSOR)
+				.allowDiskUse(true)
+				.build();
 
+		Cursor cursor = this.coll.aggregate(pipeline, aggregationOptions);
+		
+		// merge: every timestamp gets the most recent document at or before it
+		BasicDBList curr_links_pos = null;
+		double[] curr_packed = null;
+		int q = 0;
+		while(cursor.hasNext() && q < nr_ts){
+			BasicDBObject curr_doc = (BasicDBObject) cursor.next();
+			final double doc_ts = curr_doc.getDouble("timestamp");
+			while(q < nr_ts && timestamps[order[q]] < doc_ts){
+				if(curr_packed == null && curr_links_pos != null){
+					curr_packed = this.packPositions(curr_links_pos);
+				}
+				links_positions[order[q]] = (curr_packed != null) ? curr_packed : new double[0];
+				q++;
+			}
+			// only decode the positions of the documents that are used
+			curr_links_pos = (BasicDBList) curr_doc.get("links_pos");
+			curr_packed = null;
+		}
+		cursor.close();
+		for (; q < nr_ts; q++){
+			if(curr_packed == null && curr_links_pos != null){
+				curr_packed = this.packPositions(curr_links_pos);
+			}
+			links_positions[order[q]] = (curr_packed != null) ? curr_packed : new double[0];
+		}
+		return links_positions;
+	}
+	
+	/**
+	 * Pack the positions array as x y z per position
+	 */
+	private double[] packPositions(BasicDBList pos_arr){
+		double[] packed = new double[pos_arr.size() * 3];
+		for (int i = 0; i < pos_arr.size(); i++) {
+			BasicDBObject pos = (BasicDBObject) pos_arr.get(i);
+			packed[i * 3] = pos.getDouble("x");
+			packed[i * 3 + 1] = pos.getDouble("y");
+			packed[i * 3 + 2] = pos.getDouble("z");
+		}
+		return packed;
+	}
+	
+	/**
+	 * Unpack x y z positions into points
+	 */
+	private List<Point3d> unpackPoints(double[] packed){
+		List<Point3d> points = new ArrayList<Point3d>(packed.length / 3);
+		for (int i = 0; i + 2 < packed.length; i += 3) {
+			points.add(new Point3d(packed[i], packed[i + 1], packed[i + 2]));
+		}
+		return points;
+	}
+	
+	/**
+	 * Return the roundness of the pancake at all the given timestamps (NaN if not enough links)
+	 */
+	public double[] GetPancakeRoundnessBatch(
+			String[] ts_strs,
+			String model_name){
+		
+		// get the links positions at all the timestamps
+		double[][] links_positions = this.GetLinksPositionsBatch(ts_strs, model_name);
+		
+		// one pca for the whole series
+		PointsPCA pca = new PointsPCA();
+		double[] roundness = new double[links_positions.length];
+		for (int i = 0; i < links_positions.length; i++){
+			if(links_positions[i].length < 9){
+				roundness[i] = Double.NaN;
+				continue;
+			}
+			pca.update(links_positions[i]);
+			roundness[i] = pca.getRoundness();
+		}
+		return roundness;
+	}
+	
+	/**
+	 * Return the roundness and the plane normal of the pancake at all the given
+	 * timestamps packed as (roundness nx ny nz), NaN if not enough links
+	 */
+	public double[] GetPancakeShapeBatch(
+			String[] ts_strs,
+			String model_name){
+		
+		// get the links positions at all the timestamps
+		double[][] links_positions = this.GetLinksPositionsBatch(ts_strs, model_name);
+		
+		double[] shape = new double[links_positions.length * 4];
+		new PointsPCA().series(links_positions, shape);
+		return shape;
+	}
+	
+	/**
+	 * Check at every given timestamp if the model has been flipped
+	 * relative to the first timestamp
+	 */
+	public boolean[] CheckModelFlipBatch(
+			String[] ts_strs,
+			String model_name){
+		
+		// get the links positions at all the timestamps
+		double[][] links_positions = this.GetLinksPositionsBatch(ts_strs, model_name);
+		
+		boolean[] flipped = new boolean[links_positions.length];
+		if(links_positions.length == 0){
+			return flipped;
+		}
+		
+		// the plane points are chosen at the first timestamp
+		int[] indexes = this.getPlaneIndexes(this.unpackPoints(links_positions[0]));
+		if(indexes == null){
+			return flipped;
+		}
+		Vector3d start_normal = this.getPlaneNormal(this.unpackPoints(links_positions[0]), indexes);
+		
+		for (int i = 1; i < links_positions.length; i++){
+			List<Point3d> points = this.unpackPoints(links_positions[i]);
+			if(points.size() != links_positions[0].length / 3){
+				continue;
+			}
+			// if the dot product is negative the model has flipped
+			flipped[i] = start_normal.dot(this.getPlaneNormal(points, indexes)) < 0;
+		}
+		return flipped;
+	}
+}
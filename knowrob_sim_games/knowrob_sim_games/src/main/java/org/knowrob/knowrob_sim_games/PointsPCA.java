@@ -0,0 +1,230 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+package org.knowrob.knowrob_sim_games;
+
+/**
+ * PCA of small 3d point sets (e.g. the links of a model) using a closed-form
+ * symmetric 3x3 eigen solver. The points are read from packed (x y z) buffers
+ * and the instance reuses its scratch arrays, so a time series of point sets
+ * can be processed without allocating per sample.
+ */
+public class PointsPCA {
+
+	// covariance of the last update (xx xy xz yy yz zz)
+	private final double[] cov = new double[6];
+
+	// eigenvalues of the last update, ascending
+	private final double[] eigenvalues = new double[3];
+
+	// unit normal of the best fitting plane of the last update
+	private final double[] normal = new double[3];
+
+	/**
+	 * Compute the PCA of nrPoints packed points starting at offset
+	 */
+	public void update(double[] points, int offset, int nrPoints) {
+		covariance(points, offset, nrPoints, this.cov);
+		eigenvalues(this.cov, this.eigenvalues);
+		eigenvector(this.cov, this.eigenvalues[0], this.normal);
+	}
+
+	/**
+	 * Compute the PCA of all the packed points of the buffer
+	 */
+	public void update(double[] points) {
+		this.update(points, 0, points.length / 3);
+	}
+
+	/**
+	 * Eigenvalue i (ascending order) of the last update
+	 */
+	public double getEigenValue(int i) {
+		return this.eigenvalues[i];
+	}
+
+	/**
+	 * Roundness of the last update, the second largest eigenvalue divided by the largest
+	 */
+	public double getRoundness() {
+		return roundness(this.eigenvalues);
+	}
+
+	/**
+	 * Component of the plane normal (smallest eigenvector, sign is arbitrary) of the last update
+	 */
+	public double getNormal(int i) {
+		return this.normal[i];
+	}
+
+	/**
+	 * Compute the roundness and plane normal of every point set, writes
+	 * (roundness nx ny nz) per set into out, NaN for sets with less than 3 points
+	 */
+	public void series(double[][] pointSets, double[] out) {
+		for (int i = 0; i < pointSets.length; ++i) {
+			final int o = i * 4;
+			if(pointSets[i].length < 9) {
+				out[o] = out[o + 1] = out[o + 2] = out[o + 3] = Double.NaN;
+				continue;
+			}
+			this.update(pointSets[i]);
+			out[o] = this.getRoundness();
+			out[o + 1] = this.normal[0];
+			out[o + 2] = this.normal[1];
+			out[o + 3] = this.normal[2];
+		}
+	}
+
+	/**
+	 * Covariance (xx xy xz yy yz zz) of the centered points
+	 */
+	public static void covariance(double[] points, int offset, int nrPoints, double[] cov) {
+		// mean
+		double mx = 0, my = 0, mz = 0;
+		for (int i = 0; i < nrPoints; ++i) {
+			final int p = offset + i * 3;
+			mx += points[p];
+			my += points[p + 1];
+			mz += points[p + 2];
+		}
+		mx /= nrPoints;
+		my /= nrPoints;
+		mz /= nrPoints;
+
+		// sums of the products of the centered coordinates
+		double xx = 0, xy = 0, xz = 0, yy = 0, yz = 0, zz = 0;
+		for (int i = 0; i < nrPoints; ++i) {
+			final int p = offset + i * 3;
+			final double dx = points[p] - mx;
+			final double dy = points[p + 1] - my;
+			final double dz = points[p + 2] - mz;
+			xx += dx * dx;
+			xy += dx * dy;
+			xz += dx * dz;
+			yy += dy * dy;
+			yz += dy * dz;
+			zz += dz * dz;
+		}
+		// sample covariance (same normalization as weka)
+		final double norm = (nrPoints > 1) ? 1.0 / (nrPoints - 1) : 1.0;
+		cov[0] = xx * norm;
+		cov[1] = xy * norm;
+		cov[2] = xz * norm;
+		cov[3] = yy * norm;
+		cov[4] = yz * norm;
+		cov[5] = zz * norm;
+	}
+
+	/**
+	 * Eigenvalues (ascending) of the symmetric matrix (a00 a01 a02 a11 a12 a22),
+	 * using the trigonometric closed form of Smith
+	 */
+	public static void eigenvalues(double[] a, double[] eig) {
+		final double p1 = a[1] * a[1] + a[2] * a[2] + a[4] * a[4];
+		if(p1 == 0) {
+			// diagonal matrix
+			eig[0] = a[0];
+			eig[1] = a[3];
+			eig[2] = a[5];
+			sort3(eig);
+			return;
+		}
+		final double q = (a[0] + a[3] + a[5]) / 3.0;
+		final double d0 = a[0] - q;
+		final double d1 = a[3] - q;
+		final double d2 = a[5] - q;
+		final double p = Math.sqrt((d0 * d0 + d1 * d1 + d2 * d2 + 2.0 * p1) / 6.0);
+
+		// r = det((A - qI) / p) / 2
+		final double det = d0 * (d1 * d2 - a[4] * a[4])
+				- a[1] * (a[1] * d2 - a[4] * a[2])
+				+ a[2] * (a[1] * a[4] - d1 * a[2]);
+		double r = det / (2.0 * p * p * p);
+		r = Math.max(-1.0, Math.min(1.0, r));
+		final double phi = Math.acos(r) / 3.0;
+
+		eig[2] = q + 2.0 * p * Math.cos(phi);
+		eig[0] = q + 2.0 * p * Math.cos(phi + (2.0 * Math.PI / 3.0));
+		eig[1] = 3.0 * q - eig[0] - eig[2];
+	}
+
+	/**
+	 * Unit eigenvector of the symmetric matrix for the given eigenvalue,
+	 * the largest cross product of two rows of (A - lambda I)
+	 */
+	public static void eigenvector(double[] a, double lambda, double[] v) {
+		// rows of A - lambda I
+		final double r00 = a[0] - lambda, r01 = a[1], r02 = a[2];
+		final double r10 = a[1], r11 = a[3] - lambda, r12 = a[4];
+		final double r20 = a[2], r21 = a[4], r22 = a[5] - lambda;
+
+		// row0 x row1, row0 x row2, row1 x row2
+		final double c0x = r01 * r12 - r02 * r11, c0y = r02 * r10 - r00 * r12, c0z = r00 * r11 - r01 * r10;
+		final double c1x = r01 * r22 - r02 * r21, c1y = r02 * r20 - r00 * r22, c1z = r00 * r21 - r01 * r20;
+		final double c2x = r11 * r22 - r12 * r21, c2y = r12 * r20 - r10 * r22, c2z = r10 * r21 - r11 * r20;
+		final double n0 = c0x * c0x + c0y * c0y + c0z * c0z;
+		final double n1 = c1x * c1x + c1y * c1y + c1z * c1z;
+		final double n2 = c2x * c2x + c2y * c2y + c2z * c2z;
+
+		if(n0 >= n1 && n0 >= n2 && n0 > 0) {
+			final double n = Math.sqrt(n0);
+			v[0] = c0x / n; v[1] = c0y / n; v[2] = c0z / n;
+		}
+		else if(n1 >= n2 && n1 > 0) {
+			final double n = Math.sqrt(n1);
+			v[0] = c1x / n; v[1] = c1y / n; v[2] = c1z / n;
+		}
+		else if(n2 > 0) {
+			final double n = Math.sqrt(n2);
+			v[0] = c2x / n; v[1] = c2y / n; v[2] = c2z / n;
+		}
+		else {
+			// degenerate (repeated eigenvalue), any direction of the eigenspace
+			v[0] = 0; v[1] = 0; v[2] = 1;
+		}
+	}
+
+	/**
+	 * Roundness from the ascending eigenvalues, the second largest divided by the largest
+	 */
+	public static double roundness(double[] eig) {
+		return eig[1] / eig[2];
+	}
+
+	/**
+	 * Sort three values in place, ascending
+	 */
+	private static void sort3(double[] v) {
+		double t;
+		if(v[0] > v[1]) { t = v[0]; v[0] = v[1]; v[1] = t; }
+		if(v[1] > v[2]) { t = v[1]; v[1] = v[2]; v[2] = t; }
+		if(v[0] > v[1]) { t = v[0]; v[0] = v[1]; v[1] = t; }
+	}
+}
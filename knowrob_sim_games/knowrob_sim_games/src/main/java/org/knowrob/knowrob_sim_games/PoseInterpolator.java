@@ -0,0 +1,229 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+package org.knowrob.knowrob_sim_games;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Interpolates poses between the stored keyframes, the positions are
+ * linearly interpolated and the quaternions slerped. Keyframes and poses
+ * are packed as (t x y z qw qx qy qz) and (x y z qw qx qy qz).
+ * The last bracketing keyframes of every entity are kept, so consecutive
+ * queries between the same two keyframes do not query the database again.
+ */
+public class PoseInterpolator {
+
+	/**
+	 * Source of the keyframes (e.g. a mongo query)
+	 */
+	public interface KeyframeSource {
+		/**
+		 * The keyframe at or before the timestamp (before = true)
+		 * or the first one after it (before = false), null if none
+		 */
+		double[] keyframe(double timestamp, boolean before);
+	}
+
+	// max nr of entities with a kept bracket
+	private static final int MAX_BRACKETS = 256;
+
+	// last bracketing keyframes (before, after) of every entity
+	private final Map<String, double[][]> brackets;
+
+	/**
+	 * PoseInterpolator constructor
+	 */
+	public PoseInterpolator() {
+		this.brackets = new LinkedHashMap<String, double[][]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, double[][]> eldest) {
+				return this.size() > MAX_BRACKETS;
+			}
+		};
+	}
+
+	/**
+	 * Interpolated pose of the entity at t, empty array if there is no keyframe at or before t,
+	 * the pose of the last keyframe if there is none after t
+	 */
+	public double[] poseAt(String key, double t, KeyframeSource source) {
+		double[][] bracket;
+		synchronized(this.brackets) {
+			bracket = this.brackets.get(key);
+		}
+		// query the keyframes if t is outside of the kept bracket
+		if(bracket == null || t < bracket[0][0] || (bracket[1] != null && t >= bracket[1][0])) {
+			final double[] before = source.keyframe(t, true);
+			if(before == null) {
+				return new double[0];
+			}
+			bracket = new double[][] {before, source.keyframe(t, false)};
+			synchronized(this.brackets) {
+				this.brackets.put(key, bracket);
+			}
+		}
+		double[] pose = new double[PoseTrack.POSE_STRIDE];
+		if(bracket[1] == null) {
+			System.arraycopy(bracket[0], 1, pose, 0, PoseTrack.POSE_STRIDE);
+		}
+		else {
+			interpolate(bracket[0], 1, bracket[1], 1, bracket[0][0], bracket[1][0], t, pose, 0);
+		}
+		return pose;
+	}
+
+	/**
+	 * Forget the kept brackets (e.g. when the episode changes)
+	 */
+	public void clear() {
+		synchronized(this.brackets) {
+			this.brackets.clear();
+		}
+	}
+
+	/**
+	 * Interpolate the poses a (at t0) and b (at t1) at t, the poses
+	 * (x y z qw qx qy qz) are read at the given offsets, the result written into out
+	 */
+	public static void interpolate(double[] a, int a_off, double[] b, int b_off,
+			double t0, double t1, double t, double[] out, int out_off) {
+		final double s = (t1 > t0) ? Math.max(0, Math.min(1, (t - t0) / (t1 - t0))) : 0;
+
+		// lerp the positions
+		for (int i = 0; i < 3; ++i) {
+			out[out_off + i] = a[a_off + i] + s * (b[b_off + i] - a[a_off + i]);
+		}
+
+		// slerp the quaternions (shortest path)
+		final double aw = a[a_off + 3], ax = a[a_off + 4], ay = a[a_off + 5], az = a[a_off + 6];
+		double bw = b[b_off + 3], bx = b[b_off + 4], by = b[b_off + 5], bz = b[b_off + 6];
+		double dot = aw * bw + ax * bx + ay * by + az * bz;
+		if(dot < 0) {
+			dot = -dot;
+			bw = -bw; bx = -bx; by = -by; bz = -bz;
+		}
+		double wa, wb;
+		if(dot > 0.9995) {
+			// nearly the same orientation, lerp (normalized below)
+			wa = 1 - s;
+			wb = s;
+		}
+		else {
+			final double theta = Math.acos(dot);
+			final double sin_theta = Math.sin(theta);
+			wa = Math.sin((1 - s) * theta) / sin_theta;
+			wb = Math.sin(s * theta) / sin_theta;
+		}
+		double qw = wa * aw + wb * bw;
+		double qx = wa * ax + wb * bx;
+		double qy = wa * ay + wb * by;
+		double qz = wa * az + wb * bz;
+		final double norm = Math.sqrt(qw * qw + qx * qx + qy * qy + qz * qz);
+		if(norm > 0) {
+			qw /= norm; qx /= norm; qy /= norm; qz /= norm;
+		}
+		out[out_off + 3] = qw;
+		out[out_off + 4] = qx;
+		out[out_off + 5] = qy;
+		out[out_off + 6] = qz;
+	}
+
+	/**
+	 * Interpolated pose of the track at t, empty array if there is no pose at or before t,
+	 * the last pose if there is none after t (same as the keyframe source version)
+	 */
+	public static double[] poseAt(PoseTrack track, double t) {
+		final int idx = track.indexAt(t);
+		if(idx < 0) {
+			return new double[0];
+		}
+		double[] pose = new double[PoseTrack.POSE_STRIDE];
+		interpolateTrack(track, idx, t, pose, 0, new double[2 * PoseTrack.POSE_STRIDE]);
+		return pose;
+	}
+
+	/**
+	 * Resample the track on the uniform clock start, start + step, .. <= end,
+	 * returns the poses packed as (t x y z qw qx qy qz), the clock times
+	 * before the first pose have no pose and are left out (as in poseAt)
+	 */
+	public static double[] resample(PoseTrack track, double start, double end, double step) {
+		if(track.size() == 0 || step <= 0 || end < start) {
+			return new double[0];
+		}
+		final int n = (int) Math.floor((end - start) / step + 1e-9) + 1;
+		// first clock time at or after the first pose
+		int first = 0;
+		if(start < track.timestamp(0)) {
+			first = (int) Math.ceil((track.timestamp(0) - start) / step - 1e-9);
+			while(first < n && start + first * step < track.timestamp(0)) {
+				first++;
+			}
+		}
+		if(first >= n) {
+			return new double[0];
+		}
+		final int stride = PoseTrack.STAMPED_STRIDE;
+		double[] samples = new double[(n - first) * stride];
+		double[] scratch = new double[2 * PoseTrack.POSE_STRIDE];
+
+		// the sample times increase, move the keyframe index forward instead of searching
+		int idx = Math.max(0, track.indexAt(start + first * step));
+		for (int k = first; k < n; ++k) {
+			final double t = start + k * step;
+			while(idx + 1 < track.size() && track.timestamp(idx + 1) <= t) {
+				idx++;
+			}
+			final int off = (k - first) * stride;
+			samples[off] = t;
+			interpolateTrack(track, idx, t, samples, off + 1, scratch);
+		}
+		return samples;
+	}
+
+	/**
+	 * Interpolate the track at t, idx is the keyframe at or before t
+	 */
+	private static void interpolateTrack(PoseTrack track, int idx, double t,
+			double[] out, int out_off, double[] scratch) {
+		if(idx + 1 >= track.size()) {
+			// after the last keyframe
+			track.pose(idx, out, out_off);
+		}
+		else {
+			track.pose(idx, scratch, 0);
+			track.pose(idx + 1, scratch, PoseTrack.POSE_STRIDE);
+			interpolate(scratch, 0, scratch, PoseTrack.POSE_STRIDE,
+					track.timestamp(idx), track.timestamp(idx + 1), t, out, out_off);
+		}
+	}
+}
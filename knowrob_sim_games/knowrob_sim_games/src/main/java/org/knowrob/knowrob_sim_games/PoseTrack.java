@@ -0,0 +1,235 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+package org.knowrob.knowrob_sim_games;
+
+import java.util.Arrays;
+
+/**
+ * Poses of one model (or link) over a whole episode stored as primitive
+ * columns sorted on the timestamp: time, position xyz and quaternion wxyz
+ */
+public class PoseTrack {
+
+	// nr of values of a packed pose (x y z qw qx qy qz)
+	public static final int POSE_STRIDE = 7;
+
+	// nr of values of a packed stamped pose (t x y z qw qx qy qz)
+	public static final int STAMPED_STRIDE = 8;
+
+	// columns
+	private double[] ts;
+	private double[] px, py, pz;
+	private double[] qw, qx, qy, qz;
+
+	// nr of poses
+	private int size;
+
+	/**
+	 * PoseTrack constructor with the initial capacity
+	 */
+	public PoseTrack(int capacity) {
+		final int cap = Math.max(capacity, 16);
+		this.ts = new double[cap];
+		this.px = new double[cap];
+		this.py = new double[cap];
+		this.pz = new double[cap];
+		this.qw = new double[cap];
+		this.qx = new double[cap];
+		this.qy = new double[cap];
+		this.qz = new double[cap];
+		this.size = 0;
+	}
+
+	/**
+	 * Append a pose, the poses have to be added in timestamp order
+	 */
+	public void add(double t, double x, double y, double z,
+			double w, double q_x, double q_y, double q_z) {
+		if(this.size == this.ts.length) {
+			this.grow();
+		}
+		final int i = this.size;
+		this.ts[i] = t;
+		this.px[i] = x;
+		this.py[i] = y;
+		this.pz[i] = z;
+		this.qw[i] = w;
+		this.qx[i] = q_x;
+		this.qy[i] = q_y;
+		this.qz[i] = q_z;
+		this.size++;
+	}
+
+	/**
+	 * Double the capacity of the columns
+	 */
+	private void grow() {
+		final int cap = this.ts.length * 2;
+		this.ts = Arrays.copyOf(this.ts, cap);
+		this.px = Arrays.copyOf(this.px, cap);
+		this.py = Arrays.copyOf(this.py, cap);
+		this.pz = Arrays.copyOf(this.pz, cap);
+		this.qw = Arrays.copyOf(this.qw, cap);
+		this.qx = Arrays.copyOf(this.qx, cap);
+		this.qy = Arrays.copyOf(this.qy, cap);
+		this.qz = Arrays.copyOf(this.qz, cap);
+	}
+
+	/**
+	 * Release the unused capacity once all poses are added
+	 */
+	public void trim() {
+		this.ts = Arrays.copyOf(this.ts, this.size);
+		this.px = Arrays.copyOf(this.px, this.size);
+		this.py = Arrays.copyOf(this.py, this.size);
+		this.pz = Arrays.copyOf(this.pz, this.size);
+		this.qw = Arrays.copyOf(this.qw, this.size);
+		this.qx = Arrays.copyOf(this.qx, this.size);
+		this.qy = Arrays.copyOf(this.qy, this.size);
+		this.qz = Arrays.copyOf(this.qz, this.size);
+	}
+
+	/**
+	 * Nr of poses
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Approximate memory used by the columns in bytes
+	 */
+	public long memoryBytes() {
+		return 8L * 8L * this.ts.length;
+	}
+
+	/**
+	 * Timestamp of the i-th pose
+	 */
+	public double timestamp(int i) {
+		return this.ts[i];
+	}
+
+	/**
+	 * Index of the most recent pose at or before t, -1 if t is before the first pose
+	 */
+	public int indexAt(double t) {
+		int lo = 0;
+		int hi = this.size - 1;
+		int res = -1;
+		while(lo <= hi) {
+			final int mid = (lo + hi) >>> 1;
+			if(this.ts[mid] <= t) {
+				res = mid;
+				lo = mid + 1;
+			}
+			else {
+				hi = mid - 1;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Index of the first pose at or after t (size if t is after the last pose)
+	 */
+	public int indexFrom(double t) {
+		int lo = 0;
+		int hi = this.size;
+		while(lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if(this.ts[mid] < t) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Write the i-th pose (x y z qw qx qy qz) into dst at the given offset
+	 */
+	public void pose(int i, double[] dst, int offset) {
+		dst[offset] = this.px[i];
+		dst[offset + 1] = this.py[i];
+		dst[offset + 2] = this.pz[i];
+		dst[offset + 3] = this.qw[i];
+		dst[offset + 4] = this.qx[i];
+		dst[offset + 5] = this.qy[i];
+		dst[offset + 6] = this.qz[i];
+	}
+
+	/**
+	 * The most recent pose at or before t (x y z qw qx qy qz),
+	 * empty array if t is before the first pose
+	 */
+	public double[] poseAt(double t) {
+		final int i = this.indexAt(t);
+		if(i < 0) {
+			return new double[0];
+		}
+		double[] pose = new double[POSE_STRIDE];
+		this.pose(i, pose, 0);
+		return pose;
+	}
+
+	/**
+	 * The poses in [start, end] packed as (t x y z qw qx qy qz) per pose
+	 */
+	public double[] trajectory(double start, double end) {
+		final int from = this.indexFrom(start);
+		final int to = this.indexAt(end) + 1;
+		final int n = Math.max(0, to - from);
+		double[] traj = new double[n * STAMPED_STRIDE];
+		for (int i = 0; i < n; ++i) {
+			traj[i * STAMPED_STRIDE] = this.ts[from + i];
+			this.pose(from + i, traj, i * STAMPED_STRIDE + 1);
+		}
+		return traj;
+	}
+
+	/**
+	 * The positions in [start, end] packed as (x y z) per pose
+	 */
+	public double[] positions(double start, double end) {
+		final int from = this.indexFrom(start);
+		final int to = this.indexAt(end) + 1;
+		final int n = Math.max(0, to - from);
+		double[] pos = new double[n * 3];
+		for (int i = 0; i < n; ++i) {
+			pos[i * 3] = this.px[from + i];
+			pos[i * 3 + 1] = this.py[from + i];
+			pos[i * 3 + 2] = this.pz[from + i];
+		}
+		return pos;
+	}
+}
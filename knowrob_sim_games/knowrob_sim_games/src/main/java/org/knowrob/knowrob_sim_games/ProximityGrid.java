@@ -0,0 +1,133 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+package org.knowrob.knowrob_sim_games;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Uniform grid (spatial hash) over a set of points, rebuilt for every
+ * world state. With the cell size equal to the query radius every radius
+ * query only has to check the 27 cells around the query point.
+ * The buffers are kept between the builds, so a grid is not thread safe,
+ * every query uses its own grid.
+ */
+public class ProximityGrid {
+
+	// bits per quantized coordinate in the cell key
+	private static final int KEY_BITS = 21;
+	private static final long KEY_MASK = (1L << KEY_BITS) - 1;
+
+	// cell size (m)
+	private double cellSize;
+
+	// the points (x y z) and their nr
+	private double[] points = new double[0];
+	private int nrPoints = 0;
+
+	// first point of every cell, next point of the same cell (-1 = end)
+	private final Map<Long, Integer> cellHeads = new HashMap<Long, Integer>();
+	private int[] next = new int[0];
+
+	/**
+	 * Build the grid over the n points (x y z packed) with the given cell size
+	 */
+	public void build(double[] points, int n, double cellSize) {
+		this.points = points;
+		this.nrPoints = n;
+		this.cellSize = (cellSize > 0) ? cellSize : 1.0;
+		this.cellHeads.clear();
+		if(this.next.length < n) {
+			this.next = new int[n];
+		}
+		for (int i = 0; i < n; ++i) {
+			final Long key = this.key(points[3*i], points[3*i+1], points[3*i+2], 0, 0, 0);
+			final Integer head = this.cellHeads.put(key, i);
+			this.next[i] = (head != null) ? head : -1;
+		}
+	}
+
+	/**
+	 * Key of the cell of the point, offset by (dx, dy, dz) cells
+	 */
+	private long key(double x, double y, double z, int dx, int dy, int dz) {
+		final long ix = (long) Math.floor(x / this.cellSize) + dx;
+		final long iy = (long) Math.floor(y / this.cellSize) + dy;
+		final long iz = (long) Math.floor(z / this.cellSize) + dz;
+		return ((ix & KEY_MASK) << (2 * KEY_BITS)) | ((iy & KEY_MASK) << KEY_BITS) | (iz & KEY_MASK);
+	}
+
+	/**
+	 * Nr of points of the grid
+	 */
+	public int size() {
+		return this.nrPoints;
+	}
+
+	/**
+	 * Indexes of the points within the radius (<= cell size) of the point i,
+	 * without i, written to out, returns their nr
+	 */
+	public int neighbours(int i, double radius, int[] out) {
+		return this.neighbours(this.points[3*i], this.points[3*i+1], this.points[3*i+2], radius, i, out);
+	}
+
+	/**
+	 * Indexes of the points within the radius (<= cell size) of (x, y, z),
+	 * except the point skip (-1 = none), written to out, returns their nr
+	 */
+	public int neighbours(double x, double y, double z, double radius, int skip, int[] out) {
+		final double radius_sq = radius * radius;
+		int nr = 0;
+		for (int dx = -1; dx <= 1; ++dx) {
+			for (int dy = -1; dy <= 1; ++dy) {
+				for (int dz = -1; dz <= 1; ++dz) {
+					Integer head = this.cellHeads.get(this.key(x, y, z, dx, dy, dz));
+					for (int j = (head != null) ? head : -1; j != -1; j = this.next[j]) {
+						if(j != skip && distSq(this.points, j, x, y, z) <= radius_sq) {
+							out[nr++] = j;
+						}
+					}
+				}
+			}
+		}
+		return nr;
+	}
+
+	/**
+	 * Squared distance between the point j and (x, y, z)
+	 */
+	private static double distSq(double[] points, int j, double x, double y, double z) {
+		final double dx = points[3*j] - x;
+		final double dy = points[3*j+1] - y;
+		final double dz = points[3*j+2] - z;
+		return dx*dx + dy*dy + dz*dz;
+	}
+}
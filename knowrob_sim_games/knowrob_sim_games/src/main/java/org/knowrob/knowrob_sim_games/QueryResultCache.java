@@ -0,0 +1,150 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+package org.knowrob.knowrob_sim_games;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.vecmath.Vector3d;
+
+/**
+ * Size bounded LRU cache of the query results (marker points) of MongoSimGames,
+ * the size is counted in points. Recorded episodes are immutable, so the
+ * results stay valid until the cache is cleared.
+ */
+public class QueryResultCache {
+
+	// cached results in access order (least recently used first)
+	private final LinkedHashMap<String, ArrayList<Vector3d>> results;
+
+	// max and current nr of cached points
+	private int maxPoints;
+	private long nrPoints;
+
+	// lookup stats
+	private long hits;
+	private long misses;
+
+	/**
+	 * QueryResultCache constructor with the max nr of cached points (0 = off)
+	 */
+	public QueryResultCache(int maxPoints) {
+		this.results = new LinkedHashMap<String, ArrayList<Vector3d>>(16, 0.75f, true);
+		this.maxPoints = maxPoints;
+	}
+
+	/**
+	 * Get the cached result, null if not cached
+	 */
+	public synchronized ArrayList<Vector3d> get(String key) {
+		ArrayList<Vector3d> result = this.results.get(key);
+		if(result != null) {
+			this.hits++;
+		}
+		else {
+			this.misses++;
+		}
+		return result;
+	}
+
+	/**
+	 * Add the result and evict the least recently used ones until the size is respected
+	 */
+	public synchronized void put(String key, ArrayList<Vector3d> result) {
+		if(result.size() > this.maxPoints) {
+			return;
+		}
+		ArrayList<Vector3d> prev = this.results.put(key, result);
+		if(prev != null) {
+			this.nrPoints -= prev.size();
+		}
+		this.nrPoints += result.size();
+		this.evict();
+	}
+
+	/**
+	 * Remove the least recently used results until the size is respected
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, ArrayList<Vector3d>>> it = this.results.entrySet().iterator();
+		while(this.nrPoints > this.maxPoints && it.hasNext()) {
+			this.nrPoints -= it.next().getValue().size();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Change the max nr of cached points (0 = off)
+	 */
+	public synchronized void setMaxPoints(int maxPoints) {
+		this.maxPoints = maxPoints;
+		this.evict();
+	}
+
+	/**
+	 * Remove all the cached results
+	 */
+	public synchronized void clear() {
+		this.results.clear();
+		this.nrPoints = 0;
+	}
+
+	/**
+	 * Nr of cache hits
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * Nr of cache misses
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * Reset the hit and miss counters
+	 */
+	public synchronized void resetStats() {
+		this.hits = 0;
+		this.misses = 0;
+	}
+
+	/**
+	 * Print the cache stats
+	 */
+	public synchronized void printStats() {
+		System.out.println("Java - QueryResultCache - results: " + this.results.size()
+				+ ", points: " + this.nrPoints + " / " + this.maxPoints
+				+ ", hits: " + this.hits + ", misses: " + this.misses);
+	}
+}
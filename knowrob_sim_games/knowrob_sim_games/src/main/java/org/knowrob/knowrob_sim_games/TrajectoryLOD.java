@@ -0,0 +1,144 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+package org.knowrob.knowrob_sim_games;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import javax.vecmath.Vector3d;
+
+/**
+ * Level of detail reduction of trajectories before they are sent as markers.
+ * Douglas-Peucker refinement: the segment with the largest deviation is split
+ * first, until every kept segment is within the tolerance or the max point
+ * count is reached (so both limits can be used alone or together).
+ */
+public class TrajectoryLOD {
+
+	/**
+	 * Segment [first, last] of the trajectory and its farthest point
+	 */
+	private static class Segment implements Comparable<Segment> {
+		final int first;
+		final int last;
+		final int farthest;
+		final double dist;
+
+		Segment(int first, int last, int farthest, double dist) {
+			this.first = first;
+			this.last = last;
+			this.farthest = farthest;
+			this.dist = dist;
+		}
+
+		@Override
+		public int compareTo(Segment other) {
+			// largest deviation first
+			return Double.compare(other.dist, this.dist);
+		}
+	}
+
+	/**
+	 * Simplify the trajectory, tolerance <= 0 and maxPoints <= 0 disable the
+	 * respective limit; the first and last points are always kept
+	 */
+	public static List<Vector3d> simplify(List<Vector3d> points, double tolerance, int maxPoints) {
+		final int n = points.size();
+		if(n <= 2 || (tolerance <= 0 && (maxPoints <= 0 || n <= maxPoints))) {
+			return points;
+		}
+
+		// kept points flags
+		boolean[] keep = new boolean[n];
+		keep[0] = true;
+		keep[n - 1] = true;
+		int nr_kept = 2;
+
+		// refine the segment with the largest deviation first
+		PriorityQueue<Segment> queue = new PriorityQueue<Segment>();
+		queue.add(farthest(points, 0, n - 1));
+		while(!queue.isEmpty()) {
+			Segment seg = queue.poll();
+			if(seg.farthest < 0 || seg.dist <= tolerance) {
+				break;
+			}
+			if(maxPoints > 0 && nr_kept >= maxPoints) {
+				break;
+			}
+			keep[seg.farthest] = true;
+			nr_kept++;
+			queue.add(farthest(points, seg.first, seg.farthest));
+			queue.add(farthest(points, seg.farthest, seg.last));
+		}
+
+		List<Vector3d> simplified = new ArrayList<Vector3d>(nr_kept);
+		for (int i = 0; i < n; ++i) {
+			if(keep[i]) {
+				simplified.add(points.get(i));
+			}
+		}
+		return simplified;
+	}
+
+	/**
+	 * Find the point between first and last farthest from the segment
+	 */
+	private static Segment farthest(List<Vector3d> points, int first, int last) {
+		final Vector3d a = points.get(first);
+		final Vector3d b = points.get(last);
+		final double abx = b.x - a.x;
+		final double aby = b.y - a.y;
+		final double abz = b.z - a.z;
+		final double ab_len2 = abx * abx + aby * aby + abz * abz;
+
+		int farthest = -1;
+		double max_dist2 = -1;
+		for (int i = first + 1; i < last; ++i) {
+			final Vector3d p = points.get(i);
+			double apx = p.x - a.x;
+			double apy = p.y - a.y;
+			double apz = p.z - a.z;
+			// project on the segment (clamped), degenerate segments use the distance to a
+			if(ab_len2 > 0) {
+				final double t = Math.max(0, Math.min(1,
+						(apx * abx + apy * aby + apz * abz) / ab_len2));
+				apx -= t * abx;
+				apy -= t * aby;
+				apz -= t * abz;
+			}
+			final double dist2 = apx * apx + apy * apy + apz * apz;
+			if(dist2 > max_dist2) {
+				max_dist2 = dist2;
+				farthest = i;
+			}
+		}
+		return new Segment(first, last, farthest, (farthest < 0) ? 0 : Math.sqrt(max_dist2));
+	}
+}
@@ -0,0 +1,237 @@
+/*
+  Copyright (C) 2014-16 by Andrei Haidu
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+      * Redistributions of source code must retain the above copyright
+        notice, this list of conditions and the following disclaimer.
+      * Redistributions in binary form must reproduce the above copyright
+        notice, this list of conditions and the following disclaimer in the
+        documentation and/or other materials provided with the distribution.
+      * Neither the name of the <organization> nor the
+        names of its contributors may be used to endorse or promote products
+        derived from this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+  DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+  DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+  @author Andrei Haidu
+  @license BSD
+*/
+
+package org.knowrob.knowrob_sim_games;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.vecmath.Vector3d;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.Cursor;
+
+import org.knowrob.vis.MarkerObject;
+import org.knowrob.vis.MarkerPublisher;
+import org.ros.message.MessageFactory;
+import geometry_msgs.Point;
+
+/**
+ * Publishes a trajectory as a sequence of chunk markers (markerID_0, markerID_1, ..)
+ * while the cursor batches arrive, only the current chunk is kept in memory.
+ * The documents of the cursor need a timestamp and a pos (x y z) field.
+ * The streamer runs on its own thread and can be cancelled at any time.
+ */
+public class TrajectoryStreamer implements Runnable {
+
+	// the trajectory documents
+	private final Cursor cursor;
+
+	// marker settings
+	private final String markerID;
+	private final byte markerType;
+	private final float[] color;
+	private final float scale;
+
+	// nr of points per chunk marker
+	private final int chunkSize;
+
+	// min time between two points
+	private final double deltaT;
+
+	// level of detail of every chunk (0 = off)
+	private final double lodTolerance;
+	private final int lodMaxPoints;
+
+	// ids of the published chunk markers
+	private final List<String> chunkIDs = new ArrayList<String>();
+
+	// nr of streamed points
+	private volatile long nrPoints = 0;
+
+	// cancel and done flags
+	private volatile boolean cancelled = false;
+	private volatile boolean done = false;
+
+	/**
+	 * TrajectoryStreamer constructor
+	 */
+	public TrajectoryStreamer(Cursor cursor,
+			String markerID,
+			byte markerType,
+			float[] color,
+			float scale,
+			int chunkSize,
+			double deltaT,
+			double lodTolerance,
+			int lodMaxPoints) {
+		this.cursor = cursor;
+		this.markerID = markerID;
+		this.markerType = markerType;
+		this.color = color;
+		this.scale = scale;
+		this.chunkSize = Math.max(2, chunkSize);
+		this.deltaT = deltaT;
+		this.lodTolerance = lodTolerance;
+		this.lodMaxPoints = lodMaxPoints;
+	}
+
+	/**
+	 * Start streaming on a new (daemon) thread
+	 */
+	public TrajectoryStreamer start() {
+		Thread thread = new Thread(this, "TrajectoryStreamer-" + this.markerID);
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	@Override
+	public void run() {
+		try {
+			List<Vector3d> chunk = new ArrayList<Vector3d>(this.chunkSize);
+			boolean first = true;
+			double prev_ts = 0;
+			while(!this.cancelled && this.cursor.hasNext()) {
+				BasicDBObject curr_doc = (BasicDBObject) this.cursor.next();
+				final double curr_ts = curr_doc.getDouble("timestamp");
+
+				// if time diff > then deltaT add position to trajectory
+				if(first || curr_ts - prev_ts > this.deltaT) {
+					BasicDBObject pos = (BasicDBObject) curr_doc.get("pos");
+					Vector3d p = new Vector3d();
+					p.x = pos.getDouble("x");
+					p.y = pos.getDouble("y");
+					p.z = pos.getDouble("z");
+					chunk.add(p);
+					prev_ts = curr_ts;
+					first = false;
+					this.nrPoints++;
+				}
+
+				// publish the full chunk, the next one starts with its last point (continuous lines)
+				if(chunk.size() >= this.chunkSize) {
+					this.publishChunk(chunk);
+					Vector3d last = chunk.get(chunk.size() - 1);
+					chunk.clear();
+					chunk.add(last);
+				}
+			}
+			// publish the rest
+			if(!this.cancelled && (chunk.size() > 1 || this.chunkIDs.isEmpty()) && !chunk.isEmpty()) {
+				this.publishChunk(chunk);
+			}
+		} finally {
+			this.cursor.close();
+			this.done = true;
+		}
+	}
+
+	/**
+	 * Publish the points as a new chunk marker
+	 */
+	private void publishChunk(List<Vector3d> chunk) {
+		// reduce the level of detail (if set)
+		List<Vector3d> lod_points = TrajectoryLOD.simplify(chunk, this.lodTolerance, this.lodMaxPoints);
+		List<Point> marker_points = new ArrayList<Point>(lod_points.size());
+		MessageFactory factory = MarkerPublisher.get().getNode().getTopicMessageFactory();
+		for (Vector3d p : lod_points) {
+			Point point = factory.newFromType(Point._TYPE);
+			point.setX(p.x);
+			point.setY(p.y);
+			point.setZ(p.z);
+			marker_points.add(point);
+		}
+
+		// create the marker under the lock, remove() either sees
+		// its id or the chunk is not created at all
+		synchronized(this.chunkIDs) {
+			if(this.cancelled) {
+				return;
+			}
+			final String chunk_id = this.markerID + "_" + this.chunkIDs.size();
+			this.chunkIDs.add(chunk_id);
+			MarkerObject m = MarkerPublisher.get().createMarker(chunk_id);
+			m.setType(this.markerType);
+			m.getMessage().setPoints(marker_points);
+			m.setColor(this.color);
+			m.setScale(new float[] {this.scale, this.scale, this.scale});
+		}
+	}
+
+	/**
+	 * Stop streaming, the already published chunks are kept
+	 */
+	public void cancel() {
+		this.cancelled = true;
+	}
+
+	/**
+	 * Stop streaming and erase the published chunks
+	 */
+	public void remove() {
+		List<String> chunk_ids;
+		synchronized(this.chunkIDs) {
+			this.cancel();
+			chunk_ids = new ArrayList<String>(this.chunkIDs);
+		}
+		for (String chunk_id : chunk_ids) {
+			MarkerPublisher.get().eraseMarker(chunk_id);
+		}
+	}
+
+	/**
+	 * True if the whole cursor has been streamed (or the streamer has been cancelled)
+	 */
+	public boolean isDone() {
+		return this.done;
+	}
+
+	/**
+	 * True if the streamer has been cancelled
+	 */
+	public boolean isCancelled() {
+		return this.cancelled;
+	}
+
+	/**
+	 * Nr of streamed points
+	 */
+	public long getNrPoints() {
+		return this.nrPoints;
+	}
+
+	/**
+	 * Ids of the published chunk markers
+	 */
+	public List<String> getChunkIDs() {
+		synchronized(this.chunkIDs) {
+			return new ArrayList<String>(this.chunkIDs);
+		}
+	}
+}
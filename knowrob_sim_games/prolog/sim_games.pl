@@ -45,7 +45,27 @@
     	sg_load_experiments/1,
     	connect_to_db/1,
     	index_db/1,
+    	prepare_db/2,
     	set_coll/1,
+    	set_traj_sampling/3,
+    	clear_traj_sampling/0,
+    	set_query_parallelism/1,
+    	set_result_cache_size/1,
+    	enable_episode_cache/1,
+    	disable_episode_cache/0,
+    	model_pose_at/4,
+    	model_pose_interp/4,
+    	link_pose_interp/5,
+    	model_traj_resampled/6,
+    	model_pose_at_async/4,
+    	link_pose_at_async/5,
+    	model_traj_async/5,
+    	link_traj_async/6,
+    	sg_query_done/1,
+    	sg_query_join/2,
+    	sg_query_join_all/2,
+    	sg_query_cancel/1,
+    	export_snapshot/2,
     	exp_tag/2,
 
     	
@@ -70,9 +90,25 @@
     	view_links_trajs/9,
     	get_pancake_roundness/4,
     	check_model_flip/5,
+    	get_pancake_roundness_batch/4,
+    	check_model_flip_batch/4,
 
     	sg_marker_remove/1,
-    	sg_marker_remove_all/0
+    	sg_marker_remove_all/0,
+    	sg_marker_lod/2,
+    	stream_model_traj/9,
+    	stream_link_traj/10,
+    	sg_stream_cancel/1,
+    	replay_episode/7,
+    	replay_pause/1,
+    	replay_resume/1,
+    	replay_seek/2,
+    	replay_speed/2,
+    	replay_stop/1,
+    	models_within_radius/5,
+    	models_within_radius_during/6,
+    	first_contacts/7,
+    	contact_pairs_at/4
     ]).
 
 :- rdf_db:rdf_register_ns(owl,    'http://www.w3.org/2002/07/owl#', [keep(true)]).
@@ -272,6 +308,13 @@ index_db(DBName) :-
 	mongo_sim_interface(MongoSim),
 	jpl_call(MongoSim, 'IndexOnTimestamp', [DBName], @void). 
 
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Create the compound indexes of all the collections of the database and
+% check that the standard queries use them (AllIndexed = @(true) / @(false))
+prepare_db(DBName, AllIndexed) :-
+	mongo_sim_interface(MongoSim),
+	jpl_call(MongoSim, 'PrepareDatabase', [DBName], AllIndexed). 
+
 % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
 % Set the collection from which to query
 % TODO make sure the DB is set
@@ -280,6 +323,176 @@ set_coll(Coll) :-
 	jpl_call(MongoSim, 'SetCollection', [Coll], @void).
 
 
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Downsample the trajectory view queries on the server
+% TimeStep = 0.1 (seconds, 0 to use NrSamples)
+% NrSamples = 200 (samples per queried interval)
+% Average = @(true) (mean position per time step instead of the first sample)
+set_traj_sampling(TimeStep, NrSamples, Average) :-
+	mongo_sim_interface(MongoSim),
+	jpl_call(MongoSim, 'SetTrajectorySampling', [TimeStep, NrSamples, Average], @void).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Return all the samples of the trajectory view queries
+clear_traj_sampling :-
+	mongo_sim_interface(MongoSim),
+	jpl_call(MongoSim, 'ClearTrajectorySampling', [], @void).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Split the links trajectories queries into N parallel time slices (1 = serial)
+set_query_parallelism(N) :-
+	mongo_sim_interface(MongoSim),
+	jpl_call(MongoSim, 'SetQueryParallelism', [N], @void).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Max nr of points kept by the view query result cache (0 = off)
+set_result_cache_size(MaxPoints) :-
+	mongo_sim_interface(MongoSim),
+	jpl_call(MongoSim, 'SetResultCacheSize', [MaxPoints], @void).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Keep the whole pose tracks of the queried models/links in memory (budget in MB)
+enable_episode_cache(MaxMB) :-
+	mongo_sim_interface(MongoSim),
+	jpl_call(MongoSim, 'EnableEpisodeCache', [MaxMB], @void).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Disable the episode cache and release the cached tracks
+disable_episode_cache :-
+	mongo_sim_interface(MongoSim),
+	jpl_call(MongoSim, 'DisableEpisodeCache', [], @void).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Get the pose [X,Y,Z,QW,QX,QY,QZ] of the model at the given timestamp (or the most recent one),
+% the timestamps of these queries can be numbers or knowrob timepoints
+% Model = 'Spatula',
+model_pose_at(EpInst, Model, Timestamp, Pose) :-
+	mongo_sim_interface(MongoSim),
+	get_raw_coll_name(EpInst, CollName),
+	set_coll(CollName),
+	jpl_call(MongoSim, 'GetModelPoseAt', [Timestamp, Model], PoseArr),
+	jpl_array_to_list(PoseArr, Pose).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Get the pose of the model at the given timestamp, interpolated
+% between the keyframes before and after it
+model_pose_interp(EpInst, Model, Timestamp, Pose) :-
+	mongo_sim_interface(MongoSim),
+	get_raw_coll_name(EpInst, CollName),
+	set_coll(CollName),
+	jpl_call(MongoSim, 'GetModelPoseInterpolated', [Timestamp, Model], PoseArr),
+	jpl_array_to_list(PoseArr, Pose).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Get the pose of the link at the given timestamp, interpolated
+% between the keyframes before and after it
+link_pose_interp(EpInst, Model, Link, Timestamp, Pose) :-
+	mongo_sim_interface(MongoSim),
+	get_raw_coll_name(EpInst, CollName),
+	set_coll(CollName),
+	jpl_call(MongoSim, 'GetLinkPoseInterpolated', [Timestamp, Model, Link], PoseArr),
+	jpl_array_to_list(PoseArr, Pose).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Get the traj of the model resampled every Step seconds,
+% as a flat list of (T X Y Z QW QX QY QZ)
+model_traj_resampled(EpInst, Model, Start, End, Step, Traj) :-
+	mongo_sim_interface(MongoSim),
+	get_raw_coll_name(EpInst, CollName),
+	set_coll(CollName),
+	jpl_call(MongoSim, 'ResampleModelTrajectory', [Start, End, Step, Model], TrajArr),
+	jpl_array_to_list(TrajArr, Traj).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Get the table of the running async queries
+sg_async_handles(Handles) :-
+	jpl_call('org.knowrob.knowrob_sim_games.AsyncQueryHandles', get, [], Handles).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Keep the future of the async query, unify Handle with its int handle
+sg_async_handle(Future, Handle) :-
+	sg_async_handles(Handles),
+	jpl_call(Handles, 'Register', [Future], Handle).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Start the model_pose_at/4 query without waiting for it,
+% issue several queries, then join their handles, the query
+% keeps the collection of the episode even if it is changed later,
+% the timestamps can be numbers or knowrob timepoints
+model_pose_at_async(EpInst, Model, Timestamp, Handle) :-
+	mongo_sim_interface(MongoSim),
+	get_raw_coll_name(EpInst, CollName),
+	set_coll(CollName),
+	jpl_call(MongoSim, 'GetModelPoseAtAsync', [Timestamp, Model], Future),
+	sg_async_handle(Future, Handle).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Start the query of the pose of the link without waiting for it
+link_pose_at_async(EpInst, Model, Link, Timestamp, Handle) :-
+	mongo_sim_interface(MongoSim),
+	get_raw_coll_name(EpInst, CollName),
+	set_coll(CollName),
+	jpl_call(MongoSim, 'GetLinkPoseAtAsync', [Timestamp, Model, Link], Future),
+	sg_async_handle(Future, Handle).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Start the query of the traj of the model (T X Y Z QW QX QY QZ ..) without waiting for it
+model_traj_async(EpInst, Model, Start, End, Handle) :-
+	mongo_sim_interface(MongoSim),
+	get_raw_coll_name(EpInst, CollName),
+	set_coll(CollName),
+	jpl_call(MongoSim, 'GetModelTrajectoryAsync', [Start, End, Model], Future),
+	sg_async_handle(Future, Handle).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Start the query of the traj of the link without waiting for it
+link_traj_async(EpInst, Model, Link, Start, End, Handle) :-
+	mongo_sim_interface(MongoSim),
+	get_raw_coll_name(EpInst, CollName),
+	set_coll(CollName),
+	jpl_call(MongoSim, 'GetLinkTrajectoryAsync', [Start, End, Model, Link], Future),
+	sg_async_handle(Future, Handle).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Check (without blocking) if the async query finished
+sg_query_done(Handle) :-
+	sg_async_handles(Handles),
+	jpl_call(Handles, 'IsDone', [Handle], @(true)).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Wait for the async query and get its result as list,
+% fails if the query failed or was cancelled
+sg_query_join(Handle, Result) :-
+	sg_async_handles(Handles),
+	jpl_call(Handles, 'Join', [Handle], ResultArr),
+	ResultArr \= @(null),
+	jpl_array_to_list(ResultArr, Result).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Wait for all the async queries, the results are in the order of the handles,
+% all the handles are released, fails afterwards if any of the queries failed
+sg_query_join_all(HandleList, Results) :-
+	sg_async_handles(Handles),
+	jpl_new(array(int), HandleList, HandleArr),
+	jpl_call(Handles, 'JoinAll', [HandleArr], ResultsArr),
+	jpl_array_to_list(ResultsArr, ResultArrs),
+	\+ memberchk(@(null), ResultArrs),
+	maplist(jpl_array_to_list, ResultArrs, Results).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Cancel the async query (if it did not start yet) and release its handle
+sg_query_cancel(Handle) :-
+	sg_async_handles(Handles),
+	jpl_call(Handles, 'Cancel', [Handle], @void).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %   
+% Export the given collection into a memory mapped binary snapshot file
+export_snapshot(CollName, Path) :-
+	mongo_sim_interface(MongoSim),
+	set_coll(CollName),
+	jpl_call(MongoSim, 'ExportSnapshot', [Path], @void).
+
+
 % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
 % Get the tag of the given experiment instance	
 exp_tag(EpInst, ExpTag) :-
@@ -328,6 +541,116 @@ view_model_traj(EpInst, Model, Start, End, MarkerID, MarkerType, Color, Scale, D
 	jpl_call(MongoSim, 'ViewModelTrajectory', 
 		[Start, End, Model, MarkerID, MarkerType, Color, Scale, DT], @void).
 
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Stream the traj of the model as chunk markers while the query results arrive
+% Model = 'Spatula', 
+% DT = 0.01 (seconds)
+stream_model_traj(EpInst, Model, Start, End, MarkerID, MarkerType, Color, Scale, DT) :-
+	mongo_sim_interface(MongoSim),
+	get_raw_coll_name(EpInst, CollName),
+	set_coll(CollName),
+	jpl_call(MongoSim, 'StreamModelTrajectory', 
+		[Start, End, Model, MarkerID, MarkerType, Color, Scale, DT], _).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Stream the traj of the link as chunk markers while the query results arrive
+stream_link_traj(EpInst, Model, Link, Start, End, MarkerID, MarkerType, Color, Scale, DT) :-
+	mongo_sim_interface(MongoSim),
+	get_raw_coll_name(EpInst, CollName),
+	set_coll(CollName),
+	jpl_call(MongoSim, 'StreamLinkTrajectory', 
+		[Start, End, Model, Link, MarkerID, MarkerType, Color, Scale, DT], _).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Stop streaming the traj with the given marker id
+sg_stream_cancel(MarkerID) :-
+	mongo_sim_interface(MongoSim),
+	jpl_call(MongoSim, 'CancelStream', [MarkerID], @void).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Replay the links meshes of the model between Start and End
+% Speed = 1.0 (real time), 2.0, ..
+replay_episode(EpInst, Model, Start, End, MeshFolderPath, MarkerID, Speed) :-
+	mongo_sim_interface(MongoSim),
+	get_raw_coll_name(EpInst, CollName),
+	set_coll(CollName),
+	jpl_call(MongoSim, 'ReplayEpisode', 
+		[Start, End, Model, MeshFolderPath, MarkerID, Speed], _).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Pause the replay with the given marker id
+replay_pause(MarkerID) :-
+	mongo_sim_interface(MongoSim),
+	jpl_call(MongoSim, 'PauseReplay', [MarkerID], @void).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Resume the replay with the given marker id
+replay_resume(MarkerID) :-
+	mongo_sim_interface(MongoSim),
+	jpl_call(MongoSim, 'ResumeReplay', [MarkerID], @void).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Continue the replay with the given marker id from the timepoint
+replay_seek(MarkerID, Ts) :-
+	mongo_sim_interface(MongoSim),
+	jpl_call(MongoSim, 'SeekReplay', [MarkerID, Ts], @void).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Set the playback speed of the replay with the given marker id
+replay_speed(MarkerID, Speed) :-
+	mongo_sim_interface(MongoSim),
+	jpl_call(MongoSim, 'SetReplaySpeed', [MarkerID, Speed], @void).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Stop the replay with the given marker id, the meshes are kept
+replay_stop(MarkerID) :-
+	mongo_sim_interface(MongoSim),
+	jpl_call(MongoSim, 'StopReplay', [MarkerID], @void).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Get the models within Radius (m) of the model at the given time
+models_within_radius(EpInst, Model, Ts, Radius, Models) :-
+	mongo_sim_interface(MongoSim),
+	get_raw_coll_name(EpInst, CollName),
+	set_coll(CollName),
+	jpl_call(MongoSim, 'GetModelsWithinRadius', [Ts, Model, Radius], ModelsArr),
+	jpl_array_to_list(ModelsArr, Models).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Get the models which came within Radius (m) of the model between Start and End
+models_within_radius_during(EpInst, Model, Start, End, Radius, Models) :-
+	mongo_sim_interface(MongoSim),
+	get_raw_coll_name(EpInst, CollName),
+	set_coll(CollName),
+	jpl_call(MongoSim, 'GetModelsWithinRadiusDuring', [Start, End, Model, Radius], ModelsArr),
+	jpl_array_to_list(ModelsArr, Models).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Get the timestamps when the Others first came within Radius (m) of the model,
+% -1 if they never did
+% Others = ['Spatula', 'LiquidTank']
+first_contacts(EpInst, Model, Others, Start, End, Radius, Contacts) :-
+	mongo_sim_interface(MongoSim),
+	get_raw_coll_name(EpInst, CollName),
+	set_coll(CollName),
+	jpl_list_to_array(Others, OthersArr),
+	jpl_call(MongoSim, 'GetFirstContacts', [Start, End, Model, OthersArr, Radius], ContactsArr),
+	jpl_array_to_list(ContactsArr, Contacts).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Get all the pairs (A-B) of models within Radius (m) of each other at the given time
+contact_pairs_at(EpInst, Ts, Radius, Pairs) :-
+	mongo_sim_interface(MongoSim),
+	get_raw_coll_name(EpInst, CollName),
+	set_coll(CollName),
+	jpl_call(MongoSim, 'GetContactPairsAt', [Ts, Radius], PairsArr),
+	jpl_array_to_list(PairsArr, Flat),
+	sg_pairs(Flat, Pairs).
+
+sg_pairs([], []).
+sg_pairs([A, B|Rest], [A-B|Pairs]) :-
+	sg_pairs(Rest, Pairs).
+
 % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
 % View the mesh of the model at the given time
 % Model = 'Spatula', 
@@ -511,6 +834,30 @@ check_model_flip(EpInst, Model, Start, End, Flip) :-
 	jpl_call(MongoSim, 'CheckModelFlip', 
 		[Start, End, Model], Flip).
 
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% Get the roundness at all the timestamps with a single query
+% Model = 'LiquidTangibleThing', 
+get_pancake_roundness_batch(EpInst, Model, Timestamps, Roundnesses) :-
+	mongo_sim_interface(MongoSim),
+	get_raw_coll_name(EpInst, CollName),
+	set_coll(CollName),
+	jpl_list_to_array(Timestamps, TimestampsArr),
+	jpl_call(MongoSim, 'GetPancakeRoundnessBatch', 
+		[TimestampsArr, Model], RoundnessArr),
+	jpl_array_to_list(RoundnessArr, Roundnesses).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% check at every timestamp if the model has been flipped relative to the first one
+% Model = 'LiquidTangibleThing'
+check_model_flip_batch(EpInst, Model, Timestamps, Flips) :-
+	mongo_sim_interface(MongoSim),
+	get_raw_coll_name(EpInst, CollName),
+	set_coll(CollName),
+	jpl_list_to_array(Timestamps, TimestampsArr),
+	jpl_call(MongoSim, 'CheckModelFlipBatch', 
+		[TimestampsArr, Model], FlipArr),
+	jpl_array_to_list(FlipArr, Flips).
+
 % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
 % remove the marker witht he given ID
 % MarkerID = 'coll_traj_id'
@@ -522,4 +869,14 @@ sg_marker_remove(MarkerID) :-
 % remove all markers created in sg
 sg_marker_remove_all :-
   	mongo_sim_interface(MongoSim),
-    jpl_call(MongoSim, 'RemoveAllMarkers', [], @void).
\ No newline at end of file
+    jpl_call(MongoSim, 'RemoveAllMarkers', [], @void).
+
+% % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % % %  
+% set the level of detail of the trajectory markers, points within
+% Tolerance (m) of the simplified trajectory are dropped, at most
+% MaxPoints are kept (0 = off)
+% Tolerance = 0.005
+% MaxPoints = 500
+sg_marker_lod(Tolerance, MaxPoints) :-
+	mongo_sim_interface(MongoSim),
+	jpl_call(MongoSim, 'SetMarkerLOD', [Tolerance, MaxPoints], @void).
\ No newline at end of file